@@ -0,0 +1,395 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+
+/**
+ * AntiEntropy Class.
+ *
+ * Brings the local provider up to date with the remote providers,
+ * exchanging only the ranges of ticket-ids that differ.
+ *
+ * Providers keep a hash tree over the ids, versions and checksums of
+ * their tickets. The roots are compared first, when they differ the
+ * leaves are, and only for the leaves that differ the ticket-ids and
+ * versions are fetched (cas.getVersions). Tickets missing locally, with
+ * a lower local version, or with the same version but another checksum
+ * are copied, tickets deleted remotely are deleted. Copies of the same
+ * version are ordered by the provider (see VersionedTicketStore), so
+ * both sides keep the same write.
+ * The cost of a resync is proportional to the divergence, not to the
+ * number of tickets.
+ *
+ * Every broker only repairs its local provider; the other brokers
+ * repair theirs. A resync is started when the local provider or a
+ * remote provider becomes available again, and every interval ms.
+ */
+final class AntiEntropy extends Thread {
+
+    /**
+     * Depth of the leaves of the hash tree kept by the providers.
+     */
+    static final int LEAF_DEPTH = 10;
+
+    /**
+     * Number of leaves of the hash tree.
+     */
+    static final int LEAVES = 1 << LEAF_DEPTH;
+
+    /**
+     * Maximum number of leaves per cas.getVersions request.
+     */
+    static final int MAX_RANGES = 64;
+
+    /**
+     * Maximum number of tickets per copy request.
+     */
+    static final int MAX_BATCH = 500;
+
+    /**
+     * Interval between availability checks (ms).
+     */
+    static final int CHECK_INTERVAL = 1000;
+
+    /**
+     * Logging Class.
+     */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final RegistryBroker broker;
+
+    private final RegistryClient localProvider;
+
+    private final RegistryClient[] remoteProviders;
+
+    private final Object lock = new Object();
+
+    private boolean running = true;
+
+    private final int interval;
+
+    private static int NR = 0;
+
+    private static Object NRLOCK = new Object();
+
+    /**
+     * Create an AntiEntropy thread.
+     *
+     * @param broker            broker, deciding on the placement of tickets.
+     * @param localProvider     provider to bring up to date.
+     * @param remoteProviders   providers to compare with.
+     * @param interval          interval between full resyncs (ms).
+     */
+    AntiEntropy(
+            final RegistryBroker broker,
+            final RegistryClient localProvider,
+            final RegistryClient[] remoteProviders,
+            final int interval) {
+        this.broker = broker;
+        this.localProvider = localProvider;
+        this.remoteProviders = remoteProviders;
+        this.interval = interval;
+
+        synchronized(NRLOCK) {
+            NR++;
+            this.setName("AntiEntropy-"+NR);
+        }
+        this.setDaemon(true);
+    }
+
+    /**
+     * Return the interval between full resyncs.
+     *
+     * @return interval (ms).
+     */
+    int getInterval() {
+        return this.interval;
+    }
+
+    /**
+     * Run the resyncs.
+     */
+    public void run() {
+        boolean[] available = new boolean[this.remoteProviders.length];
+        boolean[] due = new boolean[this.remoteProviders.length];
+        boolean localAvailable = this.localProvider.getAvailable();
+        long next = System.currentTimeMillis() + this.interval;
+
+        for (int i = 0; i < available.length; ++i) {
+            available[i] = this.remoteProviders[i].getAvailable();
+        }
+
+        while (true) {
+            boolean all = false;
+            long now;
+
+            synchronized(this.lock) {
+                try {
+                    if (this.running) {
+                        this.lock.wait(CHECK_INTERVAL);
+                    }
+                } catch (final InterruptedException e) {
+                    break;
+                }
+                if (!this.running) {
+                    break;
+                }
+            }
+
+            /* The local provider missed writes while it was unavailable */
+            if (!this.localProvider.getAvailable()) {
+                localAvailable = false;
+                continue;
+            }
+            if (!localAvailable) {
+                localAvailable = true;
+                all = true;
+            }
+
+            now = System.currentTimeMillis();
+            if (now >= next) {
+                next = now + this.interval;
+                all = true;
+            }
+
+            for (int i = 0; i < available.length; ++i) {
+                boolean current = this.remoteProviders[i].getAvailable();
+
+                /* Rejoined, writes may have been missed on either side */
+                if (current && !available[i]) {
+                    due[i] = true;
+                }
+                available[i] = current;
+
+                if (current && (all || due[i])) {
+                    try {
+                        this.resync(this.remoteProviders[i]);
+                        due[i] = false;
+                    } catch (final JSONRPCException e) {
+                        logger.warn("Resync from {} failed: {}",
+                                this.remoteProviders[i].getConnectURI(), e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Resync the local provider from all available remote providers.
+     *
+     * @return number of tickets copied or deleted.
+     */
+    int resyncAll() {
+        int changed = 0;
+
+        for (RegistryClient provider: this.remoteProviders) {
+            if (!provider.getAvailable()) {
+                continue;
+            }
+            try {
+                changed += this.resync(provider);
+            } catch (final JSONRPCException e) {
+                logger.warn("Resync from {} failed: {}", provider.getConnectURI(), e.getMessage());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Resync the local provider from a remote provider.
+     *
+     * Tickets only present locally are left alone, the broker
+     * of the remote provider copies them when it resyncs.
+     *
+     * @param provider  remote provider.
+     *
+     * @return number of tickets copied or deleted.
+     *
+     * @throws JSONRPCException when the providers can not be compared.
+     */
+    int resync(final RegistryClient provider) throws JSONRPCException {
+        return this.resync(provider, this.localProvider);
+    }
+
+    /**
+     * Resync a provider from another provider.
+     *
+     * Only tickets placed on the target are copied.
+     *
+     * @param source    provider to copy from.
+     * @param target    provider to bring up to date.
+     *
+     * @return number of tickets copied or deleted.
+     *
+     * @throws JSONRPCException when the providers can not be compared.
+     */
+    int resync(final RegistryClient source, final RegistryClient target)
+            throws JSONRPCException {
+        if (!source.getVersionsSupported() || !target.getVersionsSupported()) {
+            return 0;
+        }
+
+        if (source.getDigest(0)[0] == target.getDigest(0)[0]) {
+            return 0;
+        }
+
+        return this.resync(source, target, 0, LEAVES);
+    }
+
+    /**
+     * Resync a slice of the leaves of the hash tree
+     * from another provider.
+     *
+     * Both providers must keep versions.
+     *
+     * @param source    provider to copy from.
+     * @param target    provider to bring up to date.
+     * @param from      first leaf.
+     * @param to        leaf following the last leaf.
+     *
+     * @return number of tickets copied or deleted.
+     *
+     * @throws JSONRPCException when the providers can not be compared.
+     */
+    int resync(
+            final RegistryClient source,
+            final RegistryClient target,
+            final int from,
+            final int to)
+            throws JSONRPCException {
+        List<Integer> ranges = new ArrayList<Integer>();
+        long[] local = target.getDigest(LEAF_DEPTH);
+        long[] remote = source.getDigest(LEAF_DEPTH);
+        int changed = 0;
+
+        for (int i = from; i < to; ++i) {
+            if (local[i] != remote[i]) {
+                ranges.add(i);
+            }
+        }
+
+        for (int i = 0; i < ranges.size(); i += MAX_RANGES) {
+            changed += this.resync(source, target,
+                    ranges.subList(i, Math.min(ranges.size(), i + MAX_RANGES)));
+        }
+
+        logger.info("Resynced {} tickets in {} ranges from {} to {}",
+                changed, ranges.size(), source.getConnectURI(), target.getConnectURI());
+        return changed;
+    }
+
+    /**
+     * Resync a set of ranges from a provider.
+     *
+     * @param source    provider to copy from.
+     * @param target    provider to bring up to date.
+     * @param ranges    leaves of the hash tree that differ.
+     *
+     * @return number of tickets copied or deleted.
+     *
+     * @throws JSONRPCException when the ranges can not be copied.
+     */
+    private int resync(
+            final RegistryClient source,
+            final RegistryClient target,
+            final List<Integer> ranges)
+            throws JSONRPCException {
+        VersionList local = target.getVersions(ranges);
+        VersionList remote = source.getVersions(ranges);
+        Map<String, Long> versions = new HashMap<String, Long>();
+        Map<String, Long> checksums = new HashMap<String, Long>();
+        List<String> copies = new ArrayList<String>();
+        List<String> deletes = new ArrayList<String>();
+        int changed = 0;
+
+        for (int i = 0; i < local.size(); ++i) {
+            versions.put(local.getTicketId(i), local.getVersion(i));
+            checksums.put(local.getTicketId(i), local.getChecksum(i));
+        }
+
+        for (int i = 0; i < remote.size(); ++i) {
+            String ticketId = remote.getTicketId(i);
+            Long version = versions.get(ticketId);
+
+            if (remote.getVersion(i) == VersionList.DELETED) {
+                if (version != null && version != VersionList.DELETED) {
+                    deletes.add(ticketId);
+                }
+            } else if (version == null) {
+                if (this.broker.isPlaced(ticketId, remote.getParentId(i), target)) {
+                    copies.add(ticketId);
+                }
+            } else if (version != VersionList.DELETED && version < remote.getVersion(i)) {
+                copies.add(ticketId);
+            } else if (version == remote.getVersion(i)
+                    && this.differs(checksums.get(ticketId), remote.getChecksum(i))) {
+                copies.add(ticketId);
+            }
+        }
+
+        for (int i = 0; i < copies.size(); i += MAX_BATCH) {
+            TicketPage page = source.getTicketsPageById(
+                    copies.subList(i, Math.min(copies.size(), i + MAX_BATCH)));
+
+            if (page.size() > 0) {
+                target.updateTickets(page);
+                changed += page.size();
+            }
+        }
+        if (!deletes.isEmpty()) {
+            changed += target.deleteTickets(deletes);
+        }
+        return changed;
+    }
+
+    /**
+     * Return whether two checksums of a ticket differ.
+     *
+     * Checksum 0 is reported by providers that do not keep checksums.
+     *
+     * @param local     local checksum.
+     * @param remote    remote checksum.
+     *
+     * @return true when both are known and differ.
+     */
+    private boolean differs(final long local, final long remote) {
+        return local != 0 && remote != 0 && local != remote;
+    }
+
+    /**
+     * Stop the thread and wait for it to exit.
+     */
+    void cleanup() {
+        synchronized(this.lock) {
+            this.running = false;
+            this.lock.notifyAll();
+        }
+        try {
+            this.join();
+        } catch (final InterruptedException e) {
+            logger.debug(e.toString());
+        }
+    }
+}
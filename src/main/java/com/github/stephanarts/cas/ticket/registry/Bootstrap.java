@@ -0,0 +1,337 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.json.JSONArray;
+
+import org.jasig.cas.ticket.Ticket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+
+/**
+ * Bootstrap Class.
+ *
+ * Copies the tickets of the remote providers to the local provider
+ * when a broker starts.
+ *
+ * When all available providers keep ticket versions, the tickets
+ * are copied from all of them in parallel (see parallel). Tickets
+ * the local provider already holds (loaded from a snapshot) are not
+ * copied again.
+ *
+ * Otherwise tickets are copied from the first available provider,
+ * one page of pageSize tickets at a time, without decoding them.
+ * Providers that do not support paging send all tickets at once.
+ *
+ * When partitioned, every provider only holds part of the tickets.
+ * The tickets placed on the local provider are then copied from
+ * all available providers.
+ */
+final class Bootstrap {
+
+    /**
+     * Logging Class.
+     */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final RegistryBroker broker;
+
+    private final RegistryClient localProvider;
+
+    private final RegistryClient[] remoteProviders;
+
+    private final ExecutorService executor;
+
+    private final int pageSize;
+
+    private final boolean partitioned;
+
+    /**
+     * Create a Bootstrap.
+     *
+     * @param broker            broker, deciding on the placement of tickets.
+     * @param localProvider     provider to copy the tickets to.
+     * @param remoteProviders   providers to copy the tickets from.
+     * @param executor          executor running the parallel copies.
+     * @param pageSize          number of tickets per page.
+     * @param partitioned       true if every provider holds
+     *                          part of the tickets.
+     */
+    Bootstrap(
+            final RegistryBroker broker,
+            final RegistryClient localProvider,
+            final RegistryClient[] remoteProviders,
+            final ExecutorService executor,
+            final int pageSize,
+            final boolean partitioned) {
+        this.broker = broker;
+        this.localProvider = localProvider;
+        this.remoteProviders = remoteProviders;
+        this.executor = executor;
+        this.pageSize = pageSize;
+        this.partitioned = partitioned;
+    }
+
+    /**
+     * Copy the tickets of the available remote providers.
+     *
+     * @return true if the tickets of at least one provider were copied.
+     */
+    boolean run() {
+        List<RegistryClient> peers = new ArrayList<RegistryClient>();
+        boolean versions = this.localProvider.getVersionsSupported();
+
+        for (RegistryClient provider: this.remoteProviders) {
+            if (!provider.getAvailable()) {
+                logger.debug("Provider "+provider.getConnectURI()+" is not available");
+                continue;
+            }
+            peers.add(provider);
+            versions = versions && provider.getVersionsSupported();
+        }
+
+        if (!peers.isEmpty() && versions) {
+            return this.parallel(peers);
+        }
+        return this.sequential(peers);
+    }
+
+    /**
+     * Copy the tickets from one provider after another.
+     *
+     * @param peers     available remote providers.
+     *
+     * @return true if the tickets of at least one provider were copied.
+     */
+    boolean sequential(final List<RegistryClient> peers) {
+        boolean bootstrapped = false;
+
+        for (RegistryClient provider: peers) {
+            try {
+                if (provider.getPagingSupported()
+                        && this.localProvider.getPagingSupported()) {
+                    this.paged(provider);
+                } else {
+                    this.all(provider);
+                }
+            } catch (final JSONRPCException e) {
+                logger.error("Provider '"+provider.getConnectURI()+"': "+e.getMessage());
+                continue;
+            }
+
+            /* Bootstrap success */
+            bootstrapped = true;
+            if (!this.partitioned) {
+                break;
+            }
+        }
+        return bootstrapped;
+    }
+
+    /**
+     * Copy the tickets from all providers in parallel.
+     *
+     * The ticket-ids are split over the providers by the leaves of the
+     * hash tree (see AntiEntropy): each provider gets a slice of the
+     * leaves, and each slice is copied in a worker thread, which writes
+     * to the local provider as it goes. When a provider fails, the next
+     * provider takes over its slice. Leaves the local provider already
+     * holds in the same versions are skipped.
+     *
+     * When partitioned, providers hold different tickets, so every
+     * provider is copied in full, still in parallel.
+     *
+     * @param peers     available remote providers.
+     *
+     * @return true if at least one slice was copied.
+     */
+    boolean parallel(final List<RegistryClient> peers) {
+        final AntiEntropy resync = new AntiEntropy(
+                this.broker, this.localProvider, this.remoteProviders, 0);
+        final List<Future<Integer>> slices = new ArrayList<Future<Integer>>();
+        final int n = peers.size();
+        boolean bootstrapped = false;
+        int count = 0;
+
+        for (int i = 0; i < n; ++i) {
+            final int first = i;
+            final int from = this.partitioned ? 0 : AntiEntropy.LEAVES * i / n;
+            final int to = this.partitioned ? AntiEntropy.LEAVES : AntiEntropy.LEAVES * (i + 1) / n;
+
+            slices.add(this.executor.submit(new Callable<Integer>() {
+                public Integer call() throws JSONRPCException {
+                    return slice(resync, peers, first, from, to);
+                }
+            }));
+        }
+
+        for (Future<Integer> slice: slices) {
+            try {
+                count += slice.get();
+                bootstrapped = true;
+            } catch (final ExecutionException e) {
+                logger.error("Bootstrap failed: "+e.getCause().getMessage());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        logger.debug("Bootstrapped {} tickets from {} providers", count, n);
+        return bootstrapped;
+    }
+
+    /**
+     * Copy a slice of the tickets, from the providers in turn
+     * until one succeeds.
+     *
+     * When partitioned only the first provider is asked,
+     * the other providers copy their tickets themselves.
+     *
+     * @param resync    AntiEntropy used to copy the slice.
+     * @param peers     available remote providers.
+     * @param first     index of the provider to ask first.
+     * @param from      first leaf of the slice.
+     * @param to        leaf following the slice.
+     *
+     * @return number of tickets copied or deleted.
+     *
+     * @throws JSONRPCException when no provider could copy the slice.
+     */
+    private int slice(
+            final AntiEntropy resync,
+            final List<RegistryClient> peers,
+            final int first,
+            final int from,
+            final int to)
+            throws JSONRPCException {
+        int tries = this.partitioned ? 1 : peers.size();
+        JSONRPCException error = null;
+
+        for (int i = 0; i < tries; ++i) {
+            RegistryClient provider = peers.get((first + i) % peers.size());
+
+            try {
+                return resync.resync(provider, this.localProvider, from, to);
+            } catch (final JSONRPCException e) {
+                logger.warn("Provider '"+provider.getConnectURI()+"': "+e.getMessage());
+                error = e;
+            }
+        }
+        throw error;
+    }
+
+    /**
+     * Copy the tickets of a provider to the local provider,
+     * one page at a time.
+     *
+     * Tickets already present in the local provider are kept,
+     * so an interrupted bootstrap can simply be repeated.
+     *
+     * @param provider  provider to copy the tickets from.
+     *
+     * @throws JSONRPCException when a page can not be copied.
+     */
+    private void paged(final RegistryClient provider)
+            throws JSONRPCException {
+        String cursor = null;
+        int count = 0;
+
+        do {
+            TicketPage page = provider.getTicketsPage(cursor, this.pageSize);
+
+            if (this.partitioned) {
+                page = this.getLocalTickets(page);
+            }
+            if (page.size() > 0) {
+                count += this.localProvider.addTickets(page);
+            }
+            cursor = page.getCursor();
+        } while (cursor != null);
+
+        logger.debug("Bootstrapped {} tickets from {}", count, provider.getConnectURI());
+    }
+
+    /**
+     * Copy the tickets of a provider to the local provider,
+     * all at once.
+     *
+     * @param provider  provider to copy the tickets from.
+     *
+     * @throws JSONRPCException when the tickets can not be copied.
+     */
+    private void all(final RegistryClient provider)
+            throws JSONRPCException {
+        for(Ticket ticket: provider.getTickets()) {
+            if (!this.broker.isPlaced(ticket, this.localProvider)) {
+                continue;
+            }
+            try {
+                this.localProvider.addTicket(ticket);
+            } catch (final JSONRPCException e) {
+                /* Keep the ticket already present */
+                if (e.getCode() != -32502) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the tickets of a page that are placed on the local provider.
+     *
+     * With the TGT PlacementPolicy a ticket is placed by its parent-id.
+     * This is the TGT, except for proxy tickets, which are granted by
+     * a proxy granting ticket: those are copied if the PGT is local.
+     *
+     * @param page  page of tickets.
+     *
+     * @return page containing the local tickets.
+     */
+    TicketPage getLocalTickets(final TicketPage page) {
+        JSONArray ticketIds = new JSONArray();
+        JSONArray parentIds = new JSONArray();
+        JSONArray versions = new JSONArray();
+        JSONArray tickets = new JSONArray();
+
+        for (int i = 0; i < page.size(); ++i) {
+            String ticketId = page.getTicketIds().getString(i);
+            String parentId = page.getParentIds().optString(i, "");
+
+            if (this.broker.isPlaced(ticketId, parentId.length() > 0 ? parentId : null, this.localProvider)) {
+                ticketIds.put(ticketId);
+                parentIds.put(page.getParentIds().get(i));
+                if (page.getVersions().length() > 0) {
+                    versions.put(page.getVersions().get(i));
+                }
+                tickets.put(page.getTickets().get(i));
+            }
+        }
+
+        return new TicketPage(page.getCodec(), ticketIds, parentIds, versions, tickets, page.getCursor());
+    }
+}
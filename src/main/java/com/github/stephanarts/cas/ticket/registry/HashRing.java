@@ -0,0 +1,144 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * HashRing Class.
+ *
+ * Consistent-hash ring over provider URIs. Every provider is placed
+ * on the ring VIRTUAL_NODES times, a key is owned by the providers
+ * that follow its hash clockwise.
+ *
+ * The ring only depends on the configured provider URIs, which do not
+ * change when a provider restarts. All brokers configured with the
+ * same list of providers place a key on the same providers.
+ */
+final class HashRing {
+
+    /**
+     * Number of positions per provider on the ring.
+     */
+    static final int VIRTUAL_NODES = 128;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Ring positions, mapped to the index of the provider.
+     */
+    private final TreeMap<Long, Integer> ring = new TreeMap<Long, Integer>();
+
+    private final int nodes;
+
+    /**
+     * Create a HashRing.
+     *
+     * @param providerUris  provider URIs, null for providers left out.
+     */
+    HashRing(final String[] providerUris) {
+        int n = 0;
+
+        for (int i = 0; i < providerUris.length; ++i) {
+            if (providerUris[i] == null) {
+                continue;
+            }
+            for (int v = 0; v < VIRTUAL_NODES; ++v) {
+                this.ring.put(hash(providerUris[i] + "#" + v), i);
+            }
+            n++;
+        }
+        this.nodes = n;
+    }
+
+    /**
+     * Return the providers owning a key.
+     *
+     * @param key       key to place (ticket-id).
+     * @param replicas  number of providers.
+     *
+     * @return indexes of the providers, primary owner first.
+     */
+    List<Integer> getOwners(final String key, final int replicas) {
+        List<Integer> owners = new ArrayList<Integer>(replicas);
+        int n = Math.min(replicas, this.nodes);
+
+        if (n == 0) {
+            return owners;
+        }
+
+        long h = hash(key);
+
+        for (Map.Entry<Long, Integer> entry: this.ring.tailMap(h).entrySet()) {
+            if (!owners.contains(entry.getValue())) {
+                owners.add(entry.getValue());
+                if (owners.size() == n) {
+                    return owners;
+                }
+            }
+        }
+        for (Map.Entry<Long, Integer> entry: this.ring.headMap(h).entrySet()) {
+            if (!owners.contains(entry.getValue())) {
+                owners.add(entry.getValue());
+                if (owners.size() == n) {
+                    return owners;
+                }
+            }
+        }
+        return owners;
+    }
+
+    /**
+     * Return the number of providers on the ring.
+     *
+     * @return number of providers.
+     */
+    int size() {
+        return this.nodes;
+    }
+
+    /**
+     * Hash a key to a position on the ring.
+     *
+     * Uses the first 8 bytes of the MD5 digest, which spreads
+     * similar keys (ticket-ids with a common prefix) evenly.
+     *
+     * @param key   key to hash.
+     *
+     * @return position on the ring.
+     */
+    static long hash(final String key) {
+        byte[] digest;
+        long h = 0;
+
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(key.getBytes(UTF8));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        for (int i = 0; i < 8; ++i) {
+            h = (h << 8) | (digest[i] & 0xff);
+        }
+        return h;
+    }
+}
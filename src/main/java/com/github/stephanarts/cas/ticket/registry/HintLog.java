@@ -0,0 +1,563 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+
+import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodec;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+import com.github.stephanarts.cas.ticket.registry.support.TicketVersion;
+
+/**
+ * HintLog Class.
+ *
+ * Write-ahead log of the writes a provider missed while it was not
+ * available, replayed once it is available again (hinted handoff).
+ *
+ * The log is a memory-mapped file of a fixed size, so it survives a
+ * restart of the broker and does not grow the heap while a provider
+ * is down. Records hold the encoded ticket (or a delete), and are
+ * replayed in batches of at most MAX_BATCH records, keeping the
+ * latest write per ticket. Replayed writes carry the ticket version,
+ * the provider ignores those it has a newer version of.
+ *
+ * When the log is full it is marked as overflowed and further writes
+ * are dropped. An overflowed log is not replayed, the provider is
+ * resynced from the local provider instead.
+ *
+ * Layout: a header (magic, read position, write position, number of
+ * records, overflow flag), followed by length-prefixed records.
+ */
+final class HintLog extends Thread {
+
+    /**
+     * Maximum number of records per replayed batch.
+     */
+    static final int MAX_BATCH = 500;
+
+    /**
+     * Time to wait before checking the provider again (ms).
+     */
+    static final int RETRY_INTERVAL = 1000;
+
+    /**
+     * Size of the header.
+     */
+    static final int HEADER = 32;
+
+    /**
+     * Smallest size of a log.
+     */
+    static final int MIN_SIZE = 4096;
+
+    private static final int MAGIC = 0x48494e54;
+
+    private static final byte UPDATE = 1;
+
+    private static final byte DELETE = 2;
+
+    private static final byte DELETE_CASCADE = 3;
+
+    /**
+     * Logging Class.
+     */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final RegistryBroker broker;
+
+    private final RegistryClient client;
+
+    private final File file;
+
+    private final RandomAccessFile raf;
+
+    private final MappedByteBuffer buffer;
+
+    private final Object lock = new Object();
+
+    private int readPos;
+
+    private int writePos;
+
+    private int records;
+
+    /**
+     * Position following the last record read.
+     */
+    private int nextPos;
+
+    private boolean overflowed;
+
+    private boolean running = true;
+
+    private static int NR = 0;
+
+    private static Object NRLOCK = new Object();
+
+    /**
+     * A write read back from the log.
+     */
+    private static final class Record {
+
+        private byte type;
+
+        private String ticketId;
+
+        private String parentId;
+
+        private long version;
+
+        private TicketCodec codec;
+
+        private byte[] data;
+    }
+
+    /**
+     * Open or create a HintLog.
+     *
+     * A valid log is continued, other files are overwritten.
+     *
+     * @param broker    broker, resyncing the provider on overflow.
+     * @param client    provider the log is kept for.
+     * @param file      file backing the log.
+     * @param size      size of the log (bytes).
+     *
+     * @throws IOException when the file can not be mapped.
+     */
+    HintLog(
+            final RegistryBroker broker,
+            final RegistryClient client,
+            final File file,
+            final int size) throws IOException {
+        this.broker = broker;
+        this.client = client;
+        this.file = file;
+
+        if (size < MIN_SIZE) {
+            throw new IllegalArgumentException("Invalid hint log size: " + size);
+        }
+
+        this.raf = new RandomAccessFile(file, "rw");
+        try {
+            this.raf.setLength(size);
+            this.buffer = this.raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (final IOException e) {
+            this.raf.close();
+            throw e;
+        }
+
+        this.readPos = this.buffer.getInt(4);
+        this.writePos = this.buffer.getInt(8);
+        this.records = this.buffer.getInt(12);
+        this.overflowed = this.buffer.get(16) != 0;
+
+        if (this.buffer.getInt(0) != MAGIC
+                || this.readPos < HEADER || this.readPos > this.writePos
+                || this.writePos > size || this.records < 0) {
+            this.buffer.putInt(0, MAGIC);
+            this.reset();
+        } else if (this.records > 0 || this.overflowed) {
+            logger.info("Resuming {} hints for {}", this.records, client.getConnectURI());
+        }
+
+        synchronized(NRLOCK) {
+            NR++;
+            this.setName("HintLog-"+NR);
+        }
+        this.setDaemon(true);
+    }
+
+    /**
+     * Return the provider this log is kept for.
+     *
+     * @return provider.
+     */
+    RegistryClient getClient() {
+        return this.client;
+    }
+
+    /**
+     * Return the file backing the log.
+     *
+     * @return file.
+     */
+    File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Log an add or update of a ticket.
+     *
+     * @param ticket    CAS Ticket object.
+     * @param codec     Codec to encode the ticket with.
+     */
+    void update(final Ticket ticket, final TicketCodec codec) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        TicketGrantingTicket parent = ticket.getGrantingTicket();
+
+        try {
+            byte[] data = codec.encode(ticket);
+
+            out.writeByte(UPDATE);
+            out.writeUTF(ticket.getId());
+            out.writeUTF(parent == null ? "" : parent.getId());
+            out.writeLong(TicketVersion.of(ticket));
+            out.writeUTF(codec.getName());
+            out.writeInt(data.length);
+            out.write(data);
+        } catch (final IOException e) {
+            logger.warn("Could not log {}: {}", ticket.getId(), e.getMessage());
+            this.append(null);
+            return;
+        }
+        this.append(bytes.toByteArray());
+    }
+
+    /**
+     * Log a delete of a ticket.
+     *
+     * @param ticketId  id of the ticket.
+     * @param cascade   also delete the tickets granted by the ticket.
+     */
+    void delete(final String ticketId, final boolean cascade) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeByte(cascade ? DELETE_CASCADE : DELETE);
+            out.writeUTF(ticketId);
+        } catch (final IOException e) {
+            this.append(null);
+            return;
+        }
+        this.append(bytes.toByteArray());
+    }
+
+    /**
+     * Append a record, or mark the log as overflowed
+     * when it does not fit.
+     *
+     * @param record    encoded record, null to overflow.
+     */
+    private void append(final byte[] record) {
+        synchronized(this.lock) {
+            if (this.overflowed) {
+                return;
+            }
+            if (record == null || this.writePos + 4 + record.length > this.buffer.capacity()) {
+                logger.warn("Hint log for {} overflowed, falling back to a resync",
+                        this.client.getConnectURI());
+                this.overflowed = true;
+                this.storeHeader();
+                return;
+            }
+
+            ByteBuffer b = this.buffer.duplicate();
+            ((Buffer) b).position(this.writePos);
+            b.putInt(record.length);
+            b.put(record);
+
+            this.writePos += 4 + record.length;
+            this.records++;
+            this.storeHeader();
+            this.lock.notifyAll();
+        }
+    }
+
+    /**
+     * Run the replay.
+     */
+    public void run() {
+        while (true) {
+            boolean resync;
+            List<Record> batch;
+            int next;
+
+            synchronized(this.lock) {
+                try {
+                    while (this.running && ((this.records == 0 && !this.overflowed)
+                            || !this.client.getAvailable())) {
+                        this.lock.wait(RETRY_INTERVAL);
+                    }
+                } catch (final InterruptedException e) {
+                    break;
+                }
+                if (!this.running) {
+                    break;
+                }
+                resync = this.overflowed;
+                batch = resync ? null : this.read();
+                next = this.nextPos;
+            }
+
+            try {
+                if (resync) {
+                    this.broker.resyncProvider(this.client);
+                    synchronized(this.lock) {
+                        this.reset();
+                    }
+                } else {
+                    this.replay(batch);
+                    synchronized(this.lock) {
+                        this.consume(batch.size(), next);
+                    }
+                }
+            } catch (final JSONRPCException e) {
+                logger.warn("Replay to {} failed: {}", this.client.getConnectURI(), e.getMessage());
+                synchronized(this.lock) {
+                    try {
+                        this.lock.wait(RETRY_INTERVAL);
+                    } catch (final InterruptedException ie) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        this.close();
+    }
+
+    /**
+     * Read the oldest MAX_BATCH records, without consuming them.
+     *
+     * Must be called holding the lock.
+     *
+     * @return records, nextPos is set to the position following them.
+     */
+    private List<Record> read() {
+        List<Record> batch = new ArrayList<Record>();
+        ByteBuffer b = this.buffer.duplicate();
+        int pos = this.readPos;
+
+        while (pos < this.writePos && batch.size() < MAX_BATCH) {
+            byte[] data = new byte[b.getInt(pos)];
+
+            ((Buffer) b).position(pos + 4);
+            b.get(data);
+            pos += 4 + data.length;
+
+            try {
+                batch.add(decode(data));
+            } catch (final IOException e) {
+                logger.warn("Skipping invalid hint: {}", e.getMessage());
+            }
+        }
+        this.nextPos = pos;
+        return batch;
+    }
+
+    /**
+     * Decode a record.
+     *
+     * @param data  encoded record.
+     *
+     * @return record.
+     *
+     * @throws IOException when the record is invalid.
+     */
+    private static Record decode(final byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        Record record = new Record();
+
+        record.type = in.readByte();
+        record.ticketId = in.readUTF();
+        if (record.type == UPDATE) {
+            record.parentId = in.readUTF();
+            record.version = in.readLong();
+            record.codec = TicketCodecs.get(in.readUTF());
+            record.data = new byte[in.readInt()];
+            in.readFully(record.data);
+            if (record.codec == null) {
+                throw new IOException("Unknown codec");
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Send a batch of records to the provider.
+     *
+     * Only the latest record per ticket is sent.
+     *
+     * @param batch     records, oldest first.
+     *
+     * @throws JSONRPCException when the batch could not be sent.
+     */
+    private void replay(final List<Record> batch) throws JSONRPCException {
+        Map<String, Record> latest = new LinkedHashMap<String, Record>();
+        Map<TicketCodec, TicketPage> updates = new LinkedHashMap<TicketCodec, TicketPage>();
+        List<String> deletes = new ArrayList<String>();
+        List<String> cascades = new ArrayList<String>();
+
+        for (Record record: batch) {
+            latest.remove(record.ticketId);
+            latest.put(record.ticketId, record);
+        }
+
+        for (Record record: latest.values()) {
+            if (record.type == DELETE) {
+                deletes.add(record.ticketId);
+            } else if (record.type == DELETE_CASCADE) {
+                cascades.add(record.ticketId);
+            } else {
+                TicketPage page = updates.get(record.codec);
+
+                if (page == null) {
+                    page = new TicketPage(record.codec, new JSONArray(), new JSONArray(),
+                            new JSONArray(), new JSONArray(), null);
+                    updates.put(record.codec, page);
+                }
+                page.getTicketIds().put(record.ticketId);
+                page.getParentIds().put(record.parentId);
+                page.getVersions().put(record.version);
+                page.getTickets().put(record.data);
+            }
+        }
+
+        for (TicketPage page: updates.values()) {
+            this.client.updateTickets(page);
+        }
+        if (!deletes.isEmpty()) {
+            this.client.deleteTickets(deletes, false);
+        }
+        if (!cascades.isEmpty()) {
+            this.client.deleteTickets(cascades, true);
+        }
+    }
+
+    /**
+     * Drop records that have been replayed.
+     *
+     * Must be called holding the lock.
+     *
+     * @param count     number of records.
+     * @param next      position following the records.
+     */
+    private void consume(final int count, final int next) {
+        this.readPos = next;
+        this.records = Math.max(0, this.records - count);
+        if (this.readPos >= this.writePos) {
+            this.readPos = HEADER;
+            this.writePos = HEADER;
+            this.records = 0;
+        }
+        this.storeHeader();
+    }
+
+    /**
+     * Empty the log and clear the overflow.
+     *
+     * Must be called holding the lock.
+     */
+    private void reset() {
+        this.readPos = HEADER;
+        this.writePos = HEADER;
+        this.records = 0;
+        this.overflowed = false;
+        this.storeHeader();
+    }
+
+    /**
+     * Write the positions to the header.
+     *
+     * Must be called holding the lock.
+     */
+    private void storeHeader() {
+        this.buffer.putInt(4, this.readPos);
+        this.buffer.putInt(8, this.writePos);
+        this.buffer.putInt(12, this.records);
+        this.buffer.put(16, (byte) (this.overflowed ? 1 : 0));
+    }
+
+    /**
+     * Return the number of records waiting to be replayed.
+     *
+     * @return number of records.
+     */
+    int getPending() {
+        synchronized(this.lock) {
+            return this.records;
+        }
+    }
+
+    /**
+     * Return if the log overflowed.
+     *
+     * @return true if the provider will be resynced.
+     */
+    boolean getOverflowed() {
+        synchronized(this.lock) {
+            return this.overflowed;
+        }
+    }
+
+    /**
+     * Flush the log to disk and close the file.
+     */
+    private void close() {
+        try {
+            this.buffer.force();
+            this.raf.close();
+        } catch (final IOException e) {
+            logger.warn("Could not close {}: {}", this.file, e.getMessage());
+        }
+    }
+
+    /**
+     * Stop the replay and close the log.
+     *
+     * Records not replayed yet are kept in the file.
+     */
+    void cleanup() {
+        synchronized(this.lock) {
+            this.running = false;
+            this.lock.notifyAll();
+        }
+        if (this.isAlive()) {
+            try {
+                this.join();
+            } catch (final InterruptedException e) {
+                logger.debug(e.toString());
+            }
+        } else {
+            this.close();
+        }
+    }
+}
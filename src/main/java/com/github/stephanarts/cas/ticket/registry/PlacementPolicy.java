@@ -0,0 +1,76 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry;
+
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+
+/**
+ * Key the RegistryBroker places a ticket by,
+ * when the tickets are partitioned.
+ */
+public enum PlacementPolicy {
+
+    /**
+     * Place every ticket by its own id.
+     */
+    TICKET,
+
+    /**
+     * Place tickets with the TicketGrantingTicket they were
+     * granted by, deleting a TGT deletes its tickets as well.
+     */
+    TGT;
+
+    /**
+     * Return the placement key of a ticket.
+     *
+     * @param ticket    CAS Ticket object.
+     *
+     * @return id of the ticket, or of the TGT that
+     *         (indirectly) granted it.
+     */
+    public String getKey(final Ticket ticket) {
+        Ticket root = ticket;
+
+        if (this == TICKET) {
+            return ticket.getId();
+        }
+
+        for (TicketGrantingTicket parent = root.getGrantingTicket();
+                parent != null && parent != root;
+                parent = root.getGrantingTicket()) {
+            root = parent;
+        }
+        return root.getId();
+    }
+
+    /**
+     * Return the placement key of a ticket, if it follows
+     * from the ticket-id.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return the placement key, or null if the ticket
+     *         is needed to determine it.
+     */
+    public String getKey(final String ticketId) {
+        if (this == TICKET || ticketId.startsWith(TicketGrantingTicket.PREFIX + "-")) {
+            return ticketId;
+        }
+        return null;
+    }
+}
@@ -17,13 +17,33 @@ package com.github.stephanarts.cas.ticket.registry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jasig.cas.ticket.Ticket;
 
+import com.github.stephanarts.cas.ticket.registry.provider.ZMQProvider;
+import com.github.stephanarts.cas.ticket.registry.support.HedgedReader;
 import com.github.stephanarts.cas.ticket.registry.support.PaceMaker;
 import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodec;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
 
 import java.lang.management.ManagementFactory;
 import javax.management.ObjectName;
@@ -50,12 +70,115 @@ public final class RegistryBroker
 
     private RegistryClient   localProvider;
 
+    private final String localProviderId;
+
     private final int requestTimeout;
 
     private boolean bootstrapped = false;
 
     private ObjectName[] mbeans;
 
+    private volatile WriteConsistency writeConsistency = WriteConsistency.ALL;
+
+    private volatile TicketCodec ticketCodec = TicketCodecs.DEFLATE;
+
+    private volatile boolean binaryProtocol = false;
+
+    /**
+     * Default number of tickets per bootstrap page.
+     */
+    public static final int DEFAULT_BOOTSTRAP_PAGE_SIZE = 500;
+
+    private volatile int bootstrapPageSize = DEFAULT_BOOTSTRAP_PAGE_SIZE;
+
+    private volatile ZMQProvider inProcessProvider = null;
+
+    /**
+     * Default time to wait for a provider before also asking the next (ms).
+     */
+    public static final int DEFAULT_READ_HEDGE_DELAY = 20;
+
+    private volatile int readHedgeDelay = DEFAULT_READ_HEDGE_DELAY;
+
+    /**
+     * Queues replicating to the remote providers,
+     * null unless asynchronous replication is enabled.
+     */
+    private volatile ReplicationQueue[] replicationQueues = null;
+
+    private final Object replicationLock = new Object();
+
+    /**
+     * Number of providers storing a ticket,
+     * 0 to store every ticket on every provider.
+     */
+    private volatile int replicas = 0;
+
+    /**
+     * Consistent-hash ring over the configured provider URIs.
+     */
+    private final HashRing ring;
+
+    private volatile PlacementPolicy placementPolicy = PlacementPolicy.TICKET;
+
+    /**
+     * Maximum number of remembered placement keys.
+     */
+    static final int MAX_AFFINITY = 100000;
+
+    /**
+     * Placement keys of tickets that are not placed by their
+     * own id, least recently used first.
+     */
+    private final Map<String, String> affinity = Collections.synchronizedMap(
+            new LinkedHashMap<String, String>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+                    return this.size() > MAX_AFFINITY;
+                }
+            });
+
+    private final ExecutorService executor;
+
+    private final HedgedReader<Ticket> reader;
+
+    private AntiEntropy antiEntropy = null;
+
+    /**
+     * HintLogs by provider index, null while disabled.
+     */
+    private volatile HintLog[] hintLogs = null;
+
+    private final Object hintLock = new Object();
+
+    private volatile int hintLogSize = 0;
+
+    private volatile String hintLogDirectory = System.getProperty("java.io.tmpdir");
+
+    private final Object antiEntropyLock = new Object();
+
+    /**
+     * URIs of the change streams of the providers, by provider index,
+     * null unless push replication is enabled.
+     */
+    private volatile String[] publishers = null;
+
+    /**
+     * Write operation, applied to a single provider.
+     */
+    private interface Write {
+
+        /**
+         * Apply the write to a provider.
+         *
+         * @param client  provider to write to.
+         *
+         * @throws JSONRPCException when the write fails.
+         */
+        void apply(RegistryClient client) throws JSONRPCException;
+    }
 
     /**
      * Creates a new RegistryBroker.
@@ -82,6 +205,19 @@ public final class RegistryBroker
         String id;
 
         this.requestTimeout = requestTimeout;
+        this.localProviderId = localProviderId;
+
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger nr = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(r, "RegistryBroker-worker-"+nr.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.reader = new HedgedReader<Ticket>(this.executor, requestTimeout);
 
         this.providers = new RegistryClient[providers.length];
         this.mbeans    = new ObjectName[providers.length];
@@ -106,6 +242,8 @@ public final class RegistryBroker
             this.providers[i] = client;
         }
 
+        this.ring = new HashRing(providers);
+
         if (this.localProvider == null) {
             for(int i = 0; i < this.providers.length; ++i) {
                 this.providers[i].destroy();
@@ -117,6 +255,7 @@ public final class RegistryBroker
                     logger.warn(e.toString());
                 }
             }
+            this.executor.shutdown();
             throw new Exception("Local Provider not found");
         }
 
@@ -125,47 +264,354 @@ public final class RegistryBroker
     /**
      * bootstrap
      *
-     * Bootstrap Local Provider.
+     * Bootstrap Local Provider, see Bootstrap.
      *
      * @throws BootstrapException when bootstrapping fails.
      */
     public void bootstrap() throws BootstrapException {
+        Bootstrap bootstrap = new Bootstrap(
+                this,
+                this.localProvider,
+                this.getPeers(),
+                this.executor,
+                this.bootstrapPageSize,
+                this.replicas > 0);
 
-        Collection<Ticket> tickets = new ArrayList<Ticket>();
+        if (bootstrap.run()) {
+            this.bootstrapped = true;
+        }
 
-        for (int i = 0; i < this.providers.length; ++i) {
-            /* Bootstrap the localProvider */
-            if (this.providers[i] != this.localProvider) {
-                if (this.providers[i].getAvailable()) {
-                    try {
-                        tickets = this.providers[i].getTickets();
-                    } catch (final JSONRPCException e) {
-                        logger.error("Provider '"+this.providers[i].getConnectURI()+"': "+e.getMessage());
-                        continue;
-                    }
-                } else {
-                    logger.debug("Provider "+this.providers[i].getConnectURI()+" is not available");
-                    continue;
+        if (this.bootstrapped) {
+            return;
+        }
+
+        /* Tried all providers, no success... */
+        throw new BootstrapException("Tried all providers, no success...");
+    }
+
+    /**
+     * Return if a ticket is placed on a provider.
+     *
+     * @param ticketId  Ticket-ID.
+     * @param parentId  Ticket-ID of the granting ticket, or null.
+     * @param provider  provider.
+     *
+     * @return true if the provider holds the ticket.
+     */
+    boolean isPlaced(final String ticketId, final String parentId, final RegistryClient provider) {
+        String key = ticketId;
+
+        if (this.replicas == 0) {
+            return true;
+        }
+        if (this.placementPolicy == PlacementPolicy.TGT && parentId != null) {
+            key = parentId;
+        }
+        return this.getPlacement(key).contains(provider);
+    }
+
+    /**
+     * Return if a ticket is placed on a provider.
+     *
+     * @param ticket    CAS Ticket object.
+     * @param provider  provider.
+     *
+     * @return true if the provider holds the ticket.
+     */
+    boolean isPlaced(final Ticket ticket, final RegistryClient provider) {
+        return this.getPlacement(this.placementPolicy.getKey(ticket)).contains(provider);
+    }
+
+    /**
+     * Return the providers a ticket is placed on.
+     *
+     * @param key  placement key of the ticket.
+     *
+     * @return all providers, or the replicas of the ticket
+     *         when partitioned (primary owner first).
+     */
+    private List<RegistryClient> getPlacement(final String key) {
+        final int n = this.replicas;
+
+        if (n == 0) {
+            return Arrays.asList(this.providers);
+        }
+
+        List<RegistryClient> placement = new ArrayList<RegistryClient>(n);
+        for (int index: this.ring.getOwners(key, n)) {
+            placement.add(this.providers[index]);
+        }
+        return placement;
+    }
+
+    /**
+     * Return the provider that receives a write synchronously
+     * when replicating asynchronously.
+     *
+     * @param placement  providers of the ticket.
+     *
+     * @return the local provider if it holds the ticket, the first
+     *         available provider otherwise (or null).
+     */
+    private RegistryClient getOwner(final List<RegistryClient> placement) {
+        if (placement.contains(this.localProvider)) {
+            return this.localProvider;
+        }
+        for (RegistryClient client: placement) {
+            if (client.getAvailable()) {
+                return client;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the provider that receives a write with push replication.
+     *
+     * @param placement  providers of the ticket.
+     *
+     * @return the local provider if available, the first
+     *         available provider otherwise (or null).
+     */
+    private RegistryClient getPublisher(final List<RegistryClient> placement) {
+        if (this.localProvider.getAvailable()) {
+            return this.localProvider;
+        }
+        for (RegistryClient client: placement) {
+            if (client.getAvailable()) {
+                return client;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the placement key of a ticket.
+     *
+     * Keys that differ from the ticket-id are remembered, so
+     * the ticket can be found by its id later on.
+     *
+     * @param ticket    CAS Ticket object.
+     *
+     * @return placement key.
+     */
+    private String getKey(final Ticket ticket) {
+        String key = this.placementPolicy.getKey(ticket);
+
+        if (this.replicas > 0 && !key.equals(ticket.getId())) {
+            this.affinity.put(ticket.getId(), key);
+        }
+        return key;
+    }
+
+    /**
+     * Return the placement key of a ticket by its id.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return placement key, or null if unknown.
+     */
+    private String findKey(final String ticketId) {
+        if (this.replicas == 0) {
+            return ticketId;
+        }
+
+        String key = this.affinity.get(ticketId);
+        if (key != null) {
+            return key;
+        }
+        return this.placementPolicy.getKey(ticketId);
+    }
+
+    /**
+     * Send a write to the providers of a ticket.
+     *
+     * Only writes to a single provider with push replication, falling
+     * back to writing all providers when that write fails, and uses
+     * the ReplicationQueues when replicating asynchronously.
+     *
+     * @param name      name of the operation, used for logging.
+     * @param write     write to apply to each provider.
+     * @param key       placement key of the ticket.
+     * @param ticketId  id of the ticket.
+     * @param ticket    CAS Ticket object, null for a delete.
+     */
+    private void dispatch(
+            final String name,
+            final Write write,
+            final String key,
+            final String ticketId,
+            final Ticket ticket) {
+        List<RegistryClient> placement = this.getPlacement(key);
+        ReplicationQueue[] queues = this.replicationQueues;
+
+        if (this.publishers != null) {
+            RegistryClient owner = this.getPublisher(placement);
+            this.hint(placement, ticketId, ticket);
+            if (owner == null || !this.writeOne(name, write, owner)) {
+                List<RegistryClient> others = new ArrayList<RegistryClient>(placement);
+                others.remove(owner);
+                this.write(name, write, others);
+            }
+            return;
+        }
+
+        if (queues == null) {
+            this.hint(placement, ticketId, ticket);
+            this.write(name, write, placement);
+            return;
+        }
+
+        RegistryClient owner = this.getOwner(placement);
+        if (owner != null) {
+            this.writeOne(name, write, owner);
+        }
+        for (ReplicationQueue queue: queues) {
+            if (queue.getClient() == owner || !placement.contains(queue.getClient())) {
+                continue;
+            }
+            if (ticket == null) {
+                queue.delete(ticketId);
+            } else {
+                queue.update(ticket);
+            }
+        }
+    }
+
+    /**
+     * Log a write for the providers of a ticket that are not available.
+     *
+     * @param placement  providers of the ticket.
+     * @param ticketId   id of the ticket.
+     * @param ticket     CAS Ticket object, null for a delete.
+     */
+    private void hint(
+            final List<RegistryClient> placement,
+            final String ticketId,
+            final Ticket ticket) {
+        HintLog[] logs = this.hintLogs;
+
+        if (logs == null) {
+            return;
+        }
+        for (int i = 0; i < logs.length; ++i) {
+            if (logs[i] == null || logs[i].getClient().getAvailable()
+                    || !placement.contains(logs[i].getClient())) {
+                continue;
+            }
+            if (ticket == null) {
+                logs[i].delete(ticketId, this.placementPolicy == PlacementPolicy.TGT);
+            } else {
+                logs[i].update(ticket, this.ticketCodec);
+            }
+        }
+    }
+
+    /**
+     * Send a write to all available providers concurrently.
+     *
+     * Returns when the configured WriteConsistency is reached,
+     * or can no longer be reached. Remaining replies are
+     * collected in the background.
+     *
+     * With LOCAL consistency the write waits for the local provider,
+     * or the first provider of the placement if the ticket is not
+     * placed on the local provider.
+     *
+     * @param name       name of the operation, used for logging.
+     * @param write      write to apply to each provider.
+     * @param placement  providers of the ticket.
+     */
+    private void write(
+            final String name,
+            final Write write,
+            final List<RegistryClient> placement) {
+        final WriteConsistency consistency = this.writeConsistency;
+        final List<RegistryClient> targets = new ArrayList<RegistryClient>();
+        int counted = 0;
+
+        RegistryClient owner = this.getOwner(placement);
+
+        for (RegistryClient client: placement) {
+            if (client.getAvailable()) {
+                targets.add(client);
+                if (consistency != WriteConsistency.LOCAL
+                        || client == owner) {
+                    counted++;
                 }
+            }
+        }
 
-                this.bootstrapped = true;
+        final WriteQuorum quorum = new WriteQuorum(
+                consistency.getRequiredAcks(placement.size(), targets.size()),
+                counted);
 
-                for(Ticket ticket: tickets) {
-                    try {
-                        this.localProvider.addTicket(ticket);
-                    } catch (final JSONRPCException e) {
-                        this.bootstrapped = false;
-                        throw new BootstrapException("ehm...");
+        for (final RegistryClient client: targets) {
+            final boolean counts = consistency != WriteConsistency.LOCAL
+                    || client == owner;
+            try {
+                this.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        boolean success = false;
+                        try {
+                            write.apply(client);
+                            success = true;
+                        } catch (final JSONRPCException e) {
+                            logger.error(name + " error: " + e.getMessage());
+                        } finally {
+                            if (counts) {
+                                if (success) {
+                                    quorum.ack();
+                                } else {
+                                    quorum.nack();
+                                }
+                            }
+                        }
                     }
-                } /* Bootstrap success */
-                return;
+                });
+            } catch (final RejectedExecutionException e) {
+                logger.warn(name + " rejected: " + e.getMessage());
+                if (counts) {
+                    quorum.nack();
+                }
             }
         }
 
-        /* Tried all providers, no success... */
-        throw new BootstrapException("Tried all providers, no success...");
+        try {
+            if (!quorum.await(this.requestTimeout)) {
+                logger.warn("{}: write consistency {} not reached", name, consistency);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
+    /**
+     * Apply a write to a single provider, in the calling thread.
+     *
+     * Used with asynchronous replication, the other providers
+     * receive the write via their ReplicationQueue, and with push
+     * replication.
+     *
+     * @param name    name of the operation, used for logging.
+     * @param write   write to apply.
+     * @param client  provider to write to.
+     *
+     * @return true if the write was applied.
+     */
+    private boolean writeOne(
+            final String name,
+            final Write write,
+            final RegistryClient client) {
+        try {
+            write.apply(client);
+            return true;
+        } catch (final JSONRPCException e) {
+            logger.error(name + " error: " + e.getMessage());
+            return false;
+        }
+    }
 
     /**
      * Update a ticket in the ticketregistry.
@@ -175,15 +621,14 @@ public final class RegistryBroker
     protected void updateTicket(final Ticket ticket) {
         logger.debug("Updating ticket {}", ticket);
 
-        for(int i = 0; i < this.providers.length; ++i) {
-            try {
-                if (this.providers[i].getAvailable()) {
-                    this.providers[i].updateTicket(ticket);
-                }
-            } catch (final JSONRPCException e) {
-                logger.error("updateTicket error: " + e.getMessage());
+        final Write write = new Write() {
+            @Override
+            public void apply(final RegistryClient client) throws JSONRPCException {
+                client.updateTicket(ticket);
             }
-        }
+        };
+
+        this.dispatch("updateTicket", write, this.getKey(ticket), ticket.getId(), ticket);
     }
 
     /**
@@ -194,20 +639,22 @@ public final class RegistryBroker
     public void addTicket(final Ticket ticket) {
         logger.debug("Adding ticket {}", ticket);
 
-        for(int i = 0; i < this.providers.length; ++i) {
-            try {
-                if (this.providers[i].getAvailable()) {
-                    this.providers[i].addTicket(ticket);
-                }
-            } catch (final JSONRPCException e) {
-                logger.error("addTicket error: " + e.getMessage());
+        final Write write = new Write() {
+            @Override
+            public void apply(final RegistryClient client) throws JSONRPCException {
+                client.addTicket(ticket);
             }
-        }
+        };
+
+        this.dispatch("addTicket", write, this.getKey(ticket), ticket.getId(), ticket);
     }
 
     /**
      * Delete a ticket from the ticketregistry.
      *
+     * With the TGT PlacementPolicy the tickets granted by
+     * the ticket are deleted as well.
+     *
      * @param ticketId       Ticket-object to delete from Registry
      *
      * @return     true/false ???
@@ -215,22 +662,50 @@ public final class RegistryBroker
     public boolean deleteTicket(final String ticketId) {
         logger.debug("Deleting ticket {}", ticketId);
 
-        for(int i = 0; i < this.providers.length; ++i) {
-            try {
-                if (this.providers[i].getAvailable()) {
-                    this.providers[i].deleteTicket(ticketId);
-                }
-            } catch (final JSONRPCException e) {
-                logger.error("deleteTicket error: " + e.getMessage());
+        final boolean cascade = this.placementPolicy == PlacementPolicy.TGT;
+        String key = this.findKey(ticketId);
+
+        if (key == null) {
+            /* Placed by its TGT, which the ticket knows */
+            Ticket ticket = this.getTicket(ticketId);
+            if (ticket == null) {
+                return false;
             }
+            key = this.getKey(ticket);
         }
 
+        final Write write = new Write() {
+            @Override
+            public void apply(final RegistryClient client) throws JSONRPCException {
+                client.deleteTicket(ticketId, cascade);
+            }
+        };
+
+        this.dispatch("deleteTicket", write, key, ticketId, null);
+        this.affinity.remove(ticketId);
+
         return false;
     }
 
     /**
      * Get a ticket from the ticketregistry.
      *
+     * Reads from the local provider first. When the ticket is missing
+     * there, or the local provider fails, the remote providers are
+     * asked in order of their responseTime. When the local provider
+     * does not answer within readHedgeDelay ms, the fastest remote
+     * provider is asked as well and the first ticket found is returned.
+     *
+     * When partitioned, only the providers the ticket is placed on
+     * are asked. With the TGT PlacementPolicy, tickets other than TGTs
+     * are placed by their TGT. If that is not known, or the ticket is
+     * not found with a TGT-id (proxy granting tickets use those), the
+     * other providers are asked as well.
+     *
+     * Only missing tickets are read elsewhere. A ticket a provider
+     * reports as deleted is not returned, even when a lagging provider
+     * still has a copy.
+     *
      * @param ticketId       id of ticket-object to get from Registry
      *
      * @return               Ticket object
@@ -238,65 +713,759 @@ public final class RegistryBroker
     public Ticket getTicket(final String ticketId) {
         logger.debug("Get Ticket {}", ticketId);
 
-        Ticket ticket = null;
+        final String known = this.replicas == 0 ? ticketId : this.affinity.get(ticketId);
+        final String key = known != null ? known : this.placementPolicy.getKey(ticketId);
+        List<RegistryClient> placement = key == null
+                ? Arrays.asList(this.providers) : this.getPlacement(key);
+        Ticket ticket;
 
-        /* Try local provider first */
         try {
-            ticket = this.localProvider.getTicket(ticketId);
-            return ticket;
-        } catch (final JSONRPCException e) {
-            if (e.getCode() == -32503) {
-                logger.debug("Missing Ticket: " + ticketId);
-            } else {
-                logger.error("getTicket error: " + e.getMessage());
+            ticket = this.read(ticketId, placement);
+
+            if (ticket == null && known == null && key != null
+                    && this.placementPolicy == PlacementPolicy.TGT) {
+                List<RegistryClient> others = new ArrayList<RegistryClient>(Arrays.asList(this.providers));
+                others.removeAll(placement);
+                ticket = this.read(ticketId, others);
             }
+        } catch (final JSONRPCException e) {
+            logger.debug("Deleted Ticket: " + ticketId);
+            return null;
         }
 
-        return null;
+        if (ticket == null) {
+            logger.debug("Missing Ticket: " + ticketId);
+        } else if (known == null) {
+            this.getKey(ticket);
+        }
+
+        return ticket;
     }
 
     /**
-     * getTickets.
+     * Read a ticket from the local provider (if in the placement),
+     * then from the other providers of the placement, fastest first
+     * (see HedgedReader).
      *
-     * Get all tickets from the registry,
+     * @param ticketId      id of ticket-object to get.
+     * @param placement     providers to read from.
      *
-     * @return Collection of tickets.
+     * @return the ticket, or null.
+     *
+     * @throws JSONRPCException when a provider reports the ticket deleted.
      */
-    public Collection<Ticket> getTickets() {
-        Collection<Ticket> tickets = new ArrayList<Ticket>();
+    private Ticket read(
+            final String ticketId,
+            final List<RegistryClient> placement) throws JSONRPCException {
+        List<Callable<Ticket>> reads = new ArrayList<Callable<Ticket>>();
+        ZMQProvider provider = this.inProcessProvider;
+        Ticket ticket = null;
 
-        try {
-            tickets = this.localProvider.getTickets();
-        } catch (final JSONRPCException e) {
-            logger.error("getTickets error: " + e.getMessage());
+        if (placement.contains(this.localProvider)) {
+            if (provider != null) {
+                try {
+                    ticket = provider.readTicket(ticketId);
+                } catch (final IOException e) {
+                    logger.error("getTicket error: " + e.getMessage());
+                }
+                if (ticket != null) {
+                    return ticket;
+                }
+                if (provider.isDeleted(ticketId)) {
+                    throw new JSONRPCException(-32505, "Deleted Ticket");
+                }
+            } else {
+                reads.add(this.getRead(this.localProvider, ticketId));
+            }
         }
 
-        return tickets;
+        for (RegistryClient client: this.getRemoteProviders(placement)) {
+            reads.add(this.getRead(client, ticketId));
+        }
+
+        return this.reader.read(reads, this.readHedgeDelay);
     }
 
     /**
-     * cleanup.
+     * Return the available remote providers, fastest first.
+     *
+     * @param placement  providers to choose from.
+     *
+     * @return remote providers ordered by responseTime.
      */
-    public void cleanup() {
-        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
-        for(int i = 0; i < this.providers.length; ++i) {
-            this.providers[i].destroy();
-            try {
-                mbs.unregisterMBean(this.mbeans[i]);
-            } catch (final InstanceNotFoundException e) {
-                logger.warn(e.toString());
-            } catch (final MBeanRegistrationException e) {
-                logger.warn(e.toString());
+    private List<RegistryClient> getRemoteProviders(final List<RegistryClient> placement) {
+        List<RegistryClient> remotes = new ArrayList<RegistryClient>();
+
+        for (RegistryClient client: placement) {
+            if (client != this.localProvider && client.getAvailable()) {
+                remotes.add(client);
             }
         }
+
+        Collections.sort(remotes, new Comparator<RegistryClient>() {
+            @Override
+            public int compare(final RegistryClient a, final RegistryClient b) {
+                long ta = a.getResponseTime();
+                long tb = b.getResponseTime();
+                return ta < tb ? -1 : (ta == tb ? 0 : 1);
+            }
+        });
+
+        return remotes;
     }
 
     /**
-     * Return number of providers.
+     * Return the read of a ticket from a provider.
      *
-     * @return number of provideers.
+     * A missing ticket is read as null.
+     *
+     * @param client    provider to read from.
+     * @param ticketId  id of ticket-object to get.
+     *
+     * @return read.
      */
-    public int getProviders() {
-        return this.providers.length;
+    private Callable<Ticket> getRead(final RegistryClient client, final String ticketId) {
+        return new Callable<Ticket>() {
+            @Override
+            public Ticket call() throws JSONRPCException {
+                try {
+                    return client.getTicket(ticketId);
+                } catch (final JSONRPCException e) {
+                    if (e.getCode() == -32503) {
+                        return null;
+                    }
+                    throw e;
+                }
+            }
+        };
+    }
+
+    /**
+     * getTickets.
+     *
+     * Get all tickets from the registry,
+     *
+     * When partitioned, the tickets of all available
+     * providers are collected.
+     *
+     * @return Collection of tickets.
+     */
+    public Collection<Ticket> getTickets() {
+        Collection<Ticket> tickets = new ArrayList<Ticket>();
+        ZMQProvider provider = this.inProcessProvider;
+
+        if (provider != null) {
+            tickets = provider.readTickets();
+        } else {
+            try {
+                tickets = this.localProvider.getTickets();
+            } catch (final JSONRPCException e) {
+                logger.error("getTickets error: " + e.getMessage());
+            }
+        }
+
+        if (this.replicas == 0) {
+            return tickets;
+        }
+
+        Map<String, Ticket> merged = new LinkedHashMap<String, Ticket>();
+        for (Ticket ticket: tickets) {
+            merged.put(ticket.getId(), ticket);
+        }
+        for (RegistryClient client: this.getRemoteProviders(Arrays.asList(this.providers))) {
+            try {
+                for (Ticket ticket: client.getTickets()) {
+                    if (!merged.containsKey(ticket.getId())) {
+                        merged.put(ticket.getId(), ticket);
+                    }
+                }
+            } catch (final JSONRPCException e) {
+                logger.error("getTickets error: " + e.getMessage());
+            }
+        }
+
+        return merged.values();
+    }
+
+    /**
+     * cleanup.
+     */
+    public void cleanup() {
+        this.setAntiEntropyInterval(0);
+
+        /* Keep the logged writes for the next run */
+        synchronized(this.hintLock) {
+            this.closeHintLogs();
+        }
+
+        /* Send queued writes before closing the clients */
+        this.setAsyncReplication(false);
+
+        /* Let in-flight writes finish before closing the clients */
+        this.executor.shutdown();
+        try {
+            while (!this.executor.awaitTermination(this.requestTimeout, TimeUnit.MILLISECONDS)) {
+                logger.debug("Waiting for in-flight writes");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        for(int i = 0; i < this.providers.length; ++i) {
+            this.providers[i].destroy();
+            try {
+                mbs.unregisterMBean(this.mbeans[i]);
+            } catch (final InstanceNotFoundException e) {
+                logger.warn(e.toString());
+            } catch (final MBeanRegistrationException e) {
+                logger.warn(e.toString());
+            }
+        }
+    }
+
+    /**
+     * Return number of providers.
+     *
+     * @return number of provideers.
+     */
+    public int getProviders() {
+        return this.providers.length;
+    }
+
+    /**
+     * Return a provider.
+     *
+     * @param index  index of the provider.
+     *
+     * @return provider.
+     */
+    RegistryClient getProvider(final int index) {
+        return this.providers[index];
+    }
+
+    /**
+     * Set the number of acknowledgements a write waits for.
+     *
+     * @param writeConsistency  WriteConsistency level.
+     */
+    public void setWriteConsistency(final WriteConsistency writeConsistency) {
+        this.writeConsistency = writeConsistency;
+    }
+
+    /**
+     * Return the WriteConsistency level.
+     *
+     * @return name of the WriteConsistency level.
+     */
+    public String getWriteConsistency() {
+        return this.writeConsistency.name();
+    }
+
+    /**
+     * Set the preferred TicketCodec.
+     *
+     * @param ticketCodec  TicketCodec used with providers that support it.
+     */
+    public void setTicketCodec(final TicketCodec ticketCodec) {
+        this.ticketCodec = ticketCodec;
+        for(int i = 0; i < this.providers.length; ++i) {
+            this.providers[i].setTicketCodec(ticketCodec);
+        }
+    }
+
+    /**
+     * Return the preferred TicketCodec.
+     *
+     * @return name of the TicketCodec.
+     */
+    public String getTicketCodec() {
+        return this.ticketCodec.getName();
+    }
+
+    /**
+     * Use the binary protocol with providers that support it.
+     *
+     * @param binaryProtocol  true to enable the binary protocol.
+     */
+    public void setBinaryProtocol(final boolean binaryProtocol) {
+        this.binaryProtocol = binaryProtocol;
+        for(int i = 0; i < this.providers.length; ++i) {
+            this.providers[i].setBinaryProtocol(binaryProtocol);
+        }
+    }
+
+    /**
+     * Return if the binary protocol is enabled.
+     *
+     * @return true if the binary protocol is enabled.
+     */
+    public boolean getBinaryProtocol() {
+        return this.binaryProtocol;
+    }
+
+    /**
+     * Set the number of tickets requested per page when bootstrapping.
+     *
+     * @param bootstrapPageSize  number of tickets (1-10000).
+     */
+    public void setBootstrapPageSize(final int bootstrapPageSize) {
+        if (bootstrapPageSize < 1 || bootstrapPageSize > 10000) {
+            throw new IllegalArgumentException("Invalid bootstrap page size: " + bootstrapPageSize);
+        }
+        this.bootstrapPageSize = bootstrapPageSize;
+    }
+
+    /**
+     * Return the number of tickets requested per page when bootstrapping.
+     *
+     * @return number of tickets.
+     */
+    public int getBootstrapPageSize() {
+        return this.bootstrapPageSize;
+    }
+
+    /**
+     * Read tickets directly from a provider in the same JVM.
+     *
+     * The provider must be the local provider, it is read without
+     * JSON-RPC. Writes still go through JSON-RPC to all providers.
+     *
+     * @param provider  local provider, or null to read via JSON-RPC.
+     */
+    public void setInProcessProvider(final ZMQProvider provider) {
+        if (provider != null && !provider.getProviderId().equals(this.localProviderId)) {
+            throw new IllegalArgumentException("Not the local provider: " + provider.getProviderId());
+        }
+        this.inProcessProvider = provider;
+    }
+
+    /**
+     * Replicate writes through the change streams of the providers.
+     *
+     * Writes are only sent to the local provider, which publishes
+     * them on its change stream; the providers subscribe to the
+     * change streams of each other and apply the writes in the
+     * background. A write costs one request and one publish, however
+     * many providers there are. When that request fails the write is
+     * sent to the other providers directly. The WriteConsistency and
+     * asynchronous replication are not used while enabled. All
+     * brokers have to enable it, writes a provider misses (while it
+     * is down or can not keep up) are repaired by AntiEntropy.
+     *
+     * Requires the in-process provider, and can not be combined
+     * with partitioning.
+     *
+     * @param publishers URIs of the change streams, one per provider
+     *                   in the same order as the providers; the port
+     *                   of the local provider's URI is bound on its
+     *                   address. null to disable.
+     */
+    public void setPublishers(final String[] publishers) {
+        ZMQProvider provider = this.inProcessProvider;
+
+        if (publishers == null) {
+            this.publishers = null;
+            if (provider != null) {
+                provider.closeChangeStream();
+            }
+            return;
+        }
+        if (publishers.length != this.providers.length) {
+            throw new IllegalArgumentException("Expected " + this.providers.length + " publishers");
+        }
+        if (provider == null) {
+            throw new IllegalStateException("Push replication requires an in-process provider");
+        }
+        if (this.replicas > 0) {
+            throw new IllegalStateException("Partitioning is not supported with push replication");
+        }
+
+        for (int i = 0; i < this.providers.length; ++i) {
+            if (this.providers[i] == this.localProvider) {
+                String bindUri = provider.getBindUri();
+                String uri = publishers[i];
+
+                provider.openPublisher(bindUri.substring(0, bindUri.lastIndexOf(':'))
+                        + uri.substring(uri.lastIndexOf(':')));
+            } else {
+                provider.subscribe(publishers[i]);
+            }
+        }
+        this.publishers = publishers.clone();
+    }
+
+    /**
+     * Return if writes are replicated through change streams.
+     *
+     * @return true if push replication is enabled.
+     */
+    public boolean getPushReplication() {
+        return this.publishers != null;
+    }
+
+    /**
+     * Set the time to wait for a provider before a read is also
+     * sent to the next provider.
+     *
+     * @param readHedgeDelay  delay (ms).
+     */
+    public void setReadHedgeDelay(final int readHedgeDelay) {
+        if (readHedgeDelay < 1) {
+            throw new IllegalArgumentException("Invalid read hedge delay: " + readHedgeDelay);
+        }
+        this.readHedgeDelay = readHedgeDelay;
+    }
+
+    /**
+     * Return the time to wait for a provider before a read is also
+     * sent to the next provider.
+     *
+     * @return delay (ms).
+     */
+    public int getReadHedgeDelay() {
+        return this.readHedgeDelay;
+    }
+
+    /**
+     * Replicate writes to the remote providers asynchronously.
+     *
+     * Writes are applied to the local provider before returning,
+     * and queued for each remote provider. Repeated writes to a
+     * queued ticket are coalesced and sent in batches. The
+     * WriteConsistency is not used while enabled.
+     *
+     * Disabling sends the queued writes before returning.
+     *
+     * @param asyncReplication  true to replicate asynchronously.
+     */
+    public void setAsyncReplication(final boolean asyncReplication) {
+        ReplicationQueue[] queues;
+
+        synchronized(this.replicationLock) {
+            queues = this.replicationQueues;
+
+            if (asyncReplication) {
+                if (queues != null) {
+                    return;
+                }
+                List<ReplicationQueue> created = new ArrayList<ReplicationQueue>();
+                for(int i = 0; i < this.providers.length; ++i) {
+                    if (this.providers[i] != this.localProvider) {
+                        ReplicationQueue queue = new ReplicationQueue(this.providers[i]);
+                        queue.setCascade(this.placementPolicy == PlacementPolicy.TGT);
+                        queue.start();
+                        created.add(queue);
+                    }
+                }
+                this.replicationQueues = created.toArray(new ReplicationQueue[created.size()]);
+                return;
+            }
+
+            this.replicationQueues = null;
+        }
+
+        if (queues != null) {
+            for (ReplicationQueue queue: queues) {
+                queue.cleanup();
+            }
+        }
+    }
+
+    /**
+     * Return if writes are replicated asynchronously.
+     *
+     * @return true if writes are replicated asynchronously.
+     */
+    public boolean getAsyncReplication() {
+        return this.replicationQueues != null;
+    }
+
+    /**
+     * Return the number of writes queued for the remote providers.
+     *
+     * @return number of writes.
+     */
+    public int getReplicationBacklog() {
+        ReplicationQueue[] queues = this.replicationQueues;
+        int backlog = 0;
+
+        if (queues != null) {
+            for (ReplicationQueue queue: queues) {
+                backlog += queue.getPending();
+            }
+        }
+        return backlog;
+    }
+
+    /**
+     * Partition the tickets over the providers.
+     *
+     * Every ticket is placed on the given number of providers, chosen
+     * by a consistent-hash ring over the provider URIs. Reads and writes
+     * of a ticket only go to its providers.
+     *
+     * @param replicas  number of providers per ticket,
+     *                  0 (default) to place every ticket on every provider.
+     */
+    public void setReplicas(final int replicas) {
+        if (replicas < 0 || replicas > this.providers.length) {
+            throw new IllegalArgumentException("Invalid number of replicas: " + replicas);
+        }
+        if (replicas > 0 && this.publishers != null) {
+            throw new IllegalStateException("Partitioning is not supported with push replication");
+        }
+
+        this.replicas = replicas;
+    }
+
+    /**
+     * Return the number of providers a ticket is placed on.
+     *
+     * @return number of providers, 0 if every ticket is placed on every provider.
+     */
+    public int getReplicas() {
+        return this.replicas;
+    }
+
+    /**
+     * Set the key tickets are placed by when partitioned.
+     *
+     * With TGT, deleting a ticket deletes the tickets it granted
+     * as well, also when not partitioned.
+     *
+     * @param placementPolicy  PlacementPolicy.
+     */
+    public void setPlacementPolicy(final PlacementPolicy placementPolicy) {
+        this.placementPolicy = placementPolicy;
+        this.affinity.clear();
+
+        synchronized(this.replicationLock) {
+            if (this.replicationQueues != null) {
+                for (ReplicationQueue queue: this.replicationQueues) {
+                    queue.setCascade(placementPolicy == PlacementPolicy.TGT);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the key tickets are placed by.
+     *
+     * @return name of the PlacementPolicy.
+     */
+    public String getPlacementPolicy() {
+        return this.placementPolicy.name();
+    }
+
+    /**
+     * Return the providers other than the local provider.
+     *
+     * @return remote providers.
+     */
+    private RegistryClient[] getPeers() {
+        List<RegistryClient> remote = new ArrayList<RegistryClient>();
+
+        for (RegistryClient provider: this.providers) {
+            if (provider != this.localProvider) {
+                remote.add(provider);
+            }
+        }
+        return remote.toArray(new RegistryClient[remote.size()]);
+    }
+
+    /**
+     * Keep the local provider in sync with the remote providers.
+     *
+     * When the local provider, or a remote provider, becomes available
+     * again after missing heartbeats, and every interval ms, the local
+     * provider exchanges the ranges of tickets that differ with the
+     * remote providers (anti-entropy).
+     *
+     * @param interval  interval between full resyncs (ms),
+     *                  0 (default) to disable.
+     */
+    public void setAntiEntropyInterval(final int interval) {
+        AntiEntropy current;
+
+        if (interval < 0) {
+            throw new IllegalArgumentException("Invalid anti-entropy interval: " + interval);
+        }
+
+        synchronized(this.antiEntropyLock) {
+            current = this.antiEntropy;
+            if (current != null && current.getInterval() == interval) {
+                return;
+            }
+            this.antiEntropy = null;
+            if (current != null) {
+                current.cleanup();
+            }
+            if (interval > 0) {
+                this.antiEntropy = new AntiEntropy(
+                        this, this.localProvider, this.getPeers(), interval);
+                this.antiEntropy.start();
+            }
+        }
+    }
+
+    /**
+     * Return the interval between anti-entropy resyncs.
+     *
+     * @return interval (ms), 0 if disabled.
+     */
+    public int getAntiEntropyInterval() {
+        synchronized(this.antiEntropyLock) {
+            return this.antiEntropy == null ? 0 : this.antiEntropy.getInterval();
+        }
+    }
+
+    /**
+     * Resync the local provider from the available remote providers now.
+     *
+     * Only the ranges of tickets that differ are exchanged.
+     *
+     * @return number of tickets copied or deleted.
+     */
+    public int resync() {
+        return new AntiEntropy(this, this.localProvider, this.getPeers(), 0).resyncAll();
+    }
+
+    /**
+     * Bring a provider up to date after its HintLog overflowed.
+     *
+     * Remote providers are resynced from the local provider, the
+     * local provider from the remote providers.
+     *
+     * @param provider  provider to resync.
+     *
+     * @throws JSONRPCException when the provider can not be resynced.
+     */
+    void resyncProvider(final RegistryClient provider) throws JSONRPCException {
+        AntiEntropy resync = new AntiEntropy(this, this.localProvider, this.getPeers(), 0);
+
+        if (provider == this.localProvider) {
+            resync.resyncAll();
+        } else {
+            resync.resync(this.localProvider, provider);
+        }
+    }
+
+    /**
+     * Log the writes missed by unavailable providers, and replay
+     * them when the providers are available again.
+     *
+     * Each provider gets a memory-mapped log of the given size in the
+     * hintLogDirectory, named by the URIs of the local provider and the
+     * provider. When a log is full, its provider is resynced instead.
+     * Logs left by a previous run are replayed.
+     *
+     * @param hintLogSize  size of the log per provider (bytes),
+     *                     0 (default) to disable.
+     */
+    public void setHintLogSize(final int hintLogSize) {
+        if (hintLogSize != 0 && hintLogSize < HintLog.MIN_SIZE) {
+            throw new IllegalArgumentException("Invalid hint log size: " + hintLogSize);
+        }
+        synchronized(this.hintLock) {
+            this.hintLogSize = hintLogSize;
+            this.openHintLogs();
+        }
+    }
+
+    /**
+     * Return the size of the log per provider.
+     *
+     * @return size (bytes), 0 if disabled.
+     */
+    public int getHintLogSize() {
+        return this.hintLogSize;
+    }
+
+    /**
+     * Set the directory holding the HintLogs.
+     *
+     * @param hintLogDirectory  directory, default java.io.tmpdir.
+     */
+    public void setHintLogDirectory(final String hintLogDirectory) {
+        synchronized(this.hintLock) {
+            this.hintLogDirectory = hintLogDirectory;
+            this.openHintLogs();
+        }
+    }
+
+    /**
+     * Return the directory holding the HintLogs.
+     *
+     * @return directory.
+     */
+    public String getHintLogDirectory() {
+        return this.hintLogDirectory;
+    }
+
+    /**
+     * Return the number of logged writes waiting to be replayed.
+     *
+     * @return number of writes.
+     */
+    public int getHintBacklog() {
+        HintLog[] logs = this.hintLogs;
+        int backlog = 0;
+
+        if (logs != null) {
+            for (HintLog log: logs) {
+                if (log != null) {
+                    backlog += log.getPending();
+                }
+            }
+        }
+        return backlog;
+    }
+
+    /**
+     * Close the open HintLogs, and open them with
+     * the current size and directory.
+     *
+     * Must be called holding the hintLock.
+     */
+    private void openHintLogs() {
+        HintLog[] logs = new HintLog[this.providers.length];
+
+        this.closeHintLogs();
+        if (this.hintLogSize == 0) {
+            return;
+        }
+
+        for (int i = 0; i < this.providers.length; ++i) {
+            String name = "cas-zmq-hints-" + this.localProvider.getConnectURI() + "-"
+                    + this.providers[i].getConnectURI() + ".log";
+            File file = new File(this.hintLogDirectory, name.replaceAll("[^A-Za-z0-9.-]", "_"));
+
+            try {
+                logs[i] = new HintLog(this, this.providers[i], file, this.hintLogSize);
+                logs[i].start();
+            } catch (final IOException e) {
+                logger.error("Could not open hint log " + file + ": " + e.getMessage());
+            }
+        }
+        this.hintLogs = logs;
+    }
+
+    /**
+     * Close the open HintLogs, keeping their contents.
+     *
+     * Must be called holding the hintLock.
+     */
+    private void closeHintLogs() {
+        HintLog[] logs = this.hintLogs;
+
+        this.hintLogs = null;
+        if (logs != null) {
+            for (HintLog log: logs) {
+                if (log != null) {
+                    log.cleanup();
+                }
+            }
+        }
     }
 }
@@ -27,4 +27,83 @@ public interface RegistryBrokerMBean {
      * @return number of Providers.
      */
     int getProviders();
+
+    /**
+     * Return the WriteConsistency level.
+     *
+     * @return name of the WriteConsistency level.
+     */
+    String getWriteConsistency();
+
+    /**
+     * Return the preferred TicketCodec.
+     *
+     * @return name of the TicketCodec.
+     */
+    String getTicketCodec();
+
+    /**
+     * Return if the binary protocol is enabled.
+     *
+     * @return true if the binary protocol is enabled.
+     */
+    boolean getBinaryProtocol();
+
+    /**
+     * Return the time to wait for a provider before a read is also
+     * sent to the next provider.
+     *
+     * @return delay (ms).
+     */
+    int getReadHedgeDelay();
+
+    /**
+     * Return if writes are replicated asynchronously.
+     *
+     * @return true if writes are replicated asynchronously.
+     */
+    boolean getAsyncReplication();
+
+    /**
+     * Return the number of writes queued for the remote providers.
+     *
+     * @return number of writes.
+     */
+    int getReplicationBacklog();
+
+    /**
+     * Return the number of providers a ticket is placed on.
+     *
+     * @return number of providers, 0 if every ticket is placed on every provider.
+     */
+    int getReplicas();
+
+    /**
+     * Return the key tickets are placed by.
+     *
+     * @return name of the PlacementPolicy.
+     */
+    String getPlacementPolicy();
+
+    /**
+     * Return the interval between anti-entropy resyncs.
+     *
+     * @return interval (ms), 0 if disabled.
+     */
+    int getAntiEntropyInterval();
+
+    /**
+     * Return the number of logged writes waiting to be
+     * replayed to providers that were unavailable.
+     *
+     * @return number of writes.
+     */
+    int getHintBacklog();
+
+    /**
+     * Return if writes are replicated through change streams.
+     *
+     * @return true if push replication is enabled.
+     */
+    boolean getPushReplication();
 }
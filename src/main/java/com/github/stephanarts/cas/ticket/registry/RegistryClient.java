@@ -21,23 +21,22 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Collection;
 
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ObjectInputStream;
-import javax.xml.bind.DatatypeConverter;
-
 
 import org.json.JSONObject;
 import org.json.JSONArray;
 //import org.json.JSONException;
 
 import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
 
 
 import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
 import com.github.stephanarts.cas.ticket.registry.support.JSONRPCClient;
 import com.github.stephanarts.cas.ticket.registry.support.PaceMaker;
+import com.github.stephanarts.cas.ticket.registry.support.BinaryFrames;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodec;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+import com.github.stephanarts.cas.ticket.registry.support.TicketVersion;
 
 /**
  * RegistryClient Class.
@@ -50,6 +49,11 @@ public class RegistryClient extends JSONRPCClient
      */
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
+    /**
+     * Preferred TicketCodec.
+     */
+    private volatile TicketCodec ticketCodec = TicketCodecs.DEFLATE;
+
     /**
      * Create RegistryClient object.
      *
@@ -73,6 +77,80 @@ public class RegistryClient extends JSONRPCClient
         this.connect();
     }
 
+    /**
+     * Set the preferred TicketCodec.
+     *
+     * The codec is only used if the provider supports it,
+     * Java serialization is used otherwise.
+     *
+     * @param ticketCodec   TicketCodec.
+     */
+    public final void setTicketCodec(final TicketCodec ticketCodec) {
+        this.ticketCodec = ticketCodec;
+    }
+
+    /**
+     * Select the TicketCodec for a request.
+     *
+     * Adds the 'codec' member to the params, unless Java
+     * serialization is used (understood by all providers).
+     *
+     * @param params    JSONRPC Method Parameters.
+     *
+     * @return TicketCodec for request and response.
+     */
+    private TicketCodec selectCodec(final JSONObject params) {
+        TicketCodec codec = this.ticketCodec;
+        JSONArray codecs = this.getCapabilities().optJSONArray("codecs");
+
+        if (codecs == null || codec == TicketCodecs.SERIALIZATION) {
+            return TicketCodecs.SERIALIZATION;
+        }
+
+        for (int i = 0; i < codecs.length(); ++i) {
+            if (codec.getName().equals(codecs.optString(i))) {
+                params.put("codec", codec.getName());
+                return codec;
+            }
+        }
+
+        return TicketCodecs.SERIALIZATION;
+    }
+
+    /**
+     * Add the id of the granting ticket to the params,
+     * if the provider supports it.
+     *
+     * Lets the provider keep track of the parent of a ticket
+     * without decoding it.
+     *
+     * @param params    JSONRPC Method Parameters.
+     * @param ticket    CAS Ticket object.
+     */
+    private void putParentId(final JSONObject params, final Ticket ticket) {
+        TicketGrantingTicket parent = ticket.getGrantingTicket();
+
+        if (parent != null && this.getCapabilities().optBoolean("parent-id")) {
+            params.put("parent-id", parent.getId());
+        }
+    }
+
+    /**
+     * Add the version of the ticket to the params,
+     * if the provider supports it.
+     *
+     * The version (see TicketVersion) lets providers
+     * order writes of the same ticket.
+     *
+     * @param params    JSONRPC Method Parameters.
+     * @param ticket    CAS Ticket object.
+     */
+    private void putVersion(final JSONObject params, final Ticket ticket) {
+        if (this.getVersionsSupported()) {
+            params.put("version", TicketVersion.of(ticket));
+        }
+    }
+
     /**
      * get ProviderId.
      *
@@ -115,19 +193,19 @@ public class RegistryClient extends JSONRPCClient
             throw new JSONRPCException(-32501, "Could not encode Ticket");
         }
 
+        TicketCodec codec = this.selectCodec(params);
+
         try {
-            ByteArrayOutputStream bo = new ByteArrayOutputStream();
-            ObjectOutputStream so = new ObjectOutputStream(bo);
-            so.writeObject(ticket);
-            so.flush();
-            serializedTicket = bo.toByteArray();
+            serializedTicket = codec.encode(ticket);
         } catch (final Exception e) {
             throw new JSONRPCException(-32501, "Could not encode Ticket");
         }
 
         params.put("ticket-id", ticket.getId());
-        params.put("ticket", DatatypeConverter.printBase64Binary(serializedTicket));
-        
+        params.put("ticket", serializedTicket);
+        this.putParentId(params, ticket);
+        this.putVersion(params, ticket);
+
         this.call("cas.addTicket", params);
     }
 
@@ -140,14 +218,42 @@ public class RegistryClient extends JSONRPCClient
      */
     public final void deleteTicket(final String ticketId)
             throws JSONRPCException {
+        this.deleteTicket(ticketId, false);
+    }
+
+    /**
+     * Delete a ticket from the ticketregistry.
+     *
+     * @param ticketId       Ticket-object to delete from Registry
+     * @param cascade        also delete the tickets granted by the ticket,
+     *                       if the provider supports it.
+     *
+     * @throws JSONRPCException Throws JSONRPCException containing any error.
+     */
+    public final void deleteTicket(final String ticketId, final boolean cascade)
+            throws JSONRPCException {
 
         JSONObject params = new JSONObject();
 
         params.put("ticket-id", ticketId);
+        this.putCascade(params, cascade);
 
         this.call("cas.deleteTicket", params);
     }
 
+    /**
+     * Add the 'cascade' param, if requested and
+     * the provider supports it.
+     *
+     * @param params    JSONRPC Method Parameters.
+     * @param cascade   true to delete granted tickets as well.
+     */
+    private void putCascade(final JSONObject params, final boolean cascade) {
+        if (cascade && this.getCapabilities().optBoolean("cascade")) {
+            params.put("cascade", true);
+        }
+    }
+
 
     /**
      * Get a ticket from the ticketregistry.
@@ -165,21 +271,15 @@ public class RegistryClient extends JSONRPCClient
         JSONObject result;
 
         Ticket ticket = null;
-        String serializedTicket;
+        TicketCodec codec = this.selectCodec(params);
 
         params.put("ticket-id", ticketId);
 
         result = this.call("cas.getTicket", params);
 
         if (result.has("ticket")) {
-            serializedTicket = result.getString("ticket");
-
             try {
-                ByteArrayInputStream bi = new ByteArrayInputStream(
-                        DatatypeConverter.parseBase64Binary(serializedTicket));
-                ObjectInputStream si = new ObjectInputStream(bi);
-
-                ticket = (Ticket) si.readObject();
+                ticket = codec.decode(BinaryFrames.getBytes(result, "ticket"));
             } catch (final Exception e) {
                 throw new JSONRPCException(-32501, "Could not decode Ticket");
             }
@@ -207,20 +307,19 @@ public class RegistryClient extends JSONRPCClient
 
         byte[] serializedTicket = {};
         JSONObject params = new JSONObject();
+        TicketCodec codec = this.selectCodec(params);
 
         try {
-            ByteArrayOutputStream bo = new ByteArrayOutputStream();
-            ObjectOutputStream so = new ObjectOutputStream(bo);
-            so.writeObject(ticket);
-            so.flush();
-            serializedTicket = bo.toByteArray();
+            serializedTicket = codec.encode(ticket);
         } catch (final Exception e) {
             throw new JSONRPCException(-32501, "Could not decode Ticket");
         }
 
         params.put("ticket-id", ticket.getId());
-        params.put("ticket", DatatypeConverter.printBase64Binary(serializedTicket));
-        
+        params.put("ticket", serializedTicket);
+        this.putParentId(params, ticket);
+        this.putVersion(params, ticket);
+
         return this.call("cas.updateTicket", params);
     }
 
@@ -240,6 +339,7 @@ public class RegistryClient extends JSONRPCClient
 
         Ticket ticket;
         ArrayList<Ticket> tickets = new ArrayList<Ticket>();
+        TicketCodec codec = this.selectCodec(params);
 
         result = this.call("cas.getTickets", params);
 
@@ -248,12 +348,7 @@ public class RegistryClient extends JSONRPCClient
             resultTickets = result.getJSONArray("tickets");
             for(int i = 0; i < resultTickets.length(); ++i) {
                 try {
-                    String serializedTicket = resultTickets.getString(i);
-                    ByteArrayInputStream bi = new ByteArrayInputStream(
-                            DatatypeConverter.parseBase64Binary(serializedTicket));
-                    ObjectInputStream si = new ObjectInputStream(bi);
-
-                    ticket = (Ticket) si.readObject();
+                    ticket = codec.decode(BinaryFrames.getBytes(resultTickets, i));
 
                     tickets.add(ticket);
                 } catch (final Exception e) {
@@ -265,6 +360,415 @@ public class RegistryClient extends JSONRPCClient
         return tickets;
     }
 
+    /**
+     * Return if the provider supports cas.getTicketsPage and
+     * cas.addTickets.
+     *
+     * @return true if paging is supported.
+     */
+    public final boolean getPagingSupported() {
+        return this.getCapabilities().optBoolean("paging");
+    }
+
+    /**
+     * Get a page of tickets from the ticketregistry.
+     *
+     * The tickets are not decoded.
+     *
+     * @param cursor    cursor returned with the previous page,
+     *                  or null to get the first page.
+     * @param limit     maximum number of tickets in the page.
+     *
+     * @return TicketPage.
+     *
+     * @throws JSONRPCException Throws JSONRPCException containing any error.
+     */
+    public final TicketPage getTicketsPage(final String cursor, final int limit)
+            throws JSONRPCException {
+
+        JSONObject params = new JSONObject();
+        JSONObject result;
+        JSONArray  ticketIds;
+        JSONArray  parentIds;
+        JSONArray  versions;
+        JSONArray  tickets;
+
+        TicketCodec codec = this.selectCodec(params);
+
+        if (cursor != null) {
+            params.put("cursor", cursor);
+        }
+        params.put("limit", limit);
+
+        result = this.call("cas.getTicketsPage", params);
+
+        return this.toPage(codec, result, result.optString("cursor", null));
+    }
+
+    /**
+     * Create a TicketPage from the result of a request.
+     *
+     * @param codec     Codec the tickets are encoded with.
+     * @param result    JSONRPC result object.
+     * @param cursor    cursor of the next page, or null.
+     *
+     * @return TicketPage.
+     *
+     * @throws JSONRPCException when the result is invalid.
+     */
+    private TicketPage toPage(
+            final TicketCodec codec,
+            final JSONObject result,
+            final String cursor)
+            throws JSONRPCException {
+
+        JSONArray ticketIds = result.optJSONArray("ticket-ids");
+        JSONArray parentIds = result.optJSONArray("parent-ids");
+        JSONArray versions = result.optJSONArray("versions");
+        JSONArray tickets = result.optJSONArray("tickets");
+
+        if (ticketIds == null || tickets == null
+                || ticketIds.length() != tickets.length()) {
+            throw new JSONRPCException(-32501, "Could not decode Ticket");
+        }
+
+        return new TicketPage(
+                codec,
+                ticketIds,
+                parentIds == null ? new JSONArray() : parentIds,
+                versions == null ? new JSONArray() : versions,
+                tickets,
+                cursor);
+    }
+
+    /**
+     * Add a page of tickets to the ticketregistry.
+     *
+     * Tickets already present in the registry are kept.
+     *
+     * @param page  TicketPage, as returned by getTicketsPage.
+     *
+     * @return number of tickets added.
+     *
+     * @throws JSONRPCException Throws JSONRPCException containing any error.
+     */
+    public final int addTickets(final TicketPage page)
+            throws JSONRPCException {
+
+        JSONObject result = this.call("cas.addTickets", this.pageParams(page));
+
+        return result.optInt("added");
+    }
+
+    /**
+     * Store a page of tickets in the ticketregistry,
+     * replacing tickets with a lower version.
+     *
+     * @param page  TicketPage, as returned by getTicketsPage
+     *              or getTicketsPageById.
+     *
+     * @throws JSONRPCException Throws JSONRPCException containing any error.
+     */
+    public final void updateTickets(final TicketPage page)
+            throws JSONRPCException {
+
+        this.call("cas.updateTickets", this.pageParams(page));
+    }
+
+    /**
+     * Create the params of a batch write of a TicketPage.
+     *
+     * @param page  TicketPage.
+     *
+     * @return JSONRPC Method Parameters.
+     */
+    private JSONObject pageParams(final TicketPage page) {
+        JSONObject params = new JSONObject();
+
+        if (page.getCodec() != TicketCodecs.SERIALIZATION) {
+            params.put("codec", page.getCodec().getName());
+        }
+        params.put("ticket-ids", page.getTicketIds());
+        params.put("tickets", page.getTickets());
+        if (page.getParentIds().length() > 0) {
+            params.put("parent-ids", page.getParentIds());
+        }
+        if (page.getVersions().length() > 0 && this.getVersionsSupported()) {
+            params.put("versions", page.getVersions());
+        }
+        return params;
+    }
+
+    /**
+     * Return if the provider supports cas.updateTickets and
+     * cas.deleteTickets.
+     *
+     * @return true if batch writes are supported.
+     */
+    public final boolean getBatchSupported() {
+        return this.getCapabilities().optBoolean("batch");
+    }
+
+    /**
+     * Store a batch of tickets in the ticketregistry,
+     * replacing tickets that are already present.
+     *
+     * @param tickets   CAS Ticket objects.
+     *
+     * @throws JSONRPCException Throws JSONRPCException containing any error.
+     */
+    public final void updateTickets(final Collection<Ticket> tickets)
+            throws JSONRPCException {
+
+        this.call("cas.updateTickets", this.batchParams(tickets));
+    }
+
+    /**
+     * Delete a batch of tickets from the ticketregistry.
+     *
+     * Missing tickets are ignored.
+     *
+     * @param ticketIds     ids of the tickets to delete.
+     *
+     * @return number of tickets deleted.
+     *
+     * @throws JSONRPCException Throws JSONRPCException containing any error.
+     */
+    public final int deleteTickets(final Collection<String> ticketIds)
+            throws JSONRPCException {
+        return this.deleteTickets(ticketIds, false);
+    }
+
+    /**
+     * Delete a batch of tickets from the ticketregistry.
+     *
+     * Missing tickets are ignored.
+     *
+     * @param ticketIds     ids of the tickets to delete.
+     * @param cascade       also delete the tickets granted by the tickets,
+     *                      if the provider supports it.
+     *
+     * @return number of tickets deleted.
+     *
+     * @throws JSONRPCException Throws JSONRPCException containing any error.
+     */
+    public final int deleteTickets(final Collection<String> ticketIds, final boolean cascade)
+            throws JSONRPCException {
+
+        JSONObject params = new JSONObject();
+        JSONObject result;
+
+        params.put("ticket-ids", new JSONArray(ticketIds));
+        this.putCascade(params, cascade);
+
+        result = this.call("cas.deleteTickets", params);
+
+        return result.optInt("deleted");
+    }
+
+    /**
+     * Store and delete batches of tickets in a single request.
+     *
+     * Uses a JSON-RPC batch of cas.updateTickets and cas.deleteTickets.
+     *
+     * @param tickets       CAS Ticket objects to store.
+     * @param ticketIds     ids of the tickets to delete.
+     * @param cascade       also delete the tickets granted by the deleted
+     *                      tickets, if the provider supports it.
+     *
+     * @throws JSONRPCException Throws JSONRPCException containing any error.
+     */
+    public final void writeTickets(
+            final Collection<Ticket> tickets,
+            final Collection<String> ticketIds,
+            final boolean cascade)
+            throws JSONRPCException {
+
+        JSONObject deleteParams = new JSONObject();
+
+        deleteParams.put("ticket-ids", new JSONArray(ticketIds));
+        this.putCascade(deleteParams, cascade);
+
+        this.callBatch(
+                new String[] {"cas.updateTickets", "cas.deleteTickets"},
+                new JSONObject[] {this.batchParams(tickets), deleteParams});
+    }
+
+    /**
+     * Get a batch of tickets from the ticketregistry.
+     *
+     * @param ticketIds     ids of the tickets to get.
+     *
+     * @return Ticket Objects found, missing tickets are skipped.
+     *
+     * @throws JSONRPCException Throws JSONRPCException containing any error.
+     */
+    public final Collection<Ticket> getTicketsById(final Collection<String> ticketIds)
+            throws JSONRPCException {
+
+        JSONObject params = new JSONObject();
+        JSONObject result;
+        JSONArray  resultTickets;
+
+        ArrayList<Ticket> tickets = new ArrayList<Ticket>();
+        TicketCodec codec = this.selectCodec(params);
+
+        params.put("ticket-ids", new JSONArray(ticketIds));
+
+        result = this.call("cas.getTicketsById", params);
+
+        resultTickets = result.optJSONArray("tickets");
+        for(int i = 0; resultTickets != null && i < resultTickets.length(); ++i) {
+            try {
+                tickets.add(codec.decode(BinaryFrames.getBytes(resultTickets, i)));
+            } catch (final Exception e) {
+                throw new JSONRPCException(-32501, "Could not decode Ticket");
+            }
+        }
+
+        return tickets;
+    }
+
+    /**
+     * Get a batch of tickets from the ticketregistry, without
+     * decoding them.
+     *
+     * @param ticketIds     ids of the tickets to get.
+     *
+     * @return TicketPage with the tickets found, missing tickets are skipped.
+     *
+     * @throws JSONRPCException Throws JSONRPCException containing any error.
+     */
+    public final TicketPage getTicketsPageById(final Collection<String> ticketIds)
+            throws JSONRPCException {
+
+        JSONObject params = new JSONObject();
+        TicketCodec codec = this.selectCodec(params);
+
+        params.put("ticket-ids", new JSONArray(ticketIds));
+
+        return this.toPage(codec, this.call("cas.getTicketsById", params), null);
+    }
+
+    /**
+     * Return if the provider supports ticket versions,
+     * cas.getDigest and cas.getVersions.
+     *
+     * @return true if versions are supported.
+     */
+    public final boolean getVersionsSupported() {
+        return this.getCapabilities().optBoolean("versions");
+    }
+
+    /**
+     * Get a level of the hash tree over the tickets of the provider.
+     *
+     * @param depth     depth of the level, 0 for the root.
+     *
+     * @return hashes of the nodes at the given depth.
+     *
+     * @throws JSONRPCException Throws JSONRPCException containing any error.
+     */
+    public final long[] getDigest(final int depth)
+            throws JSONRPCException {
+
+        JSONObject params = new JSONObject();
+        JSONArray  digest;
+        long[] hashes;
+
+        params.put("depth", depth);
+
+        digest = this.call("cas.getDigest", params).optJSONArray("digest");
+        if (digest == null || digest.length() != (1 << depth)) {
+            throw new JSONRPCException(-32500, "Error extracting Digest");
+        }
+
+        hashes = new long[digest.length()];
+        for (int i = 0; i < hashes.length; ++i) {
+            hashes[i] = digest.optLong(i);
+        }
+        return hashes;
+    }
+
+    /**
+     * Get the ids and versions of the tickets in leaves
+     * of the hash tree.
+     *
+     * @param ranges    indexes of the leaves.
+     *
+     * @return VersionList, including recently deleted tickets.
+     *
+     * @throws JSONRPCException Throws JSONRPCException containing any error.
+     */
+    final VersionList getVersions(final Collection<Integer> ranges)
+            throws JSONRPCException {
+
+        JSONObject params = new JSONObject();
+        JSONObject result;
+        JSONArray  ticketIds;
+        JSONArray  parentIds;
+        JSONArray  versions;
+
+        params.put("ranges", new JSONArray(ranges));
+
+        result = this.call("cas.getVersions", params);
+
+        ticketIds = result.optJSONArray("ticket-ids");
+        parentIds = result.optJSONArray("parent-ids");
+        versions = result.optJSONArray("versions");
+        if (ticketIds == null || parentIds == null || versions == null
+                || ticketIds.length() != versions.length()
+                || ticketIds.length() != parentIds.length()) {
+            throw new JSONRPCException(-32500, "Error extracting Versions");
+        }
+
+        return new VersionList(ticketIds, parentIds, versions, result.optJSONArray("checksums"));
+    }
+
+    /**
+     * Create the params of a batch write.
+     *
+     * @param tickets   CAS Ticket objects.
+     *
+     * @return JSONRPC Method Parameters.
+     *
+     * @throws JSONRPCException when a ticket can not be encoded.
+     */
+    private JSONObject batchParams(final Collection<Ticket> tickets)
+            throws JSONRPCException {
+
+        JSONObject params = new JSONObject();
+        JSONArray  ticketIds = new JSONArray();
+        JSONArray  parentIds = new JSONArray();
+        JSONArray  versions = new JSONArray();
+        JSONArray  serializedTickets = new JSONArray();
+        TicketCodec codec = this.selectCodec(params);
+
+        for (Ticket ticket: tickets) {
+            TicketGrantingTicket parent = ticket.getGrantingTicket();
+
+            try {
+                serializedTickets.put(codec.encode(ticket));
+            } catch (final Exception e) {
+                throw new JSONRPCException(-32501, "Could not encode Ticket");
+            }
+            ticketIds.put(ticket.getId());
+            parentIds.put(parent == null ? "" : parent.getId());
+            versions.put(TicketVersion.of(ticket));
+        }
+
+        params.put("ticket-ids", ticketIds);
+        params.put("tickets", serializedTickets);
+        if (this.getCapabilities().optBoolean("parent-id")) {
+            params.put("parent-ids", parentIds);
+        }
+        if (this.getVersionsSupported()) {
+            params.put("versions", versions);
+        }
+
+        return params;
+    }
+
     /**
      * MBean Interface for provider availability.
      *
@@ -283,6 +787,15 @@ public class RegistryClient extends JSONRPCClient
         return this.getResponseTime();
     }
 
+    /**
+     * MBean Interface for provider suspicion level.
+     *
+     * @return phi, based on the heartbeat replies;
+     */
+    public final double getProviderPhi() {
+        return this.getPhi();
+    }
+
     /**
      * MBean Interface for provider URI.
      *
@@ -35,6 +35,13 @@ public interface RegistryClientMBean {
      */
     long getProviderResponseTime();
 
+    /**
+     * Return the suspicion level (phi) of the Provider.
+     *
+     * @return provider phi.
+     */
+    double getProviderPhi();
+
     /**
      * Return Provider URI.
      *
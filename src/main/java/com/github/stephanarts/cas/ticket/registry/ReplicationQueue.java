@@ -0,0 +1,345 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.jasig.cas.ticket.Ticket;
+
+import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+
+/**
+ * ReplicationQueue Class.
+ *
+ * Replicates writes to a single remote provider in the background.
+ *
+ * Writes are queued by ticket-id, a write to a ticket that is still
+ * queued replaces the queued write. This way a ticket that is updated
+ * many times in a row (a TGT during a login storm) is sent once, in
+ * its latest state. Queued writes are sent in batches of at most
+ * MAX_BATCH tickets per request.
+ *
+ * Failed batches are queued again, unless a newer write for the same
+ * ticket was queued in the meantime.
+ */
+final class ReplicationQueue extends Thread {
+
+    /**
+     * Maximum number of tickets per request.
+     */
+    static final int MAX_BATCH = 500;
+
+    /**
+     * Time to wait before retrying a failed batch (ms).
+     */
+    static final int RETRY_INTERVAL = 1000;
+
+    /**
+     * Logging Class.
+     */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final RegistryClient client;
+
+    /**
+     * Queued writes, a null value marks a delete.
+     */
+    private final Map<String, Ticket> pending = new LinkedHashMap<String, Ticket>();
+
+    private final Object lock = new Object();
+
+    private boolean running = true;
+
+    private long coalesced = 0;
+
+    private long requests = 0;
+
+    private volatile boolean cascade = false;
+
+    private static int NR = 0;
+
+    private static Object NRLOCK = new Object();
+
+    /**
+     * Create a ReplicationQueue.
+     *
+     * @param client    remote provider to replicate to.
+     */
+    ReplicationQueue(final RegistryClient client) {
+        this.client = client;
+
+        synchronized(NRLOCK) {
+            NR++;
+            this.setName("ReplicationQueue-"+NR);
+        }
+        this.setDaemon(true);
+    }
+
+    /**
+     * Return the provider this queue replicates to.
+     *
+     * @return remote provider.
+     */
+    RegistryClient getClient() {
+        return this.client;
+    }
+
+    /**
+     * Also delete the tickets granted by deleted tickets.
+     *
+     * @param cascade   true to delete granted tickets.
+     */
+    void setCascade(final boolean cascade) {
+        this.cascade = cascade;
+    }
+
+    /**
+     * Queue an add or update of a ticket.
+     *
+     * @param ticket    CAS Ticket object.
+     */
+    void update(final Ticket ticket) {
+        this.queue(ticket.getId(), ticket);
+    }
+
+    /**
+     * Queue a delete of a ticket.
+     *
+     * @param ticketId  id of the ticket.
+     */
+    void delete(final String ticketId) {
+        this.queue(ticketId, null);
+    }
+
+    /**
+     * Queue a write, replacing a queued write for the same ticket.
+     *
+     * @param ticketId  id of the ticket.
+     * @param ticket    CAS Ticket object, null to delete.
+     */
+    private void queue(final String ticketId, final Ticket ticket) {
+        synchronized(this.lock) {
+            if (this.pending.containsKey(ticketId)) {
+                this.coalesced++;
+            }
+            this.pending.put(ticketId, ticket);
+            this.lock.notifyAll();
+        }
+    }
+
+    /**
+     * Run the queue.
+     */
+    public void run() {
+        Map<String, Ticket> batch;
+
+        while (true) {
+            synchronized(this.lock) {
+                try {
+                    while (this.running && (this.pending.isEmpty() || !this.client.getAvailable())) {
+                        this.lock.wait(this.pending.isEmpty() ? 0 : RETRY_INTERVAL);
+                    }
+                } catch (final InterruptedException e) {
+                    break;
+                }
+                if (this.pending.isEmpty()
+                        || (!this.running && !this.client.getAvailable())) {
+                    break;
+                }
+                batch = this.take();
+            }
+
+            try {
+                this.send(batch);
+            } catch (final JSONRPCException e) {
+                logger.warn("Replication to {} failed: {}", this.client.getConnectURI(), e.getMessage());
+                synchronized(this.lock) {
+                    if (!this.running) {
+                        break;
+                    }
+                    this.requeue(batch);
+                    try {
+                        this.lock.wait(RETRY_INTERVAL);
+                    } catch (final InterruptedException ie) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        synchronized(this.lock) {
+            if (!this.pending.isEmpty()) {
+                logger.warn("Dropping {} writes to {}", this.pending.size(), this.client.getConnectURI());
+                this.pending.clear();
+            }
+        }
+    }
+
+    /**
+     * Remove the oldest MAX_BATCH writes from the queue.
+     *
+     * Must be called holding the lock.
+     *
+     * @return writes by ticket-id.
+     */
+    private Map<String, Ticket> take() {
+        Map<String, Ticket> batch = new LinkedHashMap<String, Ticket>();
+        Iterator<Map.Entry<String, Ticket>> iter = this.pending.entrySet().iterator();
+
+        while (iter.hasNext() && batch.size() < MAX_BATCH) {
+            Map.Entry<String, Ticket> entry = iter.next();
+            batch.put(entry.getKey(), entry.getValue());
+            iter.remove();
+        }
+        return batch;
+    }
+
+    /**
+     * Queue the writes of a failed batch again, skipping tickets
+     * that have been written since.
+     *
+     * Must be called holding the lock.
+     *
+     * @param batch     writes by ticket-id.
+     */
+    private void requeue(final Map<String, Ticket> batch) {
+        for (Map.Entry<String, Ticket> entry: batch.entrySet()) {
+            if (!this.pending.containsKey(entry.getKey())) {
+                this.pending.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Send a batch to the provider.
+     *
+     * Providers that do not support batches get a request per ticket.
+     *
+     * @param batch     writes by ticket-id.
+     *
+     * @throws JSONRPCException when the batch could not be sent.
+     */
+    private void send(final Map<String, Ticket> batch) throws JSONRPCException {
+        List<Ticket> updates = new ArrayList<Ticket>();
+        List<String> deletes = new ArrayList<String>();
+
+        for (Map.Entry<String, Ticket> entry: batch.entrySet()) {
+            if (entry.getValue() == null) {
+                deletes.add(entry.getKey());
+            } else {
+                updates.add(entry.getValue());
+            }
+        }
+
+        if (this.client.getBatchSupported()) {
+            if (!updates.isEmpty() && !deletes.isEmpty()) {
+                this.client.writeTickets(updates, deletes, this.cascade);
+                this.countRequest();
+                return;
+            }
+            if (!updates.isEmpty()) {
+                this.client.updateTickets(updates);
+                this.countRequest();
+            }
+            if (!deletes.isEmpty()) {
+                this.client.deleteTickets(deletes, this.cascade);
+                this.countRequest();
+            }
+            return;
+        }
+
+        for (Ticket ticket: updates) {
+            this.client.updateTicket(ticket);
+            this.countRequest();
+        }
+        for (String ticketId: deletes) {
+            try {
+                this.client.deleteTicket(ticketId, this.cascade);
+            } catch (final JSONRPCException e) {
+                if (e.getCode() != -32503) {
+                    throw e;
+                }
+            }
+            this.countRequest();
+        }
+    }
+
+    /**
+     * Count a request sent to the provider.
+     */
+    private void countRequest() {
+        synchronized(this.lock) {
+            this.requests++;
+        }
+    }
+
+    /**
+     * Return the number of queued writes.
+     *
+     * @return number of writes.
+     */
+    int getPending() {
+        synchronized(this.lock) {
+            return this.pending.size();
+        }
+    }
+
+    /**
+     * Return the number of writes replaced by a newer write.
+     *
+     * @return number of writes.
+     */
+    long getCoalesced() {
+        synchronized(this.lock) {
+            return this.coalesced;
+        }
+    }
+
+    /**
+     * Return the number of requests sent to the provider.
+     *
+     * @return number of requests.
+     */
+    long getRequests() {
+        synchronized(this.lock) {
+            return this.requests;
+        }
+    }
+
+    /**
+     * Send the queued writes and stop the queue.
+     *
+     * Writes to a provider that is not available are dropped.
+     */
+    void cleanup() {
+        synchronized(this.lock) {
+            this.running = false;
+            this.lock.notifyAll();
+        }
+        try {
+            this.join();
+        } catch (final InterruptedException e) {
+            logger.debug(e.toString());
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry;
+
+import org.json.JSONArray;
+
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodec;
+
+/**
+ * TicketPage Class.
+ *
+ * A page of encoded tickets, as returned by cas.getTicketsPage.
+ * The tickets are not decoded, a page can be handed to another
+ * provider as-is using RegistryClient.addTickets.
+ */
+public final class TicketPage {
+
+    private final TicketCodec codec;
+
+    private final JSONArray ticketIds;
+
+    private final JSONArray parentIds;
+
+    private final JSONArray versions;
+
+    private final JSONArray tickets;
+
+    private final String cursor;
+
+    /**
+     * Create a TicketPage.
+     *
+     * @param codec         Codec the tickets are encoded with.
+     * @param ticketIds     Ticket-IDs.
+     * @param parentIds     Ticket-IDs of the granting tickets ("" if none).
+     * @param versions      versions of the tickets, empty if unknown.
+     * @param tickets       encoded tickets.
+     * @param cursor        cursor of the next page, or null.
+     */
+    TicketPage(
+            final TicketCodec codec,
+            final JSONArray ticketIds,
+            final JSONArray parentIds,
+            final JSONArray versions,
+            final JSONArray tickets,
+            final String cursor) {
+        this.codec = codec;
+        this.ticketIds = ticketIds;
+        this.parentIds = parentIds;
+        this.versions = versions;
+        this.tickets = tickets;
+        this.cursor = cursor;
+    }
+
+    /**
+     * Return the codec the tickets are encoded with.
+     *
+     * @return TicketCodec.
+     */
+    public TicketCodec getCodec() {
+        return this.codec;
+    }
+
+    /**
+     * Return the Ticket-IDs.
+     *
+     * @return Ticket-IDs.
+     */
+    JSONArray getTicketIds() {
+        return this.ticketIds;
+    }
+
+    /**
+     * Return the Ticket-IDs of the granting tickets.
+     *
+     * @return Ticket-IDs, "" for tickets without parent.
+     */
+    JSONArray getParentIds() {
+        return this.parentIds;
+    }
+
+    /**
+     * Return the versions of the tickets.
+     *
+     * @return versions, empty if the provider does not keep them.
+     */
+    JSONArray getVersions() {
+        return this.versions;
+    }
+
+    /**
+     * Return the encoded tickets.
+     *
+     * @return encoded tickets.
+     */
+    JSONArray getTickets() {
+        return this.tickets;
+    }
+
+    /**
+     * Return the cursor of the next page.
+     *
+     * @return cursor, or null if this is the last page.
+     */
+    public String getCursor() {
+        return this.cursor;
+    }
+
+    /**
+     * Return the number of tickets in this page.
+     *
+     * @return number of tickets.
+     */
+    public int size() {
+        return this.tickets.length();
+    }
+}
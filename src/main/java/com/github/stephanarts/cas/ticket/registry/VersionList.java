@@ -0,0 +1,116 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry;
+
+import org.json.JSONArray;
+
+/**
+ * VersionList Class.
+ *
+ * Ids, parent-ids and versions of the tickets in a set of ranges
+ * of a provider, as returned by cas.getVersions. Deleted tickets
+ * have version DELETED. Providers that do not return checksums
+ * report checksum 0.
+ */
+final class VersionList {
+
+    /**
+     * Version of a ticket deleted on the provider.
+     */
+    static final long DELETED = -1;
+
+    private final JSONArray ticketIds;
+
+    private final JSONArray parentIds;
+
+    private final JSONArray versions;
+
+    private final JSONArray checksums;
+
+    /**
+     * Create a VersionList.
+     *
+     * @param ticketIds     Ticket-IDs.
+     * @param parentIds     Ticket-IDs of the granting tickets ("" if none).
+     * @param versions      versions.
+     * @param checksums     checksums of the data, or null.
+     */
+    VersionList(
+            final JSONArray ticketIds,
+            final JSONArray parentIds,
+            final JSONArray versions,
+            final JSONArray checksums) {
+        this.ticketIds = ticketIds;
+        this.parentIds = parentIds;
+        this.versions = versions;
+        this.checksums = checksums == null ? new JSONArray() : checksums;
+    }
+
+    /**
+     * Return a Ticket-ID.
+     *
+     * @param i     index.
+     *
+     * @return Ticket-ID.
+     */
+    String getTicketId(final int i) {
+        return this.ticketIds.optString(i);
+    }
+
+    /**
+     * Return the Ticket-ID of a granting ticket.
+     *
+     * @param i     index.
+     *
+     * @return Ticket-ID, or null.
+     */
+    String getParentId(final int i) {
+        String parentId = this.parentIds.optString(i, "");
+
+        return parentId.length() == 0 ? null : parentId;
+    }
+
+    /**
+     * Return a version.
+     *
+     * @param i     index.
+     *
+     * @return version, or DELETED.
+     */
+    long getVersion(final int i) {
+        return this.versions.optLong(i, 0);
+    }
+
+    /**
+     * Return the checksum of the data of a ticket.
+     *
+     * @param i     index.
+     *
+     * @return checksum, or 0.
+     */
+    long getChecksum(final int i) {
+        return this.checksums.optLong(i, 0);
+    }
+
+    /**
+     * Return the number of tickets.
+     *
+     * @return number of tickets.
+     */
+    int size() {
+        return this.ticketIds.length();
+    }
+}
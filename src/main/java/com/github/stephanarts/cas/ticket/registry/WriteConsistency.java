@@ -0,0 +1,60 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry;
+
+/**
+ * Number of acknowledgements a write has to collect
+ * before the RegistryBroker returns to the caller.
+ *
+ * Writes are always sent to all available providers,
+ * the remaining replies are collected in the background.
+ */
+public enum WriteConsistency {
+
+    /**
+     * Wait for the local provider only.
+     */
+    LOCAL,
+
+    /**
+     * Wait for a majority of the configured providers.
+     */
+    QUORUM,
+
+    /**
+     * Wait for all available providers.
+     */
+    ALL;
+
+    /**
+     * Return the number of acknowledgements required.
+     *
+     * @param providers  number of configured providers.
+     * @param available  number of available providers.
+     *
+     * @return number of acknowledgements.
+     */
+    public int getRequiredAcks(final int providers, final int available) {
+        switch (this) {
+            case LOCAL:
+                return 1;
+            case QUORUM:
+                return (providers / 2) + 1;
+            default:
+                return available;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry;
+
+/**
+ * WriteQuorum Class.
+ *
+ * Collects the acknowledgements of a write that is
+ * sent to multiple providers concurrently.
+ */
+final class WriteQuorum {
+
+    private final int required;
+
+    private int pending;
+
+    private int acks = 0;
+
+    /**
+     * Create a WriteQuorum.
+     *
+     * @param required  number of acknowledgements required.
+     * @param pending   number of replies that count towards the quorum.
+     */
+    WriteQuorum(final int required, final int pending) {
+        this.required = required;
+        this.pending = pending;
+    }
+
+    /**
+     * Register a successful reply.
+     */
+    synchronized void ack() {
+        this.acks++;
+        this.pending--;
+        this.notifyAll();
+    }
+
+    /**
+     * Register a failed reply.
+     */
+    synchronized void nack() {
+        this.pending--;
+        this.notifyAll();
+    }
+
+    /**
+     * Wait until the quorum is reached, or can no longer be reached.
+     *
+     * @param timeout  maximum time to wait (ms).
+     *
+     * @return true if the quorum was reached.
+     *
+     * @throws InterruptedException when interrupted while waiting.
+     */
+    synchronized boolean await(final long timeout)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        long remaining = timeout;
+
+        while (this.acks < this.required
+                && (this.acks + this.pending) >= this.required
+                && remaining > 0) {
+            this.wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+
+        return this.acks >= this.required;
+    }
+}
@@ -21,7 +21,11 @@ import org.jasig.cas.ticket.Ticket;
 import org.jasig.cas.ticket.registry.AbstractDistributedTicketRegistry;
 import org.springframework.beans.factory.DisposableBean;
 
+import com.github.stephanarts.cas.ticket.registry.provider.ConcurrentTicketStore;
+import com.github.stephanarts.cas.ticket.registry.provider.OffHeapTicketStore;
 import com.github.stephanarts.cas.ticket.registry.provider.ZMQProvider;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodec;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
 import com.github.stephanarts.cas.ticket.registry.support.PaceMaker;
 
 import java.lang.management.ManagementFactory;
@@ -76,11 +80,137 @@ public final class ZMQTicketRegistry
                 final int heartbeatTimeout,
                 final int heartbeatInterval)
             throws Exception {
+        this(providers,
+                address,
+                port,
+                requestTimeout,
+                heartbeatTimeout,
+                heartbeatInterval,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new TicketRegistry Backend.
+     *
+     * An instance of the ZMQTicketRegistry stores
+     * CAS Tickets in a cluster of Registry-Providers.
+     *
+     * @param providers         Array of providers to connect to
+     * @param address           Address to bind the RegistryProvider on
+     * @param port              TCP port to bind the RegistryProvider on
+     * @param requestTimeout    Timeout
+     * @param heartbeatTimeout  Timeout
+     * @param heartbeatInterval Interval
+     * @param workers           Number of RegistryProvider worker threads
+     *
+     * @throws Exception if localProvider could not be found
+     */
+    public ZMQTicketRegistry(
+                final String[] providers,
+                final String address,
+                final int port,
+                final int requestTimeout,
+                final int heartbeatTimeout,
+                final int heartbeatInterval,
+                final int workers)
+            throws Exception {
+        this(providers,
+                address,
+                port,
+                requestTimeout,
+                heartbeatTimeout,
+                heartbeatInterval,
+                workers,
+                false);
+    }
+
+    /**
+     * Creates a new TicketRegistry Backend.
+     *
+     * An instance of the ZMQTicketRegistry stores
+     * CAS Tickets in a cluster of Registry-Providers.
+     *
+     * @param providers         Array of providers to connect to
+     * @param address           Address to bind the RegistryProvider on
+     * @param port              TCP port to bind the RegistryProvider on
+     * @param requestTimeout    Timeout
+     * @param heartbeatTimeout  Timeout
+     * @param heartbeatInterval Interval
+     * @param workers           Number of RegistryProvider worker threads
+     * @param offHeap           Keep the tickets of the RegistryProvider
+     *                          in direct memory, outside of the heap
+     *
+     * @throws Exception if localProvider could not be found
+     */
+    public ZMQTicketRegistry(
+                final String[] providers,
+                final String address,
+                final int port,
+                final int requestTimeout,
+                final int heartbeatTimeout,
+                final int heartbeatInterval,
+                final int workers,
+                final boolean offHeap)
+            throws Exception {
+        this(providers,
+                address,
+                port,
+                requestTimeout,
+                heartbeatTimeout,
+                heartbeatInterval,
+                workers,
+                offHeap,
+                null);
+    }
+
+    /**
+     * Creates a new TicketRegistry Backend.
+     *
+     * An instance of the ZMQTicketRegistry stores
+     * CAS Tickets in a cluster of Registry-Providers.
+     *
+     * With a snapshotDirectory the RegistryProvider keeps a snapshot
+     * of its tickets on disk. On start the snapshot is loaded and
+     * only the tickets changed since are copied from the other
+     * providers.
+     *
+     * @param providers         Array of providers to connect to
+     * @param address           Address to bind the RegistryProvider on
+     * @param port              TCP port to bind the RegistryProvider on
+     * @param requestTimeout    Timeout
+     * @param heartbeatTimeout  Timeout
+     * @param heartbeatInterval Interval
+     * @param workers           Number of RegistryProvider worker threads
+     * @param offHeap           Keep the tickets of the RegistryProvider
+     *                          in direct memory, outside of the heap
+     * @param snapshotDirectory Directory to keep the snapshot in,
+     *                          null to disable snapshots
+     *
+     * @throws Exception if localProvider could not be found
+     */
+    public ZMQTicketRegistry(
+                final String[] providers,
+                final String address,
+                final int port,
+                final int requestTimeout,
+                final int heartbeatTimeout,
+                final int heartbeatInterval,
+                final int workers,
+                final boolean offHeap,
+                final String snapshotDirectory)
+            throws Exception {
 
         this.provider = new ZMQProvider(
                 "tcp://"+address+":"+port,
-                this.providerId);
+                this.providerId,
+                offHeap ? new OffHeapTicketStore() : new ConcurrentTicketStore());
+
+        if (snapshotDirectory != null && snapshotDirectory.length() > 0) {
+            int nTickets = this.provider.openSnapshot(snapshotDirectory);
+            logger.info("Loaded "+nTickets+" tickets from "+this.provider.getSnapshotFile());
+        }
 
+        this.provider.setWorkers(workers);
         this.provider.start();
 
         this.pacemaker = new PaceMaker();
@@ -93,6 +223,7 @@ public final class ZMQTicketRegistry
                 requestTimeout,
                 this.pacemaker,
                 this.providerId);
+        this.registryBroker.setInProcessProvider(this.provider);
 
         MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
         this.mbeanName = new ObjectName("CAS:type=TicketRegistry,provider='"+port+"'");
@@ -181,6 +312,200 @@ public final class ZMQTicketRegistry
         return true;
     }
 
+    /**
+     * Set the number of acknowledgements a write waits for.
+     *
+     * Writes are sent to all available providers concurrently,
+     * this determines when control returns to CAS.
+     *
+     * @param writeConsistency  LOCAL, QUORUM or ALL (default).
+     */
+    public void setWriteConsistency(final WriteConsistency writeConsistency) {
+        this.registryBroker.setWriteConsistency(writeConsistency);
+    }
+
+    /**
+     * Set the preferred TicketCodec.
+     *
+     * Providers that do not support the codec are sent
+     * Java serialized tickets.
+     *
+     * @param ticketCodec    name of the TicketCodec ('java' or 'deflate').
+     */
+    public void setTicketCodec(final String ticketCodec) {
+        TicketCodec codec = TicketCodecs.get(ticketCodec);
+
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown TicketCodec: " + ticketCodec);
+        }
+        this.registryBroker.setTicketCodec(codec);
+    }
+
+    /**
+     * Set the interval between walks of the TicketReaper,
+     * which removes expired tickets from the local provider.
+     *
+     * @param interval  Interval (ms).
+     */
+    public void setReaperInterval(final int interval) {
+        this.provider.setReaperInterval(interval);
+    }
+
+    /**
+     * Set the time the local provider remembers deleted tickets,
+     * so a resync from another provider can not bring them back.
+     *
+     * @param timeout   Timeout (ms), default 600000.
+     */
+    public void setTombstoneTimeout(final int timeout) {
+        this.provider.setTombstoneTimeout(timeout);
+    }
+
+    /**
+     * Replicate writes through the change streams of the providers
+     * instead of sending them to every provider.
+     *
+     * @param publishers URIs of the change streams, one per provider,
+     *                   in the same order as the providers.
+     */
+    public void setPublishers(final String[] publishers) {
+        this.registryBroker.setPublishers(publishers);
+    }
+
+    /**
+     * Set the interval between snapshots of the local provider,
+     * when a snapshotDirectory is configured.
+     *
+     * @param interval  Interval (ms), default 300000.
+     */
+    public void setSnapshotInterval(final int interval) {
+        this.provider.setSnapshotInterval(interval);
+    }
+
+    /**
+     * Set the suspicion level (phi) at which a provider that
+     * misses heartbeats is marked unavailable.
+     *
+     * The suspicion grows with the time since the last heartbeat
+     * reply, relative to the intervals seen before. A threshold of 0
+     * marks a provider unavailable on the first missed heartbeat.
+     *
+     * @param threshold  phi, default 8.
+     */
+    public void setPhiThreshold(final double threshold) {
+        this.pacemaker.setPhiThreshold(threshold);
+    }
+
+    /**
+     * Set the number of threads sending heartbeats,
+     * the providers are spread evenly over them.
+     *
+     * @param workers  number of threads, default 1.
+     */
+    public void setHeartbeatWorkers(final int workers) {
+        this.pacemaker.setWorkers(workers);
+    }
+
+    /**
+     * Use the binary protocol instead of JSON-RPC.
+     *
+     * Only used with providers that support it, JSON-RPC
+     * is used otherwise.
+     *
+     * @param binaryProtocol  true to enable the binary protocol.
+     */
+    public void setBinaryProtocol(final boolean binaryProtocol) {
+        this.registryBroker.setBinaryProtocol(binaryProtocol);
+    }
+
+    /**
+     * Set the time to wait for a provider before a read
+     * is also sent to the next provider.
+     *
+     * Tickets missing from the local provider are read
+     * from the remote providers, fastest first.
+     *
+     * @param readHedgeDelay  delay (ms), default 20.
+     */
+    public void setReadHedgeDelay(final int readHedgeDelay) {
+        this.registryBroker.setReadHedgeDelay(readHedgeDelay);
+    }
+
+    /**
+     * Replicate writes to the remote providers asynchronously.
+     *
+     * Writes return once the local provider has them, repeated
+     * writes to the same ticket are coalesced and sent to the
+     * remote providers in batches.
+     *
+     * @param asyncReplication  true to replicate asynchronously.
+     */
+    public void setAsyncReplication(final boolean asyncReplication) {
+        this.registryBroker.setAsyncReplication(asyncReplication);
+    }
+
+    /**
+     * Partition the tickets over the providers.
+     *
+     * Every ticket is stored on the given number of providers,
+     * chosen by a consistent-hash ring over the provider-ids.
+     *
+     * @param replicas  number of providers per ticket,
+     *                  0 (default) to store every ticket on every provider.
+     */
+    public void setReplicas(final int replicas) {
+        this.registryBroker.setReplicas(replicas);
+    }
+
+    /**
+     * Set the key tickets are placed by when partitioned.
+     *
+     * TGT places service and proxy tickets with their TicketGrantingTicket,
+     * deleting a TGT deletes its tickets on the providers as well.
+     *
+     * @param placementPolicy  TICKET (default) or TGT.
+     */
+    public void setPlacementPolicy(final PlacementPolicy placementPolicy) {
+        this.registryBroker.setPlacementPolicy(placementPolicy);
+    }
+
+    /**
+     * Keep the local provider in sync with the remote providers.
+     *
+     * When a provider becomes available again after missing heartbeats,
+     * and every interval ms, the ranges of tickets that differ between
+     * the local and the remote providers are exchanged.
+     *
+     * @param interval  interval between full resyncs (ms),
+     *                  0 (default) to disable.
+     */
+    public void setAntiEntropyInterval(final int interval) {
+        this.registryBroker.setAntiEntropyInterval(interval);
+    }
+
+    /**
+     * Log the writes missed by unavailable providers to disk,
+     * and replay them when the providers are available again.
+     *
+     * When the log of a provider is full, the provider is
+     * resynced instead.
+     *
+     * @param hintLogSize  size of the memory-mapped log per provider
+     *                     (bytes), 0 (default) to disable.
+     */
+    public void setHintLogSize(final int hintLogSize) {
+        this.registryBroker.setHintLogSize(hintLogSize);
+    }
+
+    /**
+     * Set the directory holding the hint logs.
+     *
+     * @param hintLogDirectory  directory, default java.io.tmpdir.
+     */
+    public void setHintLogDirectory(final String hintLogDirectory) {
+        this.registryBroker.setHintLogDirectory(hintLogDirectory);
+    }
+
     /**
      * Get local Provider ID.
      *
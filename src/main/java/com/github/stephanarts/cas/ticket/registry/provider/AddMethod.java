@@ -15,21 +15,12 @@
 
 package com.github.stephanarts.cas.ticket.registry.provider;
 
-import java.util.HashMap;
-
-import java.io.ByteArrayInputStream;
-import java.io.ObjectInputStream;
-
-import javax.xml.bind.DatatypeConverter;
-
 import org.json.JSONObject;
 //import org.json.JSONException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.jasig.cas.ticket.Ticket;
-
 import com.github.stephanarts.cas.ticket.registry.support.IMethod;
 import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
 
@@ -43,15 +34,15 @@ public final class AddMethod implements IMethod {
      */
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private HashMap<Integer, Ticket> map; 
+    private final TicketStore store;
 
     /**
      * Constructor.
      *
-     * @param map ticket-map.
+     * @param store ticket-store.
      */
-    public AddMethod(final HashMap<Integer, Ticket> map) {
-        this.map = map;
+    public AddMethod(final TicketStore store) {
+        this.store = store;
     }
 
     /**
@@ -68,36 +59,14 @@ public final class AddMethod implements IMethod {
 
         JSONObject result = new JSONObject();
 
-        String ticketId = null;
-        String serializedTicket = null;
-
-        Ticket ticket = null;
-
         logger.debug("Add Ticket");
-        if (params.length() != 2) {
-            throw new JSONRPCException(-32602, "Invalid Params");
-        }
-        if (!(params.has("ticket-id") && params.has("ticket"))) {
-            throw new JSONRPCException(-32602, "Invalid Params");
-        }
-        try {
-            ticketId = params.getString("ticket-id");
-            serializedTicket = params.getString("ticket");
 
-            ByteArrayInputStream bi = new ByteArrayInputStream(
-            DatatypeConverter.parseBase64Binary(serializedTicket));
-            ObjectInputStream si = new ObjectInputStream(bi);
-
-            ticket =(Ticket) si.readObject();
-        } catch(final Exception e) {
-            throw new JSONRPCException(-32501, "Could not decode Ticket");
-        }
+        TicketEntry entry = TicketEntry.fromParams(params);
+        String ticketId = entry.getTicketId();
 
-        if(this.map.containsKey(ticketId.hashCode())) {
+        if(!this.store.add(entry)) {
             logger.error("Duplicate Key {}", ticketId);
             throw new JSONRPCException(-32502, "Duplicate Ticket");
-        } else {
-            this.map.put(ticketId.hashCode(), ticket);
         }
 
         logger.debug("Ticket-ID '{}'", ticketId);
@@ -0,0 +1,77 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import org.json.JSONObject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.stephanarts.cas.ticket.registry.support.IMethod;
+import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+
+/**
+ * AddTicketsMethod Class.
+ *
+ * Adds a batch of tickets, as returned by cas.getTicketsPage.
+ * Tickets that are already present are kept, this way a batch
+ * can not overwrite a ticket that was updated in the meantime.
+ */
+final class AddTicketsMethod implements IMethod {
+
+    /**
+     * Logging Class.
+     */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final TicketStore store;
+
+    /**
+     * Constructor.
+     *
+     * @param store ticket-store.
+     */
+    public AddTicketsMethod(final TicketStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Execute the JSONRPCFunction.
+     *
+     * @param params    JSONRPC Method Parameters.
+     *
+     * @return          JSONRPC result object
+     *
+     * @throws JSONRPCException implementors can throw JSONRPCExceptions containing the error.
+     */
+    public JSONObject execute(final JSONObject params) throws JSONRPCException {
+        JSONObject result = new JSONObject();
+        TicketEntry[] entries = TicketEntry.fromBatchParams(params);
+        int added = 0;
+
+        for (TicketEntry entry: entries) {
+            if (this.store.add(entry)) {
+                added++;
+            }
+        }
+
+        logger.debug("AddTickets: {} of {}", added, entries.length);
+
+        result.put("added", added);
+
+        return result;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Context;
+import org.zeromq.ZMQ.Socket;
+
+/**
+ * ChangePublisher Class.
+ *
+ * Publishes the writes made to a TicketStore by clients on a PUB
+ * socket, as TicketRecords, one per message. Other providers subscribe
+ * (see ChangeSubscriber) and apply the records, so a write is replicated
+ * by storing it once and publishing it once, however many providers
+ * there are.
+ *
+ * Publishing does not block: records for subscribers that can not keep
+ * up are dropped by ZeroMQ, and repaired by AntiEntropy.
+ */
+final class ChangePublisher {
+
+    /**
+     * Logging Class.
+     */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Context context;
+
+    private final Socket socket;
+
+    private final String bindUri;
+
+    private long published = 0;
+
+    /**
+     * Create a ChangePublisher.
+     *
+     * @param bindUri   URI to bind the PUB socket on.
+     */
+    ChangePublisher(final String bindUri) {
+        this.bindUri = bindUri;
+        this.context = ZMQ.context(1);
+        this.socket = this.context.socket(ZMQ.PUB);
+        this.socket.setLinger(0);
+        try {
+            this.socket.bind(bindUri);
+        } catch (final RuntimeException e) {
+            this.socket.close();
+            this.context.term();
+            throw e;
+        }
+    }
+
+    /**
+     * Return the URI the PUB socket is bound on.
+     *
+     * @return bind URI.
+     */
+    String getBindUri() {
+        return this.bindUri;
+    }
+
+    /**
+     * Publish a stored ticket.
+     *
+     * @param entry     Ticket.
+     */
+    void put(final TicketEntry entry) {
+        try {
+            this.send(TicketRecord.encodePut(entry));
+        } catch (final IOException e) {
+            logger.warn("Could not publish {}: {}", entry.getTicketId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Publish a deleted ticket.
+     *
+     * @param ticketId  Ticket-ID.
+     * @param deleted   time of the delete (ms).
+     */
+    void remove(final String ticketId, final long deleted) {
+        try {
+            this.send(TicketRecord.encodeDelete(ticketId, deleted));
+        } catch (final IOException e) {
+            logger.warn("Could not publish {}: {}", ticketId, e.getMessage());
+        }
+    }
+
+    /**
+     * Send a record.
+     *
+     * ZeroMQ sockets are not thread-safe, sends are serialized.
+     *
+     * @param record    encoded record.
+     */
+    private synchronized void send(final byte[] record) {
+        if (this.socket.send(record, ZMQ.NOBLOCK)) {
+            this.published++;
+        }
+    }
+
+    /**
+     * Return the number of records published.
+     *
+     * @return number of records.
+     */
+    synchronized long getPublished() {
+        return this.published;
+    }
+
+    /**
+     * Close the PUB socket.
+     */
+    synchronized void close() {
+        this.socket.close();
+        this.context.term();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Context;
+import org.zeromq.ZMQ.Socket;
+
+/**
+ * ChangeSubscriber Class.
+ *
+ * Subscribes to the ChangePublishers of other providers and applies
+ * the published records to the local store. Records are applied like
+ * any other write, by version and respecting tombstones, so records
+ * arriving late or twice are harmless. Applied records are not
+ * published again.
+ */
+final class ChangeSubscriber extends Thread {
+
+    /**
+     * Time to wait for a record before checking for new
+     * subscriptions and stop requests (ms).
+     */
+    static final int POLL_INTERVAL = 100;
+
+    /**
+     * Logging Class.
+     */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final VersionedTicketStore store;
+
+    /**
+     * Publishers to connect to, connected by the subscriber thread.
+     */
+    private final List<String> pending = new ArrayList<String>();
+
+    private final Set<String> publishers = new LinkedHashSet<String>();
+
+    private final Object lock = new Object();
+
+    private volatile boolean running = true;
+
+    private volatile long applied = 0;
+
+    private static int NR = 0;
+
+    private static Object NRLOCK = new Object();
+
+    /**
+     * Create a ChangeSubscriber.
+     *
+     * @param store     Store to apply the records to.
+     */
+    ChangeSubscriber(final VersionedTicketStore store) {
+        this.store = store;
+
+        synchronized(NRLOCK) {
+            NR++;
+            this.setName("ChangeSubscriber-"+NR);
+        }
+        this.setDaemon(true);
+    }
+
+    /**
+     * Subscribe to a publisher.
+     *
+     * The publisher does not need to be up yet, ZeroMQ connects
+     * (and reconnects) in the background.
+     *
+     * @param uri   URI of the publisher.
+     */
+    void subscribe(final String uri) {
+        synchronized(this.lock) {
+            if (this.publishers.add(uri)) {
+                this.pending.add(uri);
+            }
+        }
+    }
+
+    /**
+     * Return the URIs of the publishers subscribed to.
+     *
+     * @return URIs.
+     */
+    List<String> getPublishers() {
+        synchronized(this.lock) {
+            return new ArrayList<String>(this.publishers);
+        }
+    }
+
+    /**
+     * Return the number of records applied.
+     *
+     * @return number of records.
+     */
+    long getApplied() {
+        return this.applied;
+    }
+
+    /**
+     * Run the subscriber.
+     */
+    public void run() {
+        Context context = ZMQ.context(1);
+        Socket socket = context.socket(ZMQ.SUB);
+
+        socket.setLinger(0);
+        socket.setReceiveTimeOut(POLL_INTERVAL);
+        socket.subscribe(new byte[0]);
+
+        try {
+            while (this.running) {
+                byte[] record;
+
+                synchronized(this.lock) {
+                    for (String uri: this.pending) {
+                        socket.connect(uri);
+                    }
+                    this.pending.clear();
+                }
+
+                record = socket.recv();
+                if (record != null) {
+                    this.apply(record);
+                }
+            }
+        } finally {
+            socket.close();
+            context.term();
+        }
+    }
+
+    /**
+     * Apply a record to the store.
+     *
+     * @param data  encoded record.
+     */
+    private void apply(final byte[] data) {
+        TicketRecord record;
+
+        try {
+            record = TicketRecord.decode(data);
+        } catch (final IOException e) {
+            logger.warn("Skipping invalid record: {}", e.getMessage());
+            return;
+        }
+
+        if (record.getType() == TicketRecord.PUT) {
+            this.store.replicate(record.getEntry());
+        } else {
+            this.store.replicateRemove(record.getTicketId());
+        }
+        this.applied++;
+    }
+
+    /**
+     * Stop the subscriber and wait for it to exit.
+     */
+    void cleanup() {
+        this.running = false;
+        try {
+            this.join();
+        } catch (final InterruptedException e) {
+            logger.debug(e.toString());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * ChildIndex Class.
+ *
+ * Ids of the tickets granted by a ticket, by the id of the granting
+ * ticket. Kept by the TicketStores, so the tickets of a TGT can be
+ * found without walking (and decoding) all tickets.
+ */
+final class ChildIndex {
+
+    private final ConcurrentMap<String, Set<String>> children =
+            new ConcurrentHashMap<String, Set<String>>();
+
+    /**
+     * Add a ticket to the index.
+     *
+     * @param ticketId  Ticket-ID.
+     * @param parentId  Ticket-ID of the granting ticket, or null.
+     */
+    void add(final String ticketId, final String parentId) {
+        if (parentId == null) {
+            return;
+        }
+
+        while (true) {
+            Set<String> ids = this.children.get(parentId);
+
+            if (ids == null) {
+                Set<String> created = new HashSet<String>();
+                ids = this.children.putIfAbsent(parentId, created);
+                if (ids == null) {
+                    ids = created;
+                }
+            }
+            synchronized(ids) {
+                /* Skip sets dropped while they were empty */
+                if (this.children.get(parentId) == ids) {
+                    ids.add(ticketId);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove a ticket from the index.
+     *
+     * @param ticketId  Ticket-ID.
+     * @param parentId  Ticket-ID of the granting ticket, or null.
+     */
+    void remove(final String ticketId, final String parentId) {
+        if (parentId == null) {
+            return;
+        }
+
+        Set<String> ids = this.children.get(parentId);
+
+        if (ids != null) {
+            synchronized(ids) {
+                ids.remove(ticketId);
+                if (ids.isEmpty()) {
+                    this.children.remove(parentId, ids);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the ids of the tickets granted by a ticket.
+     *
+     * @param parentId  Ticket-ID of the granting ticket.
+     *
+     * @return          Ticket-IDs, a snapshot.
+     */
+    Collection<String> get(final String parentId) {
+        Set<String> ids = this.children.get(parentId);
+
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        synchronized(ids) {
+            return new ArrayList<String>(ids);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ConcurrentTicketStore Class.
+ *
+ * TicketStore backed by a ConcurrentHashMap. Reads do not lock,
+ * writes only lock the segment of the ticket-id, which is striped
+ * per available processor. Writes of the same ticket are also
+ * serialized on one of STRIPES locks, so the ChildIndex is updated
+ * in the same order as the map.
+ */
+public final class ConcurrentTicketStore implements TicketStore {
+
+    /**
+     * Logging Class.
+     */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Initial capacity of the map.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Default load factor of the map.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private static final int STRIPES = 64;
+
+    private final ConcurrentMap<String, TicketEntry> map;
+
+    private final ChildIndex children = new ChildIndex();
+
+    private final Object[] locks = new Object[STRIPES];
+
+    /**
+     * Create a ConcurrentTicketStore.
+     */
+    public ConcurrentTicketStore() {
+        this.map = new ConcurrentHashMap<String, TicketEntry>(
+                INITIAL_CAPACITY,
+                LOAD_FACTOR,
+                Runtime.getRuntime().availableProcessors());
+
+        for (int i = 0; i < STRIPES; ++i) {
+            this.locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Store a ticket, unless a ticket with the same id exists.
+     *
+     * @param entry     Ticket.
+     *
+     * @return          true if the ticket was stored.
+     */
+    public boolean add(final TicketEntry entry) {
+        synchronized(this.lock(entry.getTicketId())) {
+            if (this.map.putIfAbsent(entry.getTicketId(), entry) != null) {
+                return false;
+            }
+            this.children.add(entry.getTicketId(), entry.getParentId());
+            return true;
+        }
+    }
+
+    /**
+     * Store a ticket, replacing a ticket with the same id.
+     *
+     * @param entry     Ticket.
+     *
+     * @return          the replaced ticket, or null.
+     */
+    public TicketEntry put(final TicketEntry entry) {
+        synchronized(this.lock(entry.getTicketId())) {
+            TicketEntry previous = this.map.put(entry.getTicketId(), entry);
+
+            if (previous != null) {
+                this.children.remove(previous.getTicketId(), previous.getParentId());
+            }
+            this.children.add(entry.getTicketId(), entry.getParentId());
+            return previous;
+        }
+    }
+
+    /**
+     * Return a ticket.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return          the ticket, or null.
+     */
+    public TicketEntry get(final String ticketId) {
+        return this.map.get(ticketId);
+    }
+
+    /**
+     * Remove a ticket.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return          the removed ticket, or null.
+     */
+    public TicketEntry remove(final String ticketId) {
+        synchronized(this.lock(ticketId)) {
+            TicketEntry entry = this.map.remove(ticketId);
+
+            if (entry != null) {
+                this.children.remove(ticketId, entry.getParentId());
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Remove a ticket, only if the stored ticket is expired.
+     *
+     * A ticket replaced after the check is left alone. Tickets
+     * are only decoded when their reaper check is due.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return          true if the ticket was removed.
+     */
+    public boolean removeExpired(final String ticketId) {
+        TicketEntry entry = this.map.get(ticketId);
+        long now = System.currentTimeMillis();
+
+        if (entry == null || !entry.isReapDue(now)) {
+            return false;
+        }
+
+        try {
+            if (!entry.getTicket().isExpired()) {
+                entry.postponeReap(now);
+                return false;
+            }
+        } catch (final IOException e) {
+            logger.warn("Removing Ticket {}: {}", ticketId, e.getMessage());
+        }
+
+        synchronized(this.lock(ticketId)) {
+            if (!this.map.remove(ticketId, entry)) {
+                return false;
+            }
+            this.children.remove(ticketId, entry.getParentId());
+            return true;
+        }
+    }
+
+    /**
+     * Return all tickets.
+     *
+     * @return          tickets.
+     */
+    public Collection<TicketEntry> getTickets() {
+        return this.map.values();
+    }
+
+    /**
+     * Return the ids of all tickets.
+     *
+     * @return          ticket-ids.
+     */
+    public Collection<String> getTicketIds() {
+        return this.map.keySet();
+    }
+
+    /**
+     * Return the ids of the tickets granted by a ticket.
+     *
+     * @param parentId  Ticket-ID of the granting ticket.
+     *
+     * @return          ticket-ids.
+     */
+    public Collection<String> getChildIds(final String parentId) {
+        return this.children.get(parentId);
+    }
+
+    /**
+     * Return the lock of a ticket.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return          lock.
+     */
+    private Object lock(final String ticketId) {
+        return this.locks[ticketId.hashCode() & (STRIPES - 1)];
+    }
+
+    /**
+     * Return the number of tickets.
+     *
+     * @return          number of tickets.
+     */
+    public int size() {
+        return this.map.size();
+    }
+}
@@ -15,20 +15,21 @@
 
 package com.github.stephanarts.cas.ticket.registry.provider;
 
-import java.util.HashMap;
+import java.util.LinkedList;
 
 import org.json.JSONObject;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.jasig.cas.ticket.Ticket;
-
 import com.github.stephanarts.cas.ticket.registry.support.IMethod;
 import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
 
 /**
  * DeleteMethod Class.
+ *
+ * With the optional 'cascade' param, the tickets granted by the
+ * ticket (and the tickets granted by those) are removed as well.
  */
 public final class DeleteMethod implements IMethod {
 
@@ -37,15 +38,15 @@ public final class DeleteMethod implements IMethod {
      */
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private HashMap<Integer, Ticket> map; 
+    private final TicketStore store;
 
     /**
      * Constructor.
      *
-     * @param map ticket-map.
+     * @param store ticket-store.
      */
-    public DeleteMethod(final HashMap<Integer, Ticket> map) {
-        this.map = map;
+    public DeleteMethod(final TicketStore store) {
+        this.store = store;
     }
 
     /**
@@ -63,8 +64,9 @@ public final class DeleteMethod implements IMethod {
         JSONObject result = new JSONObject();
 
         String ticketId = null;
+        boolean cascade = params.optBoolean("cascade");
 
-        if (params.length() != 1) {
+        if (params.length() != (params.has("cascade") ? 2 : 1)) {
             throw new JSONRPCException(-32602, "Invalid Params");
         }
         if (!(params.has("ticket-id"))) {
@@ -75,16 +77,45 @@ public final class DeleteMethod implements IMethod {
 
         logger.debug("Delete key {}", ticketId);
 
-        if(!this.map.containsKey(ticketId.hashCode())) {
+        boolean removed = this.store.remove(ticketId) != null;
+        int cascaded = cascade ? removeChildren(this.store, ticketId) : 0;
+
+        if(!removed) {
             logger.warn("Missing Key {}", ticketId);
             throw new JSONRPCException(-32503, "Missing Key");
         }
 
-        this.map.remove(ticketId.hashCode());
-
         result.put("ticket-id", ticketId);
         result.put("status", "REMOVED");
+        if (cascade) {
+            result.put("cascaded", cascaded);
+        }
 
         return result;
     }
+
+    /**
+     * Remove the tickets granted by a ticket, recursively.
+     *
+     * @param store     ticket-store.
+     * @param ticketId  Ticket-ID of the granting ticket.
+     *
+     * @return          number of tickets removed.
+     */
+    static int removeChildren(final TicketStore store, final String ticketId) {
+        LinkedList<String> parents = new LinkedList<String>();
+        int removed = 0;
+
+        parents.add(ticketId);
+        while (!parents.isEmpty()) {
+            for (String childId: store.getChildIds(parents.removeFirst())) {
+                if (store.remove(childId) != null) {
+                    removed++;
+                    parents.add(childId);
+                }
+            }
+        }
+
+        return removed;
+    }
 }
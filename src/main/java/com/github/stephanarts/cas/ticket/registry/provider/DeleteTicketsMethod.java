@@ -0,0 +1,93 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.stephanarts.cas.ticket.registry.support.IMethod;
+import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+
+/**
+ * DeleteTicketsMethod Class.
+ *
+ * Removes a batch of tickets. Missing tickets are not an error,
+ * the number of tickets actually removed is returned.
+ *
+ * With the optional 'cascade' param, the tickets granted by the
+ * removed tickets are removed as well (and counted).
+ */
+final class DeleteTicketsMethod implements IMethod {
+
+    /**
+     * Logging Class.
+     */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final TicketStore store;
+
+    /**
+     * Constructor.
+     *
+     * @param store ticket-store.
+     */
+    public DeleteTicketsMethod(final TicketStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Execute the JSONRPCFunction.
+     *
+     * @param params    JSONRPC Method Parameters.
+     *
+     * @return          JSONRPC result object
+     *
+     * @throws JSONRPCException implementors can throw JSONRPCExceptions containing the error.
+     */
+    public JSONObject execute(final JSONObject params) throws JSONRPCException {
+        JSONObject result = new JSONObject();
+        JSONArray ticketIds;
+        int deleted = 0;
+        boolean cascade = params.optBoolean("cascade");
+
+        if (params.length() != (params.has("cascade") ? 2 : 1)) {
+            throw new JSONRPCException(-32602, "Invalid Params");
+        }
+
+        ticketIds = params.optJSONArray("ticket-ids");
+        if (ticketIds == null) {
+            throw new JSONRPCException(-32602, "Invalid Params");
+        }
+
+        for (int i = 0; i < ticketIds.length(); ++i) {
+            if (this.store.remove(ticketIds.optString(i)) != null) {
+                deleted++;
+            }
+            if (cascade) {
+                deleted += DeleteMethod.removeChildren(this.store, ticketIds.optString(i));
+            }
+        }
+
+        logger.debug("DeleteTickets: {} of {}", deleted, ticketIds.length());
+
+        result.put("deleted", deleted);
+
+        return result;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.stephanarts.cas.ticket.registry.support.IMethod;
+import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+
+/**
+ * GetDigestMethod Class.
+ *
+ * Returns a level of the hash tree over the ticket-ids and versions
+ * of the tickets in the store. Providers holding the same tickets
+ * return the same digest, nodes that differ point out the ranges of
+ * ticket-ids to compare with cas.getVersions.
+ *
+ * The optional 'depth' param selects the level, 0 (the root, default)
+ * up to 'leaf-depth', which is returned along with the digest.
+ */
+final class GetDigestMethod implements IMethod {
+
+    /**
+     * Logging Class.
+     */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final VersionedTicketStore store;
+
+    /**
+     * Constructor.
+     *
+     * @param store ticket-store.
+     */
+    public GetDigestMethod(final VersionedTicketStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Execute the JSONRPCFunction.
+     *
+     * @param params    JSONRPC Method Parameters.
+     *
+     * @return          JSONRPC result object
+     *
+     * @throws JSONRPCException implementors can throw JSONRPCExceptions containing the error.
+     */
+    public JSONObject execute(final JSONObject params) throws JSONRPCException {
+        JSONObject result = new JSONObject();
+        JSONArray digest = new JSONArray();
+        int depth = params.optInt("depth", -1);
+
+        if (params.length() != (params.has("depth") ? 1 : 0)) {
+            throw new JSONRPCException(-32602, "Invalid Params");
+        }
+        if (!params.has("depth")) {
+            depth = 0;
+        }
+        if (depth < 0 || depth > VersionedTicketStore.LEAF_DEPTH) {
+            throw new JSONRPCException(-32602, "Invalid Params");
+        }
+
+        for (long hash: this.store.getDigest(depth)) {
+            digest.put(hash);
+        }
+
+        logger.debug("GetDigest: depth {}", depth);
+
+        result.put("depth", depth);
+        result.put("leaf-depth", VersionedTicketStore.LEAF_DEPTH);
+        result.put("digest", digest);
+
+        return result;
+    }
+}
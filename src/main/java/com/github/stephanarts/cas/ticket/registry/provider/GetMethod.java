@@ -15,22 +15,15 @@
 
 package com.github.stephanarts.cas.ticket.registry.provider;
 
-import java.util.HashMap;
-
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectOutputStream;
-
-import javax.xml.bind.DatatypeConverter;
-
 import org.json.JSONObject;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.jasig.cas.ticket.Ticket;
-
 import com.github.stephanarts.cas.ticket.registry.support.IMethod;
 import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodec;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
 
 /**
  * GetMethod Class.
@@ -42,15 +35,33 @@ final class GetMethod implements IMethod {
      */
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private HashMap<Integer, Ticket> map; 
+    private final TicketStore store;
+
+    /**
+     * Store keeping the tombstones, or null.
+     */
+    private final VersionedTicketStore versions;
+
+    /**
+     * Constructor.
+     *
+     * @param store ticket-store.
+     */
+    public GetMethod(final TicketStore store) {
+        this.store = store;
+        this.versions = null;
+    }
 
     /**
      * Constructor.
      *
-     * @param map ticket-map.
+     * Deleted tickets are reported as such, instead of as missing.
+     *
+     * @param store ticket-store.
      */
-    public GetMethod(final HashMap<Integer, Ticket> map) {
-        this.map = map;
+    public GetMethod(final VersionedTicketStore store) {
+        this.store = store;
+        this.versions = store;
     }
 
     /**
@@ -64,13 +75,14 @@ final class GetMethod implements IMethod {
      */
     public JSONObject execute(final JSONObject params) throws JSONRPCException {
         JSONObject result = new JSONObject();
-        Ticket ticket;
+        TicketEntry entry;
 
         logger.debug("GET");
 
         String ticketId = null;
+        TicketCodec codec = TicketCodecs.fromParams(params);
 
-        if (params.length() != 1) {
+        if (params.length() != (params.has("codec") ? 2 : 1)) {
             throw new JSONRPCException(-32602, "Invalid Params");
         }
         if (!(params.has("ticket-id"))) {
@@ -79,27 +91,26 @@ final class GetMethod implements IMethod {
 
         ticketId = params.getString("ticket-id");
 
-        ticket = this.map.get(ticketId.hashCode());
+        entry = this.store.get(ticketId);
 
-        if(ticket == null) {
+        if(entry == null) {
+            if (this.versions != null && this.versions.isDeleted(ticketId)) {
+                throw new JSONRPCException(-32505, "Deleted Ticket");
+            }
             throw new JSONRPCException(-32503, "Missing Ticket");
         }
 
         byte[] serializedTicketArray = {0};
 
         try {
-            ByteArrayOutputStream bo = new ByteArrayOutputStream();
-            ObjectOutputStream so = new ObjectOutputStream(bo);
-            so.writeObject(ticket);
-            so.flush();
-            serializedTicketArray = bo.toByteArray();
+            serializedTicketArray = entry.getData(codec);
         } catch(final Exception e) {
             logger.debug(e.getMessage());
             throw new JSONRPCException(-32500, "Error extracting Ticket");
         }
 
         result.put("ticket-id", ticketId);
-        result.put("ticket", DatatypeConverter.printBase64Binary(serializedTicketArray));
+        result.put("ticket", serializedTicketArray);
         return result;
     }
 }
@@ -0,0 +1,108 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.stephanarts.cas.ticket.registry.support.IMethod;
+import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodec;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+
+/**
+ * GetTicketsByIdMethod Class.
+ *
+ * Returns a batch of tickets by id. Missing tickets are skipped,
+ * the result contains the ids, parent-ids and versions of the
+ * tickets that were found.
+ */
+final class GetTicketsByIdMethod implements IMethod {
+
+    /**
+     * Logging Class.
+     */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final TicketStore store;
+
+    /**
+     * Constructor.
+     *
+     * @param store ticket-store.
+     */
+    public GetTicketsByIdMethod(final TicketStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Execute the JSONRPCFunction.
+     *
+     * @param params    JSONRPC Method Parameters.
+     *
+     * @return          JSONRPC result object
+     *
+     * @throws JSONRPCException implementors can throw JSONRPCExceptions containing the error.
+     */
+    public JSONObject execute(final JSONObject params) throws JSONRPCException {
+        JSONObject result = new JSONObject();
+        JSONArray ticketIds;
+        JSONArray resultIds = new JSONArray();
+        JSONArray resultParentIds = new JSONArray();
+        JSONArray resultVersions = new JSONArray();
+        JSONArray resultTickets = new JSONArray();
+        TicketCodec codec = TicketCodecs.fromParams(params);
+
+        if (params.length() != (params.has("codec") ? 2 : 1)) {
+            throw new JSONRPCException(-32602, "Invalid Params");
+        }
+
+        ticketIds = params.optJSONArray("ticket-ids");
+        if (ticketIds == null) {
+            throw new JSONRPCException(-32602, "Invalid Params");
+        }
+
+        for (int i = 0; i < ticketIds.length(); ++i) {
+            String ticketId = ticketIds.optString(i);
+            TicketEntry entry = this.store.get(ticketId);
+
+            if (entry == null) {
+                continue;
+            }
+            try {
+                resultTickets.put(entry.getData(codec));
+            } catch (final Exception e) {
+                logger.debug(e.getMessage());
+                throw new JSONRPCException(-32500, "Error extracting Ticket");
+            }
+            resultIds.put(ticketId);
+            resultParentIds.put(entry.getParentId() == null ? "" : entry.getParentId());
+            resultVersions.put(entry.getVersion());
+        }
+
+        logger.debug("GetTicketsById: {} of {}", resultIds.length(), ticketIds.length());
+
+        result.put("ticket-ids", resultIds);
+        result.put("parent-ids", resultParentIds);
+        result.put("versions", resultVersions);
+        result.put("tickets", resultTickets);
+
+        return result;
+    }
+}
@@ -15,23 +15,16 @@
 
 package com.github.stephanarts.cas.ticket.registry.provider;
 
-import java.util.HashMap;
-
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectOutputStream;
-
-import javax.xml.bind.DatatypeConverter;
-
 import org.json.JSONObject;
 import org.json.JSONArray;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.jasig.cas.ticket.Ticket;
-
 import com.github.stephanarts.cas.ticket.registry.support.IMethod;
 import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodec;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
 
 /**
  * GetTicketsMethod Class.
@@ -43,15 +36,15 @@ final class GetTicketsMethod implements IMethod {
      */
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private HashMap<Integer, Ticket> map; 
+    private final TicketStore store;
 
     /**
      * Constructor.
      *
-     * @param map ticket-map.
+     * @param store ticket-store.
      */
-    public GetTicketsMethod(final HashMap<Integer, Ticket> map) {
-        this.map = map;
+    public GetTicketsMethod(final TicketStore store) {
+        this.store = store;
     }
 
     /**
@@ -67,28 +60,24 @@ final class GetTicketsMethod implements IMethod {
         JSONObject result = new JSONObject();
         JSONArray tickets = new JSONArray();
 
-        String ticketId = null;
+        TicketCodec codec = TicketCodecs.fromParams(params);
 
-        if (params.length() != 0) {
+        if (params.length() != (params.has("codec") ? 1 : 0)) {
             throw new JSONRPCException(-32602, "Invalid Params");
         }
 
-        for(Ticket ticket: this.map.values()) {
+        for(TicketEntry entry: this.store.getTickets()) {
 
             byte[] serializedTicketArray = {0};
 
             try {
-                ByteArrayOutputStream bo = new ByteArrayOutputStream();
-                ObjectOutputStream so = new ObjectOutputStream(bo);
-                so.writeObject(ticket);
-                so.flush();
-                serializedTicketArray = bo.toByteArray();
+                serializedTicketArray = entry.getData(codec);
             } catch(final Exception e) {
                 logger.debug(e.getMessage());
                 throw new JSONRPCException(-32500, "Error extracting Ticket");
             }
 
-            tickets.put(DatatypeConverter.printBase64Binary(serializedTicketArray));
+            tickets.put(serializedTicketArray);
         }
 
         logger.debug("GetTickets: "+tickets.length());
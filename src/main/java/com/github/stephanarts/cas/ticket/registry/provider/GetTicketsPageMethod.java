@@ -0,0 +1,204 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.json.JSONObject;
+import org.json.JSONArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.stephanarts.cas.ticket.registry.support.IMethod;
+import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodec;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+
+/**
+ * GetTicketsPageMethod Class.
+ *
+ * Returns the tickets of the store one page at a time. The first
+ * request starts a walk over the store, the 'cursor' returned with
+ * each page continues it. The last page has no cursor.
+ *
+ * The walk is weakly consistent: tickets added or removed while it
+ * is in progress may or may not be returned. Cursors that are not
+ * used for CURSOR_TIMEOUT ms are dropped.
+ */
+final class GetTicketsPageMethod implements IMethod {
+
+    /**
+     * Number of tickets per page, if no limit is requested.
+     */
+    static final int DEFAULT_LIMIT = 500;
+
+    /**
+     * Maximum number of tickets per page.
+     */
+    static final int MAX_LIMIT = 10000;
+
+    /**
+     * Time after which an unused cursor is dropped (ms).
+     */
+    static final long CURSOR_TIMEOUT = 60000;
+
+    /**
+     * Logging Class.
+     */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final TicketStore store;
+
+    private final ConcurrentMap<String, Cursor> cursors =
+            new ConcurrentHashMap<String, Cursor>();
+
+    /**
+     * Walk over the store, continued by subsequent requests.
+     */
+    private static final class Cursor {
+
+        private final Iterator<TicketEntry> tickets;
+
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        /**
+         * Create a Cursor.
+         *
+         * @param tickets   iterator over the store.
+         */
+        Cursor(final Iterator<TicketEntry> tickets) {
+            this.tickets = tickets;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param store ticket-store.
+     */
+    public GetTicketsPageMethod(final TicketStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Execute the JSONRPCFunction.
+     *
+     * @param params    JSONRPC Method Parameters.
+     *
+     * @return          JSONRPC result object
+     *
+     * @throws JSONRPCException implementors can throw JSONRPCExceptions containing the error.
+     */
+    public JSONObject execute(final JSONObject params) throws JSONRPCException {
+        JSONObject result = new JSONObject();
+        JSONArray ticketIds = new JSONArray();
+        JSONArray parentIds = new JSONArray();
+        JSONArray versions = new JSONArray();
+        JSONArray tickets = new JSONArray();
+
+        TicketCodec codec = TicketCodecs.fromParams(params);
+        int length = 0;
+        int limit = DEFAULT_LIMIT;
+        String cursorId;
+        Cursor cursor;
+
+        if (params.has("codec")) {
+            length++;
+        }
+        if (params.has("cursor")) {
+            length++;
+        }
+        if (params.has("limit")) {
+            length++;
+            limit = params.optInt("limit", 0);
+            if (limit < 1 || limit > MAX_LIMIT) {
+                throw new JSONRPCException(-32602, "Invalid Params");
+            }
+        }
+        if (params.length() != length) {
+            throw new JSONRPCException(-32602, "Invalid Params");
+        }
+
+        this.expire();
+
+        if (params.has("cursor")) {
+            cursorId = params.getString("cursor");
+            cursor = this.cursors.remove(cursorId);
+            if (cursor == null) {
+                throw new JSONRPCException(-32504, "Unknown Cursor");
+            }
+        } else {
+            cursorId = UUID.randomUUID().toString();
+            cursor = new Cursor(this.store.getTickets().iterator());
+        }
+
+        while (tickets.length() < limit && cursor.tickets.hasNext()) {
+            TicketEntry entry = cursor.tickets.next();
+
+            try {
+                tickets.put(entry.getData(codec));
+            } catch(final Exception e) {
+                logger.debug(e.getMessage());
+                throw new JSONRPCException(-32500, "Error extracting Ticket");
+            }
+            ticketIds.put(entry.getTicketId());
+            parentIds.put(entry.getParentId() == null ? "" : entry.getParentId());
+            versions.put(entry.getVersion());
+        }
+
+        if (cursor.tickets.hasNext()) {
+            cursor.lastUsed = System.currentTimeMillis();
+            this.cursors.put(cursorId, cursor);
+            result.put("cursor", cursorId);
+        }
+
+        logger.debug("GetTicketsPage: "+tickets.length());
+
+        result.put("ticket-ids", ticketIds);
+        result.put("parent-ids", parentIds);
+        result.put("versions", versions);
+        result.put("tickets", tickets);
+
+        return result;
+    }
+
+    /**
+     * Drop the cursors that have not been used for CURSOR_TIMEOUT ms.
+     */
+    private void expire() {
+        long now = System.currentTimeMillis();
+        Iterator<Cursor> iter = this.cursors.values().iterator();
+
+        while (iter.hasNext()) {
+            if (now - iter.next().lastUsed > CURSOR_TIMEOUT) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Return the number of open cursors.
+     *
+     * @return number of cursors.
+     */
+    int getCursors() {
+        return this.cursors.size();
+    }
+}
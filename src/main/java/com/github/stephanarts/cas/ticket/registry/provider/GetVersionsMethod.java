@@ -0,0 +1,121 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.stephanarts.cas.ticket.registry.support.IMethod;
+import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+
+/**
+ * GetVersionsMethod Class.
+ *
+ * Returns the ids, parent-ids and versions of the tickets in a set
+ * of leaves of the hash tree ('ranges'), as returned by cas.getDigest
+ * at the leaf depth. Tickets that were deleted recently are included
+ * with version -1, tickets are not returned.
+ */
+final class GetVersionsMethod implements IMethod {
+
+    /**
+     * Logging Class.
+     */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final VersionedTicketStore store;
+
+    /**
+     * Constructor.
+     *
+     * @param store ticket-store.
+     */
+    public GetVersionsMethod(final VersionedTicketStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Execute the JSONRPCFunction.
+     *
+     * @param params    JSONRPC Method Parameters.
+     *
+     * @return          JSONRPC result object
+     *
+     * @throws JSONRPCException implementors can throw JSONRPCExceptions containing the error.
+     */
+    public JSONObject execute(final JSONObject params) throws JSONRPCException {
+        JSONObject result = new JSONObject();
+        JSONArray ticketIds = new JSONArray();
+        JSONArray parentIds = new JSONArray();
+        JSONArray versions = new JSONArray();
+        JSONArray checksums = new JSONArray();
+        boolean[] selected = new boolean[VersionedTicketStore.LEAVES];
+        JSONArray ranges;
+
+        if (params.length() != 1) {
+            throw new JSONRPCException(-32602, "Invalid Params");
+        }
+
+        ranges = params.optJSONArray("ranges");
+        if (ranges == null) {
+            throw new JSONRPCException(-32602, "Invalid Params");
+        }
+        for (int i = 0; i < ranges.length(); ++i) {
+            int leaf = ranges.optInt(i, -1);
+
+            if (leaf < 0 || leaf >= selected.length) {
+                throw new JSONRPCException(-32602, "Invalid Params");
+            }
+            selected[leaf] = true;
+        }
+
+        for (String ticketId: this.store.getTicketIds()) {
+            TicketEntry entry;
+
+            if (!selected[VersionedTicketStore.getLeaf(ticketId)]) {
+                continue;
+            }
+            entry = this.store.get(ticketId);
+            if (entry == null) {
+                continue;
+            }
+            ticketIds.put(ticketId);
+            parentIds.put(entry.getParentId() == null ? "" : entry.getParentId());
+            versions.put(entry.getVersion());
+            checksums.put(VersionedTicketStore.checksum(entry));
+        }
+        for (String ticketId: this.store.getDeletedIds()) {
+            if (selected[VersionedTicketStore.getLeaf(ticketId)]) {
+                ticketIds.put(ticketId);
+                parentIds.put("");
+                versions.put(VersionedTicketStore.DELETED);
+                checksums.put(0);
+            }
+        }
+
+        logger.debug("GetVersions: {} in {} ranges", ticketIds.length(), ranges.length());
+
+        result.put("ticket-ids", ticketIds);
+        result.put("parent-ids", parentIds);
+        result.put("versions", versions);
+        result.put("checksums", checksums);
+
+        return result;
+    }
+}
@@ -0,0 +1,663 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodec;
+
+/**
+ * OffHeapTicketStore Class.
+ *
+ * TicketStore keeping the encoded tickets in direct memory, outside
+ * of the Java heap. The heap only holds a small index entry per ticket,
+ * the encoded ticket is copied back onto the heap on each get.
+ *
+ * Encoded tickets are stored in blocks, rounded up to a power of two.
+ * Blocks are carved from slabs of direct memory per block size and
+ * reused once freed, slabs are kept for the lifetime of the store.
+ * Tickets larger than the largest block get a buffer of their own.
+ *
+ * The index is split in stripes, each guarded by a read-write lock,
+ * so reads of different (or the same) tickets run concurrently. A
+ * block is only freed under the write lock of its stripe, which
+ * keeps it from being reused while it is read.
+ */
+public final class OffHeapTicketStore implements TicketStore {
+
+    /**
+     * Logging Class.
+     */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Size of the smallest block (bytes).
+     */
+    static final int MIN_BLOCK = 128;
+
+    /**
+     * Size of the largest block (bytes).
+     */
+    static final int MAX_BLOCK = 64 * 1024;
+
+    /**
+     * Size of a slab (bytes).
+     */
+    static final int SLAB_SIZE = 1024 * 1024;
+
+    private final Stripe[] stripes;
+
+    private final SizeClass[] sizeClasses;
+
+    private final ChildIndex children = new ChildIndex();
+
+    /**
+     * Create an OffHeapTicketStore.
+     */
+    public OffHeapTicketStore() {
+        int n = 1;
+
+        while (n < Runtime.getRuntime().availableProcessors() * 4) {
+            n <<= 1;
+        }
+
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; ++i) {
+            this.stripes[i] = new Stripe();
+        }
+
+        n = 0;
+        for (int size = MIN_BLOCK; size <= MAX_BLOCK; size <<= 1) {
+            n++;
+        }
+        this.sizeClasses = new SizeClass[n];
+        for (int i = 0; i < n; ++i) {
+            this.sizeClasses[i] = new SizeClass(MIN_BLOCK << i);
+        }
+    }
+
+    /**
+     * Store a ticket, unless a ticket with the same id exists.
+     *
+     * @param entry     Ticket.
+     *
+     * @return          true if the ticket was stored.
+     */
+    public boolean add(final TicketEntry entry) {
+        String ticketId = entry.getTicketId();
+        Stripe stripe = this.stripe(ticketId);
+        Block block;
+
+        stripe.lock.readLock().lock();
+        try {
+            if (stripe.index.containsKey(ticketId)) {
+                return false;
+            }
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+
+        block = this.write(entry);
+
+        stripe.lock.writeLock().lock();
+        try {
+            if (!stripe.index.containsKey(ticketId)) {
+                stripe.index.put(ticketId, block);
+                this.children.add(ticketId, block.parentId);
+                return true;
+            }
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+
+        this.free(block);
+        return false;
+    }
+
+    /**
+     * Store a ticket, replacing a ticket with the same id.
+     *
+     * @param entry     Ticket.
+     *
+     * @return          the replaced ticket, or null.
+     */
+    public TicketEntry put(final TicketEntry entry) {
+        String ticketId = entry.getTicketId();
+        Stripe stripe = this.stripe(ticketId);
+        Block block = this.write(entry);
+        TicketEntry previous = null;
+
+        stripe.lock.writeLock().lock();
+        try {
+            Block old = stripe.index.put(ticketId, block);
+            if (old != null) {
+                previous = this.read(ticketId, old);
+                this.children.remove(ticketId, old.parentId);
+                this.free(old);
+            }
+            this.children.add(ticketId, block.parentId);
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+
+        return previous;
+    }
+
+    /**
+     * Return a ticket.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return          the ticket, or null.
+     */
+    public TicketEntry get(final String ticketId) {
+        Stripe stripe = this.stripe(ticketId);
+
+        stripe.lock.readLock().lock();
+        try {
+            Block block = stripe.index.get(ticketId);
+            return block == null ? null : this.read(ticketId, block);
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a ticket.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return          the removed ticket, or null.
+     */
+    public TicketEntry remove(final String ticketId) {
+        Stripe stripe = this.stripe(ticketId);
+
+        stripe.lock.writeLock().lock();
+        try {
+            Block block = stripe.index.remove(ticketId);
+            if (block == null) {
+                return null;
+            }
+            TicketEntry entry = this.read(ticketId, block);
+            this.children.remove(ticketId, block.parentId);
+            this.free(block);
+            return entry;
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a ticket, only if the stored ticket is expired.
+     *
+     * Tickets are only copied and decoded when their
+     * reaper check is due.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return          true if the ticket was removed.
+     */
+    public boolean removeExpired(final String ticketId) {
+        Stripe stripe = this.stripe(ticketId);
+        long now = System.currentTimeMillis();
+
+        stripe.lock.writeLock().lock();
+        try {
+            Block block = stripe.index.get(ticketId);
+            if (block == null || now < block.nextCheck) {
+                return false;
+            }
+            try {
+                if (!this.read(ticketId, block).getTicket().isExpired()) {
+                    block.nextCheck = TicketEntry.nextReap(block.written, now);
+                    return false;
+                }
+            } catch (final IOException e) {
+                logger.warn("Removing Ticket {}: {}", ticketId, e.getMessage());
+            }
+            stripe.index.remove(ticketId);
+            this.children.remove(ticketId, block.parentId);
+            this.free(block);
+            return true;
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Return all tickets.
+     *
+     * The tickets are copied one at a time while iterating,
+     * tickets removed in the mean time are skipped.
+     *
+     * @return          tickets.
+     */
+    public Collection<TicketEntry> getTickets() {
+        return new AbstractCollection<TicketEntry>() {
+            @Override
+            public Iterator<TicketEntry> iterator() {
+                return new TicketIterator();
+            }
+
+            @Override
+            public int size() {
+                return OffHeapTicketStore.this.size();
+            }
+        };
+    }
+
+    /**
+     * Return the ids of all tickets.
+     *
+     * The ids are collected one stripe at a time while iterating.
+     *
+     * @return          ticket-ids.
+     */
+    public Collection<String> getTicketIds() {
+        return new AbstractCollection<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new IdIterator();
+            }
+
+            @Override
+            public int size() {
+                return OffHeapTicketStore.this.size();
+            }
+        };
+    }
+
+    /**
+     * Return the ids of the tickets granted by a ticket.
+     *
+     * @param parentId  Ticket-ID of the granting ticket.
+     *
+     * @return          ticket-ids.
+     */
+    public Collection<String> getChildIds(final String parentId) {
+        return this.children.get(parentId);
+    }
+
+    /**
+     * Return the number of tickets.
+     *
+     * @return          number of tickets.
+     */
+    public int size() {
+        int size = 0;
+
+        for (Stripe stripe: this.stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                size += stripe.index.size();
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Return the amount of direct memory allocated.
+     *
+     * @return          number of bytes.
+     */
+    public long getAllocatedBytes() {
+        long bytes = 0;
+
+        for (SizeClass sizeClass: this.sizeClasses) {
+            bytes += sizeClass.getAllocatedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Return the stripe of a ticket-id.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return          stripe.
+     */
+    private Stripe stripe(final String ticketId) {
+        int h = ticketId.hashCode();
+
+        h ^= (h >>> 16);
+        return this.stripes[h & (this.stripes.length - 1)];
+    }
+
+    /**
+     * Copy an encoded ticket into a new block.
+     *
+     * @param entry     Ticket.
+     *
+     * @return          block.
+     */
+    private Block write(final TicketEntry entry) {
+        byte[] data = entry.getData();
+        Block block = this.allocate(data.length, entry);
+
+        ByteBuffer b = block.buffer.duplicate();
+        ((Buffer) b).position(block.offset);
+        b.put(data);
+        return block;
+    }
+
+    /**
+     * Copy the ticket stored in a block.
+     *
+     * @param ticketId  Ticket-ID.
+     * @param block     block.
+     *
+     * @return          ticket.
+     */
+    private TicketEntry read(final String ticketId, final Block block) {
+        byte[] data = new byte[block.length];
+        ByteBuffer b = block.buffer.duplicate();
+
+        ((Buffer) b).position(block.offset);
+        b.get(data);
+        return new TicketEntry(ticketId, block.parentId, block.codec, data, block.version, block.written);
+    }
+
+    /**
+     * Allocate a block.
+     *
+     * @param length    number of bytes needed.
+     * @param entry     Ticket to store in the block.
+     *
+     * @return          block.
+     */
+    private Block allocate(final int length, final TicketEntry entry) {
+        for (SizeClass sizeClass: this.sizeClasses) {
+            if (length <= sizeClass.blockSize) {
+                return sizeClass.allocate(length, entry);
+            }
+        }
+        return new Block(ByteBuffer.allocateDirect(length), 0, 0, length, null, entry);
+    }
+
+    /**
+     * Free a block.
+     *
+     * @param block     block.
+     */
+    private void free(final Block block) {
+        if (block.sizeClass != null) {
+            block.sizeClass.free(block);
+        }
+    }
+
+    /**
+     * Block of direct memory holding an encoded ticket,
+     * along with the fields of its TicketEntry.
+     */
+    private static final class Block {
+
+        private final ByteBuffer buffer;
+
+        private final int slab;
+
+        private final int offset;
+
+        private final int length;
+
+        private final SizeClass sizeClass;
+
+        private final TicketCodec codec;
+
+        private final String parentId;
+
+        private final long version;
+
+        private final long written;
+
+        /**
+         * Time the reaper should check the ticket again (ms),
+         * only changed under the write lock of the stripe.
+         */
+        private long nextCheck;
+
+        /**
+         * Create a Block.
+         *
+         * @param buffer    buffer containing the block.
+         * @param slab      index of the slab in its size class.
+         * @param offset    offset of the block in the buffer.
+         * @param length    length of the encoded ticket.
+         * @param sizeClass size class, null for a dedicated buffer.
+         * @param entry     Ticket stored in the block.
+         */
+        Block(
+                final ByteBuffer buffer,
+                final int slab,
+                final int offset,
+                final int length,
+                final SizeClass sizeClass,
+                final TicketEntry entry) {
+            this.buffer = buffer;
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+            this.sizeClass = sizeClass;
+            this.codec = entry.getCodec();
+            this.parentId = entry.getParentId();
+            this.version = entry.getVersion();
+            this.written = entry.getWritten();
+            this.nextCheck = entry.getWritten();
+        }
+    }
+
+    /**
+     * Slabs and free blocks of a single block size.
+     */
+    private static final class SizeClass {
+
+        private final int blockSize;
+
+        private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+
+        /**
+         * Free blocks, slab-index in the high and offset in the low word.
+         */
+        private long[] free = new long[16];
+
+        private int nFree = 0;
+
+        /**
+         * Offset of the first unused block in the last slab.
+         */
+        private int next = SLAB_SIZE;
+
+        /**
+         * Create a SizeClass.
+         *
+         * @param blockSize size of the blocks.
+         */
+        SizeClass(final int blockSize) {
+            this.blockSize = blockSize;
+        }
+
+        /**
+         * Allocate a block.
+         *
+         * @param length    number of bytes needed.
+         * @param entry     Ticket to store in the block.
+         *
+         * @return          block.
+         */
+        synchronized Block allocate(final int length, final TicketEntry entry) {
+            int slab;
+            int offset;
+
+            if (this.nFree > 0) {
+                long f = this.free[--this.nFree];
+                slab = (int) (f >>> 32);
+                offset = (int) f;
+            } else {
+                if (this.next + this.blockSize > SLAB_SIZE) {
+                    this.slabs.add(ByteBuffer.allocateDirect(SLAB_SIZE));
+                    this.next = 0;
+                }
+                slab = this.slabs.size() - 1;
+                offset = this.next;
+                this.next += this.blockSize;
+            }
+
+            return new Block(this.slabs.get(slab), slab, offset, length, this, entry);
+        }
+
+        /**
+         * Free a block.
+         *
+         * @param block     block.
+         */
+        synchronized void free(final Block block) {
+            if (this.nFree == this.free.length) {
+                long[] f = new long[this.free.length * 2];
+                System.arraycopy(this.free, 0, f, 0, this.nFree);
+                this.free = f;
+            }
+            this.free[this.nFree++] = ((long) block.slab << 32) | block.offset;
+        }
+
+        /**
+         * Return the amount of direct memory allocated.
+         *
+         * @return          number of bytes.
+         */
+        synchronized long getAllocatedBytes() {
+            return (long) this.slabs.size() * SLAB_SIZE;
+        }
+    }
+
+    /**
+     * Stripe of the index.
+     */
+    private static final class Stripe {
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private final HashMap<String, Block> index = new HashMap<String, Block>();
+    }
+
+    /**
+     * Iterator over the ticket-ids, one stripe at a time.
+     */
+    private final class IdIterator implements Iterator<String> {
+
+        private int stripe = 0;
+
+        private Iterator<String> ids = null;
+
+        /**
+         * Return if there are more ticket-ids.
+         *
+         * @return          true if there are more ticket-ids.
+         */
+        public boolean hasNext() {
+            while (this.ids == null || !this.ids.hasNext()) {
+                if (this.stripe == OffHeapTicketStore.this.stripes.length) {
+                    return false;
+                }
+                Stripe s = OffHeapTicketStore.this.stripes[this.stripe++];
+                s.lock.readLock().lock();
+                try {
+                    this.ids = new ArrayList<String>(s.index.keySet()).iterator();
+                } finally {
+                    s.lock.readLock().unlock();
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Return the next ticket-id.
+         *
+         * @return          ticket-id.
+         */
+        public String next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.ids.next();
+        }
+
+        /**
+         * Not supported.
+         */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Iterator over the tickets, skipping removed tickets.
+     */
+    private final class TicketIterator implements Iterator<TicketEntry> {
+
+        private final Iterator<String> ids = new IdIterator();
+
+        private TicketEntry next = null;
+
+        /**
+         * Return if there are more tickets.
+         *
+         * @return          true if there are more tickets.
+         */
+        public boolean hasNext() {
+            while (this.next == null && this.ids.hasNext()) {
+                this.next = OffHeapTicketStore.this.get(this.ids.next());
+            }
+            return this.next != null;
+        }
+
+        /**
+         * Return the next ticket.
+         *
+         * @return          ticket.
+         */
+        public TicketEntry next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            TicketEntry entry = this.next;
+            this.next = null;
+            return entry;
+        }
+
+        /**
+         * Not supported.
+         */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,445 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import java.io.IOException;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+
+import com.github.stephanarts.cas.ticket.registry.support.BinaryFrames;
+import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodec;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+import com.github.stephanarts.cas.ticket.registry.support.TicketVersion;
+
+/**
+ * TicketEntry Class.
+ *
+ * A ticket as stored by a TicketStore: the encoded ticket as it was
+ * received, the codec it was encoded with, and the few fields the
+ * provider needs without decoding it.
+ *
+ * Tickets are only decoded when they are requested with a different
+ * codec, or when the TicketReaper checks if they are expired.
+ *
+ * A ticket only changes when it is used, so the time the entry was
+ * written is the last time the ticket was used, as far as the provider
+ * knows. The reaper uses it to decide when a ticket is worth decoding:
+ * once a ticket was found not expired, the next check is postponed by
+ * 1/REAP_BACKOFF of the time since it was written. An idle ticket is
+ * then decoded a logarithmic number of times over its lifetime, rather
+ * than on every walk of the reaper.
+ *
+ * The version is set by the client (see TicketVersion), it is raised
+ * when the ticket is used or expired, so it orders the states of a
+ * ticket without a shared clock. Version 0 is used for tickets
+ * written without a version.
+ */
+public final class TicketEntry {
+
+    /**
+     * A reaper check is postponed by 1/REAP_BACKOFF of the
+     * time since the ticket was written.
+     */
+    static final int REAP_BACKOFF = 4;
+
+    private final String ticketId;
+
+    private final String parentId;
+
+    private final TicketCodec codec;
+
+    private final byte[] data;
+
+    private final long version;
+
+    /**
+     * Time the entry was written (ms).
+     */
+    private final long written;
+
+    /**
+     * Time the reaper should check the ticket again (ms).
+     */
+    private volatile long nextCheck;
+
+    /**
+     * Create a TicketEntry without a version.
+     *
+     * @param ticketId  Ticket-ID.
+     * @param parentId  Ticket-ID of the granting ticket, or null.
+     * @param codec     Codec the ticket was encoded with.
+     * @param data      encoded ticket, not copied.
+     */
+    public TicketEntry(
+            final String ticketId,
+            final String parentId,
+            final TicketCodec codec,
+            final byte[] data) {
+        this(ticketId, parentId, codec, data, 0);
+    }
+
+    /**
+     * Create a TicketEntry.
+     *
+     * @param ticketId  Ticket-ID.
+     * @param parentId  Ticket-ID of the granting ticket, or null.
+     * @param codec     Codec the ticket was encoded with.
+     * @param data      encoded ticket, not copied.
+     * @param version   version of the ticket.
+     */
+    public TicketEntry(
+            final String ticketId,
+            final String parentId,
+            final TicketCodec codec,
+            final byte[] data,
+            final long version) {
+        this(ticketId, parentId, codec, data, version, System.currentTimeMillis());
+    }
+
+    /**
+     * Create a TicketEntry, written at a given time.
+     *
+     * @param ticketId  Ticket-ID.
+     * @param parentId  Ticket-ID of the granting ticket, or null.
+     * @param codec     Codec the ticket was encoded with.
+     * @param data      encoded ticket, not copied.
+     * @param version   version of the ticket.
+     * @param written   time the ticket was written (ms).
+     */
+    public TicketEntry(
+            final String ticketId,
+            final String parentId,
+            final TicketCodec codec,
+            final byte[] data,
+            final long version,
+            final long written) {
+        this.ticketId = ticketId;
+        this.parentId = parentId;
+        this.codec = codec;
+        this.data = data;
+        this.version = version;
+        this.written = written;
+        this.nextCheck = written;
+    }
+
+    /**
+     * Create a TicketEntry from a ticket.
+     *
+     * @param ticket    Ticket.
+     * @param codec     Codec to encode the ticket with.
+     *
+     * @return          TicketEntry.
+     *
+     * @throws IOException when the ticket can not be encoded.
+     */
+    public static TicketEntry encode(final Ticket ticket, final TicketCodec codec)
+            throws IOException {
+        TicketGrantingTicket parent = ticket.getGrantingTicket();
+
+        return new TicketEntry(
+                ticket.getId(),
+                parent == null ? null : parent.getId(),
+                codec,
+                codec.encode(ticket),
+                TicketVersion.of(ticket));
+    }
+
+    /**
+     * Create a TicketEntry from the params of an add or update request.
+     *
+     * Expects 'ticket-id' and 'ticket', optionally 'codec',
+     * 'parent-id' and 'version'. The ticket is not decoded, only
+     * checked against the codec.
+     *
+     * @param params    JSONRPC Method Parameters.
+     *
+     * @return          TicketEntry.
+     *
+     * @throws JSONRPCException on invalid params (-32602), or
+     *                          when the ticket is invalid (-32501).
+     */
+    static TicketEntry fromParams(final JSONObject params)
+            throws JSONRPCException {
+        TicketCodec codec = TicketCodecs.fromParams(params);
+        int length = 2;
+        byte[] data;
+
+        if (params.has("codec")) {
+            length++;
+        }
+        if (params.has("parent-id")) {
+            length++;
+        }
+        if (params.has("version")) {
+            length++;
+        }
+        if (params.length() != length) {
+            throw new JSONRPCException(-32602, "Invalid Params");
+        }
+        if (!(params.has("ticket-id") && params.has("ticket"))) {
+            throw new JSONRPCException(-32602, "Invalid Params");
+        }
+
+        try {
+            data = BinaryFrames.getBytes(params, "ticket");
+        } catch (final Exception e) {
+            throw new JSONRPCException(-32501, "Could not decode Ticket");
+        }
+        if (!codec.accepts(data)) {
+            throw new JSONRPCException(-32501, "Could not decode Ticket");
+        }
+
+        return new TicketEntry(
+                params.getString("ticket-id"),
+                params.optString("parent-id", null),
+                codec,
+                data,
+                getVersion(params.opt("version")));
+    }
+
+    /**
+     * Create TicketEntries from the params of a batch request.
+     *
+     * Expects the arrays 'ticket-ids' and 'tickets', optionally
+     * 'parent-ids' ("" for tickets without parent), 'versions'
+     * and 'codec'.
+     * All tickets are checked before any entry is returned.
+     *
+     * @param params    JSONRPC Method Parameters.
+     *
+     * @return          TicketEntries.
+     *
+     * @throws JSONRPCException on invalid params (-32602), or
+     *                          when a ticket is invalid (-32501).
+     */
+    static TicketEntry[] fromBatchParams(final JSONObject params)
+            throws JSONRPCException {
+        TicketCodec codec = TicketCodecs.fromParams(params);
+        TicketEntry[] entries;
+        JSONArray ticketIds;
+        JSONArray parentIds;
+        JSONArray versions;
+        JSONArray tickets;
+        int length = 2;
+
+        if (params.has("codec")) {
+            length++;
+        }
+        if (params.has("parent-ids")) {
+            length++;
+        }
+        if (params.has("versions")) {
+            length++;
+        }
+        if (params.length() != length) {
+            throw new JSONRPCException(-32602, "Invalid Params");
+        }
+
+        ticketIds = params.optJSONArray("ticket-ids");
+        parentIds = params.has("parent-ids") ? params.optJSONArray("parent-ids") : new JSONArray();
+        versions = params.has("versions") ? params.optJSONArray("versions") : new JSONArray();
+        tickets = params.has("tickets") ? params.optJSONArray("tickets") : null;
+
+        if (ticketIds == null || tickets == null || parentIds == null || versions == null
+                || ticketIds.length() != tickets.length()
+                || (parentIds.length() != 0 && parentIds.length() != tickets.length())
+                || (versions.length() != 0 && versions.length() != tickets.length())) {
+            throw new JSONRPCException(-32602, "Invalid Params");
+        }
+
+        entries = new TicketEntry[tickets.length()];
+        for (int i = 0; i < entries.length; ++i) {
+            String parentId = parentIds.optString(i, "");
+            byte[] data;
+
+            try {
+                data = BinaryFrames.getBytes(tickets, i);
+            } catch (final Exception e) {
+                throw new JSONRPCException(-32501, "Could not decode Ticket");
+            }
+            if (!codec.accepts(data)) {
+                throw new JSONRPCException(-32501, "Could not decode Ticket");
+            }
+
+            entries[i] = new TicketEntry(
+                    ticketIds.getString(i),
+                    parentId.length() == 0 ? null : parentId,
+                    codec,
+                    data,
+                    getVersion(versions.opt(i)));
+        }
+
+        return entries;
+    }
+
+    /**
+     * Parse a version param.
+     *
+     * Versions sent in binary frames arrive as strings.
+     *
+     * @param value     number, string or null.
+     *
+     * @return          version, 0 when missing.
+     *
+     * @throws JSONRPCException on an invalid version (-32602).
+     */
+    private static long getVersion(final Object value)
+            throws JSONRPCException {
+        long version;
+
+        if (value == null) {
+            return 0;
+        }
+        try {
+            if (value instanceof Number) {
+                version = ((Number) value).longValue();
+            } else {
+                version = Long.parseLong(value.toString());
+            }
+        } catch (final NumberFormatException e) {
+            throw new JSONRPCException(-32602, "Invalid Params");
+        }
+        if (version < 0) {
+            throw new JSONRPCException(-32602, "Invalid Params");
+        }
+        return version;
+    }
+
+    /**
+     * Return the Ticket-ID.
+     *
+     * @return Ticket-ID.
+     */
+    public String getTicketId() {
+        return this.ticketId;
+    }
+
+    /**
+     * Return the Ticket-ID of the granting ticket.
+     *
+     * @return Ticket-ID, or null.
+     */
+    public String getParentId() {
+        return this.parentId;
+    }
+
+    /**
+     * Return the version of the ticket.
+     *
+     * @return version, 0 if unknown.
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Return the time the ticket was written.
+     *
+     * @return time (ms).
+     */
+    public long getWritten() {
+        return this.written;
+    }
+
+    /**
+     * Return if the reaper should decode the ticket
+     * to check if it is expired.
+     *
+     * @param now   current time (ms).
+     *
+     * @return true when the check is due.
+     */
+    boolean isReapDue(final long now) {
+        return now >= this.nextCheck;
+    }
+
+    /**
+     * Postpone the next reaper check, the ticket was
+     * found not expired.
+     *
+     * @param now   current time (ms).
+     */
+    void postponeReap(final long now) {
+        this.nextCheck = nextReap(this.written, now);
+    }
+
+    /**
+     * Return the time of the next reaper check of a
+     * ticket that was found not expired.
+     *
+     * @param written   time the ticket was written (ms).
+     * @param now       current time (ms).
+     *
+     * @return time (ms).
+     */
+    static long nextReap(final long written, final long now) {
+        return now + Math.max(0, now - written) / REAP_BACKOFF;
+    }
+
+    /**
+     * Return the codec the ticket was encoded with.
+     *
+     * @return TicketCodec.
+     */
+    public TicketCodec getCodec() {
+        return this.codec;
+    }
+
+    /**
+     * Return the encoded ticket.
+     *
+     * The array is shared, it must not be modified.
+     *
+     * @return encoded ticket.
+     */
+    public byte[] getData() {
+        return this.data;
+    }
+
+    /**
+     * Return the ticket encoded with a codec.
+     *
+     * The stored data is returned as-is when the codecs match.
+     *
+     * @param target    Codec requested.
+     *
+     * @return encoded ticket.
+     *
+     * @throws IOException when the ticket can not be converted.
+     */
+    public byte[] getData(final TicketCodec target) throws IOException {
+        if (target == this.codec) {
+            return this.data;
+        }
+        return target.encode(this.getTicket());
+    }
+
+    /**
+     * Decode the ticket.
+     *
+     * @return Ticket.
+     *
+     * @throws IOException when the ticket can not be decoded.
+     */
+    public Ticket getTicket() throws IOException {
+        return this.codec.decode(this.data);
+    }
+}
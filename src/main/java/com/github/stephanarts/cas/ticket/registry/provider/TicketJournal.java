@@ -0,0 +1,623 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TicketJournal Class.
+ *
+ * Keeps a copy of the tickets of a provider on local disk, so a
+ * restarted provider loads its tickets from a file instead of copying
+ * all of them from another provider.
+ *
+ * Every write to the store is appended to a journal, buffered in
+ * direct memory and written through a FileChannel every FLUSH_INTERVAL
+ * ms. Every interval ms the whole store is written to a snapshot and
+ * the journal starts over. The journal is rotated before the snapshot
+ * is written and the store is not locked while writing it, so writes
+ * made meanwhile end up in both the snapshot and the new journal;
+ * replaying them on top of the snapshot is harmless.
+ *
+ * Files carry a generation. A snapshot covers the journals up to its
+ * generation, journals left by an interrupted snapshot have a higher
+ * generation and are replayed. Snapshots are written to a temporary
+ * file and renamed, a crash leaves the previous snapshot in place.
+ * A journal ends at its last complete record.
+ *
+ * Layout: a header (magic, generation), followed by length-prefixed
+ * TicketRecords. The tombstones of the store are kept in the snapshot
+ * as DELETE records.
+ */
+final class TicketJournal extends Thread {
+
+    /**
+     * Interval between journal flushes (ms).
+     */
+    static final int FLUSH_INTERVAL = 1000;
+
+    /**
+     * Size of the header.
+     */
+    static final int HEADER = 12;
+
+    /**
+     * Size of the journal buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Size of the buffer used to write snapshots.
+     */
+    private static final int SNAPSHOT_BUFFER_SIZE = 1 << 20;
+
+    private static final int JOURNAL_MAGIC = 0x4a524e4c;
+
+    private static final int SNAPSHOT_MAGIC = 0x534e4150;
+
+    /**
+     * Logging Class.
+     */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final VersionedTicketStore store;
+
+    private final File snapshotFile;
+
+    private final File journalFile;
+
+    /**
+     * Journal rotated for a snapshot that was not written yet.
+     */
+    private final File rotatedFile;
+
+    private final File tmpFile;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private final Object lock = new Object();
+
+    /**
+     * Only one snapshot is written at a time.
+     */
+    private final Object snapshotLock = new Object();
+
+    private FileChannel channel = null;
+
+    private long generation = 0;
+
+    private boolean running = true;
+
+    private volatile int interval;
+
+    private static int NR = 0;
+
+    private static Object NRLOCK = new Object();
+
+    /**
+     * Create a TicketJournal.
+     *
+     * @param store     Store to keep a copy of.
+     * @param directory Directory holding the files.
+     * @param name      Name of the files.
+     * @param interval  Interval between snapshots (ms).
+     */
+    TicketJournal(
+            final VersionedTicketStore store,
+            final File directory,
+            final String name,
+            final int interval) {
+        this.store = store;
+        this.interval = interval;
+        this.snapshotFile = new File(directory, name + ".snapshot");
+        this.tmpFile = new File(directory, name + ".snapshot.tmp");
+        this.journalFile = new File(directory, name + ".journal");
+        this.rotatedFile = new File(directory, name + ".journal.1");
+
+        synchronized(NRLOCK) {
+            NR++;
+            this.setName("TicketJournal-"+NR);
+        }
+        this.setDaemon(true);
+    }
+
+    /**
+     * Set the interval between snapshots.
+     *
+     * Takes effect after the next snapshot.
+     *
+     * @param interval  Interval (ms).
+     */
+    void setInterval(final int interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * Return the interval between snapshots.
+     *
+     * @return interval (ms).
+     */
+    int getInterval() {
+        return this.interval;
+    }
+
+    /**
+     * Return the file holding the snapshot.
+     *
+     * @return file.
+     */
+    File getSnapshotFile() {
+        return this.snapshotFile;
+    }
+
+    /**
+     * Load the snapshot and journals of a previous run into the
+     * store, then write a new snapshot and open the journal.
+     *
+     * Files older than maxAge are removed instead of loaded: tickets
+     * deleted on other providers since then may have lost their
+     * tombstones, loading them could bring deleted tickets back.
+     *
+     * @param maxAge    maximum age of the files (ms).
+     *
+     * @return number of tickets loaded.
+     *
+     * @throws IOException when the files can not be read or written.
+     */
+    int open(final long maxAge) throws IOException {
+        long modified = Math.max(this.snapshotFile.lastModified(),
+                Math.max(this.journalFile.lastModified(), this.rotatedFile.lastModified()));
+        long covered;
+
+        if (modified > 0 && modified < System.currentTimeMillis() - maxAge) {
+            logger.warn("Snapshot {} is older than {} ms, not loading it", this.snapshotFile, maxAge);
+            this.journalFile.delete();
+            this.rotatedFile.delete();
+            this.snapshotFile.delete();
+        } else {
+            covered = this.load(this.snapshotFile, SNAPSHOT_MAGIC, -1);
+            this.generation = Math.max(covered,
+                    Math.max(this.load(this.rotatedFile, JOURNAL_MAGIC, covered),
+                             this.load(this.journalFile, JOURNAL_MAGIC, covered)));
+            if (this.store.size() > 0) {
+                logger.info("Loaded {} tickets from {}", this.store.size(), this.snapshotFile);
+            }
+        }
+
+        this.snapshot();
+        return this.store.size();
+    }
+
+    /**
+     * Load a snapshot or journal into the store.
+     *
+     * @param file      snapshot or journal.
+     * @param magic     magic of the file type.
+     * @param covered   generation covered by the snapshot,
+     *                  older journals are skipped.
+     *
+     * @return generation of the file, -1 if it is missing or invalid.
+     *
+     * @throws IOException when the file can not be read.
+     */
+    private long load(final File file, final int magic, final long covered)
+            throws IOException {
+        RandomAccessFile raf;
+        MappedByteBuffer map;
+        long gen;
+
+        if (!file.exists()) {
+            return -1;
+        }
+
+        raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < HEADER || raf.length() > Integer.MAX_VALUE) {
+                logger.warn("Ignoring {}, invalid size", file);
+                return -1;
+            }
+            map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (map.getInt() != magic) {
+                logger.warn("Ignoring {}, invalid header", file);
+                return -1;
+            }
+
+            gen = map.getLong();
+            if (gen <= covered) {
+                return gen;
+            }
+
+            while (map.remaining() >= 4) {
+                int length = map.getInt();
+                byte[] record;
+
+                /* Stop at a record that was not completely written */
+                if (length <= 0 || length > map.remaining()) {
+                    break;
+                }
+                record = new byte[length];
+                map.get(record);
+                try {
+                    this.apply(record);
+                } catch (final IOException e) {
+                    logger.warn("Skipping record in {}: {}", file, e.getMessage());
+                }
+            }
+            return gen;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Apply a record to the store.
+     *
+     * @param data  encoded record.
+     *
+     * @throws IOException when the record is invalid.
+     */
+    private void apply(final byte[] data) throws IOException {
+        TicketRecord record = TicketRecord.decode(data);
+
+        if (record.getType() == TicketRecord.PUT) {
+            this.store.restore(record.getEntry());
+        } else {
+            this.store.restoreRemove(record.getTicketId(), record.getDeleted());
+        }
+    }
+
+    /**
+     * Log a stored ticket.
+     *
+     * @param entry     Ticket.
+     */
+    void put(final TicketEntry entry) {
+        try {
+            this.append(TicketRecord.encodePut(entry));
+        } catch (final IOException e) {
+            logger.warn("Could not log {}: {}", entry.getTicketId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Log a removed ticket.
+     *
+     * @param ticketId  Ticket-ID.
+     * @param deleted   time of the delete (ms), 0 to leave no tombstone.
+     */
+    void remove(final String ticketId, final long deleted) {
+        try {
+            this.append(TicketRecord.encodeDelete(ticketId, deleted));
+        } catch (final IOException e) {
+            logger.warn("Could not log {}: {}", ticketId, e.getMessage());
+        }
+    }
+
+    /**
+     * Append a record to the journal.
+     *
+     * When the journal can not be written it is closed, the
+     * next snapshot covers the lost records and opens a new one.
+     *
+     * @param record    encoded record.
+     */
+    private void append(final byte[] record) {
+        synchronized(this.lock) {
+            if (this.channel == null) {
+                return;
+            }
+            try {
+                write(this.channel, this.buffer, record);
+            } catch (final IOException e) {
+                logger.error("Could not write {}: {}", this.journalFile, e.getMessage());
+                this.closeJournal();
+            }
+        }
+    }
+
+    /**
+     * Run the journal.
+     */
+    public void run() {
+        long nextSnapshot = System.currentTimeMillis() + this.interval;
+
+        while (true) {
+            synchronized(this.lock) {
+                try {
+                    if (this.running) {
+                        this.lock.wait(FLUSH_INTERVAL);
+                    }
+                } catch (final InterruptedException e) {
+                    break;
+                }
+                if (!this.running) {
+                    break;
+                }
+                this.flush();
+            }
+
+            if (System.currentTimeMillis() >= nextSnapshot) {
+                try {
+                    this.snapshot();
+                } catch (final IOException e) {
+                    logger.error("Could not write snapshot {}: {}", this.snapshotFile, e.getMessage());
+                }
+                nextSnapshot = System.currentTimeMillis() + this.interval;
+            }
+        }
+    }
+
+    /**
+     * Write the store to a new snapshot and start a new journal.
+     *
+     * @throws IOException when the snapshot can not be written.
+     */
+    void snapshot() throws IOException {
+        synchronized(this.snapshotLock) {
+            long covered;
+            int count;
+
+            synchronized(this.lock) {
+                covered = this.generation;
+                this.rotate();
+            }
+
+            count = this.writeSnapshot(covered);
+            if (!this.tmpFile.renameTo(this.snapshotFile)) {
+                this.snapshotFile.delete();
+                if (!this.tmpFile.renameTo(this.snapshotFile)) {
+                    throw new IOException("Could not rename " + this.tmpFile);
+                }
+            }
+            this.rotatedFile.delete();
+
+            logger.debug("Wrote snapshot of {} tickets to {}", count, this.snapshotFile);
+        }
+    }
+
+    /**
+     * Close the journal and start a new one, with the next generation.
+     *
+     * The closed journal is kept until the snapshot is written, when
+     * an earlier snapshot failed it is added to the journal kept for
+     * that snapshot. Must be called holding the lock.
+     *
+     * @throws IOException when the new journal can not be opened.
+     */
+    private void rotate() throws IOException {
+        FileChannel out;
+
+        if (this.channel != null) {
+            this.flush();
+            this.closeJournal();
+        }
+
+        if (this.journalFile.exists()) {
+            if (!this.rotatedFile.exists()) {
+                if (!this.journalFile.renameTo(this.rotatedFile)) {
+                    throw new IOException("Could not rename " + this.journalFile);
+                }
+            } else {
+                this.appendJournal();
+            }
+        }
+
+        this.generation++;
+        out = new FileOutputStream(this.journalFile).getChannel();
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+
+            header.putInt(JOURNAL_MAGIC);
+            header.putLong(this.generation);
+            ((Buffer) header).flip();
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+        } catch (final IOException e) {
+            out.close();
+            throw e;
+        }
+        this.channel = out;
+    }
+
+    /**
+     * Add the records of the journal to the rotated journal,
+     * and remove the journal.
+     *
+     * @throws IOException when the journal can not be copied.
+     */
+    private void appendJournal() throws IOException {
+        FileChannel in = new FileInputStream(this.journalFile).getChannel();
+
+        try {
+            FileChannel out = new FileOutputStream(this.rotatedFile, true).getChannel();
+
+            try {
+                long pos = HEADER;
+                long size = in.size();
+
+                while (pos < size) {
+                    pos += in.transferTo(pos, size - pos, out);
+                }
+                out.force(false);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+
+        if (!this.journalFile.delete()) {
+            throw new IOException("Could not remove " + this.journalFile);
+        }
+    }
+
+    /**
+     * Write the store to the temporary snapshot file.
+     *
+     * @param covered   generation of the last journal
+     *                  covered by the snapshot.
+     *
+     * @return number of tickets written.
+     *
+     * @throws IOException when the snapshot can not be written.
+     */
+    private int writeSnapshot(final long covered) throws IOException {
+        FileChannel out = new FileOutputStream(this.tmpFile).getChannel();
+        ByteBuffer b = ByteBuffer.allocateDirect(SNAPSHOT_BUFFER_SIZE);
+        int count = 0;
+
+        try {
+            b.putInt(SNAPSHOT_MAGIC);
+            b.putLong(covered);
+
+            for (TicketEntry entry: this.store.getTickets()) {
+                write(out, b, TicketRecord.encodePut(entry));
+                count++;
+            }
+            for (Map.Entry<String, Long> tombstone: this.store.getTombstones().entrySet()) {
+                write(out, b, TicketRecord.encodeDelete(tombstone.getKey(), tombstone.getValue()));
+            }
+
+            drain(out, b);
+            out.force(false);
+        } finally {
+            out.close();
+        }
+        return count;
+    }
+
+    /**
+     * Write the buffered records to the journal.
+     *
+     * Must be called holding the lock.
+     */
+    private void flush() {
+        if (this.channel == null) {
+            return;
+        }
+        try {
+            drain(this.channel, this.buffer);
+        } catch (final IOException e) {
+            logger.error("Could not write {}: {}", this.journalFile, e.getMessage());
+            this.closeJournal();
+        }
+    }
+
+    /**
+     * Close the journal, dropping the buffered records.
+     *
+     * Must be called holding the lock.
+     */
+    private void closeJournal() {
+        ((Buffer) this.buffer).clear();
+        try {
+            this.channel.close();
+        } catch (final IOException e) {
+            logger.debug(e.toString());
+        }
+        this.channel = null;
+    }
+
+    /**
+     * Stop the journal, writing a last snapshot.
+     */
+    void cleanup() {
+        synchronized(this.lock) {
+            this.running = false;
+            this.lock.notifyAll();
+        }
+        if (this.isAlive()) {
+            try {
+                this.join();
+            } catch (final InterruptedException e) {
+                logger.debug(e.toString());
+            }
+        }
+
+        try {
+            this.snapshot();
+        } catch (final IOException e) {
+            logger.error("Could not write snapshot {}: {}", this.snapshotFile, e.getMessage());
+        }
+
+        synchronized(this.lock) {
+            this.flush();
+            if (this.channel != null) {
+                this.closeJournal();
+            }
+        }
+    }
+
+    /**
+     * Add a length-prefixed record to a buffer, writing the
+     * buffer to a channel when it is full.
+     *
+     * @param out       channel.
+     * @param b         buffer.
+     * @param record    encoded record.
+     *
+     * @throws IOException when the channel can not be written.
+     */
+    private static void write(final FileChannel out, final ByteBuffer b, final byte[] record)
+            throws IOException {
+        if (b.remaining() < 4 + record.length) {
+            drain(out, b);
+        }
+        if (b.remaining() < 4 + record.length) {
+            ByteBuffer large = ByteBuffer.allocate(4 + record.length);
+
+            large.putInt(record.length);
+            large.put(record);
+            drain(out, large);
+            return;
+        }
+        b.putInt(record.length);
+        b.put(record);
+    }
+
+    /**
+     * Write the contents of a buffer to a channel and clear it.
+     *
+     * @param out       channel.
+     * @param b         buffer.
+     *
+     * @throws IOException when the channel can not be written.
+     */
+    private static void drain(final FileChannel out, final ByteBuffer b)
+            throws IOException {
+        ((Buffer) b).flip();
+        try {
+            while (b.hasRemaining()) {
+                out.write(b);
+            }
+        } finally {
+            ((Buffer) b).clear();
+        }
+    }
+}
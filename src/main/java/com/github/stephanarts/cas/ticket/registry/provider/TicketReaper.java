@@ -0,0 +1,142 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TicketReaper Class.
+ *
+ * Removes expired tickets from a TicketStore in the background.
+ *
+ * The CAS Ticket API only tells if a ticket is expired, not when
+ * it expires, so the reaper walks the store periodically. Only the
+ * tickets whose check is due are decoded, the check of a ticket found
+ * not expired is postponed relative to its idle time (see TicketEntry).
+ * The walk is split in batches with a short pause in between, the
+ * store is never locked, so requests are not held up while reaping.
+ */
+final class TicketReaper extends Thread {
+
+    /**
+     * Logging Class.
+     */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Number of tickets checked per batch.
+     */
+    static final int BATCH_SIZE = 1000;
+
+    /**
+     * Pause between batches (ms).
+     */
+    private static final int BATCH_PAUSE = 1;
+
+    private static int NR = 0;
+
+    private static Object NRLOCK = new Object();
+
+    private final TicketStore store;
+
+    /**
+     * Interval between walks (ms).
+     */
+    private volatile int interval;
+
+    /**
+     * Create a TicketReaper.
+     *
+     * @param store     Store to remove expired tickets from.
+     * @param interval  Interval between walks (ms).
+     */
+    TicketReaper(final TicketStore store, final int interval) {
+        this.store = store;
+        this.interval = interval;
+
+        synchronized(NRLOCK) {
+            NR++;
+            this.setName("TicketReaper-"+NR);
+        }
+        this.setDaemon(true);
+    }
+
+    /**
+     * Set the interval between walks.
+     *
+     * Takes effect after the current interval has passed.
+     *
+     * @param interval  Interval (ms).
+     */
+    void setInterval(final int interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * Run the reaper.
+     */
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(this.interval);
+                this.reap();
+            } catch (final InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Walk the store once and remove the expired tickets.
+     *
+     * Tickets replaced by a live ticket while walking are left alone.
+     *
+     * @return number of tickets removed.
+     *
+     * @throws InterruptedException when interrupted between batches.
+     */
+    int reap() throws InterruptedException {
+        int checked = 0;
+        int removed = 0;
+
+        for (String ticketId: this.store.getTicketIds()) {
+            if (this.store.removeExpired(ticketId)) {
+                removed++;
+            }
+            if (++checked % BATCH_SIZE == 0) {
+                Thread.sleep(BATCH_PAUSE);
+            }
+        }
+
+        if (removed > 0) {
+            logger.debug("Removed {} expired tickets", removed);
+        }
+        return removed;
+    }
+
+    /**
+     * Stop the reaper and wait for it to exit.
+     */
+    void cleanup() {
+        this.interrupt();
+        try {
+            this.join();
+        } catch (final InterruptedException e) {
+            logger.debug(e.toString());
+        }
+    }
+}
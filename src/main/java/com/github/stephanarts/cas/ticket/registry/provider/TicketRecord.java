@@ -0,0 +1,190 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodec;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+
+/**
+ * TicketRecord Class.
+ *
+ * A change to a TicketStore, as written to a TicketJournal and
+ * published by a ChangePublisher: a stored ticket (PUT), or a removed
+ * ticket with the time it was deleted (DELETE), 0 if it expired.
+ */
+final class TicketRecord {
+
+    /**
+     * Record type of a stored ticket.
+     */
+    static final byte PUT = 1;
+
+    /**
+     * Record type of a removed ticket.
+     */
+    static final byte DELETE = 2;
+
+    private final byte type;
+
+    private final String ticketId;
+
+    private final TicketEntry entry;
+
+    private final long deleted;
+
+    /**
+     * Create a TicketRecord.
+     *
+     * @param type      PUT or DELETE.
+     * @param ticketId  Ticket-ID.
+     * @param entry     Ticket, null for a DELETE.
+     * @param deleted   time of the delete (ms).
+     */
+    private TicketRecord(
+            final byte type,
+            final String ticketId,
+            final TicketEntry entry,
+            final long deleted) {
+        this.type = type;
+        this.ticketId = ticketId;
+        this.entry = entry;
+        this.deleted = deleted;
+    }
+
+    /**
+     * Return the type of the record.
+     *
+     * @return PUT or DELETE.
+     */
+    byte getType() {
+        return this.type;
+    }
+
+    /**
+     * Return the id of the changed ticket.
+     *
+     * @return Ticket-ID.
+     */
+    String getTicketId() {
+        return this.ticketId;
+    }
+
+    /**
+     * Return the stored ticket.
+     *
+     * @return Ticket, null for a DELETE.
+     */
+    TicketEntry getEntry() {
+        return this.entry;
+    }
+
+    /**
+     * Return the time the ticket was deleted.
+     *
+     * @return time (ms), 0 if the ticket expired.
+     */
+    long getDeleted() {
+        return this.deleted;
+    }
+
+    /**
+     * Encode a PUT record.
+     *
+     * @param entry     Ticket.
+     *
+     * @return encoded record.
+     *
+     * @throws IOException when the record can not be encoded.
+     */
+    static byte[] encodePut(final TicketEntry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        byte[] data = entry.getData();
+
+        out.writeByte(PUT);
+        out.writeUTF(entry.getTicketId());
+        out.writeUTF(entry.getParentId() == null ? "" : entry.getParentId());
+        out.writeLong(entry.getVersion());
+        out.writeUTF(entry.getCodec().getName());
+        out.writeInt(data.length);
+        out.write(data);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encode a DELETE record.
+     *
+     * @param ticketId  Ticket-ID.
+     * @param deleted   time of the delete (ms), 0 if the ticket expired.
+     *
+     * @return encoded record.
+     *
+     * @throws IOException when the record can not be encoded.
+     */
+    static byte[] encodeDelete(final String ticketId, final long deleted)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeByte(DELETE);
+        out.writeUTF(ticketId);
+        out.writeLong(deleted);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a record.
+     *
+     * @param data  encoded record.
+     *
+     * @return record.
+     *
+     * @throws IOException when the record is invalid.
+     */
+    static TicketRecord decode(final byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        byte type = in.readByte();
+        String ticketId = in.readUTF();
+
+        if (type == PUT) {
+            String parentId = in.readUTF();
+            long version = in.readLong();
+            TicketCodec codec = TicketCodecs.get(in.readUTF());
+            byte[] ticket = new byte[in.readInt()];
+
+            in.readFully(ticket);
+            if (codec == null) {
+                throw new IOException("Unknown codec");
+            }
+            return new TicketRecord(type, ticketId, new TicketEntry(
+                    ticketId,
+                    parentId.length() > 0 ? parentId : null,
+                    codec,
+                    ticket,
+                    version), 0);
+        }
+        if (type == DELETE) {
+            return new TicketRecord(type, ticketId, null, in.readLong());
+        }
+        throw new IOException("Unknown record type " + type);
+    }
+}
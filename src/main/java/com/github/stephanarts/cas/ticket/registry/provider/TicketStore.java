@@ -0,0 +1,113 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import java.util.Collection;
+
+/**
+ * TicketStore Interface.
+ *
+ * Storage of the tickets held by a ZMQProvider, keyed by the
+ * full ticket-id. Tickets are stored encoded, as TicketEntry.
+ * Implementations must be safe for concurrent use by the worker
+ * threads of the provider.
+ */
+public interface TicketStore {
+
+    /**
+     * Store a ticket, unless a ticket with the same id exists.
+     *
+     * @param entry     Ticket.
+     *
+     * @return          true if the ticket was stored.
+     */
+    boolean add(TicketEntry entry);
+
+    /**
+     * Store a ticket, replacing a ticket with the same id.
+     *
+     * @param entry     Ticket.
+     *
+     * @return          the replaced ticket, or null.
+     */
+    TicketEntry put(TicketEntry entry);
+
+    /**
+     * Return a ticket.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return          the ticket, or null.
+     */
+    TicketEntry get(String ticketId);
+
+    /**
+     * Remove a ticket.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return          the removed ticket, or null.
+     */
+    TicketEntry remove(String ticketId);
+
+    /**
+     * Remove a ticket, only if the stored ticket is expired.
+     *
+     * Tickets that can not be decoded are removed as well. Tickets
+     * are only decoded when their reaper check is due, a ticket found
+     * not expired has its check postponed (see TicketEntry).
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return          true if the ticket was removed.
+     */
+    boolean removeExpired(String ticketId);
+
+    /**
+     * Return all tickets.
+     *
+     * The collection is not a snapshot, it reflects
+     * modifications made while iterating over it.
+     *
+     * @return          tickets.
+     */
+    Collection<TicketEntry> getTickets();
+
+    /**
+     * Return the ids of all tickets.
+     *
+     * The collection is not a snapshot, like getTickets.
+     *
+     * @return          ticket-ids.
+     */
+    Collection<String> getTicketIds();
+
+    /**
+     * Return the ids of the tickets granted by a ticket.
+     *
+     * @param parentId  Ticket-ID of the granting ticket.
+     *
+     * @return          ticket-ids, a snapshot.
+     */
+    Collection<String> getChildIds(String parentId);
+
+    /**
+     * Return the number of tickets.
+     *
+     * @return          number of tickets.
+     */
+    int size();
+}
@@ -15,20 +15,11 @@
 
 package com.github.stephanarts.cas.ticket.registry.provider;
 
-import java.util.HashMap;
-
-import java.io.ByteArrayInputStream;
-import java.io.ObjectInputStream;
-
-import javax.xml.bind.DatatypeConverter;
-
 import org.json.JSONObject;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.jasig.cas.ticket.Ticket;
-
 import com.github.stephanarts.cas.ticket.registry.support.IMethod;
 import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
 
@@ -42,15 +33,15 @@ public final class UpdateMethod implements IMethod {
      */
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private HashMap<Integer, Ticket> map; 
+    private final TicketStore store;
 
     /**
      * Constructor.
      *
-     * @param map ticket-map.
+     * @param store ticket-store.
      */
-    public UpdateMethod(final HashMap<Integer, Ticket> map) {
-        this.map = map;
+    public UpdateMethod(final TicketStore store) {
+        this.store = store;
     }
 
     /**
@@ -65,41 +56,14 @@ public final class UpdateMethod implements IMethod {
     public JSONObject execute(final JSONObject params) throws JSONRPCException {
         JSONObject result = new JSONObject();
 
-        Ticket ticket;
-
-        String ticketId = null;
-        String serializedTicket = null;
+        TicketEntry entry = TicketEntry.fromParams(params);
+        String ticketId = entry.getTicketId();
 
         logger.debug("Update Ticket {}", ticketId);
 
-        if (params.length() != 2) {
-            throw new JSONRPCException(-32602, "Invalid Params");
-        }
-        if (!(params.has("ticket-id") && params.has("ticket"))) {
-            throw new JSONRPCException(-32602, "Invalid Params");
-        }
-
-        try {
-            ticketId = params.getString("ticket-id");
-            serializedTicket = params.getString("ticket");
-
-            ByteArrayInputStream bi = new ByteArrayInputStream(
-                    DatatypeConverter.parseBase64Binary(serializedTicket));
-            ObjectInputStream si = new ObjectInputStream(bi);
-
-            ticket =(Ticket) si.readObject();
-
-            if(ticket.isExpired()) {
-                logger.info("Ticket Expired {}", ticketId);
-            }
-
-            if(!this.map.containsKey(ticket.hashCode())) {
-                logger.warn("Missing Key {}", ticketId);
-            }
-
-            this.map.put(ticketId.hashCode(), ticket);
-        } catch(final Exception e) {
-            throw new JSONRPCException(-32501, "Could not decode Ticket");
+        /* Expired tickets are left to the TicketReaper */
+        if(this.store.put(entry) == null) {
+            logger.warn("Missing Key {}", ticketId);
         }
 
         logger.debug("Ticket-ID '{}'", ticketId);
@@ -0,0 +1,705 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * VersionedTicketStore Class.
+ *
+ * Wraps the TicketStore of a ZMQProvider, keeping what is needed to
+ * compare it with the store of another provider:
+ *
+ * - A digest of the ticket-ids, versions and checksums, as a hash tree
+ *   over ranges of ticket-ids. The leaves are the XOR of the hashes of
+ *   the tickets in their range, so they are updated in constant time
+ *   on every write and two stores holding the same versions of the
+ *   same tickets have the same tree.
+ *
+ * - Tombstones of deleted and expired tickets, for tombstoneTimeout ms.
+ *   A ticket with a tombstone is not stored again, so a late (or
+ *   resynced) write can not bring back a deleted or expired ticket.
+ *
+ * Writes of a ticket that compare lower than the stored ticket
+ * (see compare) are ignored, writes of the same ticket are serialized
+ * on one of STRIPES locks to keep the digest in line with the store.
+ *
+ * When a TicketJournal is set, the writes are logged to it
+ * in the order they are applied. When a ChangePublisher is set, the
+ * writes made by clients (not those replicated from other providers)
+ * are published on it.
+ */
+final class VersionedTicketStore implements TicketStore {
+
+    /**
+     * Depth of the leaves of the hash tree.
+     */
+    static final int LEAF_DEPTH = 10;
+
+    /**
+     * Number of leaves (ticket-id ranges) of the hash tree.
+     */
+    static final int LEAVES = 1 << LEAF_DEPTH;
+
+    /**
+     * Version reported for deleted tickets.
+     */
+    static final long DELETED = -1;
+
+    /**
+     * Default time tombstones are kept (ms).
+     */
+    static final int DEFAULT_TOMBSTONE_TIMEOUT = 600000;
+
+    private static final int STRIPES = 64;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final TicketStore store;
+
+    private final AtomicLongArray leaves = new AtomicLongArray(LEAVES);
+
+    /**
+     * Time of delete, by ticket-id.
+     */
+    private final ConcurrentMap<String, Long> tombstones =
+            new ConcurrentHashMap<String, Long>();
+
+    private final Object[] locks = new Object[STRIPES];
+
+    private volatile int tombstoneTimeout = DEFAULT_TOMBSTONE_TIMEOUT;
+
+    private volatile long nextPurge = 0;
+
+    private volatile TicketJournal journal = null;
+
+    private volatile ChangePublisher publisher = null;
+
+    /**
+     * Create a VersionedTicketStore.
+     *
+     * @param store     Store holding the tickets.
+     */
+    VersionedTicketStore(final TicketStore store) {
+        this.store = store;
+
+        for (int i = 0; i < STRIPES; ++i) {
+            this.locks[i] = new Object();
+        }
+        for (TicketEntry entry: store.getTickets()) {
+            this.toggle(entry.getTicketId(), entry);
+        }
+    }
+
+    /**
+     * Set the time tombstones are kept.
+     *
+     * @param timeout   Timeout (ms).
+     */
+    void setTombstoneTimeout(final int timeout) {
+        this.tombstoneTimeout = timeout;
+    }
+
+    /**
+     * Return the time tombstones are kept.
+     *
+     * @return Timeout (ms).
+     */
+    int getTombstoneTimeout() {
+        return this.tombstoneTimeout;
+    }
+
+    /**
+     * Set the journal to log the writes to.
+     *
+     * @param journal   TicketJournal, null to stop logging.
+     */
+    void setJournal(final TicketJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Set the publisher to publish the writes of clients on.
+     *
+     * @param publisher ChangePublisher, null to stop publishing.
+     */
+    void setPublisher(final ChangePublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    /**
+     * Store a ticket, unless a ticket with the same id exists
+     * or was deleted.
+     *
+     * @param entry     Ticket.
+     *
+     * @return          true if the ticket was stored.
+     */
+    public boolean add(final TicketEntry entry) {
+        String ticketId = entry.getTicketId();
+
+        synchronized(this.lock(ticketId)) {
+            if (this.tombstones.containsKey(ticketId) || !this.store.add(entry)) {
+                return false;
+            }
+            this.toggle(ticketId, entry);
+            this.log(entry);
+            this.publish(entry);
+            return true;
+        }
+    }
+
+    /**
+     * Store a ticket, replacing a ticket with the same id.
+     *
+     * The ticket is not stored when it was deleted, or when the
+     * stored ticket has a higher version. In the latter case the
+     * stored ticket is returned, as if it was replaced.
+     *
+     * @param entry     Ticket.
+     *
+     * @return          the replaced ticket, or null.
+     */
+    public TicketEntry put(final TicketEntry entry) {
+        return this.put(entry, true);
+    }
+
+    /**
+     * Store a ticket published by another provider,
+     * without publishing it again.
+     *
+     * @param entry     Ticket.
+     *
+     * @return          the replaced ticket, or null.
+     */
+    TicketEntry replicate(final TicketEntry entry) {
+        return this.put(entry, false);
+    }
+
+    /**
+     * Store a ticket, replacing a ticket with the same id.
+     *
+     * @param entry     Ticket.
+     * @param publish   publish the write.
+     *
+     * @return          the replaced ticket, or null.
+     */
+    private TicketEntry put(final TicketEntry entry, final boolean publish) {
+        String ticketId = entry.getTicketId();
+
+        synchronized(this.lock(ticketId)) {
+            TicketEntry current;
+
+            if (this.tombstones.containsKey(ticketId)) {
+                return null;
+            }
+            current = this.store.get(ticketId);
+            if (current != null && compare(current, entry) > 0) {
+                return current;
+            }
+
+            current = this.store.put(entry);
+            if (current != null) {
+                this.toggle(ticketId, current);
+            }
+            this.toggle(ticketId, entry);
+            this.log(entry);
+            if (publish) {
+                this.publish(entry);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Return a ticket.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return          the ticket, or null.
+     */
+    public TicketEntry get(final String ticketId) {
+        return this.store.get(ticketId);
+    }
+
+    /**
+     * Return if a ticket was deleted, and its tombstone is kept.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return          true if the ticket has a tombstone.
+     */
+    public boolean isDeleted(final String ticketId) {
+        return this.tombstones.containsKey(ticketId);
+    }
+
+    /**
+     * Remove a ticket, leaving a tombstone.
+     *
+     * A tombstone is left for missing tickets as well,
+     * the delete may have overtaken the write.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return          the removed ticket, or null.
+     */
+    public TicketEntry remove(final String ticketId) {
+        return this.remove(ticketId, true);
+    }
+
+    /**
+     * Remove a ticket deleted by another provider,
+     * without publishing the delete again.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return          the removed ticket, or null.
+     */
+    TicketEntry replicateRemove(final String ticketId) {
+        return this.remove(ticketId, false);
+    }
+
+    /**
+     * Remove a ticket, leaving a tombstone.
+     *
+     * @param ticketId  Ticket-ID.
+     * @param publish   publish the delete.
+     *
+     * @return          the removed ticket, or null.
+     */
+    private TicketEntry remove(final String ticketId, final boolean publish) {
+        TicketEntry removed;
+        long now = System.currentTimeMillis();
+
+        synchronized(this.lock(ticketId)) {
+            removed = this.store.remove(ticketId);
+            if (removed != null) {
+                this.toggle(ticketId, removed);
+            }
+            this.tombstones.put(ticketId, now);
+            this.log(ticketId, now);
+            if (publish) {
+                this.publish(ticketId, now);
+            }
+        }
+
+        if (now >= this.nextPurge) {
+            this.purgeTombstones(now);
+        }
+        return removed;
+    }
+
+    /**
+     * Remove a ticket, only if the stored ticket is expired.
+     *
+     * Expired tickets get a tombstone like deleted tickets, this way
+     * a resync from a provider that did not remove the ticket yet does
+     * not bring it back. The removal is not published, every provider
+     * removes expired tickets by itself.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return          true if the ticket was removed.
+     */
+    public boolean removeExpired(final String ticketId) {
+        long now = System.currentTimeMillis();
+
+        synchronized(this.lock(ticketId)) {
+            TicketEntry entry = this.store.get(ticketId);
+
+            if (entry == null || !this.store.removeExpired(ticketId)) {
+                return false;
+            }
+            this.toggle(ticketId, entry);
+            this.tombstones.put(ticketId, now);
+            this.log(ticketId, now);
+        }
+
+        if (now >= this.nextPurge) {
+            this.purgeTombstones(now);
+        }
+        return true;
+    }
+
+    /**
+     * Store a ticket loaded from a TicketJournal.
+     *
+     * Replaces the stored ticket unless it compares higher,
+     * and drops the tombstone of the ticket. The write is not logged.
+     *
+     * @param entry     Ticket.
+     */
+    void restore(final TicketEntry entry) {
+        String ticketId = entry.getTicketId();
+
+        synchronized(this.lock(ticketId)) {
+            TicketEntry current = this.store.get(ticketId);
+
+            if (current != null && compare(current, entry) > 0) {
+                return;
+            }
+            current = this.store.put(entry);
+            if (current != null) {
+                this.toggle(ticketId, current);
+            }
+            this.toggle(ticketId, entry);
+            this.tombstones.remove(ticketId);
+        }
+    }
+
+    /**
+     * Remove a ticket as loaded from a TicketJournal.
+     *
+     * The remove is not logged.
+     *
+     * @param ticketId  Ticket-ID.
+     * @param deleted   time of the delete (ms), leaving a tombstone,
+     *                  0 if the ticket expired.
+     */
+    void restoreRemove(final String ticketId, final long deleted) {
+        synchronized(this.lock(ticketId)) {
+            TicketEntry removed = this.store.remove(ticketId);
+
+            if (removed != null) {
+                this.toggle(ticketId, removed);
+            }
+            if (deleted > 0) {
+                this.tombstones.put(ticketId, deleted);
+            }
+        }
+    }
+
+    /**
+     * Return all tickets.
+     *
+     * @return          tickets.
+     */
+    public Collection<TicketEntry> getTickets() {
+        return this.store.getTickets();
+    }
+
+    /**
+     * Return the ids of all tickets.
+     *
+     * @return          ticket-ids.
+     */
+    public Collection<String> getTicketIds() {
+        return this.store.getTicketIds();
+    }
+
+    /**
+     * Return the ids of the tickets granted by a ticket.
+     *
+     * @param parentId  Ticket-ID of the granting ticket.
+     *
+     * @return          ticket-ids, a snapshot.
+     */
+    public Collection<String> getChildIds(final String parentId) {
+        return this.store.getChildIds(parentId);
+    }
+
+    /**
+     * Return the number of tickets.
+     *
+     * @return          number of tickets.
+     */
+    public int size() {
+        return this.store.size();
+    }
+
+    /**
+     * Return the ids of the deleted tickets that still have a tombstone.
+     *
+     * The collection is not a snapshot.
+     *
+     * @return          ticket-ids.
+     */
+    Collection<String> getDeletedIds() {
+        return this.tombstones.keySet();
+    }
+
+    /**
+     * Return the tombstones.
+     *
+     * The map is not a snapshot.
+     *
+     * @return time of delete (ms), by ticket-id.
+     */
+    Map<String, Long> getTombstones() {
+        return this.tombstones;
+    }
+
+    /**
+     * Return a level of the hash tree.
+     *
+     * Node i at depth d covers the leaves i * 2^(LEAF_DEPTH - d)
+     * up to (i + 1) * 2^(LEAF_DEPTH - d), depth 0 is the root.
+     *
+     * @param depth     depth, 0 to LEAF_DEPTH.
+     *
+     * @return          hashes of the 2^depth nodes.
+     */
+    long[] getDigest(final int depth) {
+        long[] digest = new long[1 << depth];
+        int shift = LEAF_DEPTH - depth;
+
+        for (int i = 0; i < LEAVES; ++i) {
+            digest[i >>> shift] ^= this.leaves.get(i);
+        }
+        return digest;
+    }
+
+    /**
+     * Drop the tombstones older than tombstoneTimeout.
+     *
+     * @param now   current time (ms).
+     */
+    void purgeTombstones(final long now) {
+        long timeout = this.tombstoneTimeout;
+        Iterator<Map.Entry<String, Long>> iter;
+
+        this.nextPurge = now + Math.max(1, timeout / 10);
+
+        iter = this.tombstones.entrySet().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().getValue() < now - timeout) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Log a stored ticket to the journal, if set.
+     *
+     * @param entry     Ticket.
+     */
+    private void log(final TicketEntry entry) {
+        TicketJournal j = this.journal;
+
+        if (j != null) {
+            j.put(entry);
+        }
+    }
+
+    /**
+     * Log a removed ticket to the journal, if set.
+     *
+     * @param ticketId  Ticket-ID.
+     * @param deleted   time of the delete (ms).
+     */
+    private void log(final String ticketId, final long deleted) {
+        TicketJournal j = this.journal;
+
+        if (j != null) {
+            j.remove(ticketId, deleted);
+        }
+    }
+
+    /**
+     * Publish a stored ticket, if a publisher is set.
+     *
+     * @param entry     Ticket.
+     */
+    private void publish(final TicketEntry entry) {
+        ChangePublisher p = this.publisher;
+
+        if (p != null) {
+            p.put(entry);
+        }
+    }
+
+    /**
+     * Publish a deleted ticket, if a publisher is set.
+     *
+     * @param ticketId  Ticket-ID.
+     * @param deleted   time of the delete (ms).
+     */
+    private void publish(final String ticketId, final long deleted) {
+        ChangePublisher p = this.publisher;
+
+        if (p != null) {
+            p.remove(ticketId, deleted);
+        }
+    }
+
+    /**
+     * Return the lock of a ticket.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return          lock.
+     */
+    private Object lock(final String ticketId) {
+        return this.locks[ticketId.hashCode() & (STRIPES - 1)];
+    }
+
+    /**
+     * Add a ticket to, or remove it from the digest.
+     *
+     * @param ticketId  Ticket-ID.
+     * @param entry     Ticket.
+     */
+    private void toggle(final String ticketId, final TicketEntry entry) {
+        long h = hash(ticketId);
+        int leaf = getLeaf(h);
+        long mixed = mix(h ^ mix(entry.getVersion() ^ mix(checksum(entry))));
+
+        while (true) {
+            long current = this.leaves.get(leaf);
+
+            if (this.leaves.compareAndSet(leaf, current, current ^ mixed)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Compare two writes of the same ticket.
+     *
+     * The higher version wins. Writes with the same version but other
+     * data (two clients using the ticket at the same time) are ordered
+     * by codec name and then by data, as unsigned bytes, so every
+     * provider keeps the same write whatever the order they arrive in.
+     *
+     * @param a         Ticket.
+     * @param b         Ticket.
+     *
+     * @return          less than, equal to or greater than 0
+     *                  when a is lower than, equal to or higher than b.
+     */
+    static int compare(final TicketEntry a, final TicketEntry b) {
+        byte[] x;
+        byte[] y;
+        int c;
+
+        if (a.getVersion() != b.getVersion()) {
+            return a.getVersion() < b.getVersion() ? -1 : 1;
+        }
+        c = a.getCodec().getName().compareTo(b.getCodec().getName());
+        if (c != 0) {
+            return c;
+        }
+
+        x = a.getData();
+        y = b.getData();
+        for (int i = 0; i < Math.min(x.length, y.length); ++i) {
+            c = (x[i] & 0xff) - (y[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return x.length - y.length;
+    }
+
+    /**
+     * Return the checksum of the codec and data of a ticket (FNV-1a).
+     *
+     * Tells apart writes of a ticket with the same version.
+     *
+     * @param entry     Ticket.
+     *
+     * @return          checksum.
+     */
+    static long checksum(final TicketEntry entry) {
+        long h = FNV_OFFSET;
+
+        for (byte b: entry.getCodec().getName().getBytes(UTF8)) {
+            h = (h ^ (b & 0xff)) * FNV_PRIME;
+        }
+        for (byte b: entry.getData()) {
+            h = (h ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    /**
+     * Return the leaf of the hash tree covering a ticket-id.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return          leaf, 0 to LEAVES - 1.
+     */
+    static int getLeaf(final String ticketId) {
+        return getLeaf(hash(ticketId));
+    }
+
+    /**
+     * Return the leaf covering a hashed ticket-id.
+     *
+     * @param h         hash of the Ticket-ID.
+     *
+     * @return          leaf, 0 to LEAVES - 1.
+     */
+    private static int getLeaf(final long h) {
+        return (int) (h >>> (64 - LEAF_DEPTH));
+    }
+
+    /**
+     * Hash a ticket-id.
+     *
+     * Uses the first 8 bytes of the MD5 digest, which spreads
+     * similar ticket-ids evenly over the leaves.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return          hash.
+     */
+    static long hash(final String ticketId) {
+        byte[] digest;
+        long h = 0;
+
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(ticketId.getBytes(UTF8));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        for (int i = 0; i < 8; ++i) {
+            h = (h << 8) | (digest[i] & 0xff);
+        }
+        return h;
+    }
+
+    /**
+     * Mix the bits of a value (MurmurHash3 finalizer).
+     *
+     * @param value     value.
+     *
+     * @return          mixed value.
+     */
+    private static long mix(final long value) {
+        long h = value;
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb53a185ec4d3L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
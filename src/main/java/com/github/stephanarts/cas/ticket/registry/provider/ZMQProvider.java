@@ -15,7 +15,10 @@
 
 package com.github.stephanarts.cas.ticket.registry.provider;
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,6 +27,7 @@ import org.jasig.cas.ticket.Ticket;
 
 import com.github.stephanarts.cas.ticket.registry.support.JSONRPCServer;
 import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
 
 /**
  * ZMQProvider Class.
@@ -36,8 +40,33 @@ public class ZMQProvider extends JSONRPCServer
      */
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     
-    private final HashMap<Integer, Ticket> ticketMap =
-            new HashMap<Integer, Ticket>();
+    private final VersionedTicketStore ticketStore;
+
+    /**
+     * Default interval between TicketReaper walks (ms).
+     */
+    public static final int DEFAULT_REAPER_INTERVAL = 30000;
+
+    private volatile int reaperInterval = DEFAULT_REAPER_INTERVAL;
+
+    private TicketReaper reaper = null;
+
+    private final Object reaperLock = new Object();
+
+    /**
+     * Default interval between snapshots (ms).
+     */
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 300000;
+
+    private volatile int snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+
+    private TicketJournal journal = null;
+
+    private boolean started = false;
+
+    private ChangePublisher publisher = null;
+
+    private ChangeSubscriber subscriber = null;
 
     /**
      * Counter for Thread-name.
@@ -58,32 +87,371 @@ public class ZMQProvider extends JSONRPCServer
     public ZMQProvider(
             final String bindUri,
             final String uniqueId) {
+        this(bindUri, uniqueId, new ConcurrentTicketStore());
+    }
+
+    /**
+     *  Create a ZMQProvider.
+     *
+     *  @param bindUri      BindURI
+     *  @param uniqueId     UniqueId used for identification.
+     *  @param ticketStore  Store holding the tickets.
+     */
+    public ZMQProvider(
+            final String bindUri,
+            final String uniqueId,
+            final TicketStore ticketStore) {
         super(bindUri);
 
         NR++;
 
         this.setName("ZMQProvider-"+NR);
         this.providerId = uniqueId;
+        this.ticketStore = new VersionedTicketStore(ticketStore);
 
         try {
-            registerMethod("cas.addTicket", new AddMethod(this.ticketMap));
-            registerMethod("cas.getTicket", new GetMethod(this.ticketMap));
-            registerMethod("cas.updateTicket", new UpdateMethod(this.ticketMap));
-            registerMethod("cas.deleteTicket", new DeleteMethod(this.ticketMap));
-            registerMethod("cas.getTickets", new GetTicketsMethod(this.ticketMap));
+            registerMethod("cas.addTicket", new AddMethod(this.ticketStore));
+            registerMethod("cas.getTicket", new GetMethod(this.ticketStore));
+            registerMethod("cas.updateTicket", new UpdateMethod(this.ticketStore));
+            registerMethod("cas.deleteTicket", new DeleteMethod(this.ticketStore));
+            registerMethod("cas.getTickets", new GetTicketsMethod(this.ticketStore));
+            registerMethod("cas.getTicketsPage", new GetTicketsPageMethod(this.ticketStore));
+            registerMethod("cas.addTickets", new AddTicketsMethod(this.ticketStore));
+            registerMethod("cas.updateTickets", new UpdateTicketsMethod(this.ticketStore));
+            registerMethod("cas.deleteTickets", new DeleteTicketsMethod(this.ticketStore));
+            registerMethod("cas.getTicketsById", new GetTicketsByIdMethod(this.ticketStore));
+            registerMethod("cas.getDigest", new GetDigestMethod(this.ticketStore));
+            registerMethod("cas.getVersions", new GetVersionsMethod(this.ticketStore));
             registerMethod("cas.getProviderId", new GetProviderIdMethod(uniqueId));
+
+            registerOpcode(1, "cas.addTicket",
+                    new String[] {"ticket-id", "codec", "parent-id", "version"}, "ticket", null);
+            registerOpcode(2, "cas.getTicket",
+                    new String[] {"ticket-id", "codec"}, null, "ticket");
+            registerOpcode(3, "cas.updateTicket",
+                    new String[] {"ticket-id", "codec", "parent-id", "version"}, "ticket", null);
+            registerOpcode(4, "cas.deleteTicket",
+                    new String[] {"ticket-id", "cascade"}, null, null);
+            registerOpcode(5, "cas.getTickets",
+                    new String[] {"codec"}, null, "tickets[]");
         } catch(final JSONRPCException e) {
             logger.error(e.getMessage());
         }
+
+        this.setCapability("codecs", TicketCodecs.getNames());
+        this.setCapability("parent-id", Boolean.TRUE);
+        this.setCapability("paging", Boolean.TRUE);
+        this.setCapability("batch", Boolean.TRUE);
+        this.setCapability("cascade", Boolean.TRUE);
+        this.setCapability("versions", Boolean.TRUE);
+    }
+
+    /**
+     * Set the interval between walks of the TicketReaper.
+     *
+     * @param interval  Interval (ms).
+     */
+    public final void setReaperInterval(final int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Invalid reaper interval: " + interval);
+        }
+        synchronized(this.reaperLock) {
+            this.reaperInterval = interval;
+            if (this.reaper != null) {
+                this.reaper.setInterval(interval);
+            }
+        }
+    }
+
+    /**
+     * Return the interval between walks of the TicketReaper.
+     *
+     * @return interval (ms).
+     */
+    public final int getReaperInterval() {
+        return this.reaperInterval;
+    }
+
+    /**
+     * Set the time deleted tickets are remembered.
+     *
+     * While a deleted ticket is remembered, late writes and
+     * resyncs from other providers can not bring it back.
+     *
+     * @param timeout   Timeout (ms).
+     */
+    public final void setTombstoneTimeout(final int timeout) {
+        if (timeout < 1) {
+            throw new IllegalArgumentException("Invalid tombstone timeout: " + timeout);
+        }
+        this.ticketStore.setTombstoneTimeout(timeout);
+    }
+
+    /**
+     * Return the time deleted tickets are remembered.
+     *
+     * @return timeout (ms).
+     */
+    public final int getTombstoneTimeout() {
+        return this.ticketStore.getTombstoneTimeout();
+    }
+
+    /**
+     * Keep a snapshot and journal of the tickets in a directory,
+     * loading the tickets left there by a previous run.
+     *
+     * The files are named after the bind URI. Files older than the
+     * tombstoneTimeout are not loaded, the tombstones of tickets
+     * deleted since may be gone. Has to be called before the
+     * provider is started.
+     *
+     * @param directory Directory to keep the files in.
+     *
+     * @return number of tickets loaded.
+     *
+     * @throws IOException when the files can not be read or written.
+     */
+    public final int openSnapshot(final String directory) throws IOException {
+        String name = "cas-zmq-tickets-" + this.getBindUri();
+        TicketJournal j;
+        int loaded;
+
+        synchronized(this.reaperLock) {
+            if (this.started) {
+                throw new IllegalStateException("Provider already started");
+            }
+            if (this.journal != null) {
+                throw new IllegalStateException("Snapshot already opened");
+            }
+
+            j = new TicketJournal(
+                    this.ticketStore,
+                    new File(directory),
+                    name.replaceAll("[^A-Za-z0-9.-]", "_"),
+                    this.snapshotInterval);
+            loaded = j.open(this.ticketStore.getTombstoneTimeout());
+
+            this.ticketStore.setJournal(j);
+            this.journal = j;
+        }
+        return loaded;
+    }
+
+    /**
+     * Return the file holding the snapshot.
+     *
+     * @return path of the snapshot, null if disabled.
+     */
+    public final String getSnapshotFile() {
+        synchronized(this.reaperLock) {
+            return this.journal == null ? null : this.journal.getSnapshotFile().getPath();
+        }
+    }
+
+    /**
+     * Set the interval between snapshots.
+     *
+     * @param interval  Interval (ms).
+     */
+    public final void setSnapshotInterval(final int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Invalid snapshot interval: " + interval);
+        }
+        synchronized(this.reaperLock) {
+            this.snapshotInterval = interval;
+            if (this.journal != null) {
+                this.journal.setInterval(interval);
+            }
+        }
+    }
+
+    /**
+     * Return the interval between snapshots.
+     *
+     * @return interval (ms).
+     */
+    public final int getSnapshotInterval() {
+        return this.snapshotInterval;
+    }
+
+    /**
+     * Publish the writes made to this provider on a PUB socket.
+     *
+     * Writes replicated from other providers are not published.
+     *
+     * @param bindUri   URI to bind the PUB socket on.
+     */
+    public final void openPublisher(final String bindUri) {
+        synchronized(this.reaperLock) {
+            if (this.publisher != null) {
+                throw new IllegalStateException("Publisher already opened");
+            }
+            this.publisher = new ChangePublisher(bindUri);
+            this.ticketStore.setPublisher(this.publisher);
+        }
+    }
+
+    /**
+     * Apply the writes published by another provider.
+     *
+     * @param uri       URI of the PUB socket of the other provider.
+     */
+    public final void subscribe(final String uri) {
+        synchronized(this.reaperLock) {
+            if (this.subscriber == null) {
+                this.subscriber = new ChangeSubscriber(this.ticketStore);
+                this.subscriber.start();
+            }
+            this.subscriber.subscribe(uri);
+        }
+    }
+
+    /**
+     * Stop publishing writes and applying the writes of other providers.
+     */
+    public final void closeChangeStream() {
+        ChangePublisher p;
+        ChangeSubscriber sub;
+
+        synchronized(this.reaperLock) {
+            p = this.publisher;
+            sub = this.subscriber;
+            this.publisher = null;
+            this.subscriber = null;
+        }
+        if (p != null) {
+            this.ticketStore.setPublisher(null);
+            p.close();
+        }
+        if (sub != null) {
+            sub.cleanup();
+        }
+    }
+
+    /**
+     * Return the number of writes published.
+     *
+     * @return number of writes.
+     */
+    public final long getPublished() {
+        synchronized(this.reaperLock) {
+            return this.publisher == null ? 0 : this.publisher.getPublished();
+        }
+    }
+
+    /**
+     * Return the number of writes applied from other providers.
+     *
+     * @return number of writes.
+     */
+    public final long getReplicated() {
+        synchronized(this.reaperLock) {
+            return this.subscriber == null ? 0 : this.subscriber.getApplied();
+        }
+    }
+
+    /**
+     * Start the TicketReaper and TicketJournal.
+     */
+    protected final void onStart() {
+        synchronized(this.reaperLock) {
+            this.started = true;
+            this.reaper = new TicketReaper(this.ticketStore, this.reaperInterval);
+            this.reaper.start();
+            if (this.journal != null) {
+                this.journal.start();
+            }
+        }
+    }
+
+    /**
+     * Stop the change stream, TicketReaper and TicketJournal.
+     *
+     * The TicketJournal writes a last snapshot.
+     */
+    protected final void onStop() {
+        TicketReaper r;
+        TicketJournal j;
+
+        this.closeChangeStream();
+
+        synchronized(this.reaperLock) {
+            r = this.reaper;
+            j = this.journal;
+            this.reaper = null;
+            this.journal = null;
+        }
+        if (r != null) {
+            r.cleanup();
+        }
+        if (j != null) {
+            j.cleanup();
+            this.ticketStore.setJournal(null);
+        }
+    }
+
+    /**
+     * Read a ticket from the store, bypassing JSON-RPC.
+     *
+     * Meant for a RegistryBroker in the same JVM. Each call decodes
+     * a new copy of the ticket, changes to the copy do not affect
+     * the stored ticket.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return Ticket, or null if the ticket does not exist.
+     *
+     * @throws IOException when the ticket can not be decoded.
+     */
+    public final Ticket readTicket(final String ticketId) throws IOException {
+        TicketEntry entry = this.ticketStore.get(ticketId);
+
+        if (entry == null) {
+            return null;
+        }
+        return entry.getTicket();
+    }
+
+    /**
+     * Return if a ticket was deleted, rather than never stored.
+     *
+     * Only known while the tombstone of the ticket is kept.
+     *
+     * @param ticketId  Ticket-ID.
+     *
+     * @return true if the ticket was deleted.
+     */
+    public final boolean isDeleted(final String ticketId) {
+        return this.ticketStore.isDeleted(ticketId);
+    }
+
+    /**
+     * Read all tickets from the store, bypassing JSON-RPC.
+     *
+     * Tickets that can not be decoded are skipped.
+     *
+     * @return copies of the tickets.
+     */
+    public final Collection<Ticket> readTickets() {
+        Collection<Ticket> tickets = new ArrayList<Ticket>();
+
+        for (TicketEntry entry: this.ticketStore.getTickets()) {
+            try {
+                tickets.add(entry.getTicket());
+            } catch (final IOException e) {
+                logger.warn("Could not decode Ticket {}: {}", entry.getTicketId(), e.getMessage());
+            }
+        }
+        return tickets;
     }
 
     /**
-     * Returns the size of the ticketMap (eg. number of tickets)
+     * Returns the size of the ticketStore (eg. number of tickets)
      *
      * @return number of tickets.
      */
     public final int getSize() {
-        return ticketMap.size();
+        return this.ticketStore.size();
     }
 
     /**
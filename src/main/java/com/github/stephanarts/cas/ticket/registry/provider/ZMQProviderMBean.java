@@ -35,6 +35,41 @@ public interface ZMQProviderMBean {
      */
     String getProviderId();
 
+    /**
+     * Return the interval between walks of the TicketReaper.
+     *
+     * @return interval (ms).
+     */
+    int getReaperInterval();
+
+    /**
+     * Return the interval between snapshots.
+     *
+     * @return interval (ms).
+     */
+    int getSnapshotInterval();
+
+    /**
+     * Return the number of writes published to other providers.
+     *
+     * @return number of writes.
+     */
+    long getPublished();
+
+    /**
+     * Return the number of writes applied from other providers.
+     *
+     * @return number of writes.
+     */
+    long getReplicated();
+
+    /**
+     * Return the time deleted tickets are remembered.
+     *
+     * @return timeout (ms).
+     */
+    int getTombstoneTimeout();
+
     /**
      * Return statistics.
      *
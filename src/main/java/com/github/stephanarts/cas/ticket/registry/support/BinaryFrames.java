@@ -0,0 +1,209 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.support;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import org.zeromq.ZFrame;
+
+/**
+ * BinaryFrames Class.
+ *
+ * Moves byte[] members of the params or result object of a JSON-RPC
+ * message into separate ZeroMQ frames, following the JSON frame.
+ *
+ * The message carries a 'binary' header listing the members in frame
+ * order, as [name, count] pairs. A count of -1 denotes a single byte[]
+ * value, other counts denote an array of byte[] values.
+ *
+ * Peers that do not negotiate binary frames receive the same members
+ * as Base64 encoded strings.
+ */
+public final class BinaryFrames {
+
+    /**
+     * Hide constructor.
+     */
+    private BinaryFrames() {
+    }
+
+    /**
+     * Return a byte[] member, as frame or Base64 string.
+     *
+     * @param object    JSON object containing the member.
+     * @param key       member name.
+     *
+     * @return byte[] value.
+     */
+    public static byte[] getBytes(final JSONObject object, final String key) {
+        Object value = object.get(key);
+
+        if (value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        return DatatypeConverter.parseBase64Binary(object.getString(key));
+    }
+
+    /**
+     * Return a byte[] array element, as frame or Base64 string.
+     *
+     * @param array     JSON array containing the element.
+     * @param index     element index.
+     *
+     * @return byte[] value.
+     */
+    public static byte[] getBytes(final JSONArray array, final int index) {
+        Object value = array.get(index);
+
+        if (value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        return DatatypeConverter.parseBase64Binary(array.getString(index));
+    }
+
+    /**
+     * Check if a JSON array contains byte[] values.
+     *
+     * @param array     JSON array.
+     *
+     * @return true if the first element is a byte[] value.
+     */
+    private static boolean isBinary(final JSONArray array) {
+        return array.length() > 0 && array.opt(0) instanceof byte[];
+    }
+
+    /**
+     * Move the byte[] members of an object to frames.
+     *
+     * @param object    JSON object, byte[] members are removed.
+     * @param frames    list receiving the frame data.
+     *
+     * @return binary header.
+     */
+    static JSONArray extract(final JSONObject object, final List<byte[]> frames) {
+        JSONArray header = new JSONArray();
+        String[] keys = JSONObject.getNames(object);
+
+        if (keys == null) {
+            return header;
+        }
+
+        for (String key: keys) {
+            Object value = object.get(key);
+
+            if (value instanceof byte[]) {
+                frames.add((byte[]) value);
+                header.put(new JSONArray().put(key).put(-1));
+                object.remove(key);
+            } else if (value instanceof JSONArray && isBinary((JSONArray) value)) {
+                JSONArray array = (JSONArray) value;
+                for (int i = 0; i < array.length(); ++i) {
+                    frames.add((byte[]) array.get(i));
+                }
+                header.put(new JSONArray().put(key).put(array.length()));
+                object.remove(key);
+            }
+        }
+
+        return header;
+    }
+
+    /**
+     * Restore the byte[] members of an object from frames.
+     *
+     * @param object    JSON object receiving the members.
+     * @param header    binary header.
+     * @param frames    frames following the JSON frame.
+     *
+     * @throws JSONRPCException when the frames do not match the header.
+     */
+    static void inject(
+            final JSONObject object,
+            final JSONArray header,
+            final Iterator<ZFrame> frames)
+            throws JSONRPCException {
+
+        for (int i = 0; i < header.length(); ++i) {
+            JSONArray entry = header.optJSONArray(i);
+            if (entry == null || entry.length() != 2) {
+                throw new JSONRPCException(-32600, "Invalid Request");
+            }
+
+            String key = entry.getString(0);
+            int count = entry.getInt(1);
+
+            if (count < 0) {
+                object.put(key, next(frames));
+            } else {
+                JSONArray array = new JSONArray();
+                for (int j = 0; j < count; ++j) {
+                    array.put(next(frames));
+                }
+                object.put(key, array);
+            }
+        }
+    }
+
+    /**
+     * Return the data of the next frame.
+     *
+     * @param frames    frames following the JSON frame.
+     *
+     * @return frame data.
+     *
+     * @throws JSONRPCException when there are no frames left.
+     */
+    private static byte[] next(final Iterator<ZFrame> frames)
+            throws JSONRPCException {
+        if (frames == null || !frames.hasNext()) {
+            throw new JSONRPCException(-32600, "Invalid Request");
+        }
+        return frames.next().getData();
+    }
+
+    /**
+     * Replace the byte[] members of an object by Base64 strings.
+     *
+     * @param object    JSON object.
+     */
+    static void encodeBase64(final JSONObject object) {
+        List<byte[]> frames = new ArrayList<byte[]>();
+        JSONArray header = extract(object, frames);
+        Iterator<byte[]> iter = frames.iterator();
+
+        for (int i = 0; i < header.length(); ++i) {
+            String key = header.getJSONArray(i).getString(0);
+            int count = header.getJSONArray(i).getInt(1);
+
+            if (count < 0) {
+                object.put(key, DatatypeConverter.printBase64Binary(iter.next()));
+            } else {
+                JSONArray array = new JSONArray();
+                for (int j = 0; j < count; ++j) {
+                    array.put(DatatypeConverter.printBase64Binary(iter.next()));
+                }
+                object.put(key, array);
+            }
+        }
+    }
+}
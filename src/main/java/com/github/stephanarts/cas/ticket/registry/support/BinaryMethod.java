@@ -0,0 +1,313 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.support;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import org.zeromq.ZFrame;
+import org.zeromq.ZMsg;
+
+/**
+ * BinaryMethod Class.
+ *
+ * Maps a JSON-RPC method onto the binary protocol. A binary
+ * request consists of the following frames (after the envelope):
+ *
+ *   [opcode][param]...[payload]
+ *
+ * The opcode is a single byte, each named param is sent as an
+ * UTF-8 frame (empty if the param is absent), followed by the
+ * payload frame if the method takes one.
+ *
+ * The reply starts with a single status byte, followed by the
+ * result frames on success, or by the error code (4 bytes) and
+ * message on failure. A result name ending in '[]' denotes an
+ * array, one frame per element.
+ *
+ * The request id is carried in the envelope, like with JSON-RPC.
+ */
+final class BinaryMethod {
+
+    /**
+     * Status byte of a successful reply.
+     */
+    static final byte STATUS_OK = 0;
+
+    /**
+     * Status byte of an error reply.
+     */
+    static final byte STATUS_ERROR = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int opcode;
+
+    private final String methodName;
+
+    private final String[] params;
+
+    private final String payload;
+
+    private final String result;
+
+    /**
+     * Create a BinaryMethod.
+     *
+     * @param opcode        Opcode (1-255).
+     * @param methodName    Name of the JSON-RPC method.
+     * @param params        Names of the string params, in frame order.
+     * @param payload       Name of the byte[] param, or null.
+     * @param result        Name of the byte[] result member, or null.
+     */
+    BinaryMethod(
+            final int opcode,
+            final String methodName,
+            final String[] params,
+            final String payload,
+            final String result) {
+        this.opcode = opcode;
+        this.methodName = methodName;
+        this.params = params.clone();
+        this.payload = payload;
+        this.result = result;
+    }
+
+    /**
+     * Create a BinaryMethod from its announcement.
+     *
+     * @param methodName    Name of the JSON-RPC method.
+     * @param spec          JSON object created by toJSON.
+     *
+     * @return BinaryMethod.
+     */
+    static BinaryMethod fromJSON(final String methodName, final JSONObject spec) {
+        JSONArray array = spec.getJSONArray("params");
+        String[] names = new String[array.length()];
+
+        for (int i = 0; i < names.length; ++i) {
+            names[i] = array.getString(i);
+        }
+
+        return new BinaryMethod(
+                spec.getInt("opcode"),
+                methodName,
+                names,
+                spec.optString("payload", null),
+                spec.optString("result", null));
+    }
+
+    /**
+     * Return the announcement of this method, sent to clients
+     * as part of the server capabilities.
+     *
+     * @return JSON object.
+     */
+    JSONObject toJSON() {
+        JSONObject spec = new JSONObject();
+        JSONArray names = new JSONArray();
+
+        for (String name: this.params) {
+            names.put(name);
+        }
+
+        spec.put("opcode", this.opcode);
+        spec.put("params", names);
+        spec.put("payload", this.payload);
+        spec.put("result", this.result);
+        return spec;
+    }
+
+    /**
+     * Return the opcode.
+     *
+     * @return opcode.
+     */
+    int getOpcode() {
+        return this.opcode;
+    }
+
+    /**
+     * Return the name of the JSON-RPC method.
+     *
+     * @return method name.
+     */
+    String getMethodName() {
+        return this.methodName;
+    }
+
+    /**
+     * Encode the params of a request (client).
+     *
+     * @param params    JSONRPC Method Parameters.
+     *
+     * @return request frames, starting with the opcode.
+     */
+    List<byte[]> encodeParams(final JSONObject params) {
+        List<byte[]> frames = new ArrayList<byte[]>();
+
+        frames.add(new byte[] {(byte) this.opcode});
+        for (String name: this.params) {
+            frames.add(params.has(name)
+                    ? String.valueOf(params.get(name)).getBytes(UTF8)
+                    : new byte[0]);
+        }
+        if (this.payload != null) {
+            frames.add(BinaryFrames.getBytes(params, this.payload));
+        }
+
+        return frames;
+    }
+
+    /**
+     * Decode the params of a request (server).
+     *
+     * @param frames    request frames, following the opcode.
+     *
+     * @return JSONRPC Method Parameters.
+     *
+     * @throws JSONRPCException when frames are missing.
+     */
+    JSONObject decodeParams(final Iterator<ZFrame> frames)
+            throws JSONRPCException {
+        JSONObject p = new JSONObject();
+
+        for (String name: this.params) {
+            byte[] data = next(frames);
+            if (data.length > 0) {
+                p.put(name, new String(data, UTF8));
+            }
+        }
+        if (this.payload != null) {
+            p.put(this.payload, next(frames));
+        }
+        if (frames.hasNext()) {
+            throw new JSONRPCException(-32602, "Invalid Params");
+        }
+
+        return p;
+    }
+
+    /**
+     * Encode the result of a request (server).
+     *
+     * @param value     JSONRPC result object.
+     * @param reply     reply, receives the status and result frames.
+     */
+    void encodeResult(final JSONObject value, final ZMsg reply) {
+        reply.add(new byte[] {STATUS_OK});
+
+        if (this.result == null || value == null) {
+            return;
+        }
+
+        if (this.result.endsWith("[]")) {
+            JSONArray array = value.optJSONArray(
+                    this.result.substring(0, this.result.length() - 2));
+            for (int i = 0; array != null && i < array.length(); ++i) {
+                reply.add(BinaryFrames.getBytes(array, i));
+            }
+        } else if (value.has(this.result)) {
+            reply.add(BinaryFrames.getBytes(value, this.result));
+        }
+    }
+
+    /**
+     * Decode the result of a request (client).
+     *
+     * @param frames    reply frames.
+     *
+     * @return JSONRPC result object.
+     *
+     * @throws JSONRPCException containing the error sent by the server.
+     */
+    JSONObject decodeResult(final Iterator<ZFrame> frames)
+            throws JSONRPCException {
+        JSONObject value = new JSONObject();
+        byte[] status = frames.hasNext() ? frames.next().getData() : null;
+
+        if (status == null || status.length != 1) {
+            throw new JSONRPCException(-32700, "Parse error");
+        }
+
+        if (status[0] != STATUS_OK) {
+            byte[] code = frames.hasNext() ? frames.next().getData() : null;
+            if (code == null || code.length != 4 || !frames.hasNext()) {
+                throw new JSONRPCException(-32700, "Parse error");
+            }
+            throw new JSONRPCException(
+                    ByteBuffer.wrap(code).getInt(),
+                    new String(frames.next().getData(), UTF8));
+        }
+
+        if (this.result == null) {
+            return value;
+        }
+
+        if (this.result.endsWith("[]")) {
+            JSONArray array = new JSONArray();
+            while (frames.hasNext()) {
+                array.put(frames.next().getData());
+            }
+            value.put(this.result.substring(0, this.result.length() - 2), array);
+        } else if (frames.hasNext()) {
+            value.put(this.result, frames.next().getData());
+        }
+
+        return value;
+    }
+
+    /**
+     * Create an error reply.
+     *
+     * @param code      error code.
+     * @param message   error message.
+     *
+     * @return reply frames.
+     */
+    static ZMsg encodeError(final int code, final String message) {
+        ZMsg reply = new ZMsg();
+
+        reply.add(new byte[] {STATUS_ERROR});
+        reply.add(ByteBuffer.allocate(4).putInt(code).array());
+        reply.add(message.getBytes(UTF8));
+        return reply;
+    }
+
+    /**
+     * Return the data of the next frame.
+     *
+     * @param frames    frames.
+     *
+     * @return frame data.
+     *
+     * @throws JSONRPCException when there are no frames left.
+     */
+    private static byte[] next(final Iterator<ZFrame> frames)
+            throws JSONRPCException {
+        if (!frames.hasNext()) {
+            throw new JSONRPCException(-32602, "Invalid Params");
+        }
+        return frames.next().getData();
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.support;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Context;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMQ.Poller;
+import org.zeromq.ZMsg;
+import org.zeromq.ZFrame;
+
+/**
+ * ClientDispatcher Class.
+ *
+ * Owns the DEALER socket of a JSONRPCClient. Requests are handed
+ * to this thread via an inproc socket and forwarded to the server,
+ * prefixed with an envelope-frame containing the request-id.
+ * The server echoes the envelope, which is used to route each
+ * reply back to the ResponseFuture of the waiting caller.
+ *
+ * This allows many outstanding requests on a single connection.
+ *
+ * Requests are only written to the socket once the connection is
+ * established, requests that time out before that are dropped
+ * instead of being delivered late.
+ */
+final class ClientDispatcher extends Thread {
+
+    /**
+     * Logging Class.
+     */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /**
+     * ZMQ Context.
+     */
+    private final Context context;
+
+    /**
+     * ZMQ DEALER Socket, connected to the server.
+     */
+    private final Socket dealerSocket;
+
+    /**
+     * ZMQ Request Socket, receives requests from callers.
+     */
+    private final Socket requestSocket;
+
+    /**
+     * ZMQ Control Socket.
+     */
+    private final Socket controlSocket;
+
+    /**
+     * ConnectUri.
+     */
+    private final String connectUri;
+
+    /**
+     * Outstanding requests.
+     */
+    private final ConcurrentMap<Integer, ResponseFuture> pending;
+
+    /**
+     * Requests waiting for the connection to be established.
+     */
+    private final LinkedList<ZMsg> backlog = new LinkedList<ZMsg>();
+
+    /**
+     * Interval to retry sending the backlog (ms).
+     */
+    private static final int RETRY_INTERVAL = 10;
+
+    private static int NR = 0;
+
+    private static Object NRLOCK = new Object();
+
+    private final int nr;
+
+    /**
+     * Create a ClientDispatcher.
+     *
+     * @param context     ZMQ Context of the client.
+     * @param connectUri  URI to connect to.
+     * @param pending     Map of outstanding requests.
+     */
+    ClientDispatcher(
+            final Context context,
+            final String connectUri,
+            final ConcurrentMap<Integer, ResponseFuture> pending) {
+
+        this.context = context;
+        this.connectUri = connectUri;
+        this.pending = pending;
+
+        this.dealerSocket = this.context.socket(ZMQ.DEALER);
+        this.dealerSocket.setDelayAttachOnConnect(true);
+        this.requestSocket = this.context.socket(ZMQ.PULL);
+        this.controlSocket = this.context.socket(ZMQ.PULL);
+
+        synchronized(NRLOCK) {
+            NR++;
+            this.nr = NR;
+        }
+
+        this.setName("ClientDispatcher-"+this.nr);
+        this.setDaemon(true);
+    }
+
+    /**
+     * Return the inproc URI callers send their requests to.
+     *
+     * @return inproc URI.
+     */
+    String getRequestURI() {
+        return "inproc://jsonrpcclient-"+this.nr;
+    }
+
+    /**
+     * Encode a request-id as envelope-frame.
+     *
+     * @param id  request-id.
+     *
+     * @return envelope-frame data.
+     */
+    static byte[] encodeId(final int id) {
+        return ByteBuffer.allocate(4).putInt(id).array();
+    }
+
+    /**
+     * Decode a request-id from an envelope-frame.
+     *
+     * @param frame  envelope-frame.
+     *
+     * @return request-id, or null if the frame is invalid.
+     */
+    static Integer decodeId(final ZFrame frame) {
+        if (frame == null || frame.size() != 4) {
+            return null;
+        }
+        return ByteBuffer.wrap(frame.getData()).getInt();
+    }
+
+    /**
+     * Start the ClientDispatcher thread.
+     *
+     * Binds the sockets before calling Thread.start(), this way
+     * they are already bound before the first request is sent.
+     */
+    public void start() {
+        this.requestSocket.bind(this.getRequestURI());
+        this.controlSocket.bind("inproc://jsonrpcclient-control-"+this.nr);
+        this.dealerSocket.connect(this.connectUri);
+
+        super.start();
+    }
+
+    /**
+     * Run the dispatcher.
+     */
+    public void run() {
+        ZMsg message;
+
+        Poller items = new Poller(3);
+
+        int dealerIndex = items.register(this.dealerSocket, Poller.POLLIN);
+        int requestIndex = items.register(this.requestSocket, Poller.POLLIN);
+        int controlIndex = items.register(this.controlSocket, Poller.POLLIN);
+
+        while (!Thread.currentThread().isInterrupted()) {
+            if (items.poll(this.backlog.isEmpty() ? -1 : RETRY_INTERVAL) < 0) {
+                break;
+            }
+
+            if (items.pollin(controlIndex)) {
+                logger.debug("Received STOP message [" + this.nr + "]");
+                break;
+            }
+
+            if (items.pollin(requestIndex)) {
+                message = ZMsg.recvMsg(this.requestSocket, ZMQ.NOBLOCK);
+                while (message != null) {
+                    this.backlog.add(message);
+                    message = ZMsg.recvMsg(this.requestSocket, ZMQ.NOBLOCK);
+                }
+            }
+
+            this.flush();
+
+            /* Route replies, [id][][reply...] */
+            if (items.pollin(dealerIndex)) {
+                message = ZMsg.recvMsg(this.dealerSocket, ZMQ.NOBLOCK);
+                while (message != null) {
+                    this.dispatch(message);
+                    message = ZMsg.recvMsg(this.dealerSocket, ZMQ.NOBLOCK);
+                }
+            }
+        }
+
+        this.dealerSocket.setLinger(0);
+        this.requestSocket.setLinger(0);
+        this.controlSocket.setLinger(0);
+
+        this.dealerSocket.close();
+        this.requestSocket.close();
+        this.controlSocket.close();
+    }
+
+    /**
+     * Forward the backlog to the server.
+     *
+     * [id][request...] => [id][][request...]
+     */
+    private void flush() {
+        Iterator<ZMsg> iter = this.backlog.iterator();
+
+        while (iter.hasNext()) {
+            ZMsg message = iter.next();
+            ZFrame idFrame = message.peekFirst();
+            Integer requestId = decodeId(idFrame);
+
+            if (requestId == null || !this.pending.containsKey(requestId)) {
+                /* Caller gave up before it was sent */
+                iter.remove();
+                continue;
+            }
+
+            /* Stop at the first request that can not be sent yet */
+            if (!this.dealerSocket.send(idFrame.getData(), ZMQ.SNDMORE | ZMQ.NOBLOCK)) {
+                return;
+            }
+            iter.remove();
+
+            message.pop();
+            this.dealerSocket.send(new byte[0], ZMQ.SNDMORE);
+            while (message.size() > 1) {
+                this.dealerSocket.send(message.pop().getData(), ZMQ.SNDMORE);
+            }
+            this.dealerSocket.send(message.pop().getData(), 0);
+        }
+    }
+
+    /**
+     * Hand a reply to the caller waiting for it.
+     *
+     * @param message  reply received from the server.
+     */
+    private void dispatch(final ZMsg message) {
+        Integer requestId = decodeId(message.pop());
+        ResponseFuture future;
+
+        if (requestId == null) {
+            logger.warn("Invalid reply-envelope from {}", this.connectUri);
+            return;
+        }
+
+        future = this.pending.remove(requestId);
+        if (future == null) {
+            /* Caller gave up, the request timed out */
+            logger.debug("Discarding late reply from {}", this.connectUri);
+            return;
+        }
+
+        /* Strip the delimiter */
+        if (message.peekFirst() != null && message.peekFirst().size() == 0) {
+            message.pop();
+        }
+
+        future.set(message);
+    }
+
+    /**
+     * Stop the dispatcher and wait for it to exit.
+     */
+    void cleanup() {
+        Socket s = this.context.socket(ZMQ.PUSH);
+        s.connect("inproc://jsonrpcclient-control-"+this.nr);
+        s.send(new byte[1], 0);
+        s.close();
+
+        try {
+            this.join();
+        } catch (final InterruptedException e) {
+            logger.debug(e.toString());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.support;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * DeflateTicketCodec Class.
+ *
+ * Compresses the serialized ticket (zlib, fastest level), the
+ * class-descriptors that make up most of a serialized ticket compress
+ * well. This shrinks the messages and the stored tickets, it does
+ * not make encoding cheaper: the ticket is still serialized first.
+ */
+public final class DeflateTicketCodec extends StreamTicketCodec {
+
+    /**
+     * Return the name of the codec.
+     *
+     * @return codec name.
+     */
+    public String getName() {
+        return "deflate";
+    }
+
+    /**
+     * Check for the zlib stream header.
+     *
+     * @param data      encoded ticket.
+     *
+     * @return          false if the data was not encoded by this codec.
+     */
+    public boolean accepts(final byte[] data) {
+        return data.length > 2
+                && (data[0] & 0x0f) == Deflater.DEFLATED
+                && (((data[0] & 0xff) << 8) | (data[1] & 0xff)) % 31 == 0;
+    }
+
+    /**
+     * Compress the serialized ticket.
+     *
+     * @param out   stream receiving the encoded ticket.
+     *
+     * @return      stream to serialize the ticket to.
+     */
+    @Override
+    protected OutputStream wrap(final OutputStream out) {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        return new DeflaterOutputStream(out, deflater) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Decompress the serialized ticket.
+     *
+     * @param in    stream containing the encoded ticket.
+     *
+     * @return      stream to deserialize the ticket from.
+     */
+    @Override
+    protected InputStream wrap(final InputStream in) {
+        return new InflaterInputStream(in);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.support;
+
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * HedgedReader Class.
+ *
+ * Reads a value from a list of sources, in order. The next source is
+ * asked as soon as the previous one misses (returns null) or fails,
+ * or when none of the outstanding reads answered within the hedge
+ * delay. The first value found is returned, slower reads are left to
+ * finish in the background.
+ *
+ * A read failing with a JSONRPCException with code -32505 (deleted)
+ * ends the read, no other source is asked.
+ *
+ * @param <T>   type of the value read.
+ */
+public final class HedgedReader<T> {
+
+    /**
+     * Logging Class.
+     */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final ExecutorService executor;
+
+    private final int timeout;
+
+    /**
+     * Create a HedgedReader.
+     *
+     * @param executor  executor running the reads.
+     * @param timeout   time to wait for all reads (ms).
+     */
+    public HedgedReader(final ExecutorService executor, final int timeout) {
+        this.executor = executor;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Read a value from a list of sources.
+     *
+     * @param reads         reads, one per source, in order.
+     * @param hedgeDelay    time to wait for outstanding reads
+     *                      before the next source is asked (ms).
+     *
+     * @return the first value found, or null.
+     *
+     * @throws JSONRPCException when a source reports the value deleted.
+     */
+    public T read(final List<Callable<T>> reads, final int hedgeDelay)
+            throws JSONRPCException {
+        CompletionService<T> service = new ExecutorCompletionService<T>(this.executor);
+        long deadline = System.currentTimeMillis() + this.timeout;
+        int next = 0;
+        int outstanding = 0;
+
+        while (outstanding > 0 || next < reads.size()) {
+            long remaining = deadline - System.currentTimeMillis();
+            Future<T> read;
+
+            if (outstanding == 0) {
+                if (this.submit(service, reads.get(next++))) {
+                    outstanding++;
+                }
+                continue;
+            }
+            if (remaining <= 0) {
+                break;
+            }
+
+            try {
+                read = service.poll(
+                        next < reads.size() ? Math.min(hedgeDelay, remaining) : remaining,
+                        TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            if (read == null) {
+                /* Too slow, hedge to the next source */
+                if (next < reads.size() && this.submit(service, reads.get(next++))) {
+                    outstanding++;
+                }
+                continue;
+            }
+
+            outstanding--;
+            try {
+                T value = read.get();
+                if (value != null) {
+                    return value;
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof JSONRPCException
+                        && ((JSONRPCException) e.getCause()).getCode() == -32505) {
+                    throw (JSONRPCException) e.getCause();
+                }
+                logger.error("Read error: " + e.getCause().getMessage());
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Submit a read.
+     *
+     * @param service   CompletionService receiving the result.
+     * @param read      read to submit.
+     *
+     * @return true if the read was submitted.
+     */
+    private boolean submit(final CompletionService<T> service, final Callable<T> read) {
+        try {
+            service.submit(read);
+        } catch (final RejectedExecutionException e) {
+            logger.warn("Read rejected: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+}
@@ -18,18 +18,40 @@ package com.github.stephanarts.cas.ticket.registry.support;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONException;
 
 import org.zeromq.ZMQ;
 import org.zeromq.ZMQ.Context;
 import org.zeromq.ZMQ.Socket;
-import org.zeromq.ZMQ.PollItem;
-import org.zeromq.ZMQ.Poller;
 import org.zeromq.ZMsg;
+import org.zeromq.ZFrame;
 
 /**
  * JSONRPCClient Class.
+ *
+ * Requests are multiplexed over a single DEALER socket, owned by
+ * a ClientDispatcher thread. Any number of threads can have a
+ * request outstanding at the same time.
+ *
+ * byte[] members of the params are sent as binary frames once the
+ * server announced support for them (see getCapabilities), and as
+ * Base64 strings otherwise. Either way these members are replaced
+ * in the params object passed to call.
+ *
+ * With the binary protocol enabled, methods the server announced an
+ * opcode for are called using the binary protocol instead.
  */
 public class JSONRPCClient {
 
@@ -44,10 +66,26 @@ public class JSONRPCClient {
     private final Context context;
 
     /**
-     * ZMQ Socket.
+     * ZMQ Socket, used to hand requests to the dispatcher.
      */
     private Socket  socket;
 
+    /**
+     * Dispatcher thread, owns the DEALER socket.
+     */
+    private ClientDispatcher dispatcher;
+
+    /**
+     * Lock guarding socket and dispatcher.
+     */
+    private final Object socketLock = new Object();
+
+    /**
+     * Outstanding requests.
+     */
+    private final ConcurrentMap<Integer, ResponseFuture> pending =
+            new ConcurrentHashMap<Integer, ResponseFuture>();
+
     /**
      * ConnectUri.
      */
@@ -56,13 +94,29 @@ public class JSONRPCClient {
     /**
      * Request ID nr.
      */
-    private int           id;
+    private final AtomicInteger id = new AtomicInteger(0);
 
     /**
      * RequestTimeout.
      */
     private final int requestTimeout;
 
+    /**
+     * Capabilities of the server, null until negotiated.
+     */
+    private volatile JSONObject capabilities = null;
+
+    /**
+     * Methods available through the binary protocol.
+     */
+    private volatile Map<String, BinaryMethod> binaryMethods =
+            new HashMap<String, BinaryMethod>();
+
+    /**
+     * Use the binary protocol where the server supports it.
+     */
+    private volatile boolean binaryProtocol = false;
+
     /**
      * PaceMaker.
      */
@@ -74,7 +128,7 @@ public class JSONRPCClient {
      *
      * It can be set by a watchdog process.
      */
-    private boolean available = true;
+    private volatile boolean available = true;
 
     /**
      * responseTime, indicates the time it takes
@@ -84,7 +138,31 @@ public class JSONRPCClient {
      *
      * It can be set by a watchdog process.
      */
-    private long responseTime = 0;
+    private volatile long responseTime = 0;
+
+    /**
+     * Failure detector, fed with the heartbeat replies
+     * by the watchdog process.
+     */
+    private final PhiAccrualDetector detector = new PhiAccrualDetector();
+
+    /**
+     * Time the last successful reply to a request arrived (ms), 0 if none.
+     *
+     * A successful reply shows the server is alive, the watchdog
+     * process does not ping servers that replied recently.
+     * Error replies do not count, a server answering every
+     * request with an error is still pinged.
+     */
+    private volatile long lastReply = 0;
+
+    /**
+     * Time it took to get the last successful reply (ms).
+     *
+     * Unlike responseTime, this includes the time the
+     * server spent executing the request.
+     */
+    private volatile long lastLatency = 0;
 
     /**
      * Create a JSONRPCClient object.
@@ -102,8 +180,6 @@ public class JSONRPCClient {
 
         this.requestTimeout = 1500;
 
-        this.socket = this.context.socket(ZMQ.REQ);
-
         this.pacemaker = pacemaker;
     }
 
@@ -122,7 +198,19 @@ public class JSONRPCClient {
      */
     public final void connect() {
 
-        this.socket.connect(this.connectUri);
+        this.capabilities = null;
+        this.binaryMethods = new HashMap<String, BinaryMethod>();
+
+        synchronized(this.socketLock) {
+            this.dispatcher = new ClientDispatcher(
+                    this.context,
+                    this.connectUri,
+                    this.pending);
+            this.dispatcher.start();
+
+            this.socket = this.context.socket(ZMQ.PUSH);
+            this.socket.connect(this.dispatcher.getRequestURI());
+        }
 
         if (this.pacemaker != null) {
             this.pacemaker.addClient(this);
@@ -133,13 +221,90 @@ public class JSONRPCClient {
      * Disconnect.
      */
     public final void disconnect() {
-        this.socket.close();
+        synchronized(this.socketLock) {
+            if (this.socket != null) {
+                this.socket.setLinger(0);
+                this.socket.close();
+                this.socket = null;
+            }
+            if (this.dispatcher != null) {
+                this.dispatcher.cleanup();
+                this.dispatcher = null;
+            }
+        }
+
+        /* Fail outstanding requests */
+        for (Integer requestId: this.pending.keySet()) {
+            ResponseFuture future = this.pending.remove(requestId);
+            if (future != null) {
+                future.set(null);
+            }
+        }
 
         if (this.pacemaker != null) {
             this.pacemaker.removeClient(this);
         }
     }
 
+    /**
+     * Return the capabilities of the server.
+     *
+     * The capabilities are requested once per connection, servers
+     * that do not implement 'rpc.capabilities' have none.
+     *
+     * @return            JSONObject containing the capabilities,
+     *                    empty if they could not be determined.
+     */
+    public final JSONObject getCapabilities() {
+        JSONObject caps = this.capabilities;
+
+        if (caps != null) {
+            return caps;
+        }
+
+        try {
+            caps = this.send("rpc.capabilities", new JSONObject(), false);
+        } catch (final JSONRPCException e) {
+            if (e.getCode() != -32601) {
+                /* Try again on the next request */
+                logger.debug("Could not get capabilities: " + e.getMessage());
+                return new JSONObject();
+            }
+            caps = new JSONObject();
+        }
+
+        Map<String, BinaryMethod> methods = new HashMap<String, BinaryMethod>();
+        JSONObject opcodes = caps.optJSONObject("opcodes");
+        String[] names = opcodes == null ? null : JSONObject.getNames(opcodes);
+        if (names != null) {
+            for (String name: names) {
+                methods.put(name, BinaryMethod.fromJSON(name, opcodes.getJSONObject(name)));
+            }
+        }
+
+        this.binaryMethods = methods;
+        this.capabilities = caps;
+        return caps;
+    }
+
+    /**
+     * Use the binary protocol for methods the server supports it for.
+     *
+     * @param binaryProtocol  true to enable the binary protocol.
+     */
+    public final void setBinaryProtocol(final boolean binaryProtocol) {
+        this.binaryProtocol = binaryProtocol;
+    }
+
+    /**
+     * Return if the binary protocol is enabled.
+     *
+     * @return true if the binary protocol is enabled.
+     */
+    public final boolean getBinaryProtocol() {
+        return this.binaryProtocol;
+    }
+
     /**
      * Call a JSON-RPC method.
      *
@@ -156,66 +321,260 @@ public class JSONRPCClient {
             final JSONObject params)
             throws JSONRPCException {
 
+        JSONObject caps = this.capabilities;
+
+        if (this.binaryProtocol) {
+            if (caps == null) {
+                caps = this.getCapabilities();
+            }
+
+            BinaryMethod binaryMethod = this.binaryMethods.get(method);
+            if (binaryMethod != null) {
+                final long startTime = System.currentTimeMillis();
+                JSONObject result = binaryMethod.decodeResult(this.request(
+                        this.id.incrementAndGet(),
+                        binaryMethod.encodeParams(params)).iterator());
+
+                this.replied(startTime);
+                return result;
+            }
+        }
+
+        return this.send(
+                method,
+                params,
+                caps != null && caps.optBoolean("binary"));
+    }
+
+    /**
+     * Call several JSON-RPC methods in a single request.
+     *
+     * Sent as a JSON-RPC batch if the server supports it, as
+     * separate calls otherwise. All calls are executed, the first
+     * error (in call order) is thrown afterwards.
+     *
+     * @param methods     method-names.
+     * @param params      call-parameters, one per method.
+     *
+     * @return            call-results, in the order of the methods.
+     *
+     * @throws JSONRPCException Throws JSONRPCException if an error occurs
+     *                          these can be related to JSONRPC, or the application.
+     */
+    public final JSONObject[] callBatch(
+            final String[] methods,
+            final JSONObject[] params)
+            throws JSONRPCException {
+
+        JSONObject caps = this.getCapabilities();
+        JSONObject[] results = new JSONObject[methods.length];
+        JSONRPCException failure = null;
+
+        if (!caps.optBoolean("rpc.batch")) {
+            for (int i = 0; i < methods.length; ++i) {
+                try {
+                    results[i] = this.call(methods[i], params[i]);
+                } catch (final JSONRPCException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return results;
+        }
+
+        boolean binary = caps.optBoolean("binary");
+        JSONArray batch = new JSONArray();
+        JSONArray responses;
+        List<byte[]> frames = new ArrayList<byte[]>();
+        Iterator<ZFrame> replyFrames;
+
+        final int requestId = this.id.incrementAndGet();
+
+        for (int i = 0; i < methods.length; ++i) {
+            JSONObject request = new JSONObject();
+
+            if (binary) {
+                request.put("binary", BinaryFrames.extract(params[i], frames));
+            } else {
+                BinaryFrames.encodeBase64(params[i]);
+            }
+            request.put("jsonrpc", "2.0");
+            request.put("id", i);
+            request.put("method", methods[i]);
+            request.put("params", params[i]);
+            batch.put(request);
+        }
+
+        frames.add(0, batch.toString().getBytes());
+
+        final long startTime = System.currentTimeMillis();
+        replyFrames = this.request(requestId, frames).iterator();
+        try {
+            responses = new JSONArray(new String(replyFrames.next().getData()));
+        } catch(final JSONException e) {
+            throw new JSONRPCException(-32700, "Parse error");
+        }
+
+        for (int i = 0; i < responses.length(); ++i) {
+            JSONObject response = responses.optJSONObject(i);
+            int index = response == null ? -1 : response.optInt("id", -1);
+
+            if (index < 0 || index >= methods.length) {
+                throw new JSONRPCException(-32700, "Parse error");
+            }
+            if (response.has("result")) {
+                results[index] = response.getJSONObject("result");
+                if (response.has("binary")) {
+                    BinaryFrames.inject(results[index], response.getJSONArray("binary"), replyFrames);
+                }
+            } else if (response.has("error")) {
+                JSONObject error = response.getJSONObject("error");
+                if (failure == null) {
+                    failure = new JSONRPCException(error.getInt("code"), error.getString("message"));
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+        for (JSONObject result: results) {
+            if (result == null) {
+                throw new JSONRPCException(-32700, "Parse error");
+            }
+        }
+
+        this.replied(startTime);
+        return results;
+    }
+
+    /**
+     * Send a JSON-RPC request and wait for the response.
+     *
+     * @param method      String containing method-name
+     * @param params      JSONObject containing call-parameters.
+     * @param binary      send byte[] members as binary frames.
+     *
+     * @return            JSONObject containing call-result
+     *
+     * @throws JSONRPCException Throws JSONRPCException if an error occurs
+     *                          these can be related to JSONRPC, or the application.
+     */
+    private JSONObject send(
+            final String method,
+            final JSONObject params,
+            final boolean binary)
+            throws JSONRPCException {
+
         JSONObject request = new JSONObject();
         JSONObject error;
         JSONObject result;
         JSONObject response;
-        this.id++;
+        List<byte[]> frames = new ArrayList<byte[]>();
+        Iterator<ZFrame> replyFrames;
+
+        final int requestId = this.id.incrementAndGet();
+
+        if (binary) {
+            request.put("binary", BinaryFrames.extract(params, frames));
+        } else {
+            BinaryFrames.encodeBase64(params);
+        }
 
         request.put("jsonrpc", "2.0");
-        request.put("id", this.id);
+        request.put("id", requestId);
         request.put("method", method);
         request.put("params", params);
 
-        logger.trace("Sending data...");
+        frames.add(0, request.toString().getBytes());
 
-        synchronized(this.socket) {
-            this.socket.send(request.toString(), 0);
+        final long startTime = System.currentTimeMillis();
+        replyFrames = this.request(requestId, frames).iterator();
+        try {
+            response = new JSONObject(new String(replyFrames.next().getData()));
+        } catch(final JSONException e) {
+            throw new JSONRPCException(-32700, "Parse error");
+        }
+        if (response.has("result")) {
+            result = response.getJSONObject("result");
+            if (response.has("binary")) {
+                BinaryFrames.inject(result, response.getJSONArray("binary"), replyFrames);
+            }
+            this.replied(startTime);
+            return result;
+        }
+        if (response.has("error")) {
+            error = response.getJSONObject("error");
+            throw new JSONRPCException(error.getInt("code"), error.getString("message"));
+        }
+        throw new JSONRPCException(-32700, "Parse error");
+    }
 
-            PollItem[] items = {new PollItem(this.socket, Poller.POLLIN)};
+    /**
+     * Send request frames and wait for the reply.
+     *
+     * @param requestId   Request id, sent in the envelope.
+     * @param frames      Request frames.
+     *
+     * @return            Reply frames.
+     *
+     * @throws JSONRPCException when no reply was received.
+     */
+    private ZMsg request(final int requestId, final List<byte[]> frames)
+            throws JSONRPCException {
 
-            logger.trace("Waiting for response data...");
-            int rc = ZMQ.poll(items, this.requestTimeout);
-            if(rc == -1) {
-                throw new JSONRPCException(-32603, "Internal error");
-            }
+        ZMsg message;
 
-            if(items[0].isReadable()) {
-                // We got a reply from the server, must match sequence
-                ZMsg message = ZMsg.recvMsg(socket);
+        final ResponseFuture future = new ResponseFuture();
 
-                try {
-                    response = new JSONObject(new String(message.getLast().getData()));
-                } catch(final JSONException e) {
-                    throw new JSONRPCException(-32700, "Parse error");
-                }
-                if (response.has("result")) {
-                    result = response.getJSONObject("result");
-                    return result;
-                }
-                if (response.has("error")) {
-                    error = response.getJSONObject("error");
-                    throw new JSONRPCException(error.getInt("code"), error.getString("message"));
-                }
-                throw new JSONRPCException(-32700, "Parse error");
-            } else {
-                logger.debug("Failed to get reply from {}", this.connectUri);
+        logger.trace("Sending data...");
+
+        this.pending.put(requestId, future);
 
-                cleanup();
-                connect();
+        synchronized(this.socketLock) {
+            if (this.socket == null) {
+                this.pending.remove(requestId);
+                throw new JSONRPCException(-32603, "Internal error");
+            }
+            this.socket.sendMore(ClientDispatcher.encodeId(requestId));
+            for (int i = 0; i < frames.size() - 1; ++i) {
+                this.socket.sendMore(frames.get(i));
             }
+            this.socket.send(frames.get(frames.size() - 1), 0);
+        }
+
+        logger.trace("Waiting for response data...");
+        try {
+            message = future.get(this.requestTimeout);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JSONRPCException(-32603, "Internal error");
+        } finally {
+            this.pending.remove(requestId);
+        }
+
+        if (message == null || message.peekFirst() == null) {
+            logger.debug("Failed to get reply from {}", this.connectUri);
+            throw new JSONRPCException(-32300, "Request Timeout");
         }
 
-        throw new JSONRPCException(-32300, "Request Timeout");
+        return message;
     }
 
     /**
-     * Cleanup.
+     * Record a successful reply to a request.
+     *
+     * @param startTime   time the request was sent (ms).
      */
-    private void cleanup() {
-        this.socket.setLinger(0);
-        this.socket.close();
-        this.socket = this.context.socket(ZMQ.REQ);
+    private void replied(final long startTime) {
+        final long endTime = System.currentTimeMillis();
+
+        this.lastLatency = endTime - startTime;
+        this.lastReply = endTime;
     }
 
     /**
@@ -274,12 +633,47 @@ public class JSONRPCClient {
         this.responseTime = responseTime;
     }
 
+    /**
+     * Return the time the last successful reply to a request arrived.
+     *
+     * @return time (ms), 0 if no reply arrived.
+     */
+    public final long getLastReply() {
+        return this.lastReply;
+    }
+
+    /**
+     * Return the time it took to get the last successful reply to a request.
+     *
+     * @return latency (ms).
+     */
+    public final long getLastLatency() {
+        return this.lastLatency;
+    }
+
+    /**
+     * Return the failure detector of the server.
+     *
+     * @return failure detector.
+     */
+    public final PhiAccrualDetector getFailureDetector() {
+        return this.detector;
+    }
+
+    /**
+     * Return the suspicion level (phi) of the server.
+     *
+     * @return phi, 0 until the server answered a heartbeat.
+     */
+    public final double getPhi() {
+        return this.detector.phi(System.currentTimeMillis());
+    }
+
     /**
      * destroy.
      */
     public final void destroy() {
         this.disconnect();
-        this.socket = null;
         this.context.close();
     }
 
@@ -15,11 +15,19 @@
 
 package com.github.stephanarts.cas.ticket.registry.support;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONException;
 
@@ -32,6 +40,11 @@ import org.zeromq.ZMQ.Poller;
 
 /**
  * JSONRPCServer Class.
+ *
+ * The server thread owns the ROUTER socket and answers heartbeats
+ * directly, all other requests are forwarded to a pool of
+ * ServerWorker threads which execute the methods in parallel.
+ * Registered methods must therefore be thread-safe.
  */
 public class JSONRPCServer extends Thread {
 
@@ -55,6 +68,11 @@ public class JSONRPCServer extends Thread {
      */
     private final Socket  controlSocket;
 
+    /**
+     * ZMQ Backend Socket, distributes requests over the workers.
+     */
+    private final Socket  backendSocket;
+
 
     /**
      * BindURI.
@@ -63,14 +81,40 @@ public class JSONRPCServer extends Thread {
 
 
     /**
-     * Hashmap of Methods.
+     * Map of Methods.
+     *
+     * Replaced on every registration, so the workers can
+     * look up methods without locking.
+     */
+    private volatile HashMap<String, IMethod> methodMap;
+
+    /**
+     * Map of call-counters.
+     */
+    private final ConcurrentMap<String, AtomicInteger> methodCounterMap;
+
+    /**
+     * Capabilities, announced via 'rpc.capabilities'.
+     */
+    private final ConcurrentMap<String, Object> capabilities =
+            new ConcurrentHashMap<String, Object>();
+
+    /**
+     * Methods by opcode, for the binary protocol.
+     *
+     * Replaced on every registration, like the methodMap.
+     */
+    private volatile BinaryMethod[] opcodeMap = new BinaryMethod[256];
+
+    /**
+     * Number of worker threads.
      */
-    private final HashMap<String, IMethod> methodMap;
+    private int workers = Runtime.getRuntime().availableProcessors();
 
     /**
-     * Hashmap of call-counters.
+     * Worker threads, created on start.
      */
-    private final HashMap<String, Integer> methodCounterMap;
+    private ServerWorker[] workerPool = new ServerWorker[0];
 
     private static int NR = 0;
 
@@ -89,18 +133,45 @@ public class JSONRPCServer extends Thread {
 
         this.socket = this.context.socket(ZMQ.ROUTER);
         this.controlSocket = this.context.socket(ZMQ.PULL);
+        this.backendSocket = this.context.socket(ZMQ.DEALER);
 
         this.bindUri = bindUri;
 
         this.setName("JSONRPCServer");
 
         this.methodMap = new HashMap<String, IMethod>();
-        this.methodCounterMap = new HashMap<String, Integer>();
+        this.methodCounterMap = new ConcurrentHashMap<String, AtomicInteger>();
 
         synchronized(this.NRLOCK) {
             this.NR++;
             this.nr = this.NR;
         }
+
+        this.capabilities.put("binary", Boolean.TRUE);
+        this.capabilities.put("rpc.batch", Boolean.TRUE);
+
+        try {
+            this.registerMethod("rpc.capabilities", new IMethod() {
+                public JSONObject execute(final JSONObject params) {
+                    return new JSONObject(capabilities);
+                }
+            });
+        } catch (final JSONRPCException e) {
+            logger.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Announce a capability to clients.
+     *
+     * Clients query the capabilities of a server through the
+     * 'rpc.capabilities' method when they connect.
+     *
+     * @param name      Capability name.
+     * @param value     Capability value.
+     */
+    protected final void setCapability(final String name, final Object value) {
+        this.capabilities.put(name, value);
     }
 
     /**
@@ -118,12 +189,91 @@ public class JSONRPCServer extends Thread {
          * Check if a method with this name is already
          * registered.
          */
-        if(this.methodMap.containsKey(name)) {
-            throw new JSONRPCException(-1, "Method already registered");
+        synchronized(this.methodCounterMap) {
+            if(this.methodMap.containsKey(name)) {
+                throw new JSONRPCException(-1, "Method already registered");
+            }
+
+            HashMap<String, IMethod> map =
+                    new HashMap<String, IMethod>(this.methodMap);
+            map.put(name, method);
+
+            this.methodCounterMap.put(name, new AtomicInteger(0));
+            this.methodMap = map;
         }
+    }
+
+    /**
+     * Make a method available through the binary protocol.
+     *
+     * The opcodes are announced to clients via 'rpc.capabilities'.
+     *
+     * @param opcode        Opcode (1-255).
+     * @param name          Method Name.
+     * @param params        Names of the string params, in frame order.
+     * @param payload       Name of the byte[] param, or null.
+     * @param result        Name of the byte[] result member, or null.
+     *                      A name ending in '[]' denotes an array.
+     *
+     * @throws JSONRPCException when the opcode is invalid or in use.
+     */
+    public final void registerOpcode(
+            final int opcode,
+            final String name,
+            final String[] params,
+            final String payload,
+            final String result) throws JSONRPCException {
+
+        synchronized(this.methodCounterMap) {
+            if (opcode < 1 || opcode > 255 || this.opcodeMap[opcode] != null) {
+                throw new JSONRPCException(-1, "Invalid opcode");
+            }
 
-        this.methodMap.put(name, method);
-        this.methodCounterMap.put(name, new Integer(0));
+            BinaryMethod[] map = this.opcodeMap.clone();
+            JSONObject opcodes = new JSONObject();
+
+            map[opcode] = new BinaryMethod(opcode, name, params, payload, result);
+            for (BinaryMethod m: map) {
+                if (m != null) {
+                    opcodes.put(m.getMethodName(), m.toJSON());
+                }
+            }
+
+            this.opcodeMap = map;
+            this.setCapability("opcodes", opcodes);
+        }
+    }
+
+    /**
+     * Set the number of worker threads.
+     *
+     * Has to be called before the server is started.
+     *
+     * @param workers   Number of worker threads (at least 1).
+     */
+    public final void setWorkers(final int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be at least 1");
+        }
+        this.workers = workers;
+    }
+
+    /**
+     * Return the number of worker threads.
+     *
+     * @return number of worker threads.
+     */
+    public final int getWorkers() {
+        return this.workers;
+    }
+
+    /**
+     * Return the URI the server listens on.
+     *
+     * @return bind URI.
+     */
+    public final String getBindUri() {
+        return this.bindUri;
     }
 
     /**
@@ -132,74 +282,170 @@ public class JSONRPCServer extends Thread {
     public final void run() {
 
         ZMsg   message;
-        ZFrame body;
-        String msg;
 
-        String resp = null;
+        Poller items = new Poller(3);
 
-        Poller items = new Poller(2);
-
-        /** Enter the main event-loop */
-        items.register(this.socket, Poller.POLLIN);
-        int i = items.register(this.controlSocket, Poller.POLLIN);
-
-        logger.debug("Registered controlSocket as item: "+i);
+        int socketIndex = items.register(this.socket, Poller.POLLIN);
+        int backendIndex = items.register(this.backendSocket, Poller.POLLIN);
+        int controlIndex = items.register(this.controlSocket, Poller.POLLIN);
 
         logger.debug("Entering main event-loop ["+this.nr+"]");
         /** Enter the main event-loop */
         while(!Thread.currentThread().isInterrupted()) {
-            items.poll();
-            logger.debug("["+this.nr+"] - got input");
+            if (items.poll() < 0) {
+                break;
+            }
 
-            /**
-             * TODO
-             *
-             * Don't assume indexes, properly use the ones returned
-             * by the items.register function.
-             */
-            if(items.pollin(1)) {
+            if(items.pollin(controlIndex)) {
                 message = ZMsg.recvMsg(controlSocket);
                 logger.debug("Received STOP message [" + this.nr + "]");
                 break;
             }
-            if(items.pollin(0)) {
+            if(items.pollin(socketIndex)) {
                 message = ZMsg.recvMsg(socket);
-                body = message.getLast();
-                byte[] d = body.getData();
-                if (d.length == 1 && d[0] == 0x0) {
+                if (isHeartbeat(message)) {
                     /* Send pong */
                     message.removeLast();
                     message.addLast(new byte[] {0x0});
                     message.send(this.socket);
                 } else {
-                    msg = new String(body.getData());
-
-                    logger.debug("Got a message");
-
-                    try {
-                        resp = handleJSONRPC(msg);
-
-                        logger.debug("Sent a reply");
-                        message.removeLast();
-                        message.addString(resp);
-                        message.send(this.socket);
-                    } catch(final Exception e) {
-                        logger.warn(e.toString());
-                    }
+                    /* Hand the request to a worker */
+                    message.send(this.backendSocket);
                 }
             }
+            if(items.pollin(backendIndex)) {
+                /* Route the reply back to the client */
+                message = ZMsg.recvMsg(backendSocket);
+                message.send(this.socket);
+            }
+        }
 
+        for (ServerWorker worker: this.workerPool) {
+            worker.cleanup();
         }
 
+        this.onStop();
+
         logger.debug("Closing context ["+this.nr+"]");
         this.socket.setLinger(0);
         this.controlSocket.setLinger(0);
+        this.backendSocket.setLinger(0);
 
         this.controlSocket.close();
+        this.backendSocket.close();
         this.socket.close();
         this.context.close();
     }
 
+    /**
+     * Check if a message is a heartbeat.
+     *
+     * A heartbeat consists of a single 0x0 byte, which is the only
+     * frame following the envelope delimiter.
+     *
+     * @param message   Message received on the ROUTER socket.
+     *
+     * @return          true if the message is a heartbeat.
+     */
+    private static boolean isHeartbeat(final ZMsg message) {
+        byte[] d = message.getLast().getData();
+        int position = 0;
+
+        if (d.length != 1 || d[0] != 0x0) {
+            return false;
+        }
+
+        for (ZFrame frame: message) {
+            if (frame.size() == 0) {
+                return position == message.size() - 2;
+            }
+            position++;
+        }
+
+        /* No delimiter, [identity][0x0] */
+        return message.size() == 2;
+    }
+
+    /**
+     * Return a registered method.
+     *
+     * @param methodName    Method Name.
+     *
+     * @return              Method Class.
+     *
+     * @throws JSONRPCException when the method is not registered.
+     */
+    private IMethod getMethod(final String methodName)
+            throws JSONRPCException {
+        IMethod method = this.methodMap.get(methodName);
+
+        if (method == null) {
+            /**
+             * code = -32601
+             * msg = Method not Found
+             */
+            throw new JSONRPCException(
+                    -32601,
+                    "Method not Found");
+        }
+
+        return method;
+    }
+
+    /**
+     * Handle a request.
+     *
+     * Binary requests start with a single-byte opcode frame,
+     * anything else is handled as JSON-RPC.
+     *
+     * @param message   Request frames, without envelope.
+     *
+     * @return          Response frames, or null if no response is due.
+     */
+    protected final ZMsg handleRequest(final ZMsg message) {
+        ZFrame first = message.peekFirst();
+
+        if (first != null && first.size() == 1) {
+            return this.handleBinary(message);
+        }
+        return this.handleJSONRPC(message);
+    }
+
+    /**
+     * Handle binary call.
+     *
+     * @param message   Request frames, without envelope.
+     *
+     * @return          Response frames.
+     */
+    private ZMsg handleBinary(final ZMsg message) {
+        Iterator<ZFrame> frames = message.iterator();
+        int opcode = frames.next().getData()[0] & 0xff;
+        BinaryMethod binaryMethod = this.opcodeMap[opcode];
+        ZMsg reply = new ZMsg();
+
+        try {
+            if (binaryMethod == null) {
+                throw new JSONRPCException(-32601, "Method not Found");
+            }
+
+            IMethod method = this.getMethod(binaryMethod.getMethodName());
+            JSONObject params = binaryMethod.decodeParams(frames);
+
+            this.methodCounterMap.get(binaryMethod.getMethodName()).incrementAndGet();
+
+            binaryMethod.encodeResult(method.execute(params), reply);
+        } catch (final JSONRPCException e) {
+            logger.warn(e.getMessage());
+            reply = BinaryMethod.encodeError(e.getCode(), e.getMessage());
+        } catch (final Exception e) {
+            logger.warn("Internal error");
+            reply = BinaryMethod.encodeError(-32603, "Internal error");
+        }
+
+        return reply;
+    }
+
     /**
      * Handle JSONRPC call.
      *
@@ -208,24 +454,132 @@ public class JSONRPCServer extends Thread {
      * @return        String message of the response.
      */
     protected final String handleJSONRPC(final String msg) {
+        ZMsg request = new ZMsg();
+        ZMsg reply;
+
+        request.addString(msg);
+        reply = this.handleJSONRPC(request);
+        if (reply == null) {
+            return null;
+        }
+
+        return new String(reply.getFirst().getData());
+    }
+
+    /**
+     * Handle JSONRPC call.
+     *
+     * The first frame contains the JSON-RPC request, followed by
+     * the binary frames listed in its 'binary' header (if any).
+     *
+     * The first frame may also contain a batch: an array of requests.
+     * Their binary frames follow in the order of the requests, the
+     * reply contains an array of responses (notifications excluded),
+     * followed by the binary frames of the responses in that order.
+     *
+     * @param message   Request frames, without envelope.
+     *
+     * @return          Response frames, or null if no response is due.
+     */
+    protected final ZMsg handleJSONRPC(final ZMsg message) {
+        Iterator<ZFrame> frames = message.iterator();
+        ZMsg       reply = new ZMsg();
+        List<byte[]> replyFrames = new ArrayList<byte[]>();
+        String     text = new String(frames.next().getData());
+        JSONObject response;
+        JSONArray  requests;
+        JSONArray  responses;
+
+        if (!text.trim().startsWith("[")) {
+            response = this.handleCall(text, frames, replyFrames);
+            if (response == null) {
+                return null;
+            }
+            reply.addString(response.toString());
+        } else {
+            try {
+                requests = new JSONArray(text);
+            } catch (final JSONException e) {
+                logger.warn("Parse error");
+                reply.addString(errorResponse(null, -32700, "Parse error").toString());
+                return reply;
+            }
+            if (requests.length() == 0) {
+                reply.addString(errorResponse(null, -32600, "Invalid Request").toString());
+                return reply;
+            }
+
+            responses = new JSONArray();
+            for (int i = 0; i < requests.length(); ++i) {
+                response = this.handleCall(requests.opt(i), frames, replyFrames);
+                if (response != null) {
+                    responses.put(response);
+                }
+            }
+            if (responses.length() == 0) {
+                return null;
+            }
+            reply.addString(responses.toString());
+        }
+
+        for (byte[] frame: replyFrames) {
+            reply.add(frame);
+        }
+
+        return reply;
+    }
+
+    /**
+     * Execute a single JSONRPC call.
+     *
+     * @param source        request, as String or (batch element) JSONObject.
+     * @param frames        request frames following the JSON frame.
+     * @param replyFrames   receives the binary frames of the response.
+     *
+     * @return              response, or null for a notification.
+     */
+    private JSONObject handleCall(
+            final Object source,
+            final Iterator<ZFrame> frames,
+            final List<byte[]> replyFrames) {
+
+        List<byte[]> resultFrames = new ArrayList<byte[]>();
+
         JSONObject response = new JSONObject();
         JSONObject result;
-        JSONObject error = null;
-
-        JSONObject request;
+        JSONArray  binary = null;
 
         String     methodName;
         String     methodId = null;
 
+        JSONObject request;
+
         IMethod    method;
-        Integer    methodCounter = 0;
 
         JSONObject params;
 
         response.put("jsonrpc", "2.0");
 
         try {
-            request = new JSONObject(msg);
+            if (source instanceof JSONObject) {
+                request = (JSONObject) source;
+            } else if (source instanceof String) {
+                request = new JSONObject((String) source);
+            } else {
+                throw new JSONRPCException(-32600, "Invalid Request");
+            }
+
+            /**
+             * Peers that negotiated binary frames send a
+             * 'binary' header, possibly empty. The frames are
+             * consumed first, so a failing request in a batch
+             * does not shift the frames of the next.
+             */
+            binary = request.optJSONArray("binary");
+            params = request.optJSONObject("params");
+            if (binary != null) {
+                BinaryFrames.inject(params == null ? new JSONObject() : params, binary, frames);
+            }
 
             validateJSONRPC(request);
 
@@ -235,72 +589,73 @@ public class JSONRPCServer extends Thread {
             methodId = request.optString("id");
 
             methodName = request.getString("method");
-            if (!this.methodMap.containsKey(methodName)) {
-                /**
-                 * code = -32601
-                 * msg = Method not Found
-                 */
-                throw new JSONRPCException(
-                        -32601,
-                        "Method not Found");
-            }
-
-            method = this.methodMap.get(methodName);
-            if (method == null) {
-                /**
-                 * code = -32601
-                 * msg = Method not Found
-                 */
-                throw new JSONRPCException(
-                        -32601,
-                        "Method not Found");
-            }
-
-            params = request.getJSONObject("params");
+            method = this.getMethod(methodName);
 
-            methodCounter = this.methodCounterMap.get(methodName);
-            this.methodCounterMap.put(methodName, methodCounter+1);
+            this.methodCounterMap.get(methodName).incrementAndGet();
 
             result = method.execute(params);
 
+            if (result != null) {
+                if (binary != null) {
+                    JSONArray header = BinaryFrames.extract(result, resultFrames);
+                    if (header.length() > 0) {
+                        response.put("binary", header);
+                    }
+                } else {
+                    BinaryFrames.encodeBase64(result);
+                }
+            }
+
             if(methodId != null) {
                 response.put("id", methodId);
                 response.put("result", result);
             }
         } catch (final JSONException e) {
-            response.put("id", methodId);
-
-            error = new JSONObject();
-            response.put("error", error);
-            error.put("code", -32700);
-            error.put("message", "Parse error");
             logger.warn("Parse error");
             logger.warn(e.getMessage());
+            return errorResponse(methodId, -32700, "Parse error");
         } catch (final JSONRPCException e) {
-            response.put("id", methodId);
-
-            error = new JSONObject();
-            response.put("error", error);
-            error.put("code", e.getCode());
-            error.put("message", e.getMessage());
             logger.warn(e.getMessage());
+            return errorResponse(methodId, e.getCode(), e.getMessage());
         } catch (final Exception e) {
-            response.put("id", methodId);
-
-            error = new JSONObject();
-            response.put("error", error);
-            error.put("code", -32603);
-            error.put("message", "Internal error");
             logger.warn("Internal error");
+            return errorResponse(methodId, -32603, "Internal error");
         }
 
-        if (methodId == null && error == null) {
+        if (methodId == null) {
             return null;
         }
 
-        return response.toString();
+        replyFrames.addAll(resultFrames);
+
+        return response;
+    }
+
+    /**
+     * Create an error response.
+     *
+     * @param methodId  id of the request, or null.
+     * @param code      error code.
+     * @param message   error message.
+     *
+     * @return          response.
+     */
+    private static JSONObject errorResponse(
+            final String methodId,
+            final int code,
+            final String message) {
+        JSONObject response = new JSONObject();
+        JSONObject error = new JSONObject();
+
+        response.put("jsonrpc", "2.0");
+        response.put("id", methodId);
+        response.put("error", error);
+        error.put("code", code);
+        error.put("message", message);
+
+        return response;
     }
-    
+
 
     /**
      * Validate JSONRPC call.
@@ -310,7 +665,7 @@ public class JSONRPCServer extends Thread {
      * @throws JSONRPCException Throws exception if request object contains
      * malformed or unsupported json-rpc
      *
-     * Batch calls or array-style parameters are not supported.
+     * Array-style parameters are not supported.
      *
      */
     protected final void validateJSONRPC(final JSONObject request)
@@ -402,11 +757,41 @@ public class JSONRPCServer extends Thread {
         logger.debug("Binding Sockets ["+this.nr+"]");
         this.socket.bind(this.bindUri);
         this.controlSocket.bind("inproc://jsonrpc-"+this.nr);
+        this.backendSocket.bind("inproc://jsonrpc-backend-"+this.nr);
+
+        /** Start Workers */
+        this.workerPool = new ServerWorker[this.workers];
+        for (int i = 0; i < this.workers; ++i) {
+            this.workerPool[i] = new ServerWorker(
+                    this.context,
+                    this,
+                    "inproc://jsonrpc-backend-"+this.nr,
+                    "jsonrpc-worker-"+this.nr+"-"+i);
+            this.workerPool[i].start();
+        }
+
+        this.onStart();
 
         logger.debug("Starting JSONRPCServer ["+this.nr+"]");
         super.start();
     }
 
+    /**
+     * Called when the server starts, before requests are accepted.
+     *
+     * Subclasses can start additional threads here.
+     */
+    protected void onStart() {
+    }
+
+    /**
+     * Called when the server stops, after the workers have exited.
+     *
+     * Subclasses can stop the threads started by onStart here.
+     */
+    protected void onStop() {
+    }
+
     /**
      * Return counter for method.
      *
@@ -416,15 +801,13 @@ public class JSONRPCServer extends Thread {
      */
     protected final int getMethodStats(final String methodName) {
 
-        Integer methodCounter;
+        AtomicInteger methodCounter = this.methodCounterMap.get(methodName);
 
-        if (!this.methodCounterMap.containsKey(methodName)) {
+        if (methodCounter == null) {
             return -1;
         }
 
-        methodCounter = this.methodCounterMap.get(methodName);
-
-        return methodCounter.intValue();
+        return methodCounter.get();
     }
 
     /**
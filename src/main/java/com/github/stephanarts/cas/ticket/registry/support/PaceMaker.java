@@ -18,12 +18,16 @@ package com.github.stephanarts.cas.ticket.registry.support;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 
 /**
  * PaceMaker Class.
  *
- * The pacemaker class, a singleton.
+ * Sends heartbeats to the clients using a number of WatchDog
+ * worker threads. The clients are spread round-robin over the
+ * workers, so the number of clients per worker differs by at
+ * most one.
  */
 public final class PaceMaker {
 
@@ -32,21 +36,26 @@ public final class PaceMaker {
      */
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private int nWorkers = 1;
-
     private LinkedList<JSONRPCClient> clients = new LinkedList<JSONRPCClient>();
 
     private WatchDog[] workers = {};
 
+    /**
+     * Clients per worker.
+     */
+    private JSONRPCClient[][] shards = {};
+
+    private int heartbeatInterval = -1;
+
+    private int heartbeatTimeout = -1;
+
+    private double phiThreshold = -1;
 
     /**
      * Pacemaker constructor.
      */
     public PaceMaker() {
-        this.workers = new WatchDog[1];
-        this.workers[0] = new WatchDog();
-
-        this.workers[0].start();
+        this.setWorkers(1);
     }
 
     /**
@@ -54,7 +63,8 @@ public final class PaceMaker {
      *
      * @param interval Interval value
      */
-    public void setHeartbeatInterval(final int interval) {
+    public synchronized void setHeartbeatInterval(final int interval) {
+        this.heartbeatInterval = interval;
         for(int i = 0; i < this.workers.length; ++i) {
             this.workers[i].setHeartbeatInterval(interval);
         }
@@ -65,22 +75,80 @@ public final class PaceMaker {
      *
      * @param timeout Timeout value
      */
-    public void setHeartbeatTimeout(final int timeout) {
+    public synchronized void setHeartbeatTimeout(final int timeout) {
+        this.heartbeatTimeout = timeout;
         for(int i = 0; i < this.workers.length; ++i) {
             this.workers[i].setHeartbeatTimeout(timeout);
         }
     }
 
+    /**
+     * Set phiThreshold.
+     *
+     * @param threshold Suspicion level (phi) at which
+     *                  a client is marked unavailable.
+     */
+    public synchronized void setPhiThreshold(final double threshold) {
+        this.phiThreshold = threshold;
+        for(int i = 0; i < this.workers.length; ++i) {
+            this.workers[i].setPhiThreshold(threshold);
+        }
+    }
+
     /**
      * setWorkers(nr).
      *
      * Set the number of pacemaker worker threads
-     * responsible for sending heartbeat messages.
+     * responsible for sending heartbeat messages,
+     * and spread the clients over them again.
      *
      * @param workers Number of Watchdog worker threads.
      */
-    public void setWorkers(final int workers) {
-        nWorkers = workers;
+    public synchronized void setWorkers(final int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be at least 1");
+        }
+        if (workers == this.workers.length) {
+            return;
+        }
+
+        WatchDog[] w = Arrays.copyOf(this.workers, workers);
+        JSONRPCClient[][] s = Arrays.copyOf(this.shards, workers);
+
+        /* Stop the workers that are no longer needed */
+        for(int i = workers; i < this.workers.length; ++i) {
+            this.workers[i].cleanup();
+        }
+
+        /* Start new workers */
+        for(int i = this.workers.length; i < workers; ++i) {
+            w[i] = new WatchDog();
+            s[i] = new JSONRPCClient[0];
+            if (this.heartbeatInterval >= 0) {
+                w[i].setHeartbeatInterval(this.heartbeatInterval);
+            }
+            if (this.heartbeatTimeout >= 0) {
+                w[i].setHeartbeatTimeout(this.heartbeatTimeout);
+            }
+            if (this.phiThreshold >= 0) {
+                w[i].setPhiThreshold(this.phiThreshold);
+            }
+            w[i].start();
+        }
+
+        this.workers = w;
+        this.shards = s;
+
+        this.distribute();
+    }
+
+    /**
+     * Get the number of pacemaker worker threads.
+     *
+     * @return number of workers.
+     */
+    public synchronized int getWorkers() {
+        return this.workers.length;
     }
 
     /**
@@ -90,29 +158,13 @@ public final class PaceMaker {
      * 
      * @param client JSONRPCClient.
      */
-    public void addClient(final JSONRPCClient client) {
-
-        int b = 0;
+    public synchronized void addClient(final JSONRPCClient client) {
 
         if(!this.clients.contains(client)) {
             this.clients.add(client);
         }
 
-        for(int i = 0; i < this.workers.length; ++i) {
-
-            JSONRPCClient[] aClients = new JSONRPCClient[this.clients.size()/this.workers.length];
-
-            for(int c = 0; c < aClients.length; ++c) {
-                if (b < this.clients.size()) {
-                    aClients[c] = this.clients.get(b);
-                } else {
-                    aClients[c] = null;
-                }
-                b++;
-            }
-
-            this.workers[i].setClients(aClients);
-        }
+        this.distribute();
     }
 
     /**
@@ -120,28 +172,35 @@ public final class PaceMaker {
      *
      * @param client JSONRPCClient.
      */
-    public void removeClient(final JSONRPCClient client) {
-
-        int b = 0;
+    public synchronized void removeClient(final JSONRPCClient client) {
 
         this.clients.remove(client);
 
+        this.distribute();
+    }
+
+    /**
+     * Spread the clients round-robin over the workers.
+     *
+     * Only workers whose clients changed get the new set.
+     */
+    private void distribute() {
+        JSONRPCClient[] all = this.clients.toArray(new JSONRPCClient[this.clients.size()]);
+
         for(int i = 0; i < this.workers.length; ++i) {
 
-            JSONRPCClient[] aClients = new JSONRPCClient[this.clients.size()/this.workers.length];
+            JSONRPCClient[] aClients = new JSONRPCClient[
+                    (all.length + this.workers.length - 1 - i) / this.workers.length];
 
             for(int c = 0; c < aClients.length; ++c) {
-                if (b < this.clients.size()) {
-                    aClients[c] = this.clients.get(b);
-                } else {
-                    aClients[c] = null;
-                }
-                b++;
+                aClients[c] = all[i + c * this.workers.length];
             }
 
-            this.workers[i].setClients(aClients);
+            if (!Arrays.equals(aClients, this.shards[i])) {
+                this.shards[i] = aClients;
+                this.workers[i].setClients(aClients);
+            }
         }
- 
     }
 
     /**
@@ -149,14 +208,25 @@ public final class PaceMaker {
      *
      * @return number of clients
      */
-    public int getClientCount() {
+    public synchronized int getClientCount() {
         return this.clients.size();
     }
 
+    /**
+     * Get the number of clients of a worker.
+     *
+     * @param worker    index of the worker.
+     *
+     * @return number of clients
+     */
+    synchronized int getClientCount(final int worker) {
+        return this.shards[worker].length;
+    }
+
     /**
      * Destroy the pacemaker and it's worker threads.
      */
-    public void destroy() {
+    public synchronized void destroy() {
         for (int i =0; i < this.workers.length; ++i) {
             this.workers[i].cleanup();
         }
@@ -0,0 +1,163 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.support;
+
+/**
+ * PhiAccrualDetector Class.
+ *
+ * Adaptive failure detector, based on the arrival times of the
+ * heartbeat replies of a single server (Hayashibara et al.).
+ *
+ * Instead of a boolean, the detector expresses the suspicion that
+ * the server failed as phi, the -log10 of the probability that a
+ * heartbeat reply still arrives after the time that has passed since
+ * the last one. The intervals between replies are assumed to be
+ * normally distributed, using the mean and standard deviation of the
+ * last WINDOW intervals.
+ *
+ * One missed sweep (heartbeatInterval + heartbeatTimeout) is always
+ * accepted, and the standard deviation is at least heartbeatTimeout.
+ * Servers that miss heartbeats now and then get a wider distribution,
+ * and are suspected later.
+ */
+public final class PhiAccrualDetector {
+
+    /**
+     * Number of intervals to keep.
+     */
+    static final int WINDOW = 100;
+
+    private final long[] intervals = new long[WINDOW];
+
+    private int count = 0;
+
+    private int index = 0;
+
+    private double sum = 0;
+
+    private double sumSquares = 0;
+
+    private long lastArrival = 0;
+
+    private int heartbeatInterval = 5000;
+
+    private int heartbeatTimeout = 200;
+
+    /**
+     * Set the heartbeatInterval of the WatchDog.
+     *
+     * @param interval (ms)
+     */
+    public synchronized void setHeartbeatInterval(final int interval) {
+        this.heartbeatInterval = interval;
+    }
+
+    /**
+     * Set the heartbeatTimeout of the WatchDog.
+     *
+     * @param timeout (ms)
+     */
+    public synchronized void setHeartbeatTimeout(final int timeout) {
+        this.heartbeatTimeout = timeout;
+    }
+
+    /**
+     * Record the arrival of a heartbeat reply, replies
+     * older than the last one are ignored.
+     *
+     * @param now   arrival time (ms).
+     */
+    public synchronized void heartbeat(final long now) {
+        if (now <= this.lastArrival) {
+            return;
+        }
+        if (this.lastArrival > 0) {
+            long interval = now - this.lastArrival;
+
+            if (this.count == WINDOW) {
+                long old = this.intervals[this.index];
+                this.sum -= old;
+                this.sumSquares -= (double) old * old;
+            } else {
+                this.count++;
+            }
+            this.intervals[this.index] = interval;
+            this.index = (this.index + 1) % WINDOW;
+            this.sum += interval;
+            this.sumSquares += (double) interval * interval;
+        }
+        this.lastArrival = now;
+    }
+
+    /**
+     * Return if a heartbeat reply has arrived.
+     *
+     * @return true when a reply arrived.
+     */
+    public synchronized boolean hasHeartbeat() {
+        return this.lastArrival > 0;
+    }
+
+    /**
+     * Return the suspicion level of the server.
+     *
+     * @param now   current time (ms).
+     *
+     * @return phi, 0 until a heartbeat reply arrived.
+     */
+    public synchronized double phi(final long now) {
+        double mean;
+        double deviation = this.heartbeatTimeout;
+
+        if (this.lastArrival == 0) {
+            return 0.0;
+        }
+
+        if (this.count > 0) {
+            mean = this.sum / this.count;
+            deviation = Math.max(deviation,
+                    Math.sqrt(Math.max(0.0, this.sumSquares / this.count - mean * mean)));
+        } else {
+            mean = this.heartbeatInterval;
+        }
+
+        /* Accept one missed sweep */
+        mean += this.heartbeatInterval + this.heartbeatTimeout;
+
+        return phi(now - this.lastArrival, mean, Math.max(1.0, deviation));
+    }
+
+    /**
+     * Return -log10 of the probability that an interval is longer
+     * than elapsed, using a logistic approximation of the cumulative
+     * normal distribution.
+     *
+     * @param elapsed   time since the last reply (ms).
+     * @param mean      mean interval (ms).
+     * @param deviation standard deviation (ms).
+     *
+     * @return phi.
+     */
+    static double phi(final double elapsed, final double mean, final double deviation) {
+        double y = (elapsed - mean) / deviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+
+        if (elapsed > mean) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+}
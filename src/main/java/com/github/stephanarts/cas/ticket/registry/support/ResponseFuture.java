@@ -0,0 +1,60 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.support;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.zeromq.ZMsg;
+
+/**
+ * ResponseFuture Class.
+ *
+ * Hands the reply to an outstanding request from the
+ * ClientDispatcher thread to the calling thread.
+ */
+final class ResponseFuture {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    private volatile ZMsg response = null;
+
+    /**
+     * Complete the future.
+     *
+     * @param response  Reply frames, or null if the request failed.
+     */
+    void set(final ZMsg response) {
+        this.response = response;
+        this.latch.countDown();
+    }
+
+    /**
+     * Wait for the reply.
+     *
+     * @param timeout  maximum time to wait (ms).
+     *
+     * @return reply frames, or null on timeout or failure.
+     *
+     * @throws InterruptedException when interrupted while waiting.
+     */
+    ZMsg get(final long timeout) throws InterruptedException {
+        if (!this.latch.await(timeout, TimeUnit.MILLISECONDS)) {
+            return null;
+        }
+        return this.response;
+    }
+}
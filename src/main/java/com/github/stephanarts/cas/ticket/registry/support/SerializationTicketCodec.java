@@ -0,0 +1,76 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.support;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * SerializationTicketCodec Class.
+ *
+ * Encodes tickets using Java serialization, this is the
+ * encoding used by peers that do not support negotiation.
+ */
+public final class SerializationTicketCodec extends StreamTicketCodec {
+
+    /**
+     * Return the name of the codec.
+     *
+     * @return codec name.
+     */
+    public String getName() {
+        return "java";
+    }
+
+    /**
+     * Check for the Java serialization stream header.
+     *
+     * @param data      encoded ticket.
+     *
+     * @return          false if the data was not encoded by this codec.
+     */
+    public boolean accepts(final byte[] data) {
+        return data.length > 4
+                && data[0] == (byte) 0xac
+                && data[1] == (byte) 0xed
+                && data[2] == 0x00
+                && data[3] == 0x05;
+    }
+
+    /**
+     * Return the stream unchanged.
+     *
+     * @param out   stream receiving the encoded ticket.
+     *
+     * @return      stream to serialize the ticket to.
+     */
+    @Override
+    protected OutputStream wrap(final OutputStream out) {
+        return out;
+    }
+
+    /**
+     * Return the stream unchanged.
+     *
+     * @param in    stream containing the encoded ticket.
+     *
+     * @return      stream to deserialize the ticket from.
+     */
+    @Override
+    protected InputStream wrap(final InputStream in) {
+        return in;
+    }
+}
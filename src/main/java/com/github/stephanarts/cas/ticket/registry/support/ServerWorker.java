@@ -0,0 +1,205 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Context;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMQ.Poller;
+import org.zeromq.ZMsg;
+import org.zeromq.ZFrame;
+
+/**
+ * ServerWorker Class.
+ *
+ * Executes JSON-RPC requests on behalf of a JSONRPCServer.
+ * The server front-end distributes requests over its workers
+ * via an inproc DEALER socket, each worker replies on the same
+ * socket with the envelope of the request intact.
+ */
+final class ServerWorker extends Thread {
+
+    /**
+     * Logging Class.
+     */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /**
+     * ZMQ Context (shared with the server).
+     */
+    private final Context context;
+
+    /**
+     * ZMQ DEALER Socket, connected to the server backend.
+     */
+    private final Socket socket;
+
+    /**
+     * ZMQ Control Socket.
+     */
+    private final Socket controlSocket;
+
+    /**
+     * Server executing the requests.
+     */
+    private final JSONRPCServer server;
+
+    /**
+     * URI of the server backend.
+     */
+    private final String backendUri;
+
+    /**
+     * URI of the control socket.
+     */
+    private final String controlUri;
+
+    /**
+     * Create a ServerWorker.
+     *
+     * @param context     ZMQ Context of the server.
+     * @param server      Server executing the requests.
+     * @param backendUri  inproc URI of the server backend.
+     * @param name        Thread name, also used for the control URI.
+     */
+    ServerWorker(
+            final Context context,
+            final JSONRPCServer server,
+            final String backendUri,
+            final String name) {
+
+        this.context = context;
+        this.server = server;
+        this.backendUri = backendUri;
+        this.controlUri = "inproc://" + name;
+
+        this.socket = this.context.socket(ZMQ.DEALER);
+        this.controlSocket = this.context.socket(ZMQ.PULL);
+
+        this.setName(name);
+        this.setDaemon(true);
+    }
+
+    /**
+     * Start the ServerWorker thread.
+     *
+     * Binds the control socket before calling Thread.start(),
+     * this way a stop can not get lost.
+     */
+    public void start() {
+        this.controlSocket.bind(this.controlUri);
+        this.socket.connect(this.backendUri);
+
+        super.start();
+    }
+
+    /**
+     * Run the worker.
+     */
+    public void run() {
+        ZMsg   message;
+        ZMsg   envelope;
+        ZMsg   reply;
+
+        Poller items = new Poller(2);
+
+        int socketIndex = items.register(this.socket, Poller.POLLIN);
+        int controlIndex = items.register(this.controlSocket, Poller.POLLIN);
+
+        while (!Thread.currentThread().isInterrupted()) {
+            if (items.poll() < 0) {
+                break;
+            }
+
+            if (items.pollin(controlIndex)) {
+                logger.debug("Received STOP message [" + this.getName() + "]");
+                break;
+            }
+
+            if (items.pollin(socketIndex)) {
+                message = ZMsg.recvMsg(this.socket);
+                envelope = popEnvelope(message);
+
+                try {
+                    reply = this.server.handleRequest(message);
+
+                    /* Notifications do not get a reply */
+                    if (reply != null) {
+                        envelope.addAll(reply);
+                        envelope.send(this.socket);
+                    }
+                } catch(final Exception e) {
+                    logger.warn(e.toString());
+                }
+            }
+        }
+
+        this.socket.setLinger(0);
+        this.controlSocket.setLinger(0);
+
+        this.socket.close();
+        this.controlSocket.close();
+    }
+
+    /**
+     * Split the envelope from a request.
+     *
+     * The envelope runs up to and including the empty delimiter,
+     * requests without delimiter consist of a single body frame.
+     *
+     * @param message   Request, the envelope is removed.
+     *
+     * @return          Envelope frames.
+     */
+    static ZMsg popEnvelope(final ZMsg message) {
+        ZMsg envelope = new ZMsg();
+        int length = message.size() - 1;
+        int i = 0;
+
+        for (ZFrame frame: message) {
+            if (frame.size() == 0) {
+                length = i + 1;
+                break;
+            }
+            i++;
+        }
+
+        for (i = 0; i < length; ++i) {
+            envelope.add(message.pop());
+        }
+
+        return envelope;
+    }
+
+    /**
+     * Stop the worker and wait for it to exit.
+     */
+    void cleanup() {
+        Socket s = this.context.socket(ZMQ.PUSH);
+        s.connect(this.controlUri);
+        s.send(new byte[1], 0);
+        s.close();
+
+        try {
+            this.join();
+        } catch (final InterruptedException e) {
+            logger.debug(e.toString());
+        }
+    }
+}
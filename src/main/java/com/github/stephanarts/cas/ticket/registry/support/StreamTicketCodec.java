@@ -0,0 +1,97 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import org.jasig.cas.ticket.Ticket;
+
+/**
+ * StreamTicketCodec Class.
+ *
+ * Base class for codecs that encode tickets using Java
+ * serialization, optionally through a filtering stream.
+ */
+public abstract class StreamTicketCodec implements TicketCodec {
+
+    /**
+     * Encode a ticket.
+     *
+     * @param ticket    Ticket to encode.
+     *
+     * @return          encoded ticket.
+     *
+     * @throws IOException when the ticket can not be encoded.
+     */
+    public final byte[] encode(final Ticket ticket) throws IOException {
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        OutputStream os = this.wrap(bo);
+        ObjectOutputStream so = new ObjectOutputStream(os);
+
+        so.writeObject(ticket);
+        so.close();
+
+        return bo.toByteArray();
+    }
+
+    /**
+     * Decode a ticket.
+     *
+     * @param data      encoded ticket.
+     *
+     * @return          Ticket object.
+     *
+     * @throws IOException when the data can not be decoded.
+     */
+    public final Ticket decode(final byte[] data) throws IOException {
+        ObjectInputStream si = new ObjectInputStream(
+                this.wrap(new ByteArrayInputStream(data)));
+
+        try {
+            return (Ticket) si.readObject();
+        } catch (final ClassNotFoundException e) {
+            throw new IOException(e);
+        } catch (final ClassCastException e) {
+            throw new IOException(e);
+        } finally {
+            si.close();
+        }
+    }
+
+    /**
+     * Wrap the stream the serialized ticket is written to.
+     *
+     * @param out   stream receiving the encoded ticket.
+     *
+     * @return      stream to serialize the ticket to.
+     */
+    protected abstract OutputStream wrap(OutputStream out);
+
+    /**
+     * Wrap the stream the serialized ticket is read from.
+     *
+     * @param in    stream containing the encoded ticket.
+     *
+     * @return      stream to deserialize the ticket from.
+     */
+    protected abstract InputStream wrap(InputStream in);
+}
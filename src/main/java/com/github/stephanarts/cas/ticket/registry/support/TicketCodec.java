@@ -0,0 +1,71 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.support;
+
+import java.io.IOException;
+
+import org.jasig.cas.ticket.Ticket;
+
+/**
+ * TicketCodec Interface.
+ *
+ * Converts tickets to and from their wire representation.
+ * Implementations must be thread-safe.
+ */
+public interface TicketCodec {
+
+    /**
+     * Return the name of the codec, as used during negotiation.
+     *
+     * @return codec name.
+     */
+    String getName();
+
+    /**
+     * Encode a ticket.
+     *
+     * @param ticket    Ticket to encode.
+     *
+     * @return          encoded ticket.
+     *
+     * @throws IOException when the ticket can not be encoded.
+     */
+    byte[] encode(Ticket ticket) throws IOException;
+
+    /**
+     * Decode a ticket.
+     *
+     * @param data      encoded ticket.
+     *
+     * @return          Ticket object.
+     *
+     * @throws IOException when the data can not be decoded.
+     */
+    Ticket decode(byte[] data) throws IOException;
+
+    /**
+     * Check if data looks like a ticket encoded by this codec,
+     * without decoding it.
+     *
+     * Used by providers that store tickets without decoding them,
+     * a positive result does not guarantee the data can be decoded.
+     *
+     * @param data      encoded ticket.
+     *
+     * @return          false if the data was not encoded by this codec.
+     */
+    boolean accepts(byte[] data);
+}
@@ -0,0 +1,144 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.support;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * TicketCodecs Class.
+ *
+ * Registry of the available TicketCodecs.
+ */
+public final class TicketCodecs {
+
+    /**
+     * Java serialization, understood by every peer.
+     */
+    public static final TicketCodec SERIALIZATION = new SerializationTicketCodec();
+
+    /**
+     * Java serialization, compressed with zlib.
+     */
+    public static final TicketCodec DEFLATE = new DeflateTicketCodec();
+
+    /**
+     * Codecs by name.
+     *
+     * Replaced as a whole on registration, so lookups need no lock.
+     */
+    private static volatile Map<String, TicketCodec> CODECS;
+
+    static {
+        Map<String, TicketCodec> map = new LinkedHashMap<String, TicketCodec>();
+        map.put(SERIALIZATION.getName(), SERIALIZATION);
+        map.put(DEFLATE.getName(), DEFLATE);
+        CODECS = map;
+    }
+
+    /**
+     * Hide constructor.
+     */
+    private TicketCodecs() {
+    }
+
+    /**
+     * Return a codec by name.
+     *
+     * @param name  codec name.
+     *
+     * @return TicketCodec, or null if the codec is unknown.
+     */
+    public static TicketCodec get(final String name) {
+        return CODECS.get(name);
+    }
+
+    /**
+     * Register an additional codec.
+     *
+     * Register codecs before the registry starts, providers
+     * advertise the codecs registered when they start.
+     *
+     * @param codec     codec to register.
+     *
+     * @throws IllegalArgumentException when the name is in use.
+     */
+    public static synchronized void register(final TicketCodec codec) {
+        Map<String, TicketCodec> map = new LinkedHashMap<String, TicketCodec>(CODECS);
+
+        if (map.containsKey(codec.getName())) {
+            throw new IllegalArgumentException("Codec " + codec.getName() + " is already registered");
+        }
+        map.put(codec.getName(), codec);
+        CODECS = map;
+    }
+
+    /**
+     * Remove a codec added with register().
+     *
+     * @param codec     codec to remove.
+     */
+    public static synchronized void unregister(final TicketCodec codec) {
+        Map<String, TicketCodec> map;
+
+        if (codec == SERIALIZATION || codec == DEFLATE) {
+            throw new IllegalArgumentException("Codec " + codec.getName() + " is built-in");
+        }
+        map = new LinkedHashMap<String, TicketCodec>(CODECS);
+        if (map.get(codec.getName()) == codec) {
+            map.remove(codec.getName());
+            CODECS = map;
+        }
+    }
+
+    /**
+     * Return the names of all codecs.
+     *
+     * @return JSONArray of codec names.
+     */
+    public static JSONArray getNames() {
+        return new JSONArray(CODECS.keySet());
+    }
+
+    /**
+     * Return the codec requested in the params of a JSON-RPC call.
+     *
+     * Requests without a 'codec' member use Java serialization.
+     *
+     * @param params    JSONRPC Method Parameters.
+     *
+     * @return TicketCodec.
+     *
+     * @throws JSONRPCException when the codec is unknown.
+     */
+    public static TicketCodec fromParams(final JSONObject params)
+            throws JSONRPCException {
+        TicketCodec codec;
+
+        if (!params.has("codec")) {
+            return SERIALIZATION;
+        }
+
+        codec = CODECS.get(params.optString("codec"));
+        if (codec == null) {
+            throw new JSONRPCException(-32602, "Invalid Params");
+        }
+        return codec;
+    }
+}
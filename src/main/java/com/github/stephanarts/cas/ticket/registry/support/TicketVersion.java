@@ -0,0 +1,48 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.support;
+
+import org.jasig.cas.ticket.Ticket;
+
+/**
+ * TicketVersion Class.
+ *
+ * The version providers order the writes of a ticket by.
+ *
+ * A ticket changes when it is used, and when it is expired without
+ * being used (e.g. a TGT on logout). The version is twice the number
+ * of uses, plus one once the ticket is expired, so both raise it.
+ * An expired ticket stays expired, the version never goes down.
+ */
+public final class TicketVersion {
+
+    /**
+     * Hide constructor.
+     */
+    private TicketVersion() {
+    }
+
+    /**
+     * Return the version of a ticket.
+     *
+     * @param ticket    Ticket.
+     *
+     * @return version.
+     */
+    public static long of(final Ticket ticket) {
+        return 2L * ticket.getCountOfUses() + (ticket.isExpired() ? 1 : 0);
+    }
+}
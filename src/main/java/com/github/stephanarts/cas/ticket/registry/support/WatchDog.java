@@ -30,6 +30,16 @@ import org.zeromq.ZMsg;
  */
 public class WatchDog extends Thread {
 
+    /**
+     * Default phiThreshold.
+     */
+    public static final double DEFAULT_PHI_THRESHOLD = 8.0;
+
+    /**
+     * Nanoseconds in a millisecond.
+     */
+    private static final long NANOS_PER_MILLI = 1000000L;
+
     /**
      * Logging Class.
      */
@@ -61,12 +71,33 @@ public class WatchDog extends Thread {
      */
     private int heartbeatInterval = 5000;
 
+    /**
+     * Suspicion level (phi) at which a client is marked unavailable.
+     */
+    private double phiThreshold = DEFAULT_PHI_THRESHOLD;
+
     private static int NR = 0;
 
     private static Object NRLOCK = new Object();
 
     private final int nr;
 
+    /**
+     * Number of heartbeats skipped, because the client
+     * received a successful reply since the previous sweep.
+     */
+    private long skipped = 0;
+
+    /**
+     * Number of completed sweeps.
+     */
+    private long sweeps = 0;
+
+    /**
+     * Duration of the last sweep in milliseconds.
+     */
+    private long sweepTime = 0;
+
     /**
      * Create a WatchDog object.
      *
@@ -123,87 +154,199 @@ public class WatchDog extends Thread {
 
     /**
      * Run the heartbeat process.
+     *
+     * Every heartbeatInterval a heartbeat is sent to all clients at
+     * once, so a sweep takes at most one heartbeatTimeout, regardless
+     * of the number of clients. Clients that received a successful reply
+     * to a request within the last heartbeatInterval are not sent one.
      */
     public final void run() {
 
-        int controlSocketIndex = 0;
+        Poller items = new Poller(1);
 
-        ZMsg   message;
+        items.register(this.controlSocket, Poller.POLLIN);
 
-        Poller items = new Poller(2);
+        while(!Thread.currentThread().isInterrupted()) {
+            /* Wait for the next sweep, a STOP message ends the wait */
+            if (items.poll(this.heartbeatInterval) < 0) {
+                break;
+            }
 
-        controlSocketIndex = items.register(this.controlSocket, Poller.POLLIN);
+            if(items.pollin(0)) {
+                ZMsg.recvMsg(this.controlSocket);
+                logger.debug("Received STOP message [" + this.nr + "]");
+                this.close();
+                return; /* Exit Thread */
+            }
 
-        while(!Thread.currentThread().isInterrupted()) {
-            try {
-                Thread.sleep(this.heartbeatInterval);
+            synchronized(this) {
+                if (this.sweep()) {
+                    this.close();
+                    return; /* Exit Thread */
+                }
+            }
+        }
+    }
+
+    /**
+     * Send a heartbeat to all clients, and poll for the replies
+     * until the heartbeatTimeout has passed.
+     *
+     * Clients that did not reply in time get a fresh socket, and
+     * are marked unavailable when their suspicion level reaches
+     * the phiThreshold.
+     *
+     * Must be called holding the lock.
+     *
+     * @return true when a STOP message was received.
+     */
+    private boolean sweep() {
+        final int count = this.sockets.length;
 
-                synchronized(this) {
-                    if (this.sockets.length > 0) {
-                        for(int i = 0; i < this.sockets.length; ++i) {
+        final Poller items = new Poller(count + 1);
+        final int controlSocketIndex = items.register(this.controlSocket, Poller.POLLIN);
+        final int[] indexes = new int[count];
+        final boolean[] replied = new boolean[count];
 
-                            final long startTime = System.currentTimeMillis();
-                            final long endTime;
+        final long startTime = System.currentTimeMillis();
+        final long startNanos = System.nanoTime();
+        final long deadline = startTime + this.heartbeatTimeout;
 
-                            int index = items.register(this.sockets[i], Poller.POLLIN);
+        long now = startTime;
+        int pending = count;
 
-                            this.sockets[i].send(new byte[] {0x0}, 0);
+        for(int i = 0; i < count; ++i) {
+            PhiAccrualDetector detector = this.clients[i].getFailureDetector();
+            detector.setHeartbeatInterval(this.heartbeatInterval);
+            detector.setHeartbeatTimeout(this.heartbeatTimeout);
+        }
 
-                            items.poll(this.heartbeatTimeout);
-                            endTime = System.currentTimeMillis();
+        for(int i = 0; i < count; ++i) {
+            final long lastReply = this.clients[i].getLastReply();
 
-                            if(items.pollin(controlSocketIndex)) {
-                                message = ZMsg.recvMsg(controlSocket);
-                                logger.debug("Received STOP message [" + this.nr + "]");
+            if (startTime - lastReply < this.heartbeatInterval) {
+                /* The last reply to a request counts as heartbeat */
+                replied[i] = true;
+                pending--;
+                this.skipped++;
 
-                                for(int s = 0; s < this.sockets.length; ++s) {
-                                    this.sockets[s].setLinger(0);
-                                    this.sockets[s].close();
-                                }
-                                this.controlSocket.close();
-                                this.context.close();
-                                return;
-                            }
+                /* The responseTime of the last heartbeat is kept */
+                this.clients[i].getFailureDetector().heartbeat(lastReply);
+                this.clients[i].setAvailable(true);
+                continue;
+            }
 
-                            if(items.pollin(index)) {
-                                message = ZMsg.recvMsg(this.sockets[i]);
-                                this.clients[i].setAvailable(true);
+            indexes[i] = items.register(this.sockets[i], Poller.POLLIN);
+            this.sockets[i].send(new byte[] {0x0}, 0);
+        }
 
-                                items.unregister(this.sockets[i]);
+        while (pending > 0 && now < deadline) {
+            if (items.poll(deadline - now) < 0) {
+                break;
+            }
+            now = System.currentTimeMillis();
 
-                                /* Store the response-time */
-                                this.clients[i].setResponseTime(endTime - startTime);
-                            } else {
-                                logger.debug("Missed Heartbeat");
-                                items.unregister(this.sockets[i]);
+            if(items.pollin(controlSocketIndex)) {
+                ZMsg.recvMsg(this.controlSocket);
+                logger.debug("Received STOP message [" + this.nr + "]");
+                return true;
+            }
 
-                                this.sockets[i].setLinger(0);
-                                this.sockets[i].close();
+            for(int i = 0; i < count; ++i) {
+                if (!replied[i] && items.pollin(indexes[i])) {
+                    ZMsg.recvMsg(this.sockets[i]);
+                    replied[i] = true;
+                    pending--;
 
-                                this.clients[i].setAvailable(false);
+                    /* Store the response-time, before announcing availability */
+                    this.clients[i].setResponseTime(elapsedMillis(startNanos));
 
-                                this.sockets[i] = this.context.socket(ZMQ.REQ);
-                                this.sockets[i].connect(this.clients[i].getConnectURI());
-                            }
+                    this.clients[i].getFailureDetector().heartbeat(now);
+                    this.clients[i].setAvailable(true);
+                }
+            }
+        }
 
-                        }
-                    } else {
-                        items.poll(this.heartbeatTimeout);
+        for(int i = 0; i < count; ++i) {
+            if (!replied[i]) {
+                PhiAccrualDetector detector = this.clients[i].getFailureDetector();
+                double phi = detector.phi(now);
 
-                        if(items.pollin(controlSocketIndex)) {
-                            message = ZMsg.recvMsg(controlSocket);
-                            logger.debug("Received STOP message [" + this.nr + "]");
+                logger.debug("Missed Heartbeat from " + this.clients[i].getConnectURI() + " (phi: " + phi + ")");
+
+                this.sockets[i].setLinger(0);
+                this.sockets[i].close();
 
-                            this.controlSocket.close();
-                            this.context.close();
-                            return; /* Exit Thread */
-                        }
-                    }
+                if (this.phiThreshold <= 0
+                        || !detector.hasHeartbeat()
+                        || phi >= this.phiThreshold) {
+                    this.clients[i].setAvailable(false);
                 }
-            } catch (final InterruptedException ex) {
-                break;
+
+                this.sockets[i] = this.context.socket(ZMQ.REQ);
+                this.sockets[i].connect(this.clients[i].getConnectURI());
             }
         }
+
+        this.sweeps++;
+        this.sweepTime = System.currentTimeMillis() - startTime;
+        return false;
+    }
+
+    /**
+     * Return the time elapsed since startNanos in milliseconds,
+     * rounded up, so a reply always has a response-time above 0.
+     *
+     * @param startNanos    start time, from System.nanoTime().
+     *
+     * @return milliseconds.
+     */
+    private static long elapsedMillis(final long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+
+        return Math.max(1, (nanos + NANOS_PER_MILLI - 1) / NANOS_PER_MILLI);
+    }
+
+    /**
+     * Return the number of heartbeats skipped, because
+     * the client received a successful reply since the previous sweep.
+     *
+     * @return number of heartbeats.
+     */
+    final synchronized long getSkipped() {
+        return this.skipped;
+    }
+
+    /**
+     * Return the number of completed sweeps.
+     *
+     * @return number of sweeps.
+     */
+    final synchronized long getSweeps() {
+        return this.sweeps;
+    }
+
+    /**
+     * Return the duration of the last completed sweep.
+     *
+     * @return duration in milliseconds.
+     */
+    final synchronized long getSweepTime() {
+        return this.sweepTime;
+    }
+
+    /**
+     * Close the sockets and the context.
+     */
+    private void close() {
+        synchronized(this) {
+            for(int s = 0; s < this.sockets.length; ++s) {
+                this.sockets[s].setLinger(0);
+                this.sockets[s].close();
+            }
+        }
+        this.controlSocket.close();
+        this.context.close();
     }
 
     /**
@@ -238,6 +381,28 @@ public class WatchDog extends Thread {
         this.heartbeatInterval = interval;
     }
 
+    /**
+     * Set the suspicion level (phi) at which a client
+     * is marked unavailable.
+     *
+     * A threshold of 0 marks a client unavailable on
+     * the first missed heartbeat.
+     *
+     * @param threshold phi, default 8.
+     */
+    public final void setPhiThreshold(final double threshold) {
+        this.phiThreshold = threshold;
+    }
+
+    /**
+     * Get the phiThreshold.
+     *
+     * @return phi.
+     */
+    public final double getPhiThreshold() {
+        return this.phiThreshold;
+    }
+
     /**
      * Get the heartbeatTimeout.
      *
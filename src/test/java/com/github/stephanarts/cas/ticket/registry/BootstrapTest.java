@@ -0,0 +1,193 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry;
+
+import java.util.Arrays;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.json.JSONArray;
+
+import org.jasig.cas.ticket.ServiceTicket;
+
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Unit test for Bootstrap.
+ */
+@RunWith(JUnit4.class)
+public class BootstrapTest
+{
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        this.executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    private static ServiceTicket serviceTicket(final String ticketId) {
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+        when(ticket.getId()).thenReturn(ticketId);
+        return ticket;
+    }
+
+    /**
+     * Test if the tickets are copied one page at a time.
+     */
+    @Test
+    public void testSequential() throws Exception {
+        final int nTickets = 5;
+        final ProviderCluster cluster = new ProviderCluster("bootstrapSequential", 2);
+
+        try {
+            cluster.start();
+            final RegistryBroker broker = cluster.broker();
+            final RegistryClient remote = broker.getProvider(1);
+
+            for (int i = 0; i < nTickets; ++i) {
+                remote.addTicket(serviceTicket("ST-1234567890ABCDEFGHIJKL-bootstrapSequential-" + i));
+            }
+
+            final Bootstrap bootstrap = new Bootstrap(
+                    broker, broker.getProvider(0), new RegistryClient[] {remote},
+                    this.executor, 2, false);
+
+            Assert.assertTrue(bootstrap.sequential(Arrays.asList(remote)));
+            Assert.assertEquals(nTickets, cluster.getProvider(0).getSize());
+            Assert.assertEquals(3, cluster.getProvider(1).getStats("cas.getTicketsPage"));
+        } finally {
+            cluster.cleanup();
+        }
+    }
+
+    /**
+     * Test if the slices are copied from all providers.
+     */
+    @Test
+    public void testParallel() throws Exception {
+        final int nTickets = 50;
+        final ProviderCluster cluster = new ProviderCluster("bootstrapParallel", 3);
+
+        try {
+            cluster.start();
+            final RegistryBroker broker = cluster.broker();
+            final RegistryClient[] remotes = {broker.getProvider(1), broker.getProvider(2)};
+
+            for (int i = 0; i < nTickets; ++i) {
+                final ServiceTicket ticket = serviceTicket("ST-1234567890ABCDEFGHIJKL-bootstrapParallel-" + i);
+                remotes[0].addTicket(ticket);
+                remotes[1].addTicket(ticket);
+            }
+
+            final Bootstrap bootstrap = new Bootstrap(
+                    broker, broker.getProvider(0), remotes, this.executor, 2, false);
+
+            Assert.assertTrue(bootstrap.run());
+            Assert.assertEquals(nTickets, cluster.getProvider(0).getSize());
+            Assert.assertTrue(cluster.getProvider(1).getStats("cas.getTicketsById") > 0);
+            Assert.assertTrue(cluster.getProvider(2).getStats("cas.getTicketsById") > 0);
+        } finally {
+            cluster.cleanup();
+        }
+    }
+
+    /**
+     * Test if bootstrapping fails without available providers.
+     */
+    @Test
+    public void testNoProviders() throws Exception {
+        final ProviderCluster cluster = new ProviderCluster("bootstrapNone", 2);
+
+        try {
+            cluster.start();
+            final RegistryBroker broker = cluster.broker();
+            final RegistryClient remote = broker.getProvider(1);
+            remote.setAvailable(false);
+
+            final Bootstrap bootstrap = new Bootstrap(
+                    broker, broker.getProvider(0), new RegistryClient[] {remote},
+                    this.executor, 2, false);
+
+            Assert.assertFalse(bootstrap.run());
+        } finally {
+            cluster.cleanup();
+        }
+    }
+
+    /**
+     * Test if only the tickets placed on the local provider
+     * are kept when partitioned.
+     */
+    @Test
+    public void testLocalTickets() throws Exception {
+        final int nTickets = 20;
+        final ProviderCluster cluster = new ProviderCluster("bootstrapLocal", 2);
+
+        try {
+            cluster.start();
+            final RegistryBroker broker = cluster.broker();
+            final RegistryClient local = broker.getProvider(0);
+            broker.setReplicas(1);
+
+            final JSONArray ticketIds = new JSONArray();
+            final JSONArray parentIds = new JSONArray();
+            final JSONArray tickets = new JSONArray();
+            int placed = 0;
+
+            for (int i = 0; i < nTickets; ++i) {
+                String ticketId = "ST-1234567890ABCDEFGHIJKL-bootstrapLocal-" + i;
+
+                ticketIds.put(ticketId);
+                parentIds.put("");
+                tickets.put(i);
+                if (broker.isPlaced(ticketId, null, local)) {
+                    placed++;
+                }
+            }
+
+            final Bootstrap bootstrap = new Bootstrap(
+                    broker, local, new RegistryClient[] {broker.getProvider(1)},
+                    this.executor, 2, true);
+            final TicketPage page = bootstrap.getLocalTickets(new TicketPage(
+                    TicketCodecs.SERIALIZATION, ticketIds, parentIds, new JSONArray(), tickets, "next"));
+
+            Assert.assertEquals(placed, page.size());
+            Assert.assertEquals("next", page.getCursor());
+            for (int i = 0; i < page.size(); ++i) {
+                Assert.assertTrue(broker.isPlaced(page.getTicketIds().getString(i), null, local));
+            }
+        } finally {
+            cluster.cleanup();
+        }
+    }
+}
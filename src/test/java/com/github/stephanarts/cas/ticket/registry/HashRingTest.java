@@ -0,0 +1,98 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry;
+
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit test for HashRing.
+ */
+@RunWith(JUnit4.class)
+public class HashRingTest
+{
+    /**
+     * Test if keys are placed on distinct providers.
+     */
+    @Test
+    public void testOwners() throws Exception {
+        HashRing ring = new HashRing(new String[] {"a", "b", "c", "d"});
+
+        Assert.assertEquals(4, ring.size());
+
+        for (int i = 0; i < 100; ++i) {
+            List<Integer> owners = ring.getOwners("TGT-" + i, 3);
+            Assert.assertEquals(3, owners.size());
+            Assert.assertEquals(3, new HashSet<Integer>(owners).size());
+            Assert.assertEquals(owners, ring.getOwners("TGT-" + i, 3));
+        }
+
+        Assert.assertEquals(4, ring.getOwners("TGT-0", 10).size());
+    }
+
+    /**
+     * Test if keys are spread over the providers.
+     */
+    @Test
+    public void testBalance() throws Exception {
+        HashRing ring = new HashRing(new String[] {"a", "b", "c", "d"});
+        int[] counts = new int[4];
+        final int nKeys = 10000;
+
+        for (int i = 0; i < nKeys; ++i) {
+            counts[ring.getOwners("ST-" + i + "-cas01", 1).get(0)]++;
+        }
+
+        for (int count: counts) {
+            Assert.assertTrue(count > nKeys / 8);
+            Assert.assertTrue(count < nKeys / 2);
+        }
+    }
+
+    /**
+     * Test if adding a provider only moves keys to that provider.
+     */
+    @Test
+    public void testAddProvider() throws Exception {
+        HashRing before = new HashRing(new String[] {"a", "b", "c", null});
+        HashRing after = new HashRing(new String[] {"a", "b", "c", "d"});
+
+        Assert.assertEquals(3, before.size());
+
+        for (int i = 0; i < 1000; ++i) {
+            int owner = after.getOwners("ST-" + i, 1).get(0);
+            if (owner != 3) {
+                Assert.assertEquals(before.getOwners("ST-" + i, 1).get(0).intValue(), owner);
+            }
+        }
+    }
+
+    /**
+     * Test an empty ring.
+     */
+    @Test
+    public void testEmpty() throws Exception {
+        HashRing ring = new HashRing(new String[] {null});
+
+        Assert.assertEquals(0, ring.size());
+        Assert.assertTrue(ring.getOwners("ST-1", 2).isEmpty());
+    }
+}
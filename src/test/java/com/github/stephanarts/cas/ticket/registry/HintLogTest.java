@@ -0,0 +1,165 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry;
+
+import java.io.File;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.jasig.cas.ticket.ServiceTicket;
+
+import com.github.stephanarts.cas.ticket.registry.provider.ZMQProvider;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Unit test for HintLog.
+ */
+@RunWith(JUnit4.class)
+public class HintLogTest
+{
+    private ServiceTicket createTicket(final String ticketId) {
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+        when(ticket.getId()).thenReturn(ticketId);
+        return ticket;
+    }
+
+    private File createFile() throws Exception {
+        final File file = File.createTempFile("hints", ".log");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private void awaitPending(final HintLog log, final int pending) throws Exception {
+        for (int i = 0; i < 100 && log.getPending() != pending; ++i) {
+            Thread.sleep(50);
+        }
+    }
+
+    /**
+     * Test if logged writes are replayed once the provider is available.
+     */
+    @Test
+    public void testReplay() throws Exception {
+        ZMQProvider provider = new ZMQProvider("tcp://localhost:4481", "hints-1");
+        provider.start();
+
+        RegistryClient client = new RegistryClient("tcp://localhost:4481");
+        client.setAvailable(false);
+
+        HintLog log = new HintLog(null, client, this.createFile(), 65536);
+        log.start();
+
+        log.update(createTicket("ST-1234567890ABCDEFGHIJKL-hint-1"), TicketCodecs.DEFLATE);
+        log.update(createTicket("ST-1234567890ABCDEFGHIJKL-hint-2"), TicketCodecs.SERIALIZATION);
+        log.update(createTicket("ST-1234567890ABCDEFGHIJKL-hint-3"), TicketCodecs.DEFLATE);
+        log.delete("ST-1234567890ABCDEFGHIJKL-hint-3", false);
+
+        Thread.sleep(200);
+        final int pending = log.getPending();
+        final int before = provider.getSize();
+
+        client.setAvailable(true);
+        this.awaitPending(log, 0);
+
+        final int after = provider.getSize();
+        final int replayed = log.getPending();
+
+        log.cleanup();
+        client.destroy();
+        provider.cleanup();
+
+        Assert.assertEquals(4, pending);
+        Assert.assertEquals(0, before);
+        Assert.assertEquals(0, replayed);
+        Assert.assertEquals(2, after);
+    }
+
+    /**
+     * Test if logged writes survive reopening the log.
+     */
+    @Test
+    public void testReopen() throws Exception {
+        final File file = this.createFile();
+        RegistryClient client = new RegistryClient("tcp://localhost:4482");
+
+        HintLog log = new HintLog(null, client, file, 65536);
+        log.update(createTicket("ST-1234567890ABCDEFGHIJKL-reopen-1"), TicketCodecs.DEFLATE);
+        log.delete("ST-1234567890ABCDEFGHIJKL-reopen-2", true);
+        log.cleanup();
+
+        HintLog reopened = new HintLog(null, client, file, 65536);
+        final int pending = reopened.getPending();
+        reopened.cleanup();
+        client.destroy();
+
+        Assert.assertEquals(2, pending);
+    }
+
+    /**
+     * Test if a full log falls back to a resync of the provider.
+     */
+    @Test
+    public void testOverflow() throws Exception {
+        final int nTickets = 200;
+        String[] addresses = {"tcp://localhost:4483", "tcp://localhost:4484"};
+
+        ZMQProvider provider0 = new ZMQProvider(addresses[0], "overflow-1");
+        ZMQProvider provider1 = new ZMQProvider(addresses[1], "overflow-2");
+        provider0.start();
+        provider1.start();
+
+        RegistryBroker broker = new RegistryBroker(addresses, 1500, null, "overflow-1");
+        RegistryClient local = new RegistryClient(addresses[0]);
+        RegistryClient remote = new RegistryClient(addresses[1]);
+        remote.setAvailable(false);
+
+        HintLog log = new HintLog(broker, remote, this.createFile(), HintLog.MIN_SIZE);
+        log.start();
+
+        /* Missed by the remote provider, more than the log holds */
+        for (int i = 0; i < nTickets; ++i) {
+            final ServiceTicket ticket = createTicket("ST-1234567890ABCDEFGHIJKL-overflow-" + i);
+            local.addTicket(ticket);
+            log.update(ticket, TicketCodecs.SERIALIZATION);
+        }
+
+        final boolean overflowed = log.getOverflowed();
+
+        remote.setAvailable(true);
+        for (int i = 0; i < 100 && log.getOverflowed(); ++i) {
+            Thread.sleep(50);
+        }
+
+        final int size = provider1.getSize();
+
+        log.cleanup();
+        local.destroy();
+        remote.destroy();
+        broker.cleanup();
+        provider0.cleanup();
+        provider1.cleanup();
+
+        Assert.assertTrue(overflowed);
+        Assert.assertEquals(nTickets, size);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for PlacementPolicy.
+ */
+@RunWith(JUnit4.class)
+public class PlacementPolicyTest
+{
+    @Test
+    public void testGetKey() throws Exception {
+        final TicketGrantingTicket tgt = mock(TicketGrantingTicket.class);
+        final TicketGrantingTicket pgt = mock(TicketGrantingTicket.class);
+        final ServiceTicket pt = mock(ServiceTicket.class);
+
+        when(tgt.getId()).thenReturn("TGT-1");
+        when(pgt.getId()).thenReturn("TGT-2");
+        when(pgt.getGrantingTicket()).thenReturn(tgt);
+        when(pt.getId()).thenReturn("ST-1");
+        when(pt.getGrantingTicket()).thenReturn(pgt);
+
+        Assert.assertEquals("ST-1", PlacementPolicy.TICKET.getKey(pt));
+        Assert.assertEquals("TGT-1", PlacementPolicy.TGT.getKey(pt));
+        Assert.assertEquals("TGT-1", PlacementPolicy.TGT.getKey(pgt));
+        Assert.assertEquals("TGT-1", PlacementPolicy.TGT.getKey(tgt));
+    }
+
+    @Test
+    public void testGetKeyById() throws Exception {
+        Assert.assertEquals("ST-1", PlacementPolicy.TICKET.getKey("ST-1"));
+        Assert.assertEquals("TGT-1", PlacementPolicy.TGT.getKey("TGT-1"));
+        Assert.assertNull(PlacementPolicy.TGT.getKey("ST-1"));
+    }
+}
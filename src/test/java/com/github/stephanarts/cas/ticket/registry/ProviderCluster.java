@@ -0,0 +1,185 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.stephanarts.cas.ticket.registry.provider.ZMQProvider;
+import com.github.stephanarts.cas.ticket.registry.support.Fixtures;
+
+/**
+ * ZMQProviders on free ports, with a RegistryBroker
+ * for the first provider.
+ *
+ * Providers are named after the cluster: name-1, name-2, ...
+ */
+final class ProviderCluster {
+
+    /**
+     * Addresses of the providers.
+     */
+    private final String[] addresses;
+
+    /**
+     * The providers.
+     */
+    private final ZMQProvider[] providers;
+
+    /**
+     * Clients created by client().
+     */
+    private final List<RegistryClient> clients = new ArrayList<RegistryClient>();
+
+    /**
+     * Broker of the first provider.
+     */
+    private RegistryBroker broker;
+
+    /**
+     * Create the providers, without starting them.
+     *
+     * @param name  prefix of the provider-ids.
+     * @param size  number of providers.
+     *
+     * @throws Exception when no free port is available.
+     */
+    ProviderCluster(final String name, final int size) throws Exception {
+        this.addresses = Fixtures.freeAddresses(size);
+        this.providers = new ZMQProvider[size];
+
+        for (int i = 0; i < size; ++i) {
+            this.providers[i] = new ZMQProvider(this.addresses[i], name + "-" + (i + 1));
+        }
+    }
+
+    /**
+     * Return the provider addresses.
+     *
+     * @return addresses.
+     */
+    String[] getAddresses() {
+        return this.addresses;
+    }
+
+    /**
+     * Return a provider.
+     *
+     * @param index  index of the provider.
+     *
+     * @return provider.
+     */
+    ZMQProvider getProvider(final int index) {
+        return this.providers[index];
+    }
+
+    /**
+     * Start all providers that are not running.
+     */
+    void start() {
+        for (int i = 0; i < this.providers.length; ++i) {
+            this.start(i);
+        }
+    }
+
+    /**
+     * Start a provider, unless it is running.
+     *
+     * @param index  index of the provider.
+     */
+    void start(final int index) {
+        if (!this.providers[index].isAlive()) {
+            this.providers[index].start();
+        }
+    }
+
+    /**
+     * Stop a provider, and replace it by a new one on the same address.
+     *
+     * The broker is stopped first, as it would be when its host restarts.
+     * The new provider is not started, so it can be configured first.
+     *
+     * @param index       index of the provider.
+     * @param providerId  provider-id of the new provider.
+     *
+     * @return the new provider.
+     */
+    ZMQProvider replace(final int index, final String providerId) {
+        if (this.broker != null) {
+            this.broker.cleanup();
+            this.broker = null;
+        }
+        if (this.providers[index].isAlive()) {
+            this.providers[index].cleanup();
+        }
+        this.providers[index] = new ZMQProvider(this.addresses[index], providerId);
+        return this.providers[index];
+    }
+
+    /**
+     * Create a RegistryBroker for the first provider,
+     * replacing the previous one.
+     *
+     * Only one RegistryBroker can be registered at a time.
+     *
+     * @return the broker.
+     *
+     * @throws Exception when the broker can't be created.
+     */
+    RegistryBroker broker() throws Exception {
+        if (this.broker != null) {
+            this.broker.cleanup();
+        }
+        this.broker = new RegistryBroker(
+            this.addresses,
+            1500,
+            null,
+            this.providers[0].getProviderId());
+        return this.broker;
+    }
+
+    /**
+     * Create a client for a provider.
+     *
+     * @param index  index of the provider.
+     *
+     * @return client.
+     */
+    RegistryClient client(final int index) {
+        RegistryClient client = new RegistryClient(this.addresses[index]);
+        this.clients.add(client);
+        return client;
+    }
+
+    /**
+     * Stop the broker, the clients and the running providers.
+     */
+    void cleanup() {
+        if (this.broker != null) {
+            this.broker.cleanup();
+            this.broker = null;
+        }
+        for (RegistryClient client: this.clients) {
+            client.destroy();
+        }
+        this.clients.clear();
+        for (int i = 0; i < this.providers.length; ++i) {
+            if (this.providers[i].isAlive()) {
+                this.providers[i].cleanup();
+            }
+        }
+    }
+}
@@ -15,17 +15,27 @@
 
 package com.github.stephanarts.cas.ticket.registry;
 
+import java.io.File;
+import java.util.Arrays;
+
 import org.junit.Test;
 import org.junit.Ignore;
 import org.junit.Assert;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import org.json.JSONObject;
+
 import org.jasig.cas.ticket.Ticket;
 import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
 
 import com.github.stephanarts.cas.ticket.registry.provider.ZMQProvider;
 import com.github.stephanarts.cas.ticket.registry.BootstrapException;
+import com.github.stephanarts.cas.ticket.registry.support.Fixtures;
+import com.github.stephanarts.cas.ticket.registry.support.IMethod;
+import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.JSONRPCServer;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -193,6 +203,634 @@ public class RegistryBrokerTest
         Assert.assertEquals(ticketId2, ticketFromRegistry2.getId());
     }
 
+    /**
+     * Create a serializable ServiceTicket.
+     *
+     * @param ticketId  id of the ticket.
+     *
+     * @return the ticket.
+     */
+    private static ServiceTicket serviceTicket(final String ticketId) {
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+        when(ticket.getId()).thenReturn(ticketId);
+        return ticket;
+    }
+
+    /**
+     * Test if bootstrapping copies all tickets when they
+     * span multiple pages.
+     */
+    @Test
+    public void testBootstrapPaged() throws Exception {
+        final int nTickets = 7;
+        final ProviderCluster cluster = new ProviderCluster("paged", 2);
+
+        try {
+            cluster.start();
+            RegistryClient populator = cluster.client(1);
+            for (int i = 0; i < nTickets; ++i) {
+                populator.addTicket(serviceTicket("ST-1234567890ABCDEFGHIJKL-paged" + i));
+            }
+
+            RegistryBroker broker = cluster.broker();
+            broker.setBootstrapPageSize(3);
+            broker.bootstrap();
+
+            Assert.assertEquals(nTickets, cluster.getProvider(0).getSize());
+            Assert.assertNotNull(broker.getTicket("ST-1234567890ABCDEFGHIJKL-paged0"));
+        } finally {
+            cluster.cleanup();
+        }
+    }
+
+    /**
+     * Test if reads bypass JSON-RPC with an in-process provider,
+     * and return a copy of the stored ticket.
+     */
+    @Test
+    public void testInProcessRead() throws Exception {
+        final String ticketId = "ST-1234567890ABCDEFGHIJKL-inproc";
+        final ProviderCluster cluster = new ProviderCluster("inProcess", 1);
+
+        try {
+            cluster.start();
+            ZMQProvider provider = cluster.getProvider(0);
+            RegistryBroker broker = cluster.broker();
+            broker.setInProcessProvider(provider);
+
+            broker.addTicket(serviceTicket(ticketId));
+
+            final Ticket ticket1 = broker.getTicket(ticketId);
+            final Ticket ticket2 = broker.getTicket(ticketId);
+
+            Assert.assertNotNull(ticket1);
+            Assert.assertEquals(ticketId, ticket1.getId());
+            Assert.assertNotSame(ticket1, ticket2);
+            Assert.assertNull(broker.getTicket("ST-missing"));
+            Assert.assertEquals(1, broker.getTickets().size());
+            Assert.assertTrue(provider.getStats("cas.getTicket") <= 0);
+        } finally {
+            cluster.cleanup();
+        }
+    }
+
+    /**
+     * Test if only the local provider is accepted for in-process reads.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInProcessReadOtherProvider() throws Exception {
+        final ProviderCluster cluster = new ProviderCluster("inProcessOther", 1);
+        final ZMQProvider other = new ZMQProvider(Fixtures.freeAddress(), "inProcessOther-2");
+
+        try {
+            cluster.start();
+            cluster.broker().setInProcessProvider(other);
+        } finally {
+            cluster.cleanup();
+        }
+    }
+
+    /**
+     * Test if a ticket missing from the local provider
+     * is read from a remote provider.
+     */
+    @Test
+    public void testReadFallback() throws Exception {
+        final String ticketId = "ST-1234567890ABCDEFGHIJKL-fallback";
+        final ProviderCluster cluster = new ProviderCluster("fallback", 2);
+
+        try {
+            cluster.start();
+            cluster.client(1).addTicket(serviceTicket(ticketId));
+
+            RegistryBroker broker = cluster.broker();
+            broker.setInProcessProvider(cluster.getProvider(0));
+
+            final Ticket ticketFromRegistry = broker.getTicket(ticketId);
+
+            Assert.assertNotNull(ticketFromRegistry);
+            Assert.assertEquals(ticketId, ticketFromRegistry.getId());
+            Assert.assertNull(broker.getTicket("ST-missing"));
+        } finally {
+            cluster.cleanup();
+        }
+    }
+
+    /**
+     * Test if a ticket deleted on the local provider is not read
+     * from a remote provider that still has a stale copy.
+     */
+    @Test
+    public void testReadDeleted() throws Exception {
+        final String ticketId = "ST-1234567890ABCDEFGHIJKL-deleted";
+        final ProviderCluster cluster = new ProviderCluster("deleted", 2);
+
+        try {
+            cluster.start();
+
+            /* The delete did not reach the remote provider yet */
+            RegistryClient local = cluster.client(0);
+            local.addTicket(serviceTicket(ticketId));
+            local.deleteTicket(ticketId);
+            cluster.client(1).addTicket(serviceTicket(ticketId));
+
+            /* Read over JSON-RPC */
+            RegistryBroker broker = cluster.broker();
+            Assert.assertNull(broker.getTicket(ticketId));
+
+            /* Read in-process */
+            broker.setInProcessProvider(cluster.getProvider(0));
+            Assert.assertNull(broker.getTicket(ticketId));
+
+            Assert.assertEquals(1, cluster.getProvider(1).getSize());
+            Assert.assertTrue(cluster.getProvider(0).isDeleted(ticketId));
+        } finally {
+            cluster.cleanup();
+        }
+    }
+
+    /**
+     * Test if a read is hedged to a remote provider
+     * when the local provider is slow.
+     */
+    @Test
+    public void testReadHedge() throws Exception {
+        final String ticketId = "ST-1234567890ABCDEFGHIJKL-hedge";
+        final ProviderCluster cluster = new ProviderCluster("hedge", 2);
+
+        /* Takes the place of the first provider */
+        JSONRPCServer slowProvider = new JSONRPCServer(cluster.getAddresses()[0]);
+        slowProvider.registerMethod("cas.getProviderId", new IMethod() {
+            public JSONObject execute(final JSONObject params) {
+                return new JSONObject().put("provider-id", "hedge-1");
+            }
+        });
+        slowProvider.registerMethod("cas.getTicket", new IMethod() {
+            public JSONObject execute(final JSONObject params) throws Exception {
+                Thread.sleep(1000);
+                throw new JSONRPCException(-32503, "Missing Ticket");
+            }
+        });
+
+        slowProvider.start();
+        try {
+            cluster.start(1);
+            cluster.client(1).addTicket(serviceTicket(ticketId));
+
+            RegistryBroker broker = cluster.broker();
+
+            final long start = System.currentTimeMillis();
+            final Ticket ticketFromRegistry = broker.getTicket(ticketId);
+            final long duration = System.currentTimeMillis() - start;
+
+            Assert.assertNotNull(ticketFromRegistry);
+            Assert.assertTrue("Read took " + duration + "ms", duration < 800);
+        } finally {
+            cluster.cleanup();
+            slowProvider.cleanup();
+        }
+    }
+
+    /**
+     * Test if writes reach the remote provider with
+     * asynchronous replication.
+     */
+    @Test
+    public void testAsyncReplication() throws Exception {
+        final ServiceTicket ticket = serviceTicket("ST-1234567890ABCDEFGHIJKL-async");
+        final ProviderCluster cluster = new ProviderCluster("async", 2);
+
+        try {
+            cluster.start();
+            RegistryBroker broker = cluster.broker();
+
+            broker.setAsyncReplication(true);
+
+            broker.addTicket(ticket);
+            final int localSize = cluster.getProvider(0).getSize();
+            for (int i = 0; i < 10; ++i) {
+                broker.updateTicket(ticket);
+            }
+            broker.deleteTicket("ST-1234567890ABCDEFGHIJKL-missing");
+
+            /* Flushes the queues */
+            broker.setAsyncReplication(false);
+
+            Assert.assertEquals(1, localSize);
+            Assert.assertEquals(1, cluster.getProvider(1).getSize());
+            Assert.assertTrue(cluster.getProvider(1).getStats("cas.updateTicket") <= 0);
+        } finally {
+            cluster.cleanup();
+        }
+    }
+
+    /**
+     * Test if tickets are placed on the configured number of providers.
+     */
+    @Test
+    public void testPartitioned() throws Exception {
+        final int nTickets = 30;
+        final ProviderCluster cluster = new ProviderCluster("part", 3);
+
+        try {
+            cluster.start();
+            RegistryBroker broker = cluster.broker();
+            broker.setReplicas(2);
+
+            for (int i = 0; i < nTickets; ++i) {
+                broker.addTicket(serviceTicket("ST-1234567890ABCDEFGHIJKL-part-" + i));
+            }
+
+            final int[] sizes = getSizes(cluster, 3);
+
+            int found = 0;
+            for (int i = 0; i < nTickets; ++i) {
+                if (broker.getTicket("ST-1234567890ABCDEFGHIJKL-part-" + i) != null) {
+                    found++;
+                }
+            }
+            final int all = broker.getTickets().size();
+
+            for (int i = 0; i < nTickets; ++i) {
+                broker.deleteTicket("ST-1234567890ABCDEFGHIJKL-part-" + i);
+            }
+
+            Assert.assertEquals(2, broker.getReplicas());
+            Assert.assertEquals(2 * nTickets, sizes[0] + sizes[1] + sizes[2]);
+            for (int size: sizes) {
+                Assert.assertTrue(size < nTickets);
+            }
+            Assert.assertEquals(nTickets, found);
+            Assert.assertEquals(nTickets, all);
+            Assert.assertArrayEquals(new int[] {0, 0, 0}, getSizes(cluster, 3));
+        } finally {
+            cluster.cleanup();
+        }
+    }
+
+    /**
+     * Test if tickets are placed on the same providers after a
+     * provider restarted with a new provider-id.
+     */
+    @Test
+    public void testPartitionedRestart() throws Exception {
+        final int nTickets = 30;
+        final ProviderCluster cluster = new ProviderCluster("restart", 3);
+
+        try {
+            cluster.start();
+            RegistryBroker broker = cluster.broker();
+            broker.setReplicas(1);
+
+            for (int i = 0; i < nTickets; ++i) {
+                broker.addTicket(serviceTicket("ST-1234567890ABCDEFGHIJKL-restart-" + i));
+            }
+            final int[] before = getSizes(cluster, 3);
+
+            /* Provider-ids are generated on every start */
+            cluster.replace(1, "restart-2-new");
+            cluster.start();
+
+            broker = cluster.broker();
+            broker.setReplicas(1);
+
+            for (int i = 0; i < nTickets; ++i) {
+                broker.updateTicket(serviceTicket("ST-1234567890ABCDEFGHIJKL-restart-" + i));
+            }
+
+            /* Same owners: the restarted provider gets its tickets back, the others none */
+            Assert.assertEquals(nTickets, before[0] + before[1] + before[2]);
+            Assert.assertArrayEquals(before, getSizes(cluster, 3));
+        } finally {
+            cluster.cleanup();
+        }
+    }
+
+    /**
+     * Test if a hint log left by a previous run is replayed
+     * after a restart of the local provider.
+     */
+    @Test
+    public void testHintLogRestart() throws Exception {
+        final File directory = File.createTempFile("hints", "");
+        final ProviderCluster cluster = new ProviderCluster("hintrestart", 2);
+
+        directory.delete();
+        directory.mkdir();
+
+        try {
+            cluster.start();
+            RegistryBroker broker = cluster.broker();
+            broker.setHintLogDirectory(directory.getPath());
+            broker.setHintLogSize(HintLog.MIN_SIZE);
+
+            /* Missed by the remote provider */
+            broker.getProvider(1).setAvailable(false);
+            broker.addTicket(serviceTicket("ST-1234567890ABCDEFGHIJKL-hintrestart"));
+
+            Assert.assertEquals(1, broker.getHintBacklog());
+            Assert.assertEquals(0, cluster.getProvider(1).getSize());
+
+            /* Provider-ids are generated on every start */
+            cluster.replace(0, "hintrestart-1-new");
+            cluster.start();
+
+            broker = cluster.broker();
+            broker.setHintLogDirectory(directory.getPath());
+            broker.setHintLogSize(HintLog.MIN_SIZE);
+
+            final ZMQProvider remote = cluster.getProvider(1);
+            Assert.assertTrue("Hint not replayed", Fixtures.await(new Fixtures.Condition() {
+                public boolean holds() {
+                    return remote.getSize() == 1;
+                }
+            }, 5000));
+            Assert.assertEquals(2, directory.list().length);
+        } finally {
+            cluster.cleanup();
+
+            for (File file: directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    /**
+     * Test if service tickets are placed with their TGT,
+     * and deleted with it.
+     */
+    @Test
+    public void testPlacementTGT() throws Exception {
+        final int nTickets = 10;
+        final TicketGrantingTicket tgt = mock(TicketGrantingTicket.class, withSettings().serializable());
+        when(tgt.getId()).thenReturn("TGT-1234567890ABCDEFGHIJKL-affinity");
+        final ProviderCluster cluster = new ProviderCluster("affinity", 3);
+
+        try {
+            cluster.start();
+            RegistryBroker broker = cluster.broker();
+            broker.setReplicas(1);
+            broker.setPlacementPolicy(PlacementPolicy.TGT);
+
+            broker.addTicket(tgt);
+            for (int i = 0; i < nTickets; ++i) {
+                final ServiceTicket ticket = serviceTicket("ST-1234567890ABCDEFGHIJKL-affinity-" + i);
+                when(ticket.getGrantingTicket()).thenReturn(tgt);
+                broker.addTicket(ticket);
+            }
+
+            final int[] sizes = getSizes(cluster, 3);
+
+            /* Forget the placement, found by asking all providers */
+            broker.setPlacementPolicy(PlacementPolicy.TGT);
+            final Ticket found = broker.getTicket("ST-1234567890ABCDEFGHIJKL-affinity-0");
+
+            broker.deleteTicket("TGT-1234567890ABCDEFGHIJKL-affinity");
+
+            Arrays.sort(sizes);
+            Assert.assertArrayEquals(new int[] {0, 0, nTickets + 1}, sizes);
+            Assert.assertNotNull(found);
+            Assert.assertEquals("TGT", broker.getPlacementPolicy());
+            Assert.assertArrayEquals(new int[] {0, 0, 0}, getSizes(cluster, 3));
+        } finally {
+            cluster.cleanup();
+        }
+    }
+
+    /**
+     * Test if a resync copies only the tickets the local provider missed.
+     */
+    @Test
+    public void testResync() throws Exception {
+        final int nTickets = 20;
+        final ServiceTicket updated = serviceTicket("ST-1234567890ABCDEFGHIJKL-resync-shared");
+        when(updated.getCountOfUses()).thenReturn(2);
+        final ProviderCluster cluster = new ProviderCluster("resync", 2);
+
+        try {
+            cluster.start();
+            RegistryClient remote = cluster.client(1);
+            RegistryBroker broker = cluster.broker();
+
+            broker.addTicket(serviceTicket("ST-1234567890ABCDEFGHIJKL-resync-shared"));
+            broker.addTicket(serviceTicket("ST-1234567890ABCDEFGHIJKL-resync-deleted"));
+
+            /* Written while the local provider was cut off */
+            for (int i = 0; i < nTickets; ++i) {
+                remote.addTicket(serviceTicket("ST-1234567890ABCDEFGHIJKL-resync-" + i));
+            }
+            remote.updateTicket(updated);
+            remote.deleteTicket("ST-1234567890ABCDEFGHIJKL-resync-deleted");
+
+            final ZMQProvider local = cluster.getProvider(0);
+
+            Assert.assertEquals(nTickets + 2, broker.resync());
+            Assert.assertEquals(nTickets + 1, local.getSize());
+            Assert.assertEquals(cluster.getProvider(1).getSize(), local.getSize());
+            Assert.assertEquals(2, local.readTicket("ST-1234567890ABCDEFGHIJKL-resync-shared").getCountOfUses());
+            Assert.assertEquals(0, broker.resync());
+
+            broker.setAntiEntropyInterval(60000);
+            Assert.assertEquals(60000, broker.getAntiEntropyInterval());
+            broker.setAntiEntropyInterval(0);
+            Assert.assertEquals(0, broker.getAntiEntropyInterval());
+        } finally {
+            cluster.cleanup();
+        }
+    }
+
+    /**
+     * Test if a provider restarted from a snapshot
+     * only copies the changed tickets.
+     */
+    @Test
+    public void testBootstrapSnapshot() throws Exception {
+        final int nTickets = 20;
+        final File dir = File.createTempFile("snapshot", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+
+        final ServiceTicket updated = serviceTicket("ST-1234567890ABCDEFGHIJKL-snapshot-0");
+        when(updated.getCountOfUses()).thenReturn(2);
+        final ProviderCluster cluster = new ProviderCluster("snapshot", 2);
+
+        try {
+            cluster.getProvider(0).openSnapshot(dir.getPath());
+            cluster.start();
+
+            RegistryBroker broker = cluster.broker();
+            for (int i = 0; i < nTickets; ++i) {
+                broker.addTicket(serviceTicket("ST-1234567890ABCDEFGHIJKL-snapshot-" + i));
+            }
+
+            /* Written while the local provider was down */
+            ZMQProvider restarted = cluster.replace(0, "snapshot-1");
+            RegistryClient remote = cluster.client(1);
+            remote.addTicket(serviceTicket("ST-1234567890ABCDEFGHIJKL-snapshot-added"));
+            remote.updateTicket(updated);
+            remote.deleteTicket("ST-1234567890ABCDEFGHIJKL-snapshot-1");
+
+            final int loaded = restarted.openSnapshot(dir.getPath());
+            cluster.start();
+
+            broker = cluster.broker();
+            broker.setInProcessProvider(restarted);
+            broker.bootstrap();
+
+            Assert.assertEquals(nTickets, loaded);
+            Assert.assertEquals(nTickets, restarted.getSize());
+            Assert.assertEquals(2, restarted.readTicket("ST-1234567890ABCDEFGHIJKL-snapshot-0").getCountOfUses());
+            Assert.assertTrue(new File(restarted.getSnapshotFile()).exists());
+            Assert.assertEquals(0, cluster.getProvider(1).getStats("cas.getTicketsPage"));
+        } finally {
+            cluster.cleanup();
+        }
+    }
+
+    /**
+     * Test if the local provider is bootstrapped
+     * from all providers in parallel.
+     */
+    @Test
+    public void testBootstrapParallel() throws Exception {
+        final int nTickets = 200;
+        final ProviderCluster cluster = new ProviderCluster("parallel", 3);
+
+        try {
+            cluster.start();
+            RegistryClient remote1 = cluster.client(1);
+            RegistryClient remote2 = cluster.client(2);
+
+            for (int i = 0; i < nTickets; ++i) {
+                final ServiceTicket ticket = serviceTicket("ST-1234567890ABCDEFGHIJKL-parallel-" + i);
+                remote1.addTicket(ticket);
+                remote2.addTicket(ticket);
+            }
+
+            cluster.broker().bootstrap();
+
+            Assert.assertEquals(nTickets, cluster.getProvider(0).getSize());
+            Assert.assertTrue(cluster.getProvider(1).getStats("cas.getTicketsById") > 0);
+            Assert.assertTrue(cluster.getProvider(2).getStats("cas.getTicketsById") > 0);
+        } finally {
+            cluster.cleanup();
+        }
+    }
+
+    /**
+     * Test if writes are replicated through the change streams.
+     */
+    @Test
+    public void testPushReplication() throws Exception {
+        final ServiceTicket ticket = serviceTicket("ST-1234567890ABCDEFGHIJKL-push");
+        final ProviderCluster cluster = new ProviderCluster("push", 2);
+        final String[] publishers = Fixtures.freeAddresses(2);
+
+        try {
+            cluster.start();
+            final ZMQProvider remote = cluster.getProvider(1);
+            final RegistryBroker broker = cluster.broker();
+            broker.setInProcessProvider(cluster.getProvider(0));
+            broker.setPublishers(publishers);
+
+            /* As the broker of provider1 would */
+            remote.subscribe(publishers[0]);
+
+            /* Writes are dropped until the subscription is connected */
+            broker.addTicket(ticket);
+            Assert.assertTrue("Write not replicated", Fixtures.await(new Fixtures.Condition() {
+                public boolean holds() throws Exception {
+                    if (remote.getSize() == 1) {
+                        return true;
+                    }
+                    broker.updateTicket(ticket);
+                    return false;
+                }
+            }, 5000));
+            final long added = remote.getReplicated();
+
+            broker.deleteTicket("ST-1234567890ABCDEFGHIJKL-push");
+            Assert.assertTrue("Delete not replicated", Fixtures.await(new Fixtures.Condition() {
+                public boolean holds() {
+                    return remote.getSize() == 0;
+                }
+            }, 5000));
+
+            Assert.assertTrue(broker.getPushReplication());
+            Assert.assertEquals(0, remote.getStats("cas.addTicket"));
+            Assert.assertEquals(added + 1, remote.getReplicated());
+
+            broker.setPublishers(null);
+            Assert.assertFalse(broker.getPushReplication());
+        } finally {
+            cluster.cleanup();
+        }
+    }
+
+    /**
+     * Test if push writes are hinted for unavailable providers,
+     * and sent to the other providers when the local write fails.
+     */
+    @Test
+    public void testPushFallback() throws Exception {
+        final File directory = File.createTempFile("hints", "");
+        final ProviderCluster cluster = new ProviderCluster("pushFallback", 2);
+
+        directory.delete();
+        directory.mkdir();
+
+        try {
+            cluster.start();
+            final ZMQProvider remote = cluster.getProvider(1);
+            final RegistryBroker broker = cluster.broker();
+            broker.setInProcessProvider(cluster.getProvider(0));
+            broker.setPublishers(Fixtures.freeAddresses(2));
+
+            /* The local provider refuses the duplicate add */
+            cluster.client(0).addTicket(serviceTicket("ST-1234567890ABCDEFGHIJKL-pushFallback-1"));
+            broker.addTicket(serviceTicket("ST-1234567890ABCDEFGHIJKL-pushFallback-1"));
+            Assert.assertTrue("Write not sent to peer", Fixtures.await(new Fixtures.Condition() {
+                public boolean holds() {
+                    return remote.getSize() == 1;
+                }
+            }, 5000));
+            Assert.assertEquals(1, remote.getStats("cas.addTicket"));
+
+            /* Missed by the remote provider */
+            broker.setHintLogDirectory(directory.getPath());
+            broker.setHintLogSize(HintLog.MIN_SIZE);
+            broker.getProvider(1).setAvailable(false);
+            broker.addTicket(serviceTicket("ST-1234567890ABCDEFGHIJKL-pushFallback-2"));
+
+            Assert.assertEquals(1, broker.getHintBacklog());
+            Assert.assertEquals(1, remote.getSize());
+        } finally {
+            cluster.cleanup();
+
+            for (File file: directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    /**
+     * Test if an invalid number of replicas is refused.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidReplicas() throws Exception {
+        final ProviderCluster cluster = new ProviderCluster("replicas", 1);
+
+        try {
+            cluster.start();
+            cluster.broker().setReplicas(2);
+        } finally {
+            cluster.cleanup();
+        }
+    }
+
     /**
      * Test if a BootstrapException is thrown when bootstrapping
      * fails.
@@ -259,4 +897,71 @@ public class RegistryBrokerTest
 
         Assert.fail("Exception not thrown");
     }
+
+    /**
+     * Test if a LOCAL write returns without waiting
+     * for an unresponsive provider.
+     */
+    @Test
+    public void testWriteConsistencyLocal() throws Exception {
+        final String ticketId = "ST-1234567890ABCDEFGHIJKL-local";
+        final ProviderCluster cluster = new ProviderCluster("writeLocal", 2);
+
+        try {
+            /* The second provider is never started */
+            cluster.start(0);
+            RegistryBroker broker = cluster.broker();
+            broker.setWriteConsistency(WriteConsistency.LOCAL);
+
+            final long startTime = System.currentTimeMillis();
+            broker.addTicket(serviceTicket(ticketId));
+            final long duration = System.currentTimeMillis() - startTime;
+
+            Assert.assertEquals("LOCAL", broker.getWriteConsistency());
+            Assert.assertTrue("Write waited for unavailable provider", duration < 1000);
+            Assert.assertNotNull(cluster.client(0).getTicket(ticketId));
+        } finally {
+            cluster.cleanup();
+        }
+    }
+
+    /**
+     * Test if a QUORUM write reaches all providers.
+     */
+    @Test
+    public void testWriteConsistencyQuorum() throws Exception {
+        final String ticketId = "ST-1234567890ABCDEFGHIJKL-quorum";
+        final ProviderCluster cluster = new ProviderCluster("writeQuorum", 2);
+
+        try {
+            cluster.start();
+            RegistryBroker broker = cluster.broker();
+            broker.setWriteConsistency(WriteConsistency.QUORUM);
+
+            broker.addTicket(serviceTicket(ticketId));
+            Assert.assertNotNull(broker.getTicket(ticketId));
+            Assert.assertEquals(1, cluster.getProvider(1).getSize());
+
+            broker.deleteTicket(ticketId);
+            Assert.assertNull(broker.getTicket(ticketId));
+        } finally {
+            cluster.cleanup();
+        }
+    }
+
+    /**
+     * Return the number of tickets on each provider.
+     *
+     * @param cluster  the providers.
+     * @param size     number of providers.
+     *
+     * @return sizes.
+     */
+    private static int[] getSizes(final ProviderCluster cluster, final int size) {
+        final int[] sizes = new int[size];
+        for (int i = 0; i < size; ++i) {
+            sizes[i] = cluster.getProvider(i).getSize();
+        }
+        return sizes;
+    }
 }
@@ -21,11 +21,21 @@ import org.junit.Assert;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.json.JSONObject;
+
 import org.jasig.cas.ticket.Ticket;
 import org.jasig.cas.ticket.ServiceTicket;
 
 import com.github.stephanarts.cas.ticket.registry.RegistryClient;
 import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodec;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+import com.github.stephanarts.cas.ticket.registry.provider.OffHeapTicketStore;
 import com.github.stephanarts.cas.ticket.registry.provider.ZMQProvider;
 
 import static org.mockito.Mockito.mock;
@@ -141,4 +151,154 @@ public class RegistryClientTest
         provider.cleanup();
         client.destroy();
     }
+
+    /**
+     * Test if tickets survive a round-trip with each codec.
+     */
+    @Test
+    public void testTicketCodecs() throws Exception {
+        String[] addresses = {"tcp://localhost:4460"};
+        ZMQProvider provider = new ZMQProvider(addresses[0], "codec");
+        RegistryClient client = new RegistryClient(addresses[0]);
+        TicketCodec[] codecs = {TicketCodecs.SERIALIZATION, TicketCodecs.DEFLATE};
+
+        provider.start();
+
+        try {
+            JSONObject capabilities = client.getCapabilities();
+            Assert.assertTrue(capabilities.getBoolean("binary"));
+            Assert.assertEquals(2, capabilities.getJSONArray("codecs").length());
+
+            for (int i = 0; i < codecs.length; ++i) {
+                final String ticketId = "ST-1234567890ABCDEFGHIJKL-codec-" + i;
+                final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+                when(ticket.getId()).thenReturn(ticketId);
+
+                client.setTicketCodec(codecs[i]);
+                client.addTicket(ticket);
+                client.updateTicket(ticket);
+
+                Ticket t = client.getTicket(ticketId);
+                Assert.assertNotNull(t);
+                Assert.assertEquals(ticketId, t.getId());
+
+                Collection<Ticket> tickets = client.getTickets();
+                Assert.assertEquals(i + 1, tickets.size());
+            }
+        } finally {
+            provider.cleanup();
+            client.destroy();
+        }
+    }
+
+    /**
+     * Test if tickets survive a round-trip over the binary protocol.
+     */
+    @Test
+    public void testBinaryProtocol() throws Exception {
+        String[] addresses = {"tcp://localhost:4461"};
+        ZMQProvider provider = new ZMQProvider(addresses[0], "binary");
+        RegistryClient client = new RegistryClient(addresses[0]);
+        final String ticketId = "ST-1234567890ABCDEFGHIJKL-binary";
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+        when(ticket.getId()).thenReturn(ticketId);
+
+        provider.start();
+        client.setBinaryProtocol(true);
+
+        try {
+            JSONObject capabilities = client.getCapabilities();
+            Assert.assertEquals(5, capabilities.getJSONObject("opcodes").length());
+
+            client.addTicket(ticket);
+            client.updateTicket(ticket);
+
+            Ticket t = client.getTicket(ticketId);
+            Assert.assertNotNull(t);
+            Assert.assertEquals(ticketId, t.getId());
+            Assert.assertEquals(1, client.getTickets().size());
+
+            client.deleteTicket(ticketId);
+            Assert.assertEquals(0, client.getTickets().size());
+
+            try {
+                client.deleteTicket(ticketId);
+                Assert.fail("No Exception Thrown");
+            } catch (final JSONRPCException e) {
+                Assert.assertEquals(-32503, e.getCode());
+            }
+        } finally {
+            provider.cleanup();
+            client.destroy();
+        }
+    }
+
+    /**
+     * Test a provider keeping its tickets off-heap.
+     */
+    @Test
+    public void testOffHeapProvider() throws Exception {
+        String[] addresses = {"tcp://localhost:4462"};
+        ZMQProvider provider = new ZMQProvider(addresses[0], "offheap", new OffHeapTicketStore());
+        RegistryClient client = new RegistryClient(addresses[0]);
+        final String ticketId = "ST-1234567890ABCDEFGHIJKL-offheap";
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+        when(ticket.getId()).thenReturn(ticketId);
+
+        provider.start();
+
+        try {
+            client.addTicket(ticket);
+            client.updateTicket(ticket);
+
+            Ticket t = client.getTicket(ticketId);
+            Assert.assertNotNull(t);
+            Assert.assertEquals(ticketId, t.getId());
+            Assert.assertEquals(1, client.getTickets().size());
+            Assert.assertEquals(1, provider.getSize());
+
+            client.deleteTicket(ticketId);
+            Assert.assertEquals(0, provider.getSize());
+        } finally {
+            provider.cleanup();
+            client.destroy();
+        }
+    }
+
+    /**
+     * Test batch writes and reads.
+     */
+    @Test
+    public void testBatch() throws Exception {
+        String[] addresses = {"tcp://localhost:4471"};
+        ZMQProvider provider = new ZMQProvider(addresses[0], "batch");
+        RegistryClient client = new RegistryClient(addresses[0]);
+        List<Ticket> tickets = new ArrayList<Ticket>();
+
+        for (int i = 0; i < 3; ++i) {
+            final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+            when(ticket.getId()).thenReturn("ST-1234567890ABCDEFGHIJKL-batch-" + i);
+            tickets.add(ticket);
+        }
+
+        provider.start();
+
+        try {
+            Assert.assertTrue(client.getBatchSupported());
+
+            client.updateTickets(tickets.subList(0, 2));
+            client.writeTickets(tickets.subList(2, 3),
+                    Arrays.asList("ST-1234567890ABCDEFGHIJKL-batch-0"), false);
+            Assert.assertEquals(2, provider.getSize());
+
+            Collection<Ticket> found = client.getTicketsById(Arrays.asList(
+                    "ST-1234567890ABCDEFGHIJKL-batch-0",
+                    "ST-1234567890ABCDEFGHIJKL-batch-1",
+                    "ST-1234567890ABCDEFGHIJKL-batch-2"));
+            Assert.assertEquals(2, found.size());
+        } finally {
+            provider.cleanup();
+            client.destroy();
+        }
+    }
 }
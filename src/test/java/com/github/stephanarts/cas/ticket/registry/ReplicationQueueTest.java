@@ -0,0 +1,110 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.jasig.cas.ticket.ServiceTicket;
+
+import com.github.stephanarts.cas.ticket.registry.provider.ZMQProvider;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Unit test for ReplicationQueue.
+ */
+@RunWith(JUnit4.class)
+public class ReplicationQueueTest
+{
+    private ServiceTicket createTicket(final String ticketId) {
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+        when(ticket.getId()).thenReturn(ticketId);
+        return ticket;
+    }
+
+    /**
+     * Test if repeated writes to a ticket are sent once.
+     */
+    @Test
+    public void testCoalesce() throws Exception {
+        final ServiceTicket ticket = createTicket("ST-1234567890ABCDEFGHIJKL-coalesce");
+
+        ZMQProvider provider = new ZMQProvider("tcp://localhost:4466", "coalesce-1");
+        provider.start();
+
+        RegistryClient client = new RegistryClient("tcp://localhost:4466");
+        ReplicationQueue queue = new ReplicationQueue(client);
+
+        for (int i = 0; i < 100; ++i) {
+            queue.update(ticket);
+        }
+        queue.update(createTicket("ST-1234567890ABCDEFGHIJKL-other"));
+        queue.delete("ST-1234567890ABCDEFGHIJKL-other");
+
+        final int pending = queue.getPending();
+        final long coalesced = queue.getCoalesced();
+
+        queue.start();
+        queue.cleanup();
+
+        final int size = provider.getSize();
+        final long requests = queue.getRequests();
+
+        provider.cleanup();
+        client.destroy();
+
+        Assert.assertEquals(2, pending);
+        Assert.assertEquals(100, coalesced);
+        Assert.assertEquals(1, requests);
+        Assert.assertEquals(1, size);
+        Assert.assertEquals(0, queue.getPending());
+    }
+
+    /**
+     * Test if writes are split in batches of MAX_BATCH tickets.
+     */
+    @Test
+    public void testBatches() throws Exception {
+        final int nTickets = ReplicationQueue.MAX_BATCH + 1;
+
+        ZMQProvider provider = new ZMQProvider("tcp://localhost:4467", "batches-1");
+        provider.start();
+
+        RegistryClient client = new RegistryClient("tcp://localhost:4467");
+        ReplicationQueue queue = new ReplicationQueue(client);
+
+        for (int i = 0; i < nTickets; ++i) {
+            queue.update(createTicket("ST-1234567890ABCDEFGHIJKL-batch" + i));
+        }
+
+        queue.start();
+        queue.cleanup();
+
+        final int size = provider.getSize();
+        final long requests = queue.getRequests();
+
+        provider.cleanup();
+        client.destroy();
+
+        Assert.assertEquals(nTickets, size);
+        Assert.assertEquals(2, requests);
+    }
+}
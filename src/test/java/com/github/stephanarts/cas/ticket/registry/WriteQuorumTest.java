@@ -0,0 +1,81 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit test for WriteQuorum.
+ */
+@RunWith(JUnit4.class)
+public class WriteQuorumTest
+{
+    @Test
+    public void testQuorumReached() throws Exception {
+        WriteQuorum quorum = new WriteQuorum(2, 3);
+
+        quorum.ack();
+        quorum.nack();
+        quorum.ack();
+
+        Assert.assertTrue(quorum.await(100));
+    }
+
+    @Test
+    public void testQuorumUnreachable() throws Exception {
+        WriteQuorum quorum = new WriteQuorum(2, 3);
+
+        quorum.nack();
+        quorum.nack();
+
+        final long startTime = System.currentTimeMillis();
+        Assert.assertFalse(quorum.await(5000));
+        Assert.assertTrue(System.currentTimeMillis() - startTime < 1000);
+    }
+
+    @Test
+    public void testQuorumTimeout() throws Exception {
+        WriteQuorum quorum = new WriteQuorum(1, 1);
+
+        Assert.assertFalse(quorum.await(50));
+    }
+
+    @Test
+    public void testQuorumFromOtherThread() throws Exception {
+        final WriteQuorum quorum = new WriteQuorum(1, 1);
+
+        Thread t = new Thread() {
+            public void run() {
+                quorum.ack();
+            }
+        };
+        t.start();
+
+        Assert.assertTrue(quorum.await(5000));
+        t.join();
+    }
+
+    @Test
+    public void testRequiredAcks() throws Exception {
+        Assert.assertEquals(1, WriteConsistency.LOCAL.getRequiredAcks(5, 3));
+        Assert.assertEquals(3, WriteConsistency.QUORUM.getRequiredAcks(5, 3));
+        Assert.assertEquals(2, WriteConsistency.QUORUM.getRequiredAcks(2, 2));
+        Assert.assertEquals(3, WriteConsistency.ALL.getRequiredAcks(5, 3));
+    }
+}
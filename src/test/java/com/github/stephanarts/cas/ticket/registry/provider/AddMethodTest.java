@@ -15,8 +15,6 @@
 
 package com.github.stephanarts.cas.ticket.registry.provider;
 
-import java.util.HashMap;
-
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectOutputStream;
 
@@ -37,6 +35,7 @@ import org.jasig.cas.ticket.ServiceTicket;
 import com.github.stephanarts.cas.ticket.registry.provider.AddMethod;
 import com.github.stephanarts.cas.ticket.registry.support.IMethod;
 import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -51,7 +50,7 @@ public class AddMethodTest
     @Test
     public void testValidInput() throws Exception {
         final byte[] serializedTicket;
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new AddMethod(map);
 
@@ -79,7 +78,7 @@ public class AddMethodTest
 
     @Test
     public void testMissingParameters() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new AddMethod(map);
 
@@ -97,7 +96,7 @@ public class AddMethodTest
 
     @Test
     public void testInvalidParameters1() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new AddMethod(map);
 
@@ -120,7 +119,7 @@ public class AddMethodTest
 
     @Test
     public void testInvalidParameters2() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new AddMethod(map);
 
@@ -143,7 +142,7 @@ public class AddMethodTest
     @Test
     public void testDuplicateTicket() throws Exception {
         final byte[] serializedTicket;
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new AddMethod(map);
 
@@ -151,7 +150,7 @@ public class AddMethodTest
         final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
         when(ticket.getId()).thenReturn(ticketId);
 
-        map.put(ticketId.hashCode(), ticket);
+        map.put(new TicketEntry(ticketId, null, TicketCodecs.SERIALIZATION, TicketCodecs.SERIALIZATION.encode(ticket)));
 
         try {
             ByteArrayOutputStream bo = new ByteArrayOutputStream();
@@ -177,7 +176,7 @@ public class AddMethodTest
 
     @Test
     public void testDeserializationError() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new AddMethod(map);
 
@@ -0,0 +1,141 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import org.jasig.cas.ticket.ServiceTicket;
+
+import com.github.stephanarts.cas.ticket.registry.support.IMethod;
+import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Unit test for AddTicketsMethod.
+ */
+@RunWith(JUnit4.class)
+public class AddTicketsMethodTest
+{
+    private byte[] encode(final String ticketId) throws Exception {
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+        when(ticket.getId()).thenReturn(ticketId);
+
+        return TicketCodecs.DEFLATE.encode(ticket);
+    }
+
+    @Test
+    public void testValidInput() throws Exception {
+        final TicketStore map = new ConcurrentTicketStore();
+        final IMethod method = new AddTicketsMethod(map);
+        final JSONObject params = new JSONObject();
+
+        params.put("codec", TicketCodecs.DEFLATE.getName());
+        params.put("ticket-ids", new JSONArray().put("ST-1").put("ST-2"));
+        params.put("parent-ids", new JSONArray().put("TGT-1").put(""));
+        params.put("tickets", new JSONArray().put(encode("ST-1")).put(encode("ST-2")));
+
+        JSONObject result = method.execute(params);
+
+        Assert.assertEquals(2, result.getInt("added"));
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("TGT-1", map.get("ST-1").getParentId());
+        Assert.assertNull(map.get("ST-2").getParentId());
+        Assert.assertSame(TicketCodecs.DEFLATE, map.get("ST-1").getCodec());
+        Assert.assertEquals("ST-2", map.get("ST-2").getTicket().getId());
+    }
+
+    @Test
+    public void testKeepExisting() throws Exception {
+        final TicketStore map = new ConcurrentTicketStore();
+        final IMethod method = new AddTicketsMethod(map);
+        final JSONObject params = new JSONObject();
+        final TicketEntry existing = new TicketEntry(
+                "ST-1", null, TicketCodecs.DEFLATE, encode("ST-1"));
+
+        map.put(existing);
+
+        params.put("codec", TicketCodecs.DEFLATE.getName());
+        params.put("ticket-ids", new JSONArray().put("ST-1").put("ST-2"));
+        params.put("tickets", new JSONArray().put(encode("ST-1")).put(encode("ST-2")));
+
+        JSONObject result = method.execute(params);
+
+        Assert.assertEquals(1, result.getInt("added"));
+        Assert.assertSame(existing, map.get("ST-1"));
+    }
+
+    @Test
+    public void testInvalidTicket() throws Exception {
+        final TicketStore map = new ConcurrentTicketStore();
+        final IMethod method = new AddTicketsMethod(map);
+        final JSONObject params = new JSONObject();
+
+        params.put("ticket-ids", new JSONArray().put("ST-1").put("ST-2"));
+        params.put("tickets", new JSONArray().put(encode("ST-1")).put(new byte[] {1, 2, 3}));
+
+        try {
+            method.execute(params);
+        } catch (final JSONRPCException e) {
+            Assert.assertEquals(-32501, e.getCode());
+            Assert.assertEquals(0, map.size());
+            return;
+        }
+
+        Assert.fail("No Exception Thrown");
+    }
+
+    @Test
+    public void testMismatchedParameters() throws Exception {
+        final IMethod method = new AddTicketsMethod(new ConcurrentTicketStore());
+        final JSONObject params = new JSONObject();
+
+        params.put("ticket-ids", new JSONArray().put("ST-1").put("ST-2"));
+        params.put("tickets", new JSONArray().put(encode("ST-1")));
+
+        try {
+            method.execute(params);
+        } catch (final JSONRPCException e) {
+            Assert.assertEquals(-32602, e.getCode());
+            return;
+        }
+
+        Assert.fail("No Exception Thrown");
+    }
+
+    @Test
+    public void testMissingParameters() throws Exception {
+        final IMethod method = new AddTicketsMethod(new ConcurrentTicketStore());
+
+        try {
+            method.execute(new JSONObject());
+        } catch (final JSONRPCException e) {
+            Assert.assertEquals(-32602, e.getCode());
+            return;
+        }
+
+        Assert.fail("No Exception Thrown");
+    }
+}
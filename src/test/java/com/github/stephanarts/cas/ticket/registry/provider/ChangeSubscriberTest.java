@@ -0,0 +1,85 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+
+/**
+ * Unit test for ChangeSubscriber.
+ */
+@RunWith(JUnit4.class)
+public class ChangeSubscriberTest
+{
+    private TicketEntry createEntry(final String ticketId, final long version) {
+        return new TicketEntry(ticketId, "TGT-1", TicketCodecs.SERIALIZATION, new byte[] {0}, version);
+    }
+
+    private void awaitApplied(final ChangeSubscriber subscriber, final long applied) throws Exception {
+        for (int i = 0; i < 100 && subscriber.getApplied() < applied; ++i) {
+            Thread.sleep(50);
+        }
+    }
+
+    /**
+     * Test if published writes are applied, and not published again.
+     */
+    @Test
+    public void testReplicate() throws Exception {
+        final VersionedTicketStore source = new VersionedTicketStore(new ConcurrentTicketStore());
+        final VersionedTicketStore target = new VersionedTicketStore(new ConcurrentTicketStore());
+        final ChangePublisher publisher = new ChangePublisher("tcp://localhost:7909");
+        final ChangePublisher republisher = new ChangePublisher("tcp://localhost:7910");
+        final ChangeSubscriber subscriber = new ChangeSubscriber(target);
+
+        source.setPublisher(publisher);
+        target.setPublisher(republisher);
+        subscriber.subscribe("tcp://localhost:7909");
+        subscriber.subscribe("tcp://localhost:7909");
+        subscriber.start();
+
+        /* Wait for the subscription to be connected */
+        Thread.sleep(500);
+
+        source.add(createEntry("ST-1", 1));
+        source.put(createEntry("ST-1", 2));
+        source.add(createEntry("ST-2", 1));
+        source.remove("ST-2");
+
+        this.awaitApplied(subscriber, 4);
+        final long applied = subscriber.getApplied();
+        final long published = publisher.getPublished();
+        final long republished = republisher.getPublished();
+
+        subscriber.cleanup();
+        publisher.close();
+        republisher.close();
+
+        Assert.assertEquals(4, applied);
+        Assert.assertEquals(4, published);
+        Assert.assertEquals(0, republished);
+        Assert.assertEquals(1, subscriber.getPublishers().size());
+        Assert.assertEquals(2, target.get("ST-1").getVersion());
+        Assert.assertEquals("TGT-1", target.get("ST-1").getParentId());
+        Assert.assertNull(target.get("ST-2"));
+        Assert.assertTrue(target.getDeletedIds().contains("ST-2"));
+        Assert.assertArrayEquals(source.getDigest(0), target.getDigest(0));
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.jasig.cas.ticket.ServiceTicket;
+
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Unit test for ConcurrentTicketStore.
+ */
+@RunWith(JUnit4.class)
+public class ConcurrentTicketStoreTest
+{
+    private TicketEntry createEntry(final String ticketId) throws Exception {
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+        when(ticket.getId()).thenReturn(ticketId);
+        return TicketEntry.encode(ticket, TicketCodecs.SERIALIZATION);
+    }
+
+    @Test
+    public void testAdd() throws Exception {
+        final TicketStore store = new ConcurrentTicketStore();
+        final TicketEntry entry = createEntry("ST-1");
+
+        Assert.assertTrue(store.add(entry));
+        Assert.assertFalse(store.add(createEntry("ST-1")));
+        Assert.assertSame(entry, store.get("ST-1"));
+        Assert.assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testPutRemove() throws Exception {
+        final TicketStore store = new ConcurrentTicketStore();
+        final TicketEntry entry = createEntry("ST-1");
+
+        Assert.assertNull(store.put(entry));
+        Assert.assertSame(entry, store.put(createEntry("ST-1")));
+        Assert.assertNotNull(store.remove("ST-1"));
+        Assert.assertNull(store.remove("ST-1"));
+        Assert.assertNull(store.get("ST-1"));
+        Assert.assertEquals(0, store.size());
+    }
+
+    /**
+     * Ticket-IDs with the same hashCode must not overwrite each other.
+     */
+    @Test
+    public void testHashCollision() throws Exception {
+        final TicketStore store = new ConcurrentTicketStore();
+        final String id1 = "ST-Aa";
+        final String id2 = "ST-BB";
+
+        Assert.assertEquals(id1.hashCode(), id2.hashCode());
+
+        Assert.assertTrue(store.add(createEntry(id1)));
+        Assert.assertTrue(store.add(createEntry(id2)));
+
+        Assert.assertEquals(id1, store.get(id1).getTicket().getId());
+        Assert.assertEquals(id2, store.get(id2).getTicket().getId());
+        Assert.assertEquals(2, store.getTickets().size());
+    }
+
+    /**
+     * Tickets are returned as stored, unless another codec is requested.
+     */
+    @Test
+    public void testPassThrough() throws Exception {
+        final TicketStore store = new ConcurrentTicketStore();
+        final TicketEntry entry = createEntry("ST-1");
+
+        store.add(entry);
+
+        Assert.assertSame(entry.getData(), store.get("ST-1").getData(TicketCodecs.SERIALIZATION));
+        Assert.assertTrue(TicketCodecs.DEFLATE.accepts(store.get("ST-1").getData(TicketCodecs.DEFLATE)));
+    }
+
+    @Test
+    public void testRemoveInvalid() throws Exception {
+        final TicketStore store = new ConcurrentTicketStore();
+
+        store.add(new TicketEntry("ST-1", null, TicketCodecs.SERIALIZATION, new byte[] {1, 2, 3}));
+
+        Assert.assertTrue(store.removeExpired("ST-1"));
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testChildIds() throws Exception {
+        final TicketStore store = new ConcurrentTicketStore();
+        final byte[] data = {0};
+
+        store.add(new TicketEntry("ST-1", "TGT-1", TicketCodecs.SERIALIZATION, data));
+        store.put(new TicketEntry("ST-2", "TGT-1", TicketCodecs.SERIALIZATION, data));
+        store.put(new TicketEntry("ST-3", "TGT-2", TicketCodecs.SERIALIZATION, data));
+
+        Assert.assertEquals(2, store.getChildIds("TGT-1").size());
+        Assert.assertTrue(store.getChildIds("ST-1").isEmpty());
+
+        /* Granted by another ticket now */
+        store.put(new TicketEntry("ST-2", "TGT-2", TicketCodecs.SERIALIZATION, data));
+        store.remove("ST-1");
+
+        Assert.assertTrue(store.getChildIds("TGT-1").isEmpty());
+        Assert.assertEquals(2, store.getChildIds("TGT-2").size());
+    }
+
+    /**
+     * Concurrent writes of a ticket leave it indexed under the
+     * parent of the stored ticket only.
+     */
+    @Test
+    public void testConcurrentChildIds() throws Exception {
+        final TicketStore store = new ConcurrentTicketStore();
+        final byte[] data = {0};
+        final int nThreads = 4;
+        final int nWrites = 10000;
+        final Thread[] threads = new Thread[nThreads];
+
+        for (int t = 0; t < nThreads; ++t) {
+            final String parentId = "TGT-" + t;
+
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < nWrites; ++i) {
+                        store.put(new TicketEntry("ST-1", parentId, TicketCodecs.SERIALIZATION, data));
+                        if (i % 2 == 0) {
+                            store.remove("ST-1");
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+
+        TicketEntry entry = store.get("ST-1");
+        for (int t = 0; t < nThreads; ++t) {
+            boolean indexed = entry != null && entry.getParentId().equals("TGT-" + t);
+
+            Assert.assertEquals(indexed ? 1 : 0, store.getChildIds("TGT-" + t).size());
+        }
+    }
+}
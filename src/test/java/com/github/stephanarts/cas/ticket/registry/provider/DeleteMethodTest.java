@@ -15,8 +15,6 @@
 
 package com.github.stephanarts.cas.ticket.registry.provider;
 
-import java.util.HashMap;
-
 import org.junit.Test;
 import org.junit.Ignore;
 import org.junit.Assert;
@@ -31,6 +29,7 @@ import org.jasig.cas.ticket.ServiceTicket;
 import com.github.stephanarts.cas.ticket.registry.provider.DeleteMethod;
 import com.github.stephanarts.cas.ticket.registry.support.IMethod;
 import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -44,7 +43,7 @@ public class DeleteMethodTest
 {
     @Test
     public void testValidInput() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new DeleteMethod(map);
 
@@ -52,7 +51,7 @@ public class DeleteMethodTest
         final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
         when(ticket.getId()).thenReturn(ticketId);
 
-        map.put(ticketId.hashCode(), ticket);
+        map.put(new TicketEntry(ticketId, null, TicketCodecs.SERIALIZATION, TicketCodecs.SERIALIZATION.encode(ticket)));
 
         params.put("ticket-id", ticketId);
 
@@ -67,7 +66,7 @@ public class DeleteMethodTest
 
     @Test
     public void testMissingParameters() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new DeleteMethod(map);
 
@@ -85,7 +84,7 @@ public class DeleteMethodTest
 
     @Test
     public void testInvalidParameters1() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new DeleteMethod(map);
 
@@ -107,7 +106,7 @@ public class DeleteMethodTest
 
     @Test
     public void testInvalidParameters2() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new DeleteMethod(map);
 
@@ -126,7 +125,7 @@ public class DeleteMethodTest
 
     @Test
     public void testMissingKey() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new DeleteMethod(map);
 
@@ -144,4 +143,27 @@ public class DeleteMethodTest
 
         Assert.fail("No Exception Thrown");
     }
+
+    @Test
+    public void testCascade() throws Exception {
+        final TicketStore map = new ConcurrentTicketStore();
+        final JSONObject params = new JSONObject();
+        final IMethod method = new DeleteMethod(map);
+        final byte[] data = {0};
+
+        map.put(new TicketEntry("TGT-1", null, TicketCodecs.SERIALIZATION, data));
+        map.put(new TicketEntry("ST-1", "TGT-1", TicketCodecs.SERIALIZATION, data));
+        map.put(new TicketEntry("PGT-1", "TGT-1", TicketCodecs.SERIALIZATION, data));
+        map.put(new TicketEntry("PT-1", "PGT-1", TicketCodecs.SERIALIZATION, data));
+        map.put(new TicketEntry("ST-2", "TGT-2", TicketCodecs.SERIALIZATION, data));
+
+        params.put("ticket-id", "TGT-1");
+        params.put("cascade", true);
+
+        JSONObject result = method.execute(params);
+
+        Assert.assertEquals(3, result.getInt("cascaded"));
+        Assert.assertEquals(1, map.size());
+        Assert.assertNotNull(map.get("ST-2"));
+    }
 }
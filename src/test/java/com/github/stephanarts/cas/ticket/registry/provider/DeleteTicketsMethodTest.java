@@ -0,0 +1,70 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.github.stephanarts.cas.ticket.registry.support.IMethod;
+import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+
+/**
+ * Unit test for DeleteTicketsMethod.
+ */
+@RunWith(JUnit4.class)
+public class DeleteTicketsMethodTest
+{
+    @Test
+    public void testDelete() throws Exception {
+        final TicketStore map = new ConcurrentTicketStore();
+        final IMethod method = new DeleteTicketsMethod(map);
+        final JSONObject params = new JSONObject();
+
+        map.put(new TicketEntry("ST-1", null, TicketCodecs.SERIALIZATION, new byte[] {0}));
+        map.put(new TicketEntry("ST-2", null, TicketCodecs.SERIALIZATION, new byte[] {0}));
+
+        params.put("ticket-ids", new JSONArray().put("ST-1").put("ST-missing"));
+
+        JSONObject result = method.execute(params);
+
+        Assert.assertEquals(1, result.getInt("deleted"));
+        Assert.assertNull(map.get("ST-1"));
+        Assert.assertNotNull(map.get("ST-2"));
+    }
+
+    @Test
+    public void testInvalidParameters() throws Exception {
+        final IMethod method = new DeleteTicketsMethod(new ConcurrentTicketStore());
+        final JSONObject params = new JSONObject();
+
+        params.put("ticket-id", "ST-1");
+
+        try {
+            method.execute(params);
+        } catch (final JSONRPCException e) {
+            Assert.assertEquals(-32602, e.getCode());
+            return;
+        }
+
+        Assert.fail("No Exception Thrown");
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.json.JSONObject;
+
+import com.github.stephanarts.cas.ticket.registry.support.IMethod;
+import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+
+/**
+ * Unit test for GetDigestMethod.
+ */
+@RunWith(JUnit4.class)
+public class GetDigestMethodTest
+{
+    @Test
+    public void testGetDigest() throws Exception {
+        final VersionedTicketStore store = new VersionedTicketStore(new ConcurrentTicketStore());
+        final IMethod method = new GetDigestMethod(store);
+
+        store.add(new TicketEntry("ST-1", null, TicketCodecs.SERIALIZATION, new byte[] {1}, 1));
+
+        JSONObject result = method.execute(new JSONObject());
+
+        Assert.assertEquals(0, result.getInt("depth"));
+        Assert.assertEquals(VersionedTicketStore.LEAF_DEPTH, result.getInt("leaf-depth"));
+        Assert.assertEquals(1, result.getJSONArray("digest").length());
+        Assert.assertEquals(store.getDigest(0)[0], result.getJSONArray("digest").getLong(0));
+
+        result = method.execute(new JSONObject().put("depth", 4));
+
+        Assert.assertEquals(16, result.getJSONArray("digest").length());
+    }
+
+    @Test
+    public void testInvalidParameters() throws Exception {
+        final IMethod method = new GetDigestMethod(
+                new VersionedTicketStore(new ConcurrentTicketStore()));
+        final JSONObject params = new JSONObject();
+
+        params.put("depth", VersionedTicketStore.LEAF_DEPTH + 1);
+
+        try {
+            method.execute(params);
+        } catch (final JSONRPCException e) {
+            Assert.assertEquals(-32602, e.getCode());
+            return;
+        }
+
+        Assert.fail("No Exception Thrown");
+    }
+}
@@ -15,15 +15,13 @@
 
 package com.github.stephanarts.cas.ticket.registry.provider;
 
-import java.util.HashMap;
-
 import org.junit.Test;
 import org.junit.Ignore;
 import org.junit.Assert;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
-import java.io.ObjectOutputStream;
+import java.io.IOException;
 
 import org.json.JSONObject;
 
@@ -33,27 +31,25 @@ import org.jasig.cas.ticket.ServiceTicket;
 import com.github.stephanarts.cas.ticket.registry.provider.GetMethod;
 import com.github.stephanarts.cas.ticket.registry.support.IMethod;
 import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodec;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.withSettings;
 import static org.mockito.Matchers.*;
 
-import org.powermock.api.mockito.PowerMockito;
-import org.powermock.core.classloader.annotations.PrepareForTest;
-import org.powermock.modules.junit4.PowerMockRunner;
 
 
 /**
  * Unit test for GetMethod.
  */
-@RunWith(PowerMockRunner.class)
-@PrepareForTest(GetMethod.class)
+@RunWith(JUnit4.class)
 public class GetMethodTest
 {
     @Test
     public void testValidInput() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new GetMethod(map);
         final JSONObject result;
@@ -62,7 +58,7 @@ public class GetMethodTest
         final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
         when(ticket.getId()).thenReturn(ticketId);
 
-        map.put(ticketId.hashCode(), ticket);
+        map.put(new TicketEntry(ticketId, null, TicketCodecs.SERIALIZATION, TicketCodecs.SERIALIZATION.encode(ticket)));
 
         params.put("ticket-id", ticketId);
 
@@ -77,7 +73,7 @@ public class GetMethodTest
 
     @Test
     public void testInvalidParameters1() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new GetMethod(map);
 
@@ -99,7 +95,7 @@ public class GetMethodTest
 
     @Test
     public void testInvalidParameters2() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new GetMethod(map);
 
@@ -118,7 +114,7 @@ public class GetMethodTest
 
     @Test
     public void testMissingTicket() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new GetMethod(map);
 
@@ -137,30 +133,59 @@ public class GetMethodTest
         Assert.fail("No Exception Thrown");
     }
 
+    @Test
+    public void testDeletedTicket() throws Exception {
+        final VersionedTicketStore map = new VersionedTicketStore(new ConcurrentTicketStore());
+        final JSONObject params = new JSONObject();
+        final IMethod method = new GetMethod(map);
+
+        final String ticketId = "ST-1234567890ABCDEFGHIJKL-crud";
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+
+        map.put(new TicketEntry(ticketId, null, TicketCodecs.SERIALIZATION, TicketCodecs.SERIALIZATION.encode(ticket)));
+        map.remove(ticketId);
+
+        params.put("ticket-id", ticketId);
+
+        try {
+            method.execute(params);
+        } catch (final JSONRPCException e) {
+            Assert.assertEquals(-32505, e.getCode());
+            Assert.assertTrue(e.getMessage().equals("Deleted Ticket"));
+            return;
+        }
+
+        Assert.fail("No Exception Thrown");
+    }
+
     @Test
     public void testSerializationError() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new GetMethod(map);
-        final JSONObject result;
+        final TicketCodec broken = mock(TicketCodec.class);
 
         final String ticketId = "ST-1234567890ABCDEFGHIJKL-crud";
         final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
 
-        PowerMockito.whenNew(ObjectOutputStream.class).withAnyArguments().thenThrow(new Exception("broken"));
+        when(broken.getName()).thenReturn("broken");
+        when(broken.encode(any(Ticket.class))).thenThrow(new IOException("broken"));
 
-        map.put(ticketId.hashCode(), ticket);
+        /* Stored with Java serialization, requested with a codec that fails */
+        map.put(new TicketEntry(ticketId, null, TicketCodecs.SERIALIZATION, TicketCodecs.SERIALIZATION.encode(ticket)));
 
         params.put("ticket-id", ticketId);
+        params.put("codec", "broken");
 
+        TicketCodecs.register(broken);
         try {
-            result = method.execute(params);
+            method.execute(params);
         } catch (final JSONRPCException e) {
             Assert.assertEquals(-32500, e.getCode());
             Assert.assertTrue(e.getMessage().equals("Error extracting Ticket"));
             return;
-        } catch (final Exception e) {
-            throw new Exception(e);
+        } finally {
+            TicketCodecs.unregister(broken);
         }
 
         Assert.fail("No Exception Thrown");
@@ -15,8 +15,6 @@
 
 package com.github.stephanarts.cas.ticket.registry.provider;
 
-import java.util.HashMap;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,7 +24,7 @@ import org.junit.Assert;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
-import java.io.ObjectOutputStream;
+import java.io.IOException;
 
 import org.json.JSONObject;
 import org.json.JSONArray;
@@ -37,21 +35,19 @@ import org.jasig.cas.ticket.ServiceTicket;
 import com.github.stephanarts.cas.ticket.registry.provider.GetTicketsMethod;
 import com.github.stephanarts.cas.ticket.registry.support.IMethod;
 import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodec;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.withSettings;
 import static org.mockito.Matchers.*;
 
-import org.powermock.api.mockito.PowerMockito;
-import org.powermock.core.classloader.annotations.PrepareForTest;
-import org.powermock.modules.junit4.PowerMockRunner;
 
 /**
  * Unit test for GetTicketsMethod.
  */
-@RunWith(PowerMockRunner.class)
-@PrepareForTest(GetTicketsMethod.class)
+@RunWith(JUnit4.class)
 public class GetTicketsMethodTest
 {
 
@@ -59,7 +55,7 @@ public class GetTicketsMethodTest
 
     @Test
     public void testValidInput() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new GetTicketsMethod(map);
         final JSONObject result;
@@ -68,7 +64,7 @@ public class GetTicketsMethodTest
         final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
         when(ticket.getId()).thenReturn(ticketId);
 
-        map.put(ticketId.hashCode(), ticket);
+        map.put(new TicketEntry(ticketId, null, TicketCodecs.SERIALIZATION, TicketCodecs.SERIALIZATION.encode(ticket)));
 
         try {
             result = method.execute(params);
@@ -81,7 +77,7 @@ public class GetTicketsMethodTest
 
     @Test
     public void testInvalidParameters1() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new GetTicketsMethod(map);
 
@@ -102,26 +98,31 @@ public class GetTicketsMethodTest
 
     @Test
     public void testSerializationError() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new GetTicketsMethod(map);
-        final JSONObject result;
+        final TicketCodec broken = mock(TicketCodec.class);
 
         final String ticketId = "ST-1234567890ABCDEFGHIJKL-crud";
         final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
 
-        PowerMockito.whenNew(ObjectOutputStream.class).withAnyArguments().thenThrow(new Exception("broken"));
+        when(broken.getName()).thenReturn("broken");
+        when(broken.encode(any(Ticket.class))).thenThrow(new IOException("broken"));
 
-        map.put(ticketId.hashCode(), ticket);
+        /* Stored with Java serialization, requested with a codec that fails */
+        map.put(new TicketEntry(ticketId, null, TicketCodecs.SERIALIZATION, TicketCodecs.SERIALIZATION.encode(ticket)));
 
+        params.put("codec", "broken");
+
+        TicketCodecs.register(broken);
         try {
-            result = method.execute(params);
+            method.execute(params);
         } catch (final JSONRPCException e) {
             Assert.assertEquals(-32500, e.getCode());
             Assert.assertTrue(e.getMessage().equals("Error extracting Ticket"));
             return;
-        } catch (final Exception e) {
-            throw new Exception(e);
+        } finally {
+            TicketCodecs.unregister(broken);
         }
 
         Assert.fail("No Exception Thrown");
@@ -129,7 +130,7 @@ public class GetTicketsMethodTest
 
     @Test
     public void testGetMultipleTickets() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new GetTicketsMethod(map);
         JSONObject result;
@@ -147,7 +148,7 @@ public class GetTicketsMethodTest
         final ServiceTicket ticket3 = mock(ServiceTicket.class, withSettings().serializable());
         when(ticket3.getId()).thenReturn(ticketId3);
 
-        map.put(ticketId1.hashCode(), ticket1);
+        map.put(new TicketEntry(ticketId1, null, TicketCodecs.SERIALIZATION, TicketCodecs.SERIALIZATION.encode(ticket1)));
 
         try {
             result = method.execute(params);
@@ -162,7 +163,7 @@ public class GetTicketsMethodTest
             throw new Exception(e);
         }
 
-        map.put(ticketId2.hashCode(), ticket2);
+        map.put(new TicketEntry(ticketId2, null, TicketCodecs.SERIALIZATION, TicketCodecs.SERIALIZATION.encode(ticket2)));
 
         try {
             result = method.execute(params);
@@ -177,7 +178,7 @@ public class GetTicketsMethodTest
             throw new Exception(e);
         }
 
-        map.put(ticketId3.hashCode(), ticket3);
+        map.put(new TicketEntry(ticketId3, null, TicketCodecs.SERIALIZATION, TicketCodecs.SERIALIZATION.encode(ticket3)));
 
         try {
             result = method.execute(params);
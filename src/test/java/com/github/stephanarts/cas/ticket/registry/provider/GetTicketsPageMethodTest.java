@@ -0,0 +1,169 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import org.jasig.cas.ticket.ServiceTicket;
+
+import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Unit test for GetTicketsPageMethod.
+ */
+@RunWith(JUnit4.class)
+public class GetTicketsPageMethodTest
+{
+    private TicketStore createStore(final int n) throws Exception {
+        final TicketStore map = new ConcurrentTicketStore();
+
+        for (int i = 0; i < n; ++i) {
+            final String ticketId = "ST-1234567890ABCDEFGHIJKL-page" + i;
+            final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+            when(ticket.getId()).thenReturn(ticketId);
+
+            map.put(new TicketEntry(
+                    ticketId,
+                    i % 2 == 0 ? "TGT-" + i : null,
+                    TicketCodecs.SERIALIZATION,
+                    TicketCodecs.SERIALIZATION.encode(ticket)));
+        }
+        return map;
+    }
+
+    @Test
+    public void testPages() throws Exception {
+        final TicketStore map = createStore(5);
+        final GetTicketsPageMethod method = new GetTicketsPageMethod(map);
+        final Set<String> ticketIds = new HashSet<String>();
+        JSONObject params = new JSONObject();
+        JSONObject result;
+        int pages = 0;
+
+        params.put("limit", 2);
+
+        do {
+            result = method.execute(params);
+            pages++;
+
+            JSONArray ids = result.getJSONArray("ticket-ids");
+            Assert.assertEquals(ids.length(), result.getJSONArray("tickets").length());
+            Assert.assertEquals(ids.length(), result.getJSONArray("parent-ids").length());
+            Assert.assertTrue(ids.length() <= 2);
+            for (int i = 0; i < ids.length(); ++i) {
+                ticketIds.add(ids.getString(i));
+            }
+
+            params = new JSONObject();
+            params.put("limit", 2);
+            params.put("cursor", result.optString("cursor", null));
+        } while (result.has("cursor"));
+
+        Assert.assertEquals(3, pages);
+        Assert.assertEquals(5, ticketIds.size());
+        Assert.assertEquals(0, method.getCursors());
+    }
+
+    @Test
+    public void testSinglePage() throws Exception {
+        final TicketStore map = createStore(3);
+        final GetTicketsPageMethod method = new GetTicketsPageMethod(map);
+
+        JSONObject result = method.execute(new JSONObject());
+
+        Assert.assertEquals(3, result.getJSONArray("tickets").length());
+        Assert.assertFalse(result.has("cursor"));
+        Assert.assertEquals(0, method.getCursors());
+    }
+
+    @Test
+    public void testCodec() throws Exception {
+        final TicketStore map = createStore(1);
+        final GetTicketsPageMethod method = new GetTicketsPageMethod(map);
+        final JSONObject params = new JSONObject();
+
+        params.put("codec", TicketCodecs.DEFLATE.getName());
+        JSONObject result = method.execute(params);
+
+        byte[] data = (byte[]) result.getJSONArray("tickets").get(0);
+        Assert.assertTrue(TicketCodecs.DEFLATE.accepts(data));
+    }
+
+    @Test
+    public void testUnknownCursor() throws Exception {
+        final GetTicketsPageMethod method = new GetTicketsPageMethod(createStore(1));
+        final JSONObject params = new JSONObject();
+
+        params.put("cursor", "unknown");
+
+        try {
+            method.execute(params);
+        } catch (final JSONRPCException e) {
+            Assert.assertEquals(-32504, e.getCode());
+            return;
+        }
+
+        Assert.fail("No Exception Thrown");
+    }
+
+    @Test
+    public void testInvalidLimit() throws Exception {
+        final GetTicketsPageMethod method = new GetTicketsPageMethod(createStore(1));
+        final JSONObject params = new JSONObject();
+
+        params.put("limit", GetTicketsPageMethod.MAX_LIMIT + 1);
+
+        try {
+            method.execute(params);
+        } catch (final JSONRPCException e) {
+            Assert.assertEquals(-32602, e.getCode());
+            return;
+        }
+
+        Assert.fail("No Exception Thrown");
+    }
+
+    @Test
+    public void testInvalidParameters() throws Exception {
+        final GetTicketsPageMethod method = new GetTicketsPageMethod(createStore(1));
+        final JSONObject params = new JSONObject();
+
+        params.put("invalid-param", "MUST_FAIL");
+
+        try {
+            method.execute(params);
+        } catch (final JSONRPCException e) {
+            Assert.assertEquals(-32602, e.getCode());
+            return;
+        }
+
+        Assert.fail("No Exception Thrown");
+    }
+}
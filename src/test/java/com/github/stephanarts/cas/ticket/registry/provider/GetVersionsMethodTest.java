@@ -0,0 +1,99 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.github.stephanarts.cas.ticket.registry.support.IMethod;
+import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+
+/**
+ * Unit test for GetVersionsMethod.
+ */
+@RunWith(JUnit4.class)
+public class GetVersionsMethodTest
+{
+    @Test
+    public void testGetVersions() throws Exception {
+        final VersionedTicketStore store = new VersionedTicketStore(new ConcurrentTicketStore());
+        final IMethod method = new GetVersionsMethod(store);
+        final JSONObject params = new JSONObject();
+
+        store.add(new TicketEntry("ST-1", "TGT-1", TicketCodecs.SERIALIZATION, new byte[] {1}, 2));
+        store.add(new TicketEntry("ST-2", null, TicketCodecs.SERIALIZATION, new byte[] {1}, 1));
+        store.remove("ST-2");
+
+        params.put("ranges", new JSONArray()
+                .put(VersionedTicketStore.getLeaf("ST-1"))
+                .put(VersionedTicketStore.getLeaf("ST-2")));
+
+        JSONObject result = method.execute(params);
+        JSONArray ticketIds = result.getJSONArray("ticket-ids");
+
+        Assert.assertEquals(2, ticketIds.length());
+        for (int i = 0; i < ticketIds.length(); ++i) {
+            if ("ST-1".equals(ticketIds.getString(i))) {
+                Assert.assertEquals("TGT-1", result.getJSONArray("parent-ids").getString(i));
+                Assert.assertEquals(2, result.getJSONArray("versions").getLong(i));
+                Assert.assertEquals(
+                        VersionedTicketStore.checksum(store.get("ST-1")),
+                        result.getJSONArray("checksums").getLong(i));
+            } else {
+                Assert.assertEquals("ST-2", ticketIds.getString(i));
+                Assert.assertEquals(-1, result.getJSONArray("versions").getLong(i));
+            }
+        }
+    }
+
+    @Test
+    public void testOtherRanges() throws Exception {
+        final VersionedTicketStore store = new VersionedTicketStore(new ConcurrentTicketStore());
+        final IMethod method = new GetVersionsMethod(store);
+        final int leaf = VersionedTicketStore.getLeaf("ST-1");
+
+        store.add(new TicketEntry("ST-1", null, TicketCodecs.SERIALIZATION, new byte[] {1}, 1));
+
+        JSONObject result = method.execute(new JSONObject().put("ranges",
+                new JSONArray().put((leaf + 1) % VersionedTicketStore.LEAVES)));
+
+        Assert.assertEquals(0, result.getJSONArray("ticket-ids").length());
+    }
+
+    @Test
+    public void testInvalidParameters() throws Exception {
+        final IMethod method = new GetVersionsMethod(
+                new VersionedTicketStore(new ConcurrentTicketStore()));
+        final JSONObject params = new JSONObject();
+
+        params.put("ranges", new JSONArray().put(VersionedTicketStore.LEAVES));
+
+        try {
+            method.execute(params);
+        } catch (final JSONRPCException e) {
+            Assert.assertEquals(-32602, e.getCode());
+            return;
+        }
+
+        Assert.fail("No Exception Thrown");
+    }
+}
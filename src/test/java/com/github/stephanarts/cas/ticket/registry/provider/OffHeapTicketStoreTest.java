@@ -0,0 +1,211 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.ServiceTicket;
+
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Unit test for OffHeapTicketStore.
+ */
+@RunWith(JUnit4.class)
+public class OffHeapTicketStoreTest
+{
+    /**
+     * Ticket with a payload of configurable size.
+     */
+    private static class LargeTicket implements Ticket {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+        private final byte[] payload;
+
+        LargeTicket(final String id, final int size) {
+            this.id = id;
+            this.payload = new byte[size];
+            new java.util.Random(size).nextBytes(this.payload);
+        }
+
+        public String getId() { return this.id; }
+        public boolean isExpired() { return false; }
+        public TicketGrantingTicket getGrantingTicket() { return null; }
+        public long getCreationTime() { return 0; }
+        public int getCountOfUses() { return this.payload.length; }
+    }
+
+    private TicketEntry createEntry(final String ticketId) throws Exception {
+        return createEntry(ticketId, false);
+    }
+
+    private TicketEntry createEntry(final String ticketId, final boolean expired) throws Exception {
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+        when(ticket.getId()).thenReturn(ticketId);
+        when(ticket.isExpired()).thenReturn(expired);
+        return TicketEntry.encode(ticket, TicketCodecs.DEFLATE);
+    }
+
+    private TicketEntry createLargeEntry(final String ticketId, final int size) throws Exception {
+        return TicketEntry.encode(new LargeTicket(ticketId, size), TicketCodecs.SERIALIZATION);
+    }
+
+    @Test
+    public void testAddGet() throws Exception {
+        final TicketStore store = new OffHeapTicketStore();
+
+        Assert.assertTrue(store.add(createEntry("ST-1")));
+        Assert.assertFalse(store.add(createEntry("ST-1")));
+        Assert.assertEquals("ST-1", store.get("ST-1").getTicket().getId());
+        Assert.assertNull(store.get("ST-2"));
+        Assert.assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testPutRemove() throws Exception {
+        final TicketStore store = new OffHeapTicketStore();
+
+        Assert.assertNull(store.put(createEntry("ST-1")));
+        Assert.assertEquals("ST-1", store.put(createEntry("ST-1")).getTicketId());
+        Assert.assertEquals("ST-1", store.remove("ST-1").getTicket().getId());
+        Assert.assertNull(store.remove("ST-1"));
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testEntry() throws Exception {
+        final TicketStore store = new OffHeapTicketStore();
+        final TicketEntry entry = new TicketEntry(
+                "ST-1", "TGT-1", TicketCodecs.DEFLATE,
+                createEntry("ST-1").getData());
+
+        store.add(entry);
+
+        TicketEntry stored = store.get("ST-1");
+        Assert.assertEquals("TGT-1", stored.getParentId());
+        Assert.assertSame(TicketCodecs.DEFLATE, stored.getCodec());
+        Assert.assertArrayEquals(entry.getData(), stored.getData());
+    }
+
+    @Test
+    public void testRemoveExpired() throws Exception {
+        final TicketStore store = new OffHeapTicketStore();
+
+        store.add(createEntry("ST-1", true));
+        store.add(createEntry("ST-2"));
+
+        Assert.assertTrue(store.removeExpired("ST-1"));
+        Assert.assertFalse(store.removeExpired("ST-1"));
+        Assert.assertFalse(store.removeExpired("ST-2"));
+        Assert.assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testLargeTicket() throws Exception {
+        final TicketStore store = new OffHeapTicketStore();
+        final int size = OffHeapTicketStore.MAX_BLOCK * 2;
+
+        store.add(createLargeEntry("TGT-1", size));
+        Assert.assertEquals(size, store.get("TGT-1").getTicket().getCountOfUses());
+        Assert.assertNotNull(store.remove("TGT-1"));
+    }
+
+    @Test
+    public void testBlockReuse() throws Exception {
+        final OffHeapTicketStore store = new OffHeapTicketStore();
+        final TicketEntry[] entries = new TicketEntry[1000];
+        long allocated;
+
+        for (int i = 0; i < entries.length; ++i) {
+            entries[i] = createLargeEntry("TGT-" + i, 1000);
+            store.add(entries[i]);
+        }
+        allocated = store.getAllocatedBytes();
+        Assert.assertTrue(allocated > 0);
+
+        for (int round = 0; round < 5; ++round) {
+            for (int i = 0; i < entries.length; ++i) {
+                store.remove("TGT-" + i);
+            }
+            for (int i = 0; i < entries.length; ++i) {
+                store.add(entries[i]);
+            }
+        }
+        Assert.assertEquals(allocated, store.getAllocatedBytes());
+        Assert.assertEquals(entries.length, store.size());
+    }
+
+    @Test
+    public void testGetTickets() throws Exception {
+        final TicketStore store = new OffHeapTicketStore();
+        final Set<String> ids = new HashSet<String>();
+
+        for (int i = 0; i < 100; ++i) {
+            store.add(createEntry("ST-" + i));
+        }
+        for (TicketEntry entry: store.getTickets()) {
+            ids.add(entry.getTicket().getId());
+        }
+        Assert.assertEquals(100, ids.size());
+        Assert.assertEquals(100, store.getTickets().size());
+        Assert.assertEquals(ids, new HashSet<String>(store.getTicketIds()));
+    }
+
+    @Test
+    public void testReaper() throws Exception {
+        final TicketStore store = new OffHeapTicketStore();
+
+        store.add(createEntry("ST-1", true));
+        store.add(createEntry("ST-2"));
+
+        Assert.assertEquals(1, new TicketReaper(store, 1000).reap());
+        Assert.assertNull(store.get("ST-1"));
+        Assert.assertNotNull(store.get("ST-2"));
+    }
+
+    @Test
+    public void testChildIds() throws Exception {
+        final TicketStore store = new OffHeapTicketStore();
+        final byte[] data = {0};
+
+        store.add(new TicketEntry("ST-1", "TGT-1", TicketCodecs.SERIALIZATION, data));
+        store.put(new TicketEntry("ST-2", "TGT-1", TicketCodecs.SERIALIZATION, data));
+        store.put(new TicketEntry("ST-3", "TGT-2", TicketCodecs.SERIALIZATION, data));
+
+        Assert.assertEquals(2, store.getChildIds("TGT-1").size());
+        Assert.assertTrue(store.getChildIds("ST-1").isEmpty());
+
+        /* Granted by another ticket now */
+        store.put(new TicketEntry("ST-2", "TGT-2", TicketCodecs.SERIALIZATION, data));
+        store.remove("ST-1");
+
+        Assert.assertTrue(store.getChildIds("TGT-1").isEmpty());
+        Assert.assertEquals(2, store.getChildIds("TGT-2").size());
+    }
+}
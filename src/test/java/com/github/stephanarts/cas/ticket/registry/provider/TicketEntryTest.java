@@ -0,0 +1,149 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.json.JSONObject;
+
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+
+import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Unit test for TicketEntry.
+ */
+@RunWith(JUnit4.class)
+public class TicketEntryTest
+{
+    @Test
+    public void testEncode() throws Exception {
+        final TicketGrantingTicket parent = mock(TicketGrantingTicket.class, withSettings().serializable());
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+        when(parent.getId()).thenReturn("TGT-1");
+        when(ticket.getId()).thenReturn("ST-1");
+        when(ticket.getGrantingTicket()).thenReturn(parent);
+        when(ticket.getCountOfUses()).thenReturn(3);
+
+        TicketEntry entry = TicketEntry.encode(ticket, TicketCodecs.DEFLATE);
+
+        Assert.assertEquals("ST-1", entry.getTicketId());
+        Assert.assertEquals("TGT-1", entry.getParentId());
+        Assert.assertEquals(6, entry.getVersion());
+        Assert.assertSame(TicketCodecs.DEFLATE, entry.getCodec());
+        Assert.assertEquals("ST-1", entry.getTicket().getId());
+    }
+
+    @Test
+    public void testFromParams() throws Exception {
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+        final JSONObject params = new JSONObject();
+        final byte[] data = TicketCodecs.DEFLATE.encode(ticket);
+
+        params.put("ticket-id", "ST-1");
+        params.put("ticket", data);
+        params.put("codec", "deflate");
+        params.put("parent-id", "TGT-1");
+
+        TicketEntry entry = TicketEntry.fromParams(params);
+
+        Assert.assertEquals("ST-1", entry.getTicketId());
+        Assert.assertEquals("TGT-1", entry.getParentId());
+        Assert.assertSame(data, entry.getData());
+    }
+
+    @Test
+    public void testFromParamsVersion() throws Exception {
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+        final JSONObject params = new JSONObject();
+
+        params.put("ticket-id", "ST-1");
+        params.put("ticket", TicketCodecs.SERIALIZATION.encode(ticket));
+
+        Assert.assertEquals(0, TicketEntry.fromParams(params).getVersion());
+
+        /* Binary frames carry the version as a string */
+        params.put("version", "7");
+        Assert.assertEquals(7, TicketEntry.fromParams(params).getVersion());
+
+        params.put("version", -1);
+        try {
+            TicketEntry.fromParams(params);
+            Assert.fail("No Exception Thrown");
+        } catch (final JSONRPCException e) {
+            Assert.assertEquals(-32602, e.getCode());
+        }
+    }
+
+    @Test
+    public void testFromParamsInvalidTicket() throws Exception {
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+        final JSONObject params = new JSONObject();
+
+        /* Encoded with another codec than announced */
+        params.put("ticket-id", "ST-1");
+        params.put("ticket", TicketCodecs.SERIALIZATION.encode(ticket));
+        params.put("codec", "deflate");
+
+        try {
+            TicketEntry.fromParams(params);
+            Assert.fail("No Exception Thrown");
+        } catch (final JSONRPCException e) {
+            Assert.assertEquals(-32501, e.getCode());
+        }
+    }
+
+    @Test
+    public void testFromParamsInvalidParams() throws Exception {
+        final JSONObject params = new JSONObject();
+
+        params.put("ticket-id", "ST-1");
+        params.put("ticket", new byte[] {1});
+        params.put("invalid-param", "MUST_FAIL");
+
+        try {
+            TicketEntry.fromParams(params);
+            Assert.fail("No Exception Thrown");
+        } catch (final JSONRPCException e) {
+            Assert.assertEquals(-32602, e.getCode());
+        }
+    }
+
+    @Test
+    public void testReapBackoff() throws Exception {
+        TicketEntry entry = new TicketEntry("ST-1", null, TicketCodecs.DEFLATE, new byte[] {0x0}, 0, 1000);
+
+        Assert.assertEquals(1000, entry.getWritten());
+        Assert.assertFalse(entry.isReapDue(999));
+        Assert.assertTrue(entry.isReapDue(1000));
+
+        /* Idle for 40s, checked again after 10s */
+        entry.postponeReap(41000);
+        Assert.assertFalse(entry.isReapDue(50999));
+        Assert.assertTrue(entry.isReapDue(51000));
+
+        Assert.assertEquals(1000, TicketEntry.nextReap(2000, 1000));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+
+/**
+ * Unit test for TicketJournal.
+ */
+@RunWith(JUnit4.class)
+public class TicketJournalTest
+{
+    private TicketEntry createEntry(final String ticketId, final long version) {
+        return new TicketEntry(ticketId, "TGT-1", TicketCodecs.SERIALIZATION, new byte[] {0}, version);
+    }
+
+    private File createDirectory() throws Exception {
+        final File dir = File.createTempFile("journal", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    /**
+     * Write a snapshot and a journal, and stop without a last snapshot.
+     */
+    private VersionedTicketStore crash(final File dir) throws Exception {
+        final VersionedTicketStore store = new VersionedTicketStore(new ConcurrentTicketStore());
+        final TicketJournal journal = new TicketJournal(store, dir, "test", 60000);
+
+        Assert.assertEquals(0, journal.open(60000));
+        store.setJournal(journal);
+        journal.start();
+
+        store.add(createEntry("ST-1", 1));
+        store.add(createEntry("ST-2", 1));
+        store.add(createEntry("ST-3", 1));
+        journal.snapshot();
+
+        /* Only in the journal */
+        store.put(createEntry("ST-2", 2));
+        store.remove("ST-3");
+        store.add(createEntry("ST-4", 1));
+
+        Thread.sleep(TicketJournal.FLUSH_INTERVAL + 500);
+        journal.interrupt();
+        journal.join();
+        return store;
+    }
+
+    /**
+     * Test if the snapshot and journal are loaded after a crash.
+     */
+    @Test
+    public void testReload() throws Exception {
+        final File dir = this.createDirectory();
+        final VersionedTicketStore store = this.crash(dir);
+
+        final VersionedTicketStore reloaded = new VersionedTicketStore(new OffHeapTicketStore());
+        final TicketJournal journal = new TicketJournal(reloaded, dir, "test", 60000);
+        final int loaded = journal.open(60000);
+        journal.cleanup();
+
+        Assert.assertEquals(3, loaded);
+        Assert.assertEquals(2, reloaded.get("ST-2").getVersion());
+        Assert.assertEquals("TGT-1", reloaded.get("ST-2").getParentId());
+        Assert.assertNull(reloaded.get("ST-3"));
+        Assert.assertTrue(reloaded.getDeletedIds().contains("ST-3"));
+        Assert.assertArrayEquals(store.getDigest(0), reloaded.getDigest(0));
+    }
+
+    /**
+     * Test if a journal ending in an incomplete record is loaded.
+     */
+    @Test
+    public void testTornJournal() throws Exception {
+        final File dir = this.createDirectory();
+        final VersionedTicketStore store = this.crash(dir);
+
+        final RandomAccessFile raf = new RandomAccessFile(new File(dir, "test.journal"), "rw");
+        raf.seek(raf.length());
+        raf.write(new byte[] {0, 0, 1, 0, 1, 0});
+        raf.close();
+
+        final VersionedTicketStore reloaded = new VersionedTicketStore(new ConcurrentTicketStore());
+        final TicketJournal journal = new TicketJournal(reloaded, dir, "test", 60000);
+        final int loaded = journal.open(60000);
+        journal.cleanup();
+
+        Assert.assertEquals(3, loaded);
+        Assert.assertArrayEquals(store.getDigest(0), reloaded.getDigest(0));
+    }
+
+    /**
+     * Test if the last snapshot holds all tickets.
+     */
+    @Test
+    public void testCleanup() throws Exception {
+        final File dir = this.createDirectory();
+        final VersionedTicketStore store = new VersionedTicketStore(new ConcurrentTicketStore());
+        TicketJournal journal = new TicketJournal(store, dir, "test", 60000);
+
+        journal.open(60000);
+        store.setJournal(journal);
+        for (int i = 0; i < 1000; ++i) {
+            store.add(createEntry("ST-" + i, 1));
+        }
+        store.remove("ST-0");
+        journal.cleanup();
+
+        final File file = new File(dir, "test.journal");
+        final long length = file.length();
+
+        final VersionedTicketStore reloaded = new VersionedTicketStore(new ConcurrentTicketStore());
+        journal = new TicketJournal(reloaded, dir, "test", 60000);
+        final int loaded = journal.open(60000);
+        journal.cleanup();
+
+        Assert.assertEquals(TicketJournal.HEADER, length);
+        Assert.assertEquals(999, loaded);
+        Assert.assertTrue(reloaded.getDeletedIds().contains("ST-0"));
+        Assert.assertArrayEquals(store.getDigest(0), reloaded.getDigest(0));
+        Assert.assertFalse(new File(dir, "test.journal.1").exists());
+    }
+
+    /**
+     * Test if snapshots older than the maximum age are not loaded.
+     */
+    @Test
+    public void testMaxAge() throws Exception {
+        final File dir = this.createDirectory();
+        final VersionedTicketStore store = new VersionedTicketStore(new ConcurrentTicketStore());
+        TicketJournal journal = new TicketJournal(store, dir, "test", 60000);
+
+        journal.open(60000);
+        store.setJournal(journal);
+        store.add(createEntry("ST-1", 1));
+        journal.cleanup();
+
+        final long old = System.currentTimeMillis() - 120000;
+        new File(dir, "test.snapshot").setLastModified(old);
+        new File(dir, "test.journal").setLastModified(old);
+
+        final VersionedTicketStore reloaded = new VersionedTicketStore(new ConcurrentTicketStore());
+        journal = new TicketJournal(reloaded, dir, "test", 60000);
+        final int loaded = journal.open(60000);
+        journal.cleanup();
+
+        Assert.assertEquals(0, loaded);
+        Assert.assertEquals(0, reloaded.size());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodec;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Unit test for TicketReaper.
+ */
+@RunWith(JUnit4.class)
+public class TicketReaperTest
+{
+    /**
+     * Codec counting the tickets it decodes.
+     */
+    private static final class CountingCodec implements TicketCodec {
+        private int decoded = 0;
+
+        public String getName() {
+            return "counting";
+        }
+
+        public byte[] encode(final Ticket ticket) throws IOException {
+            return TicketCodecs.SERIALIZATION.encode(ticket);
+        }
+
+        public Ticket decode(final byte[] data) throws IOException {
+            this.decoded++;
+            return TicketCodecs.SERIALIZATION.decode(data);
+        }
+
+        public boolean accepts(final byte[] data) {
+            return TicketCodecs.SERIALIZATION.accepts(data);
+        }
+    }
+
+    private void assertDecodedWhenDue(final TicketStore store) throws Exception {
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+        final CountingCodec codec = new CountingCodec();
+        final TicketReaper reaper = new TicketReaper(store, 1000);
+        when(ticket.getId()).thenReturn("ST-1");
+
+        /* Written (last used) an hour ago */
+        store.add(new TicketEntry("ST-1", null, codec, codec.encode(ticket), 0,
+                System.currentTimeMillis() - 3600000));
+
+        Assert.assertEquals(0, reaper.reap());
+        Assert.assertEquals(1, codec.decoded);
+
+        /* Not due again for another 15 minutes */
+        Assert.assertEquals(0, reaper.reap());
+        Assert.assertEquals(0, reaper.reap());
+        Assert.assertEquals(1, codec.decoded);
+        Assert.assertNotNull(store.get("ST-1"));
+    }
+
+    private TicketEntry createTicket(final String ticketId, final boolean expired) throws Exception {
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+        when(ticket.getId()).thenReturn(ticketId);
+        when(ticket.isExpired()).thenReturn(expired);
+        return TicketEntry.encode(ticket, TicketCodecs.SERIALIZATION);
+    }
+
+    @Test
+    public void testReap() throws Exception {
+        final TicketStore store = new ConcurrentTicketStore();
+        final TicketReaper reaper = new TicketReaper(store, 1000);
+
+        store.add(createTicket("ST-1", true));
+        store.add(createTicket("ST-2", false));
+
+        Assert.assertEquals(1, reaper.reap());
+        Assert.assertNull(store.get("ST-1"));
+        Assert.assertNotNull(store.get("ST-2"));
+        Assert.assertEquals(0, reaper.reap());
+    }
+
+    @Test
+    public void testReapBatches() throws Exception {
+        final TicketStore store = new ConcurrentTicketStore();
+        final TicketReaper reaper = new TicketReaper(store, 1000);
+        final int n = TicketReaper.BATCH_SIZE * 2 + 1;
+
+        for (int i = 0; i < n; ++i) {
+            store.add(createTicket("ST-" + i, i % 2 == 0));
+        }
+
+        Assert.assertEquals(n / 2 + 1, reaper.reap());
+        Assert.assertEquals(n / 2, store.size());
+    }
+
+    @Test
+    public void testReplacedTicket() throws Exception {
+        final TicketStore store = new ConcurrentTicketStore();
+        final TicketEntry expired = createTicket("ST-1", true);
+
+        store.add(expired);
+        Assert.assertEquals(1, store.getTicketIds().size());
+
+        store.put(createTicket("ST-1", false));
+
+        Assert.assertFalse(store.removeExpired("ST-1"));
+        Assert.assertFalse(store.removeExpired("ST-2"));
+        Assert.assertNotNull(store.get("ST-1"));
+    }
+
+    @Test
+    public void testBackground() throws Exception {
+        final TicketStore store = new ConcurrentTicketStore();
+        final TicketReaper reaper = new TicketReaper(store, 10);
+
+        store.add(createTicket("ST-1", true));
+        reaper.start();
+
+        for (int i = 0; i < 100 && store.size() > 0; ++i) {
+            Thread.sleep(10);
+        }
+        reaper.cleanup();
+
+        Assert.assertEquals(0, store.size());
+        Assert.assertFalse(reaper.isAlive());
+    }
+
+    @Test
+    public void testDecodeWhenDue() throws Exception {
+        this.assertDecodedWhenDue(new ConcurrentTicketStore());
+        this.assertDecodedWhenDue(new OffHeapTicketStore());
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import java.io.IOException;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+
+/**
+ * Unit test for TicketRecord.
+ */
+@RunWith(JUnit4.class)
+public class TicketRecordTest
+{
+    @Test
+    public void testPut() throws Exception {
+        final TicketEntry entry = new TicketEntry("ST-1", null, TicketCodecs.DEFLATE, new byte[] {1, 2}, 3);
+        final TicketRecord record = TicketRecord.decode(TicketRecord.encodePut(entry));
+
+        Assert.assertEquals(TicketRecord.PUT, record.getType());
+        Assert.assertEquals("ST-1", record.getTicketId());
+        Assert.assertNull(record.getEntry().getParentId());
+        Assert.assertSame(TicketCodecs.DEFLATE, record.getEntry().getCodec());
+        Assert.assertArrayEquals(new byte[] {1, 2}, record.getEntry().getData());
+        Assert.assertEquals(3, record.getEntry().getVersion());
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        final TicketRecord record = TicketRecord.decode(TicketRecord.encodeDelete("ST-1", 1234));
+
+        Assert.assertEquals(TicketRecord.DELETE, record.getType());
+        Assert.assertEquals("ST-1", record.getTicketId());
+        Assert.assertNull(record.getEntry());
+        Assert.assertEquals(1234, record.getDeleted());
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalid() throws Exception {
+        TicketRecord.decode(new byte[] {7, 0, 0});
+    }
+}
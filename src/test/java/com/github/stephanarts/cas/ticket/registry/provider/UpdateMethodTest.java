@@ -15,8 +15,6 @@
 
 package com.github.stephanarts.cas.ticket.registry.provider;
 
-import java.util.HashMap;
-
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectOutputStream;
 
@@ -36,6 +34,7 @@ import org.jasig.cas.ticket.ServiceTicket;
 import com.github.stephanarts.cas.ticket.registry.provider.UpdateMethod;
 import com.github.stephanarts.cas.ticket.registry.support.IMethod;
 import com.github.stephanarts.cas.ticket.registry.support.JSONRPCException;
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -51,7 +50,7 @@ public class UpdateMethodTest
     @Test
     public void testValidInput() throws Exception {
         final byte[] serializedTicket;
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new UpdateMethod(map);
 
@@ -59,7 +58,7 @@ public class UpdateMethodTest
         final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
         when(ticket.getId()).thenReturn(ticketId);
 
-        map.put(ticketId.hashCode(), ticket);
+        map.put(new TicketEntry(ticketId, null, TicketCodecs.SERIALIZATION, TicketCodecs.SERIALIZATION.encode(ticket)));
 
         try {
             ByteArrayOutputStream bo = new ByteArrayOutputStream();
@@ -81,7 +80,7 @@ public class UpdateMethodTest
 
     @Test
     public void testMissingParameters() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new UpdateMethod(map);
 
@@ -99,7 +98,7 @@ public class UpdateMethodTest
 
     @Test
     public void testInvalidParameters1() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new UpdateMethod(map);
 
@@ -122,7 +121,7 @@ public class UpdateMethodTest
 
     @Test
     public void testInvalidParameters2() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new UpdateMethod(map);
 
@@ -144,7 +143,7 @@ public class UpdateMethodTest
 
     @Test
     public void testDeserializationError() throws Exception {
-        final HashMap<Integer, Ticket> map = new HashMap<Integer, Ticket>();
+        final TicketStore map = new ConcurrentTicketStore();
         final JSONObject params = new JSONObject();
         final IMethod method = new UpdateMethod(map);
 
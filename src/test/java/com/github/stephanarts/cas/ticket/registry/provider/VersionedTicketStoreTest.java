@@ -0,0 +1,172 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.provider;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.jasig.cas.ticket.ServiceTicket;
+
+import com.github.stephanarts.cas.ticket.registry.support.TicketCodecs;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Unit test for VersionedTicketStore.
+ */
+@RunWith(JUnit4.class)
+public class VersionedTicketStoreTest
+{
+    private TicketEntry createEntry(final String ticketId, final long version) {
+        return new TicketEntry(ticketId, null, TicketCodecs.SERIALIZATION, new byte[] {0}, version);
+    }
+
+    @Test
+    public void testDigest() throws Exception {
+        final VersionedTicketStore a = new VersionedTicketStore(new ConcurrentTicketStore());
+        final VersionedTicketStore b = new VersionedTicketStore(new OffHeapTicketStore());
+
+        Assert.assertArrayEquals(a.getDigest(0), b.getDigest(0));
+
+        /* Same tickets and versions, written in another order */
+        a.add(createEntry("ST-1", 1));
+        a.put(createEntry("ST-2", 1));
+        a.put(createEntry("ST-2", 2));
+        b.put(createEntry("ST-2", 2));
+        b.add(createEntry("ST-1", 1));
+
+        Assert.assertArrayEquals(a.getDigest(0), b.getDigest(0));
+        Assert.assertArrayEquals(
+                a.getDigest(VersionedTicketStore.LEAF_DEPTH),
+                b.getDigest(VersionedTicketStore.LEAF_DEPTH));
+
+        /* Another version differs in the leaf of the ticket only */
+        b.put(createEntry("ST-2", 3));
+
+        long[] leavesA = a.getDigest(VersionedTicketStore.LEAF_DEPTH);
+        long[] leavesB = b.getDigest(VersionedTicketStore.LEAF_DEPTH);
+        int leaf = VersionedTicketStore.getLeaf("ST-2");
+
+        Assert.assertEquals(VersionedTicketStore.LEAVES, leavesA.length);
+        Assert.assertFalse(a.getDigest(0)[0] == b.getDigest(0)[0]);
+        for (int i = 0; i < leavesA.length; ++i) {
+            Assert.assertEquals(i == leaf, leavesA[i] != leavesB[i]);
+        }
+
+        /* Removed tickets are no longer part of the digest */
+        a.remove("ST-1");
+        a.remove("ST-2");
+        Assert.assertEquals(0, a.getDigest(0)[0]);
+    }
+
+    @Test
+    public void testVersions() throws Exception {
+        final VersionedTicketStore store = new VersionedTicketStore(new ConcurrentTicketStore());
+        final TicketEntry entry = createEntry("ST-1", 2);
+
+        Assert.assertNull(store.put(entry));
+
+        /* Older versions are ignored */
+        Assert.assertSame(entry, store.put(createEntry("ST-1", 1)));
+        Assert.assertEquals(2, store.get("ST-1").getVersion());
+
+        Assert.assertSame(entry, store.put(createEntry("ST-1", 2)));
+        Assert.assertEquals(2, store.put(createEntry("ST-1", 3)).getVersion());
+        Assert.assertEquals(3, store.get("ST-1").getVersion());
+    }
+
+    @Test
+    public void testConflicts() throws Exception {
+        final VersionedTicketStore a = new VersionedTicketStore(new ConcurrentTicketStore());
+        final VersionedTicketStore b = new VersionedTicketStore(new ConcurrentTicketStore());
+        final TicketEntry low = new TicketEntry("ST-1", null, TicketCodecs.SERIALIZATION, new byte[] {1, 2}, 2);
+        final TicketEntry high = new TicketEntry("ST-1", null, TicketCodecs.SERIALIZATION, new byte[] {(byte) 0x80}, 2);
+
+        Assert.assertTrue(VersionedTicketStore.compare(low, high) < 0);
+        Assert.assertFalse(VersionedTicketStore.checksum(low) == VersionedTicketStore.checksum(high));
+
+        /* One write reached each store, the digests tell them apart */
+        a.put(low);
+        b.put(high);
+        Assert.assertFalse(a.getDigest(0)[0] == b.getDigest(0)[0]);
+
+        /* Same version, both stores keep the same write whatever the order */
+        a.put(high);
+        b.put(low);
+        Assert.assertSame(high, a.get("ST-1"));
+        Assert.assertSame(high, b.get("ST-1"));
+        Assert.assertArrayEquals(a.getDigest(0), b.getDigest(0));
+    }
+
+    @Test
+    public void testTombstones() throws Exception {
+        final VersionedTicketStore store = new VersionedTicketStore(new ConcurrentTicketStore());
+
+        store.add(createEntry("ST-1", 1));
+        Assert.assertNotNull(store.remove("ST-1"));
+
+        /* Deleted tickets do not come back */
+        Assert.assertFalse(store.add(createEntry("ST-1", 1)));
+        Assert.assertNull(store.put(createEntry("ST-1", 2)));
+        Assert.assertNull(store.get("ST-1"));
+        Assert.assertTrue(store.getDeletedIds().contains("ST-1"));
+
+        /* Deletes may overtake the write */
+        Assert.assertNull(store.remove("ST-2"));
+        Assert.assertFalse(store.add(createEntry("ST-2", 1)));
+
+        store.setTombstoneTimeout(1);
+        Thread.sleep(5);
+        store.purgeTombstones(System.currentTimeMillis());
+
+        Assert.assertTrue(store.getDeletedIds().isEmpty());
+        Assert.assertTrue(store.add(createEntry("ST-1", 1)));
+    }
+
+    @Test
+    public void testRemoveExpired() throws Exception {
+        final VersionedTicketStore store = new VersionedTicketStore(new ConcurrentTicketStore());
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+        when(ticket.getId()).thenReturn("ST-1");
+        when(ticket.isExpired()).thenReturn(true);
+
+        store.add(TicketEntry.encode(ticket, TicketCodecs.SERIALIZATION));
+
+        Assert.assertTrue(store.removeExpired("ST-1"));
+        Assert.assertEquals(0, store.getDigest(0)[0]);
+
+        /* A resync from a provider that did not reap it yet is ignored */
+        Assert.assertTrue(store.getDeletedIds().contains("ST-1"));
+        store.put(TicketEntry.encode(ticket, TicketCodecs.SERIALIZATION));
+        Assert.assertNull(store.get("ST-1"));
+        Assert.assertEquals(0, store.getDigest(0)[0]);
+    }
+
+    @Test
+    public void testExistingTickets() throws Exception {
+        final TicketStore tickets = new ConcurrentTicketStore();
+        final VersionedTicketStore empty = new VersionedTicketStore(new ConcurrentTicketStore());
+
+        tickets.add(createEntry("ST-1", 1));
+        empty.add(createEntry("ST-1", 1));
+
+        Assert.assertArrayEquals(empty.getDigest(0), new VersionedTicketStore(tickets).getDigest(0));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.support;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import org.zeromq.ZMsg;
+
+/**
+ * Unit test for BinaryFrames.
+ */
+@RunWith(JUnit4.class)
+public class BinaryFramesTest
+{
+    private JSONObject createObject() {
+        JSONObject object = new JSONObject();
+
+        object.put("ticket-id", "ST-1");
+        object.put("ticket", new byte[] {1, 2, 3});
+        object.put("tickets", new JSONArray().put(new byte[] {4}).put(new byte[] {5, 6}));
+        return object;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        JSONObject object = createObject();
+        List<byte[]> frames = new ArrayList<byte[]>();
+        ZMsg message = new ZMsg();
+
+        JSONArray header = BinaryFrames.extract(object, frames);
+
+        Assert.assertEquals(2, header.length());
+        Assert.assertEquals(3, frames.size());
+        Assert.assertEquals(1, object.length());
+
+        /* Header and object survive serialization */
+        object = new JSONObject(object.toString());
+        header = new JSONArray(header.toString());
+        for (byte[] frame: frames) {
+            message.add(frame);
+        }
+
+        BinaryFrames.inject(object, header, message.iterator());
+
+        Assert.assertArrayEquals(new byte[] {1, 2, 3}, BinaryFrames.getBytes(object, "ticket"));
+        Assert.assertArrayEquals(new byte[] {5, 6}, BinaryFrames.getBytes(object.getJSONArray("tickets"), 1));
+        Assert.assertEquals("ST-1", object.getString("ticket-id"));
+    }
+
+    @Test
+    public void testBase64() throws Exception {
+        JSONObject object = createObject();
+
+        BinaryFrames.encodeBase64(object);
+        object = new JSONObject(object.toString());
+
+        Assert.assertTrue(object.get("ticket") instanceof String);
+        Assert.assertArrayEquals(new byte[] {1, 2, 3}, BinaryFrames.getBytes(object, "ticket"));
+        Assert.assertArrayEquals(new byte[] {4}, BinaryFrames.getBytes(object.getJSONArray("tickets"), 0));
+    }
+
+    @Test
+    public void testMissingFrames() throws Exception {
+        JSONObject object = new JSONObject();
+        JSONArray header = new JSONArray("[[\"ticket\", -1]]");
+
+        try {
+            BinaryFrames.inject(object, header, new ZMsg().iterator());
+            Assert.fail("No Exception Thrown");
+        } catch (final JSONRPCException e) {
+            Assert.assertEquals(-32600, e.getCode());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.support;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+/**
+ * Helpers shared by the tests that start servers and providers.
+ */
+public final class Fixtures {
+
+    /**
+     * Interval in milliseconds between two checks of a Condition.
+     */
+    private static final long POLL_INTERVAL = 10;
+
+    /**
+     * State a test waits for.
+     */
+    public interface Condition {
+
+        /**
+         * Check the state.
+         *
+         * @return true when the state is reached.
+         *
+         * @throws Exception when the check fails.
+         */
+        boolean holds() throws Exception;
+    }
+
+    /**
+     * Utility class.
+     */
+    private Fixtures() {
+    }
+
+    /**
+     * Return a tcp address on a port that is not in use.
+     *
+     * @return tcp address on localhost.
+     *
+     * @throws IOException when no port is available.
+     */
+    public static String freeAddress() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return "tcp://localhost:" + socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Return a number of tcp addresses on ports that are not in use.
+     *
+     * @param count number of addresses.
+     *
+     * @return tcp addresses on localhost.
+     *
+     * @throws IOException when no port is available.
+     */
+    public static String[] freeAddresses(final int count) throws IOException {
+        String[] addresses = new String[count];
+        for (int i = 0; i < count; ++i) {
+            addresses[i] = freeAddress();
+        }
+        return addresses;
+    }
+
+    /**
+     * Wait until a condition holds.
+     *
+     * @param condition the state to wait for.
+     * @param timeout   maximum time to wait in milliseconds.
+     *
+     * @return true if the condition holds, false on timeout.
+     *
+     * @throws Exception when checking the condition fails.
+     */
+    public static boolean await(
+            final Condition condition,
+            final long timeout) throws Exception {
+        final long deadline = System.currentTimeMillis() + timeout;
+
+        while (!condition.holds()) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(POLL_INTERVAL);
+        }
+        return true;
+    }
+}
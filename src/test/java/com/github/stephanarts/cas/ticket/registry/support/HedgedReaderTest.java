@@ -0,0 +1,131 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.support;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit test for HedgedReader.
+ */
+@RunWith(JUnit4.class)
+public class HedgedReaderTest
+{
+    private ExecutorService executor;
+
+    private final AtomicInteger calls = new AtomicInteger(0);
+
+    @Before
+    public void setUp() {
+        this.executor = Executors.newCachedThreadPool();
+        this.calls.set(0);
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Return a read that returns a value after a delay.
+     */
+    private Callable<String> read(final String value, final long delay) {
+        return new Callable<String>() {
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                Thread.sleep(delay);
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Return a read that fails with a JSONRPCException.
+     */
+    private Callable<String> fail(final int code) {
+        return new Callable<String>() {
+            public String call() throws JSONRPCException {
+                calls.incrementAndGet();
+                throw new JSONRPCException(code, "Error");
+            }
+        };
+    }
+
+    private List<Callable<String>> reads(final Callable<String> a, final Callable<String> b) {
+        List<Callable<String>> reads = new ArrayList<Callable<String>>();
+        reads.add(a);
+        reads.add(b);
+        return reads;
+    }
+
+    @Test
+    public void testFirst() throws Exception {
+        final HedgedReader<String> reader = new HedgedReader<String>(this.executor, 1500);
+
+        Assert.assertEquals("a", reader.read(reads(read("a", 0), read("b", 0)), 1000));
+        Assert.assertEquals(1, this.calls.get());
+    }
+
+    @Test
+    public void testMiss() throws Exception {
+        final HedgedReader<String> reader = new HedgedReader<String>(this.executor, 1500);
+
+        Assert.assertEquals("b", reader.read(reads(read(null, 0), read("b", 0)), 1000));
+        Assert.assertEquals("b", reader.read(reads(fail(-32500), read("b", 0)), 1000));
+        Assert.assertNull(reader.read(reads(read(null, 0), read(null, 0)), 1000));
+    }
+
+    @Test
+    public void testHedge() throws Exception {
+        final HedgedReader<String> reader = new HedgedReader<String>(this.executor, 1500);
+
+        final long startTime = System.currentTimeMillis();
+        Assert.assertEquals("b", reader.read(reads(read("a", 1000), read("b", 0)), 20));
+        Assert.assertTrue(System.currentTimeMillis() - startTime < 1000);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        final HedgedReader<String> reader = new HedgedReader<String>(this.executor, 100);
+
+        Assert.assertNull(reader.read(reads(read("a", 1000), read("b", 1000)), 20));
+    }
+
+    @Test
+    public void testDeleted() throws Exception {
+        final HedgedReader<String> reader = new HedgedReader<String>(this.executor, 1500);
+
+        try {
+            reader.read(reads(fail(-32505), read("b", 0)), 1000);
+            Assert.fail("No Exception Thrown");
+        } catch (final JSONRPCException e) {
+            Assert.assertEquals(-32505, e.getCode());
+        }
+        Assert.assertEquals(1, this.calls.get());
+    }
+}
@@ -113,6 +113,10 @@ public class JSONRPCClientTest
                         message.addString("{\"json-rpc\": \"2.0\", \"deadbeef\": { \"OK\":\"...\"}}");
                         message.send(this.socket);
                     }
+                    if (methodName.equals("rpc.capabilities")) {
+                        message.addString("{\"json-rpc\": \"2.0\", \"error\": {\"code\": -32601, \"message\": \"Method not Found\"}}");
+                        message.send(this.socket);
+                    }
                     if (methodName.equals("timeout")) {
                     }
                     logger.error("METHOD: "+methodName);
@@ -166,6 +170,65 @@ public class JSONRPCClientTest
         c.destroy();
     }
 
+    /**
+     * testLastReply
+     *
+     * Goal:
+     * Test that successful replies to requests are recorded,
+     * and error replies are not.
+     *
+     */
+    @Test
+    public void testLastReply() throws Exception {
+        JSONRPCClient c = new JSONRPCClient(JSONRPCClientTest.connectURI);
+        JSONObject params = new JSONObject();
+        long before = System.currentTimeMillis();
+
+        c.connect();
+
+        Assert.assertEquals(0, c.getLastReply());
+
+        try {
+            c.call("error", params);
+            Assert.fail("No Exception Thrown");
+        } catch (final JSONRPCException e) {
+            Assert.assertEquals(-32501, e.getCode());
+        }
+
+        Assert.assertEquals(0, c.getLastReply());
+
+        c.call("valid", params);
+
+        Assert.assertTrue(c.getLastReply() >= before);
+        Assert.assertTrue(c.getLastLatency() >= 0);
+
+        c.destroy();
+    }
+
+    /**
+     * testCapabilitiesNotSupported
+     *
+     * Goal:
+     * Test that servers without 'rpc.capabilities' are
+     * called with plain JSON, byte[] params as Base64.
+     *
+     */
+    @Test
+    public void testCapabilitiesNotSupported() throws Exception {
+        JSONRPCClient c = new JSONRPCClient(JSONRPCClientTest.connectURI);
+        JSONObject params = new JSONObject();
+
+        c.connect();
+
+        Assert.assertEquals(0, c.getCapabilities().length());
+
+        params.put("data", new byte[] {0x0});
+        c.call("valid", params);
+        Assert.assertEquals("AA==", params.getString("data"));
+
+        c.destroy();
+    }
+
     /**
      * testInvalidResponse
      *
@@ -287,6 +350,97 @@ public class JSONRPCClientTest
         Assert.fail("No Exception Thrown");
     }
 
+    /**
+     * testConcurrentCalls
+     *
+     * Goal:
+     * Test that replies are routed to the right caller when
+     * multiple threads share a single client.
+     */
+    @Test
+    public void testConcurrentCalls() throws Exception {
+        logger.info("testConcurrentCalls");
+        final JSONRPCClient c = new JSONRPCClient(JSONRPCClientTest.connectURI);
+        final Thread[] threads = new Thread[8];
+        final int[] failures = {0};
+
+        c.connect();
+
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int n = 0; n < 10; ++n) {
+                        try {
+                            c.call("valid", new JSONObject());
+                        } catch (final JSONRPCException e) {
+                            synchronized(failures) {
+                                failures[0]++;
+                            }
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i].join();
+        }
+
+        c.destroy();
+
+        Assert.assertEquals(0, failures[0]);
+    }
+
+    /**
+     * testCallAfterTimeout
+     *
+     * Goal:
+     * Test that a late or missing reply does not affect the next call.
+     */
+    @Test
+    public void testCallAfterTimeout() throws Exception {
+        logger.info("testCallAfterTimeout");
+        JSONRPCClient c = new JSONRPCClient(JSONRPCClientTest.connectURI);
+        JSONObject result = null;
+
+        c.connect();
+
+        try {
+            c.call("timeout", new JSONObject());
+            Assert.fail("No Exception Thrown");
+        } catch (final JSONRPCException e) {
+            Assert.assertEquals(-32300, e.getCode());
+        }
+
+        result = c.call("valid", new JSONObject());
+
+        c.destroy();
+
+        Assert.assertTrue(result.has("OK"));
+    }
+
+    /**
+     * testCallDisconnected
+     *
+     * Goal:
+     * Test that calling a disconnected client fails.
+     */
+    @Test
+    public void testCallDisconnected() throws Exception {
+        JSONRPCClient c = new JSONRPCClient(JSONRPCClientTest.connectURI);
+
+        try {
+            c.call("valid", new JSONObject());
+        } catch (final JSONRPCException e) {
+            c.destroy();
+            Assert.assertEquals(-32603, e.getCode());
+            return;
+        }
+
+        Assert.fail("No Exception Thrown");
+    }
+
     /**
      * Test if getConnectURI returns the URI.
      */
@@ -358,4 +512,53 @@ public class JSONRPCClientTest
 
     }
 
+
+    /**
+     * testCallBatch
+     *
+     * Goal:
+     * Test a batch of calls, with binary params and an error.
+     *
+     */
+    @Test
+    public void testCallBatch() throws Exception {
+        JSONRPCServer server = new JSONRPCServer("tcp://localhost:4470");
+        server.registerMethod("echo", new IMethod() {
+            public JSONObject execute(final JSONObject params) {
+                return new JSONObject().put("data", params.get("data"));
+            }
+        });
+        server.start();
+
+        JSONRPCClient c = new JSONRPCClient("tcp://localhost:4470");
+        c.connect();
+
+        Assert.assertTrue(c.getCapabilities().getBoolean("rpc.batch"));
+
+        JSONObject[] results = c.callBatch(
+                new String[] {"echo", "echo"},
+                new JSONObject[] {
+                    new JSONObject().put("data", new byte[] {0x1}),
+                    new JSONObject().put("data", new byte[] {0x2, 0x2})});
+
+        JSONRPCException error = null;
+        try {
+            c.callBatch(
+                    new String[] {"echo", "missing"},
+                    new JSONObject[] {
+                        new JSONObject().put("data", new byte[] {0x1}),
+                        new JSONObject()});
+        } catch (final JSONRPCException e) {
+            error = e;
+        }
+
+        c.destroy();
+        server.cleanup();
+
+        Assert.assertEquals(2, results.length);
+        Assert.assertArrayEquals(new byte[] {0x1}, (byte[]) results[0].get("data"));
+        Assert.assertArrayEquals(new byte[] {0x2, 0x2}, (byte[]) results[1].get("data"));
+        Assert.assertNotNull(error);
+        Assert.assertEquals(-32601, error.getCode());
+    }
 }
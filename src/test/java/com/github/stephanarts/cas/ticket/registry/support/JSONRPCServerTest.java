@@ -23,6 +23,7 @@ import org.junit.Assert;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import org.zeromq.ZMQ;
@@ -65,6 +66,21 @@ public class JSONRPCServerTest
         }
     }
 
+    private class TestSlowMethod implements IMethod {
+        public JSONObject execute(JSONObject params) throws Exception {
+            Thread.sleep(500);
+            return new JSONObject();
+        }
+    }
+
+    private class TestEchoMethod implements IMethod {
+        public JSONObject execute(JSONObject params) {
+            JSONObject result = new JSONObject();
+            result.put("data", params.get("data"));
+            return result;
+        }
+    }
+
     private class TestJSONRPCExceptionMethod implements IMethod {
         public JSONObject execute(JSONObject params) throws JSONRPCException {
             throw new JSONRPCException(-35400, "Application error");
@@ -459,4 +475,280 @@ public class JSONRPCServerTest
 
         s.cleanup();
     }
+
+    @Test
+    public void testSetWorkers() throws Exception {
+        JSONRPCServer s = new JSONRPCServer("tcp://localhost:7902");
+
+        s.setWorkers(3);
+        Assert.assertEquals(3, s.getWorkers());
+
+        try {
+            s.setWorkers(0);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            Assert.assertEquals(3, s.getWorkers());
+        }
+    }
+
+    @Test
+    public void testParallelCalls() throws Exception {
+        JSONRPCServer server = new JSONRPCServer("tcp://localhost:7903");
+        Context context = ZMQ.context(1);
+        Socket socket = context.socket(ZMQ.DEALER);
+
+        server.setWorkers(4);
+        server.registerMethod("slow", new TestSlowMethod());
+        server.start();
+        socket.connect("tcp://localhost:7903");
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 4; ++i) {
+            socket.send(new byte[0], ZMQ.SNDMORE);
+            socket.send("{\"jsonrpc\":\"2.0\",\"id\":\""+i+"\",\"method\":\"slow\",\"params\":{}}", 0);
+        }
+
+        PollItem[] items = {new PollItem(socket, Poller.POLLIN)};
+        int replies = 0;
+        while (replies < 4 && ZMQ.poll(items, 5000) > 0) {
+            ZMsg message = ZMsg.recvMsg(socket);
+            JSONObject response = new JSONObject(new String(message.getLast().getData()));
+            Assert.assertTrue(response.has("result"));
+            replies++;
+        }
+        long duration = System.currentTimeMillis() - start;
+
+        socket.close();
+        context.close();
+        server.cleanup();
+
+        Assert.assertEquals(4, replies);
+        Assert.assertTrue("Calls were not executed in parallel: "+duration+"ms", duration < 1500);
+    }
+
+    @Test
+    public void testHeartbeatWhileBusy() throws Exception {
+        JSONRPCServer server = new JSONRPCServer("tcp://localhost:7904");
+        Context context = ZMQ.context(1);
+        Socket socket = context.socket(ZMQ.DEALER);
+        Socket ping = context.socket(ZMQ.REQ);
+
+        server.setWorkers(1);
+        server.registerMethod("slow", new TestSlowMethod());
+        server.start();
+        socket.connect("tcp://localhost:7904");
+        ping.connect("tcp://localhost:7904");
+
+        socket.send(new byte[0], ZMQ.SNDMORE);
+        socket.send("{\"jsonrpc\":\"2.0\",\"id\":\"1\",\"method\":\"slow\",\"params\":{}}", 0);
+        Thread.sleep(100);
+
+        long start = System.currentTimeMillis();
+        ping.send(new byte[] {0x0}, 0);
+
+        PollItem[] items = {new PollItem(ping, Poller.POLLIN)};
+        int rc = ZMQ.poll(items, 5000);
+        long duration = System.currentTimeMillis() - start;
+
+        socket.close();
+        ping.close();
+        context.close();
+        server.cleanup();
+
+        Assert.assertEquals(1, rc);
+        Assert.assertTrue("Heartbeat was blocked by a worker: "+duration+"ms", duration < 300);
+    }
+
+    @Test
+    public void testCapabilities() throws Exception {
+        JSONRPCServer server = new JSONRPCServer("tcp://localhost:7905");
+        Context context = ZMQ.context(1);
+        Socket socket = context.socket(ZMQ.REQ);
+
+        server.start();
+        socket.connect("tcp://localhost:7905");
+
+        socket.send("{\"jsonrpc\":\"2.0\",\"id\":\"1\",\"method\":\"rpc.capabilities\",\"params\":{}}", 0);
+
+        PollItem[] items = {new PollItem(socket, Poller.POLLIN)};
+        int rc = ZMQ.poll(items, 5000);
+        JSONObject response = null;
+        if (rc == 1) {
+            response = new JSONObject(new String(ZMsg.recvMsg(socket).getLast().getData()));
+        }
+
+        socket.close();
+        context.close();
+        server.cleanup();
+
+        Assert.assertNotNull(response);
+        Assert.assertTrue(response.getJSONObject("result").getBoolean("binary"));
+    }
+
+    @Test
+    public void testBinaryFrames() throws Exception {
+        JSONRPCServer server = new JSONRPCServer("tcp://localhost:7906");
+        Context context = ZMQ.context(1);
+        Socket socket = context.socket(ZMQ.DEALER);
+        byte[] data = {0x0};
+
+        server.registerMethod("echo", new TestEchoMethod());
+        server.start();
+        socket.connect("tcp://localhost:7906");
+
+        /* Binary frame */
+        socket.send(new byte[0], ZMQ.SNDMORE);
+        socket.send("{\"jsonrpc\":\"2.0\",\"id\":\"1\",\"method\":\"echo\",\"params\":{},\"binary\":[[\"data\",-1]]}", ZMQ.SNDMORE);
+        socket.send(data, 0);
+
+        /* Same request, Base64 encoded */
+        socket.send(new byte[0], ZMQ.SNDMORE);
+        socket.send("{\"jsonrpc\":\"2.0\",\"id\":\"2\",\"method\":\"echo\",\"params\":{\"data\":\"AA==\"}}", 0);
+
+        PollItem[] items = {new PollItem(socket, Poller.POLLIN)};
+        ZMsg[] replies = new ZMsg[2];
+        for (int i = 0; i < 2 && ZMQ.poll(items, 5000) > 0; ++i) {
+            ZMsg message = ZMsg.recvMsg(socket);
+            message.pop();
+            JSONObject response = new JSONObject(new String(message.getFirst().getData()));
+            replies[response.getInt("id") - 1] = message;
+        }
+
+        socket.close();
+        context.close();
+        server.cleanup();
+
+        Assert.assertNotNull(replies[0]);
+        Assert.assertEquals(2, replies[0].size());
+        Assert.assertArrayEquals(data, replies[0].getLast().getData());
+
+        Assert.assertNotNull(replies[1]);
+        Assert.assertEquals(1, replies[1].size());
+        JSONObject response = new JSONObject(new String(replies[1].getFirst().getData()));
+        Assert.assertEquals("AA==", response.getJSONObject("result").getString("data"));
+    }
+
+    /**
+     * Test a method registered with an opcode.
+     */
+    @Test
+    public void testBinaryOpcode() throws Exception {
+        JSONRPCServer server = new JSONRPCServer("tcp://localhost:7907");
+        Context context = ZMQ.context(1);
+        Socket socket = context.socket(ZMQ.DEALER);
+        byte[] data = {0x0, 0x1, 0x2};
+
+        server.registerMethod("echo", new TestEchoMethod());
+        server.registerOpcode(1, "echo", new String[] {"name"}, "data", "data");
+
+        try {
+            server.registerOpcode(1, "echo", new String[] {}, null, null);
+            Assert.fail("No Exception Thrown");
+        } catch (final JSONRPCException e) {
+            Assert.assertEquals(-1, e.getCode());
+        }
+
+        server.start();
+        socket.connect("tcp://localhost:7907");
+
+        /* [][opcode][name][data] */
+        socket.send(new byte[0], ZMQ.SNDMORE);
+        socket.send(new byte[] {0x1}, ZMQ.SNDMORE);
+        socket.send("test", ZMQ.SNDMORE);
+        socket.send(data, 0);
+
+        PollItem[] items = {new PollItem(socket, Poller.POLLIN)};
+        ZMsg reply = null;
+        if (ZMQ.poll(items, 5000) > 0) {
+            reply = ZMsg.recvMsg(socket);
+        }
+
+        /* Unknown opcode */
+        socket.send(new byte[0], ZMQ.SNDMORE);
+        socket.send(new byte[] {0x9}, 0);
+
+        ZMsg error = null;
+        if (ZMQ.poll(items, 5000) > 0) {
+            error = ZMsg.recvMsg(socket);
+        }
+
+        socket.close();
+        context.close();
+        server.cleanup();
+
+        Assert.assertNotNull(reply);
+        reply.pop();
+        Assert.assertEquals(2, reply.size());
+        Assert.assertEquals(BinaryMethod.STATUS_OK, reply.pop().getData()[0]);
+        Assert.assertArrayEquals(data, reply.pop().getData());
+
+        Assert.assertNotNull(error);
+        error.pop();
+        Assert.assertEquals(3, error.size());
+        Assert.assertEquals(BinaryMethod.STATUS_ERROR, error.pop().getData()[0]);
+    }
+
+    /**
+     * Test a JSON-RPC batch, with binary frames.
+     */
+    @Test
+    public void testBatch() throws Exception {
+        JSONRPCServer server = new JSONRPCServer("tcp://localhost:7908");
+        Context context = ZMQ.context(1);
+        Socket socket = context.socket(ZMQ.DEALER);
+        byte[] data1 = {0x1};
+        byte[] data2 = {0x2, 0x2};
+
+        server.registerMethod("echo", new TestEchoMethod());
+        server.start();
+        socket.connect("tcp://localhost:7908");
+
+        /* echo, missing method (with a frame), echo */
+        socket.send(new byte[0], ZMQ.SNDMORE);
+        socket.send("["
+                + "{\"jsonrpc\":\"2.0\",\"id\":\"1\",\"method\":\"echo\",\"params\":{},\"binary\":[[\"data\",-1]]},"
+                + "{\"jsonrpc\":\"2.0\",\"id\":\"2\",\"method\":\"missing\",\"params\":{},\"binary\":[[\"data\",-1]]},"
+                + "{\"jsonrpc\":\"2.0\",\"id\":\"3\",\"method\":\"echo\",\"params\":{},\"binary\":[[\"data\",-1]]}"
+                + "]", ZMQ.SNDMORE);
+        socket.send(data1, ZMQ.SNDMORE);
+        socket.send(new byte[] {0x0}, ZMQ.SNDMORE);
+        socket.send(data2, 0);
+
+        PollItem[] items = {new PollItem(socket, Poller.POLLIN)};
+        ZMsg reply = null;
+        if (ZMQ.poll(items, 5000) > 0) {
+            reply = ZMsg.recvMsg(socket);
+        }
+
+        /* Empty batch */
+        socket.send(new byte[0], ZMQ.SNDMORE);
+        socket.send("[]", 0);
+
+        ZMsg empty = null;
+        if (ZMQ.poll(items, 5000) > 0) {
+            empty = ZMsg.recvMsg(socket);
+        }
+
+        socket.close();
+        context.close();
+        server.cleanup();
+
+        Assert.assertNotNull(reply);
+        reply.pop();
+        Assert.assertEquals(3, reply.size());
+
+        JSONArray responses = new JSONArray(new String(reply.pop().getData()));
+        Assert.assertEquals(3, responses.length());
+        Assert.assertEquals("1", responses.getJSONObject(0).getString("id"));
+        Assert.assertTrue(responses.getJSONObject(0).has("binary"));
+        Assert.assertEquals(-32601, responses.getJSONObject(1).getJSONObject("error").getInt("code"));
+        Assert.assertEquals("3", responses.getJSONObject(2).getString("id"));
+        Assert.assertArrayEquals(data1, reply.pop().getData());
+        Assert.assertArrayEquals(data2, reply.pop().getData());
+
+        Assert.assertNotNull(empty);
+        empty.pop();
+        JSONObject response = new JSONObject(new String(empty.pop().getData()));
+        Assert.assertEquals(-32600, response.getJSONObject("error").getInt("code"));
+    }
 }
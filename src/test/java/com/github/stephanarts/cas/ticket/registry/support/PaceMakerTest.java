@@ -94,4 +94,87 @@ public class PaceMakerTest
         p.destroy();
     }
 
+    @Test
+    public void testWorkers() throws Exception {
+        JSONRPCClient[] c = new JSONRPCClient[7];
+        PaceMaker p = new PaceMaker();
+
+        Assert.assertEquals(1, p.getWorkers());
+
+        p.setWorkers(3);
+        Assert.assertEquals(3, p.getWorkers());
+
+        for (int i = 0; i < c.length; ++i) {
+            c[i] = new JSONRPCClient("tcp://localhost:1234");
+            p.addClient(c[i]);
+        }
+
+        Assert.assertEquals(7, p.getClientCount());
+        Assert.assertEquals(3, p.getClientCount(0));
+        Assert.assertEquals(2, p.getClientCount(1));
+        Assert.assertEquals(2, p.getClientCount(2));
+
+        p.removeClient(c[0]);
+        p.removeClient(c[1]);
+
+        Assert.assertEquals(2, p.getClientCount(0));
+        Assert.assertEquals(2, p.getClientCount(1));
+        Assert.assertEquals(1, p.getClientCount(2));
+
+        p.setWorkers(2);
+        Assert.assertEquals(3, p.getClientCount(0));
+        Assert.assertEquals(2, p.getClientCount(1));
+
+        try {
+            p.setWorkers(0);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            Assert.assertEquals(2, p.getWorkers());
+        }
+
+        for (int i = 0; i < c.length; ++i) {
+            c[i].destroy();
+        }
+        p.destroy();
+    }
+
+    @Test
+    public void testWorkersHeartbeat() throws Exception {
+        JSONRPCServer server = new JSONRPCServer(Fixtures.freeAddress());
+        String[] dead = Fixtures.freeAddresses(2);
+        final JSONRPCClient[] c = {
+            new JSONRPCClient(server.getBindUri()),
+            new JSONRPCClient(dead[0]),
+            new JSONRPCClient(dead[1])};
+        PaceMaker p = new PaceMaker();
+
+        server.start();
+
+        p.setHeartbeatInterval(100);
+        p.setHeartbeatTimeout(200);
+        p.setWorkers(3);
+
+        for (int i = 0; i < c.length; ++i) {
+            p.addClient(c[i]);
+        }
+        int[] shards = {p.getClientCount(0), p.getClientCount(1), p.getClientCount(2)};
+
+        /* Each worker marks its own client */
+        boolean swept = Fixtures.await(new Fixtures.Condition() {
+            public boolean holds() {
+                return c[0].getAvailable()
+                    && !c[1].getAvailable()
+                    && !c[2].getAvailable();
+            }
+        }, 5000);
+
+        p.destroy();
+        server.cleanup();
+        for (int i = 0; i < c.length; ++i) {
+            c[i].destroy();
+        }
+
+        Assert.assertArrayEquals(new int[] {1, 1, 1}, shards);
+        Assert.assertTrue(swept);
+    }
 }
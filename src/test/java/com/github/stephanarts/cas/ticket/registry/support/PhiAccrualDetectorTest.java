@@ -0,0 +1,85 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.support;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit test for PhiAccrualDetector.
+ */
+@RunWith(JUnit4.class)
+public class PhiAccrualDetectorTest {
+
+    private PhiAccrualDetector feed(final long[] intervals) {
+        PhiAccrualDetector detector = new PhiAccrualDetector();
+        long now = 1000;
+
+        detector.setHeartbeatInterval(1000);
+        detector.setHeartbeatTimeout(100);
+
+        detector.heartbeat(now);
+        for (int i = 0; i < 20; ++i) {
+            now += intervals[i % intervals.length];
+            detector.heartbeat(now);
+        }
+        return detector;
+    }
+
+    @Test
+    public void testNoHeartbeat() throws Exception {
+        PhiAccrualDetector detector = new PhiAccrualDetector();
+
+        Assert.assertFalse(detector.hasHeartbeat());
+        Assert.assertEquals(0.0, detector.phi(100000), 0.0);
+    }
+
+    @Test
+    public void testRegularHeartbeats() throws Exception {
+        PhiAccrualDetector detector = feed(new long[] {1000});
+        long last = 1000 + 20 * 1000;
+
+        Assert.assertTrue(detector.hasHeartbeat());
+
+        /* Next heartbeat due */
+        Assert.assertTrue(detector.phi(last + 1000) < 0.1);
+
+        /* One missed sweep is accepted */
+        Assert.assertTrue(detector.phi(last + 2100) < 1.0);
+
+        /* Two missed sweeps are not */
+        Assert.assertTrue(detector.phi(last + 4000) >= WatchDog.DEFAULT_PHI_THRESHOLD);
+    }
+
+    @Test
+    public void testIrregularHeartbeats() throws Exception {
+        PhiAccrualDetector detector = feed(new long[] {1000, 3000});
+        long last = 1000 + 10 * 1000 + 10 * 3000;
+
+        Assert.assertTrue(detector.phi(last + 4000) < WatchDog.DEFAULT_PHI_THRESHOLD);
+        Assert.assertTrue(detector.phi(last + 10000) >= WatchDog.DEFAULT_PHI_THRESHOLD);
+    }
+
+    @Test
+    public void testPhi() throws Exception {
+        Assert.assertEquals(-Math.log10(0.5), PhiAccrualDetector.phi(1000, 1000, 100), 0.001);
+        Assert.assertTrue(PhiAccrualDetector.phi(1100, 1000, 100) > PhiAccrualDetector.phi(1000, 1000, 100));
+        Assert.assertTrue(PhiAccrualDetector.phi(1000, 1000, 100) > PhiAccrualDetector.phi(900, 1000, 100));
+        Assert.assertTrue(Double.isInfinite(PhiAccrualDetector.phi(100000, 1000, 100)));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.support;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.json.JSONObject;
+
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.ServiceTicket;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Unit test for TicketCodecs.
+ */
+@RunWith(JUnit4.class)
+public class TicketCodecsTest
+{
+    @Test
+    public void testRoundTrip() throws Exception {
+        final String ticketId = "ST-1234567890ABCDEFGHIJKL-codec";
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+        when(ticket.getId()).thenReturn(ticketId);
+
+        for (TicketCodec codec: new TicketCodec[] {TicketCodecs.SERIALIZATION, TicketCodecs.DEFLATE}) {
+            Ticket t = codec.decode(codec.encode(ticket));
+            Assert.assertEquals(ticketId, t.getId());
+        }
+    }
+
+    @Test
+    public void testDeflate() throws Exception {
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+        when(ticket.getId()).thenReturn("ST-1234567890ABCDEFGHIJKL-codec");
+
+        byte[] plain = TicketCodecs.SERIALIZATION.encode(ticket);
+        byte[] deflated = TicketCodecs.DEFLATE.encode(ticket);
+
+        Assert.assertTrue(deflated.length < plain.length);
+    }
+
+    @Test
+    public void testDecodeInvalid() throws Exception {
+        try {
+            TicketCodecs.DEFLATE.decode(new byte[] {1, 2, 3});
+            Assert.fail("No Exception Thrown");
+        } catch (final java.io.IOException e) {
+        }
+    }
+
+    @Test
+    public void testAccepts() throws Exception {
+        final ServiceTicket ticket = mock(ServiceTicket.class, withSettings().serializable());
+        byte[] plain = TicketCodecs.SERIALIZATION.encode(ticket);
+        byte[] deflated = TicketCodecs.DEFLATE.encode(ticket);
+
+        Assert.assertTrue(TicketCodecs.SERIALIZATION.accepts(plain));
+        Assert.assertFalse(TicketCodecs.SERIALIZATION.accepts(deflated));
+        Assert.assertTrue(TicketCodecs.DEFLATE.accepts(deflated));
+        Assert.assertFalse(TicketCodecs.DEFLATE.accepts(plain));
+        Assert.assertFalse(TicketCodecs.DEFLATE.accepts(new byte[] {1, 2, 3}));
+        Assert.assertFalse(TicketCodecs.SERIALIZATION.accepts(new byte[0]));
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        Assert.assertSame(TicketCodecs.SERIALIZATION, TicketCodecs.get("java"));
+        Assert.assertSame(TicketCodecs.DEFLATE, TicketCodecs.get("deflate"));
+        Assert.assertNull(TicketCodecs.get("unknown"));
+        Assert.assertEquals(2, TicketCodecs.getNames().length());
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        final TicketCodec codec = mock(TicketCodec.class);
+        when(codec.getName()).thenReturn("custom");
+
+        TicketCodecs.register(codec);
+        try {
+            Assert.assertSame(codec, TicketCodecs.get("custom"));
+            Assert.assertEquals(3, TicketCodecs.getNames().length());
+            try {
+                TicketCodecs.register(codec);
+                Assert.fail("No Exception Thrown");
+            } catch (final IllegalArgumentException e) {
+            }
+        } finally {
+            TicketCodecs.unregister(codec);
+        }
+
+        Assert.assertNull(TicketCodecs.get("custom"));
+        Assert.assertEquals(2, TicketCodecs.getNames().length());
+    }
+
+    @Test
+    public void testFromParams() throws Exception {
+        JSONObject params = new JSONObject();
+
+        Assert.assertSame(TicketCodecs.SERIALIZATION, TicketCodecs.fromParams(params));
+
+        params.put("codec", "deflate");
+        Assert.assertSame(TicketCodecs.DEFLATE, TicketCodecs.fromParams(params));
+
+        params.put("codec", "unknown");
+        try {
+            TicketCodecs.fromParams(params);
+            Assert.fail("No Exception Thrown");
+        } catch (final JSONRPCException e) {
+            Assert.assertEquals(-32602, e.getCode());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.stephanarts.cas.ticket.registry.support;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.jasig.cas.ticket.TicketGrantingTicket;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for TicketVersion.
+ */
+@RunWith(JUnit4.class)
+public class TicketVersionTest
+{
+    @Test
+    public void testVersion() throws Exception {
+        final TicketGrantingTicket tgt = mock(TicketGrantingTicket.class);
+
+        when(tgt.getCountOfUses()).thenReturn(3);
+        long used = TicketVersion.of(tgt);
+
+        /* Logout expires the TGT without using it */
+        when(tgt.isExpired()).thenReturn(true);
+        long expired = TicketVersion.of(tgt);
+
+        when(tgt.getCountOfUses()).thenReturn(4);
+        long again = TicketVersion.of(tgt);
+
+        Assert.assertEquals(6, used);
+        Assert.assertTrue(expired > used);
+        Assert.assertTrue(again > expired);
+    }
+}
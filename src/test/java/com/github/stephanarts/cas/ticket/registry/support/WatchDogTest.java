@@ -45,15 +45,10 @@ import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.withSettings;
 import static org.mockito.Matchers.*;
 
-import org.powermock.api.mockito.PowerMockito;
-import org.powermock.core.classloader.annotations.PrepareForTest;
-import org.powermock.modules.junit4.PowerMockRunner;
-
 /**
  * Unit test for WatchDog.
  */
-@RunWith(PowerMockRunner.class)
-@PrepareForTest(WatchDog.class)
+@RunWith(JUnit4.class)
 public class WatchDogTest 
 {
 
@@ -62,8 +57,6 @@ public class WatchDogTest
      */
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
-    static String connectURI = new String("tcp://localhost:6666");
-
     private static class ResponseServer extends Thread {
         /**
          * Logging Class.
@@ -72,6 +65,11 @@ public class WatchDogTest
 
         Context context;
         Socket  socket;
+        String  bindUri;
+
+        ResponseServer(final String bindUri) {
+            this.bindUri = bindUri;
+        }
 
         public final void run() {
 
@@ -124,7 +122,7 @@ public class WatchDogTest
             this.context = ZMQ.context(1);
             this.socket = context.socket(ZMQ.ROUTER);
 
-            this.socket.bind(WatchDogTest.connectURI);
+            this.socket.bind(this.bindUri);
 
             logger.debug("START");
             super.start();
@@ -205,51 +203,210 @@ public class WatchDogTest
         w.cleanup();
     }
 
+    @Test
+    public void testPhiThreshold() throws Exception {
+        WatchDog w = new WatchDog();
+        w.start();
+
+        Assert.assertEquals(WatchDog.DEFAULT_PHI_THRESHOLD, w.getPhiThreshold(), 0.0);
+
+        w.setPhiThreshold(4.0);
+
+        Assert.assertEquals(4.0, w.getPhiThreshold(), 0.0);
+
+        w.cleanup();
+    }
+
     @Test
     public void testFailedHeartbeat() throws Exception {
-        boolean available;
-        ResponseServer server = new ResponseServer();
+        final String uri = Fixtures.freeAddress();
+        ResponseServer server = new ResponseServer(uri);
         WatchDog w = new WatchDog();
-        JSONRPCClient[] c = { new JSONRPCClient(connectURI, null)};
-        long responseTime = 0;
+        final JSONRPCClient[] c = { new JSONRPCClient(uri, null)};
 
-        responseTime = c[0].getResponseTime();
-        Assert.assertEquals(0, responseTime);
+        Assert.assertEquals(0, c[0].getResponseTime());
 
         w.setClients(c);
-        
 
         w.setHeartbeatTimeout(100);
         w.setHeartbeatInterval(100);
 
         w.start();
 
-        Thread.sleep(1000);
-        available = c[0].getAvailable();
-        if (available == true) {
-            w.cleanup();
-            Assert.fail("Watchdog did not set availability to false");
-        }
+        boolean failed = Fixtures.await(new Fixtures.Condition() {
+            public boolean holds() {
+                return !c[0].getAvailable();
+            }
+        }, 5000);
 
-        server.start();        
+        server.start();
 
         c[0].connect();
 
-        Thread.sleep(1000);
-        available = c[0].getAvailable();
-        if (available == false) {
-            c[0].disconnect();
-            w.cleanup();
-            server.interrupt();
-            Assert.fail("Watchdog did not set availability to true");
-        }
+        boolean recovered = Fixtures.await(new Fixtures.Condition() {
+            public boolean holds() {
+                return c[0].getAvailable();
+            }
+        }, 5000);
 
-        responseTime = c[0].getResponseTime();
-        Assert.assertNotEquals(0, responseTime);
+        /* Stored before the client is marked available */
+        long responseTime = c[0].getResponseTime();
 
         c[0].disconnect();
         w.cleanup();
         server.interrupt();
+
+        Assert.assertTrue("Watchdog did not set availability to false", failed);
+        Assert.assertTrue("Watchdog did not set availability to true", recovered);
+        Assert.assertTrue(responseTime > 0);
+    }
+
+    /**
+     * Start a WatchDog for the clients, and wait for its first sweep.
+     *
+     * @param clients  clients to send heartbeats to.
+     * @param timeout  heartbeatTimeout in milliseconds.
+     *
+     * @return duration of the first sweep in milliseconds.
+     */
+    private long firstSweep(
+            final JSONRPCClient[] clients,
+            final int timeout) throws Exception {
+        final WatchDog w = new WatchDog();
+
+        w.setClients(clients);
+        w.setHeartbeatTimeout(timeout);
+        w.setHeartbeatInterval(100);
+
+        w.start();
+
+        boolean swept = Fixtures.await(new Fixtures.Condition() {
+            public boolean holds() {
+                return w.getSweeps() > 0;
+            }
+        }, 5000);
+        long sweepTime = w.getSweepTime();
+
+        w.cleanup();
+
+        Assert.assertTrue("No sweep", swept);
+        return sweepTime;
+    }
+
+    @Test
+    public void testSweepTime() throws Exception {
+        final int timeout = 300;
+        JSONRPCServer server = new JSONRPCServer(Fixtures.freeAddress());
+        String[] dead = Fixtures.freeAddresses(6);
+        JSONRPCClient live = new JSONRPCClient(server.getBindUri(), null);
+        JSONRPCClient[] one = { live, new JSONRPCClient(dead[0], null) };
+        JSONRPCClient[] many = new JSONRPCClient[dead.length + 1];
+
+        many[0] = live;
+        for (int i = 0; i < dead.length; ++i) {
+            many[i + 1] = new JSONRPCClient(dead[i], null);
+        }
+
+        server.start();
+
+        long liveTime = firstSweep(new JSONRPCClient[] { live }, timeout);
+        long oneTime = firstSweep(one, timeout);
+        boolean[] states = new boolean[many.length];
+        long manyTime = firstSweep(many, timeout);
+        for (int i = 0; i < many.length; ++i) {
+            states[i] = many[i].getAvailable();
+        }
+
+        server.cleanup();
+
+        /* All replies in: the sweep ends before the timeout */
+        Assert.assertTrue("Sweep took " + liveTime + "ms", liveTime < timeout);
+
+        /* Missing replies: one timeout, whatever the number of clients */
+        Assert.assertTrue("Sweep took " + oneTime + "ms", oneTime >= timeout);
+        Assert.assertTrue("Sweep took " + oneTime + "ms", oneTime < 2 * timeout);
+        Assert.assertTrue("Sweep took " + manyTime + "ms", manyTime >= timeout);
+        Assert.assertTrue("Sweep took " + manyTime + "ms", manyTime < 2 * timeout);
+
+        Assert.assertTrue(states[0]);
+        for (int i = 1; i < states.length; ++i) {
+            Assert.assertFalse(states[i]);
+        }
+    }
+
+    @Test
+    public void testSkipHeartbeat() throws Exception {
+        JSONRPCServer server = new JSONRPCServer(Fixtures.freeAddress());
+        final WatchDog w = new WatchDog();
+        final JSONRPCClient[] c = { new JSONRPCClient(server.getBindUri(), null) };
+
+        server.start();
+        c[0].connect();
+        c[0].setResponseTime(12345);
+
+        w.setClients(c);
+        w.setHeartbeatTimeout(100);
+        w.setHeartbeatInterval(200);
+
+        w.start();
+
+        /* Keep the client busy, its replies replace the heartbeats */
+        boolean skipped = Fixtures.await(new Fixtures.Condition() {
+            public boolean holds() throws Exception {
+                c[0].call("rpc.capabilities", new JSONObject());
+                return w.getSkipped() > 0;
+            }
+        }, 5000);
+        boolean available = c[0].getAvailable();
+        long responseTime = c[0].getResponseTime();
+
+        w.cleanup();
+        c[0].destroy();
+        server.cleanup();
+
+        Assert.assertTrue(skipped);
+        Assert.assertTrue(available);
+
+        /* Not replaced by the latency of the requests */
+        Assert.assertEquals(12345, responseTime);
+    }
+
+    @Test
+    public void testErrorReplyHeartbeat() throws Exception {
+        JSONRPCServer server = new JSONRPCServer(Fixtures.freeAddress());
+        final WatchDog w = new WatchDog();
+        final JSONRPCClient[] c = { new JSONRPCClient(server.getBindUri(), null) };
+
+        server.start();
+        c[0].connect();
+
+        w.setClients(c);
+        w.setHeartbeatTimeout(100);
+        w.setHeartbeatInterval(200);
+
+        w.start();
+
+        /* Error replies do not replace the heartbeats */
+        boolean swept = Fixtures.await(new Fixtures.Condition() {
+            public boolean holds() throws Exception {
+                try {
+                    c[0].call("test.unknown", new JSONObject());
+                } catch (final JSONRPCException e) {
+                    Assert.assertEquals(-32601, e.getCode());
+                }
+                return w.getSweeps() >= 3;
+            }
+        }, 5000);
+        long skipped = w.getSkipped();
+        long lastReply = c[0].getLastReply();
+
+        w.cleanup();
+        c[0].destroy();
+        server.cleanup();
+
+        Assert.assertTrue(swept);
+        Assert.assertEquals(0, skipped);
+        Assert.assertEquals(0, lastReply);
     }
 
 }